@@ -0,0 +1,142 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch;
+
+import org.sonar.db.component.BranchType;
+
+/**
+ * Key of a component of a branch or pull request, split into the key of the component
+ * on the main branch and the suffix of its branch.
+ */
+public final class BranchComponentKey {
+
+    /**
+     * Separator between component key and branch name.
+     **/
+    public static final String BRANCH_SEPARATOR = ":BRANCH:";
+    /**
+     * Separator between component key and pull request id.
+     **/
+    public static final String PULL_REQUEST_SEPARATOR = ":PULL_REQUEST:";
+
+    private final String componentKey;
+    private final String suffix;
+
+    /**
+     * Constructor.
+     *
+     * @param componentKey Key of the component on the main branch.
+     * @param suffix       Suffix of the branch, empty for the main branch.
+     */
+    private BranchComponentKey(final String componentKey, final String suffix) {
+        this.componentKey = componentKey;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Build the suffix of a branch.
+     *
+     * @param branchType        Type of the branch.
+     * @param branchNameOrPrId  Name of the branch, or id of the pull request.
+     * @return The suffix.
+     */
+    public static String suffix(final BranchType branchType, final String branchNameOrPrId) {
+        final String separator = branchType == BranchType.PULL_REQUEST ? PULL_REQUEST_SEPARATOR : BRANCH_SEPARATOR;
+        return separator + branchNameOrPrId;
+    }
+
+    /**
+     * Build the suffix of a branch which is not a pull request.
+     * Unlike {@link #suffix(BranchType, String)}, usable on scanner side.
+     *
+     * @param branchName Name of the branch.
+     * @return The suffix.
+     */
+    public static String branchSuffix(final String branchName) {
+        return BRANCH_SEPARATOR + branchName;
+    }
+
+    /**
+     * Create a key.
+     *
+     * @param componentKey Key of the component on the main branch.
+     * @param suffix       Suffix of the branch as built by {@link #suffix(BranchType, String)}, empty for the main branch.
+     * @return The key.
+     */
+    public static BranchComponentKey of(final String componentKey, final String suffix) {
+        return new BranchComponentKey(componentKey, suffix);
+    }
+
+    /**
+     * Split a full key into component key and branch suffix.
+     *
+     * @param key Full key of a component.
+     * @return The key.
+     */
+    public static BranchComponentKey parse(final String key) {
+        int index = key.lastIndexOf(PULL_REQUEST_SEPARATOR);
+        if (index < 0) {
+            index = key.lastIndexOf(BRANCH_SEPARATOR);
+        }
+        if (index < 0) {
+            return new BranchComponentKey(key, "");
+        } else {
+            return new BranchComponentKey(key.substring(0, index), key.substring(index));
+        }
+    }
+
+    /**
+     * @return Key of the component on the main branch.
+     */
+    public String getComponentKey() {
+        return this.componentKey;
+    }
+
+    /**
+     * @return Suffix of the branch, empty for the main branch.
+     */
+    public String getSuffix() {
+        return this.suffix;
+    }
+
+    /**
+     * Build the full key.
+     *
+     * @return The key as stored in database.
+     */
+    @Override
+    public String toString() {
+        return this.suffix.isEmpty() ? this.componentKey : this.componentKey.concat(this.suffix);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        } else if (other == null || getClass() != other.getClass()) {
+            return false;
+        } else {
+            final BranchComponentKey key = (BranchComponentKey) other;
+            return this.componentKey.equals(key.componentKey) && this.suffix.equals(key.suffix);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.componentKey.hashCode() + this.suffix.hashCode();
+    }
+}
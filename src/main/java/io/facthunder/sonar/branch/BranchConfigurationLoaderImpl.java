@@ -70,14 +70,14 @@ public class BranchConfigurationLoaderImpl implements BranchConfigurationLoader
             checkPropertiesForPullRequestAnalysis(map);
             final String pullRequestKey = StringUtils.trimToNull(map.get("sonar.pullrequest.key"));
             branchName = StringUtils.trimToNull(map.get("sonar.pullrequest.branch"));
-            targetName = StringUtils.trimToNull(map.get("sonar.pullrequest.base"));
+            targetName = resolveBranchName(StringUtils.trimToNull(map.get("sonar.pullrequest.base")), map, supplier, projectBranches);
             return getBranchConfiguration(pullRequestKey, branchName, targetName, projectBranches, projectPullRequests);
         } else {
             final boolean var6 = BRANCH_PROPERTIES_SET.stream().anyMatch(var1x -> StringUtils.trimToNull(map.get(var1x)) != null);
             if (var6) {
-                branchName = StringUtils.trimToNull(map.get("sonar.branch.name"));
-                targetName = StringUtils.trimToNull(map.get("sonar.branch.target"));
                 checkPropertiesForBranchAnalysis(map);
+                branchName = resolveBranchName(StringUtils.trimToNull(map.get("sonar.branch.name")), map, supplier, projectBranches);
+                targetName = resolveBranchName(StringUtils.trimToNull(map.get("sonar.branch.target")), map, supplier, projectBranches);
                 return getBranchConfiguration(branchName, targetName, supplier, projectBranches);
             } else {
                 return new DefaultBranchConfiguration();
@@ -85,6 +85,44 @@ public class BranchConfigurationLoaderImpl implements BranchConfigurationLoader
         }
     }
 
+    /**
+     * Resolve a branch name to the name of a known branch, when they only differ by a prefix
+     * such as {@code refs/heads/} or {@code origin/}, if matching aliases is enabled. Exact names are looked up first.
+     *
+     * @param branchName      Name of the branch, as given to the analysis.
+     * @param map             Analysis properties.
+     * @param supplier        Supplier of the project settings, only called when the exact lookup misses.
+     * @param projectBranches Branches known by the server.
+     * @return Name of the known branch, the given name if none matches.
+     */
+    private static String resolveBranchName(final String branchName, final Map<String, String> map,
+                                            final Supplier<Map<String, String>> supplier, final ProjectBranches projectBranches) {
+        if (branchName == null || !(projectBranches instanceof IndexedProjectBranches) || projectBranches.get(branchName) != null) {
+            return branchName;
+        }
+        Map<String, String> settings = null;
+        String enabled = map.get(BranchPropertyDefinition.NORMALIZATION_ENABLED);
+        if (enabled == null) {
+            settings = supplier.get();
+            enabled = settings.get(BranchPropertyDefinition.NORMALIZATION_ENABLED);
+        }
+        if (!Boolean.parseBoolean(enabled)) {
+            return branchName;
+        }
+        String prefixes = map.get(BranchPropertyDefinition.NORMALIZATION_PREFIXES);
+        if (prefixes == null) {
+            prefixes = (settings == null ? supplier.get() : settings).get(BranchPropertyDefinition.NORMALIZATION_PREFIXES);
+        }
+        return ((IndexedProjectBranches) projectBranches).getNameIndex(BranchNameIndex.parsePrefixes(prefixes))
+                .resolve(branchName)
+                .map(match -> {
+                    LOGGER.info("Branch '{}' resolved to existing branch '{}' through normalized name '{}'",
+                            match.getAlias(), match.getName(), match.getNormalizedName());
+                    return match.getName();
+                })
+                .orElse(branchName);
+    }
+
     private static BranchConfiguration getBranchConfiguration(final String branchName, String branchTarget,
                                                               final Supplier<Map<String, String>> supplier, final ProjectBranches projectBranches) {
         if (projectBranches.isEmpty()) {
@@ -208,6 +246,13 @@ public class BranchConfigurationLoaderImpl implements BranchConfigurationLoader
         }
     }
 
+    /**
+     * Get the type of a branch not yet analyzed, from its name.
+     *
+     * @param supplier   Supplier of the project settings.
+     * @param branchName Name of the branch.
+     * @return LONG if the name matches the long living branch regular expression, SHORT otherwise.
+     */
     private static BranchType getBranchTypeFromBranchName(final Supplier<Map<String, String>> supplier, final String branchName) {
         final Map<String, String> config = supplier.get();
         String longBranchRegex = config.get("sonar.branch.longLivedBranches.regex");
@@ -0,0 +1,81 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch;
+
+import org.sonar.api.config.Configuration;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+
+/**
+ * Resolve the directory where the plugin stores its own data.
+ * Web server and compute engine share the same data directory, so files
+ * written by one process can be read by the other.
+ */
+public final class BranchDataDirectory {
+
+    /**
+     * Property defining SonarQube data directory.
+     **/
+    private static final String DATA_PATH_PROPERTY = "sonar.path.data";
+    /**
+     * Name of the plugin directory inside SonarQube data directory.
+     **/
+    private static final String PLUGIN_DIRECTORY = "branch-plugin";
+
+    /**
+     * Private constructor.
+     */
+    private BranchDataDirectory() {
+
+    }
+
+    /**
+     * Resolve a path inside the plugin data directory.
+     *
+     * @param configuration Configuration of the running process.
+     * @param first         First element of the path.
+     * @param more          Other elements of the path.
+     * @return The resolved path, not necessarily existing.
+     */
+    public static Path resolve(final Configuration configuration, final String first, final String... more) {
+        final String dataPath = configuration.get(DATA_PATH_PROPERTY).orElse("data");
+        return Paths.get(dataPath, PLUGIN_DIRECTORY).resolve(Paths.get(first, more));
+    }
+
+    /**
+     * Encode a name (branch name, key...) so it can be used as a file name.
+     *
+     * @param name Name to encode.
+     * @return A file name safe on every file system.
+     */
+    public static String encode(final String name) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a file name built by {@link #encode(String)}.
+     *
+     * @param fileName File name, without extension.
+     * @return The encoded name.
+     */
+    public static String decode(final String fileName) {
+        return new String(Base64.getUrlDecoder().decode(fileName), StandardCharsets.UTF_8);
+    }
+}
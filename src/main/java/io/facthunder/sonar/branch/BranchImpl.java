@@ -33,14 +33,15 @@ import java.util.regex.Pattern;
  */
 public class BranchImpl implements Branch {
 
-    private static final String BRANCH_KEY_ATTRIBUTE = ":BRANCH:";
-    private static final String PR_KEY_ATTRIBUTE = ":PULL_REQUEST:";
+    private static final String BRANCH_KEY_ATTRIBUTE = BranchComponentKey.BRANCH_SEPARATOR;
+    private static final String PR_KEY_ATTRIBUTE = BranchComponentKey.PULL_REQUEST_SEPARATOR;
     private static final Pattern BRANCH_PATTERN = Pattern.compile(BRANCH_KEY_ATTRIBUTE + "|" + PR_KEY_ATTRIBUTE);
     private final BranchType branchType;
     private final boolean isMasterBranch;
     private final String pullRequestId;
     private final String mergeBranchUuid;
     private final String branchKey;
+    private final String keySuffix;
 
     /**
      * Constructor for trivial branch request.
@@ -78,6 +79,12 @@ public class BranchImpl implements Branch {
         } else {
             this.pullRequestId = pullRequestId;
         }
+
+        if (isMasterBranch) {
+            this.keySuffix = "";
+        } else {
+            this.keySuffix = BranchComponentKey.suffix(branchType, branchType == BranchType.PULL_REQUEST ? pullRequestId : branchKey);
+        }
     }
 
     /**
@@ -121,6 +128,10 @@ public class BranchImpl implements Branch {
     }
 
     /**
+     * Only the main branch takes part in cross-project duplication detection: the compute engine looks for
+     * duplicated blocks in the last analyses of all other projects and branches, so blocks of a long living
+     * branch would match the identical blocks of the other branches of its own project.
+     *
      * @see Branch
      */
     @Override
@@ -149,27 +160,13 @@ public class BranchImpl implements Branch {
      */
     @Override
     public String generateKey(final Component module, final Component fileOrDir) {
-        String key;
+        final String key;
         if (fileOrDir == null) {
             key = module.getKey();
         } else {
             key = ComponentKeys.createEffectiveKey(module.getKey(), StringUtils.trimToNull(fileOrDir.getPath()));
         }
 
-        if (this.isMasterBranch) {
-            return key;
-        } else {
-            String prOrBranch;
-            String prIdOrBranchKey;
-            if (this.branchType == BranchType.PULL_REQUEST) {
-                prOrBranch = PR_KEY_ATTRIBUTE;
-                prIdOrBranchKey = this.pullRequestId;
-            } else {
-                prOrBranch = BRANCH_KEY_ATTRIBUTE;
-                prIdOrBranchKey = this.branchKey;
-            }
-
-            return String.format("%s%s%s", key, prOrBranch, prIdOrBranchKey);
-        }
+        return this.isMasterBranch ? key : key.concat(this.keySuffix);
     }
 }
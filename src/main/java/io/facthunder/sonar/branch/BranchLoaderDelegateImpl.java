@@ -17,6 +17,8 @@
 package io.facthunder.sonar.branch;
 
 import com.google.common.base.Preconditions;
+import io.facthunder.sonar.branch.archive.BranchArchive;
+import io.facthunder.sonar.branch.events.ResolvedBranchHolder;
 import org.apache.commons.lang.StringUtils;
 import org.sonar.api.utils.MessageException;
 import org.sonar.db.DbClient;
@@ -39,16 +41,27 @@ import java.util.Optional;
 public class BranchLoaderDelegateImpl implements BranchLoaderDelegate {
     private final DbClient dbClient;
     private final MutableAnalysisMetadataHolder mutableAnalysisMetadataHolder;
+    private final BranchMetadataCache branchMetadataCache;
+    private final ResolvedBranchHolder resolvedBranchHolder;
+    private final BranchArchive branchArchive;
 
     /**
      * Constructor.
      *
      * @param dbClient                      Client to join the database.
      * @param mutableAnalysisMetadataHolder Service for handle metadata of analysis.
+     * @param branchMetadataCache           Cache of long living branches.
+     * @param resolvedBranchHolder          Holder of what is found out while resolving the branch, for branch events.
+     * @param branchArchive                 Archive of inactive branches, restored when analyzed again.
      */
-    public BranchLoaderDelegateImpl(final DbClient dbClient, final MutableAnalysisMetadataHolder mutableAnalysisMetadataHolder) {
+    public BranchLoaderDelegateImpl(final DbClient dbClient, final MutableAnalysisMetadataHolder mutableAnalysisMetadataHolder,
+                                    final BranchMetadataCache branchMetadataCache, final ResolvedBranchHolder resolvedBranchHolder,
+                                    final BranchArchive branchArchive) {
         this.dbClient = dbClient;
         this.mutableAnalysisMetadataHolder = mutableAnalysisMetadataHolder;
+        this.branchMetadataCache = branchMetadataCache;
+        this.resolvedBranchHolder = resolvedBranchHolder;
+        this.branchArchive = branchArchive;
     }
 
     /**
@@ -111,6 +124,7 @@ public class BranchLoaderDelegateImpl implements BranchLoaderDelegate {
         final Optional<BranchDto> optionalBranchDto = this.selectMainBranch(project.getUuid());
         Preconditions.checkState(optionalBranchDto.isPresent(), "Couldn't find main branch for project '%s'", new Object[]{project.getKey()});
         final String branchKey = (optionalBranchDto.get()).getKey();
+        this.resolvedBranchHolder.setExisted(true);
         return new BranchImpl(BranchType.LONG, true, branchKey);
     }
 
@@ -128,7 +142,9 @@ public class BranchLoaderDelegateImpl implements BranchLoaderDelegate {
         if (branchDto.isPresent()) {
             checkBranchTypeValidity(branchDto.get(), branchType);
             isMasterBranch = (branchDto.get()).isMain();
+            this.restoreIfArchived(branchDto.get());
         }
+        this.resolvedBranchHolder.setExisted(branchDto.isPresent());
 
         final String mergeBranchUuid = this.getMergeBranchUuidByKey(mergeBranchKey);
         return new BranchImpl(branchType, isMasterBranch, branchKey, mergeBranchUuid, null);
@@ -143,6 +159,8 @@ public class BranchLoaderDelegateImpl implements BranchLoaderDelegate {
      * @return A server side Branch.
      */
     private Branch getBranch(final String pullRequestId, final String branchKey, final String mergeBranchKey) {
+        // pull requests are not looked up: whether they existed is checked once the analysis succeeded
+        this.resolvedBranchHolder.setExisted(null);
         return new BranchImpl(BranchType.PULL_REQUEST, false, branchKey, this.getMergeBranchUuidByKey(mergeBranchKey), pullRequestId);
     }
 
@@ -184,10 +202,24 @@ public class BranchLoaderDelegateImpl implements BranchLoaderDelegate {
             Preconditions.checkState(optionalBranchDto.isPresent(), "Merge branch '%s' does not exist", new Object[]{key});
             BranchDto branchDto = optionalBranchDto.get();
             Preconditions.checkState(branchDto.getBranchType() == BranchType.LONG, "Invalid merge branch '%s': it must be a long branch but it is '%s'", new Object[]{key, branchDto.getBranchType()});
+            this.restoreIfArchived(branchDto);
             return branchDto.getUuid();
         }
     }
 
+    /**
+     * Restore an archived branch, so that the analysis finds its components and issues.
+     *
+     * @param branchDto Branch to restore.
+     */
+    private void restoreIfArchived(final BranchDto branchDto) {
+        if (this.branchArchive.isArchived(branchDto.getProjectUuid(), branchDto.getUuid())) {
+            try (DbSession dbSession = this.dbClient.openSession(false)) {
+                this.branchArchive.restore(dbSession, branchDto.getProjectUuid(), branchDto.getUuid());
+            }
+        }
+    }
+
     /**
      * Get the branch named 'key' on project 'projectUuid' from database.
      *
@@ -196,6 +228,11 @@ public class BranchLoaderDelegateImpl implements BranchLoaderDelegate {
      * @return The wanted branch in an Optional.
      */
     private Optional<BranchDto> selectBranchByKey(final String projectUuid, final String key) {
+        final Optional<BranchDto> cachedBranchDto = this.branchMetadataCache.getByKey(projectUuid, key);
+        if (cachedBranchDto.isPresent()) {
+            return cachedBranchDto;
+        }
+
         final DbSession dbSession = this.dbClient.openSession(false);
         Throwable throwable = null;
 
@@ -231,6 +268,11 @@ public class BranchLoaderDelegateImpl implements BranchLoaderDelegate {
      * @return The main branch in an Optional.
      */
     private Optional<BranchDto> selectMainBranch(final String uuid) {
+        final Optional<BranchDto> cachedBranchDto = this.branchMetadataCache.getMain(uuid);
+        if (cachedBranchDto.isPresent()) {
+            return cachedBranchDto;
+        }
+
         final DbSession dbSession = this.dbClient.openSession(false);
         Throwable throwable = null;
 
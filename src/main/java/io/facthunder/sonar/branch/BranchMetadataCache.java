@@ -0,0 +1,291 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch;
+
+import io.facthunder.sonar.branch.listcache.BranchListStamps;
+import org.picocontainer.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+import org.sonar.db.component.BranchType;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of long living branches, filled at compute engine startup with the branches
+ * of the most recently analyzed projects, so the first tasks after a restart don't
+ * all query the database for them.
+ * When on-demand loading is enabled, the long living branches of a project missing from the cache
+ * are loaded the first time one of its tasks needs them. All workers of the compute engine share
+ * this cache, so following tasks of the project hit it whichever worker runs them, and concurrent
+ * tasks of the same project wait for a single load instead of querying the database each.
+ * Entries expire after a fixed delay, and as soon as the branches of their project change,
+ * as recorded by {@link BranchListStamps}.
+ */
+@ComputeEngineSide
+public class BranchMetadataCache implements Startable {
+
+    private static final Logger LOGGER = Loggers.get(BranchMetadataCache.class);
+    /**
+     * Time during which loaded branches are served from the cache.
+     **/
+    private static final long TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(15);
+    /**
+     * Number of projects whose branches are loaded by a single query.
+     **/
+    private static final int PROJECTS_PER_QUERY = 50;
+    private static final String SELECT_RECENT_PROJECTS = "select pb.project_uuid from snapshots s"
+            + " inner join project_branches pb on pb.uuid = s.component_uuid"
+            + " where s.islast = ? order by s.created_at desc";
+    private static final String SELECT_LONG_BRANCHES = "select uuid, project_uuid, kee, merge_branch_uuid from project_branches"
+            + " where branch_type = ? and project_uuid in (%s)";
+
+    private final DbClient dbClient;
+    private final Configuration configuration;
+    private final System2 system2;
+    private final BranchListStamps stamps;
+    private final Map<String, CachedBranches> branchesByProject = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient      Client to join the database.
+     * @param configuration Configuration of the compute engine.
+     * @param system2       Access to system clock.
+     * @param stamps        Versions of the branch lists of projects.
+     */
+    public BranchMetadataCache(final DbClient dbClient, final Configuration configuration, final System2 system2,
+                               final BranchListStamps stamps) {
+        this.dbClient = dbClient;
+        this.configuration = configuration;
+        this.system2 = system2;
+        this.stamps = stamps;
+    }
+
+    /**
+     * Load branches if warm-up is enabled.
+     */
+    @Override
+    public void start() {
+        if (this.configuration.getBoolean(BranchPropertyDefinition.WARMUP_ENABLED).orElse(false)) {
+            final int maxProjects = this.configuration.getInt(BranchPropertyDefinition.WARMUP_PROJECTS).orElse(100);
+            final long timeout = TimeUnit.SECONDS.toMillis(this.configuration.getLong(BranchPropertyDefinition.WARMUP_TIMEOUT).orElse(30L));
+            try {
+                this.warmUp(maxProjects, timeout);
+            } catch (final SQLException | RuntimeException e) {
+                LOGGER.warn("Branch metadata warm-up failed - continuing without it", e);
+                this.branchesByProject.clear();
+            }
+        }
+    }
+
+    /**
+     * Release loaded branches.
+     */
+    @Override
+    public void stop() {
+        this.branchesByProject.clear();
+    }
+
+    /**
+     * Get a long living branch from the cache.
+     *
+     * @param projectUuid UUID of the project.
+     * @param key         Key of the branch.
+     * @return The branch, empty if it is not in cache.
+     */
+    public Optional<BranchDto> getByKey(final String projectUuid, final String key) {
+        return Optional.ofNullable(this.getBranches(projectUuid).get(key));
+    }
+
+    /**
+     * Get the main branch of a project from the cache.
+     *
+     * @param projectUuid UUID of the project.
+     * @return The main branch, empty if it is not in cache.
+     */
+    public Optional<BranchDto> getMain(final String projectUuid) {
+        return this.getBranches(projectUuid).values().stream().filter(BranchDto::isMain).findFirst();
+    }
+
+    private Map<String, BranchDto> getBranches(final String projectUuid) {
+        final String stamp = this.stamps.current(projectUuid);
+        CachedBranches cachedBranches = this.branchesByProject.get(projectUuid);
+        if (cachedBranches != null && (this.system2.now() > cachedBranches.expirationDate || !stamp.equals(cachedBranches.stamp))) {
+            this.branchesByProject.remove(projectUuid, cachedBranches);
+            cachedBranches = null;
+        }
+        if (cachedBranches == null && this.configuration.getBoolean(BranchPropertyDefinition.WARMUP_ON_DEMAND).orElse(false)) {
+            cachedBranches = this.loadOnDemand(projectUuid, stamp);
+        }
+        if (cachedBranches == null) {
+            return Collections.emptyMap();
+        }
+        try {
+            return cachedBranches.branches.join();
+        } catch (final CompletionException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Load long living branches of a project missing from the cache.
+     * Tasks of the same project requesting them concurrently wait for a single load,
+     * which runs outside of any lock of the cache.
+     *
+     * @param projectUuid UUID of the project.
+     * @param stamp       Version of the branches of the project, read before loading them.
+     * @return Branches being loaded, null if the cache is full.
+     */
+    private CachedBranches loadOnDemand(final String projectUuid, final String stamp) {
+        final int maxProjects = this.configuration.getInt(BranchPropertyDefinition.WARMUP_PROJECTS).orElse(100);
+        if (this.branchesByProject.size() >= maxProjects) {
+            final long now = this.system2.now();
+            this.branchesByProject.values().removeIf(cachedBranches -> now > cachedBranches.expirationDate);
+            if (this.branchesByProject.size() >= maxProjects) {
+                return null;
+            }
+        }
+        final CachedBranches loading = new CachedBranches(new CompletableFuture<>(), stamp, this.system2.now() + TIME_TO_LIVE);
+        final CachedBranches concurrent = this.branchesByProject.putIfAbsent(projectUuid, loading);
+        if (concurrent != null) {
+            return concurrent;
+        }
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final Map<String, BranchDto> branches = loadBranches(dbSession, Collections.singletonList(projectUuid))
+                    .getOrDefault(projectUuid, Collections.emptyMap());
+            LOGGER.debug("Branch metadata: {} branches of project '{}' loaded on demand", branches.size(), projectUuid);
+            loading.branches.complete(branches);
+        } catch (final SQLException | RuntimeException e) {
+            LOGGER.warn("Branch metadata of project '{}' could not be loaded on demand - reading the database", projectUuid, e);
+            this.branchesByProject.remove(projectUuid, loading);
+            loading.branches.completeExceptionally(e);
+        }
+        return loading;
+    }
+
+    /**
+     * Load long living branches of the most recently analyzed projects.
+     *
+     * @param maxProjects Maximum number of projects to load.
+     * @param timeout     Maximum duration of the warm-up, in milliseconds.
+     * @throws SQLException If a query fails.
+     */
+    private void warmUp(final int maxProjects, final long timeout) throws SQLException {
+        final long start = this.system2.now();
+        final long deadline = start + timeout;
+        final Map<String, Map<String, BranchDto>> loaded = new HashMap<>();
+        final Map<String, String> stampsByProject = new HashMap<>();
+        boolean timedOut = false;
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final List<String> projectUuids = new ArrayList<>(selectRecentProjects(dbSession, maxProjects));
+            projectUuids.forEach(projectUuid -> stampsByProject.put(projectUuid, this.stamps.current(projectUuid)));
+            int loadedProjects = 0;
+            while (loadedProjects < projectUuids.size() && !timedOut) {
+                final List<String> projects = projectUuids.subList(loadedProjects, Math.min(loadedProjects + PROJECTS_PER_QUERY, projectUuids.size()));
+                loaded.putAll(loadBranches(dbSession, projects));
+                loadedProjects += projects.size();
+                timedOut = this.system2.now() > deadline;
+            }
+            final long expirationDate = this.system2.now() + TIME_TO_LIVE;
+            loaded.forEach((projectUuid, branches) -> this.branchesByProject.put(projectUuid,
+                    new CachedBranches(CompletableFuture.completedFuture(branches), stampsByProject.get(projectUuid), expirationDate)));
+            final int branchCount = loaded.values().stream().mapToInt(Map::size).sum();
+            LOGGER.info("Branch metadata warm-up: {} branches of {}/{} projects loaded in {} ms{}", branchCount,
+                    loadedProjects, projectUuids.size(), this.system2.now() - start, timedOut ? " (time bound reached)" : "");
+        }
+    }
+
+    /**
+     * Select the most recently analyzed projects, streaming analyses until enough projects are found.
+     */
+    private static Set<String> selectRecentProjects(final DbSession dbSession, final int maxProjects) throws SQLException {
+        final Set<String> projectUuids = new LinkedHashSet<>();
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(SELECT_RECENT_PROJECTS)) {
+            statement.setFetchSize(PROJECTS_PER_QUERY);
+            statement.setBoolean(1, true);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (projectUuids.size() < maxProjects && resultSet.next()) {
+                    projectUuids.add(resultSet.getString(1));
+                }
+            }
+        }
+        return projectUuids;
+    }
+
+    /**
+     * Load long living branches of some projects.
+     *
+     * @return Loaded branches by key, grouped by project UUID.
+     */
+    private static Map<String, Map<String, BranchDto>> loadBranches(final DbSession dbSession, final List<String> projectUuids) throws SQLException {
+        final String sql = String.format(SELECT_LONG_BRANCHES, String.join(",", Collections.nCopies(projectUuids.size(), "?")));
+        final Map<String, Map<String, BranchDto>> branchesByProject = new HashMap<>();
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(sql)) {
+            statement.setString(1, BranchType.LONG.name());
+            for (int i = 0; i < projectUuids.size(); i++) {
+                statement.setString(2 + i, projectUuids.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    final BranchDto branchDto = new BranchDto()
+                            .setUuid(resultSet.getString(1))
+                            .setProjectUuid(resultSet.getString(2))
+                            .setKey(resultSet.getString(3))
+                            .setMergeBranchUuid(resultSet.getString(4))
+                            .setBranchType(BranchType.LONG);
+                    branchesByProject.computeIfAbsent(branchDto.getProjectUuid(), k -> new HashMap<>()).put(branchDto.getKey(), branchDto);
+                }
+            }
+        }
+        return branchesByProject;
+    }
+
+    /**
+     * Long living branches of a project, by key, with the version they were loaded at and their expiration date.
+     */
+    private static class CachedBranches {
+        private final CompletableFuture<Map<String, BranchDto>> branches;
+        private final String stamp;
+        private final long expirationDate;
+
+        private CachedBranches(final CompletableFuture<Map<String, BranchDto>> branches, final String stamp, final long expirationDate) {
+            this.branches = branches;
+            this.stamp = stamp;
+            this.expirationDate = expirationDate;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Index of the branch names of a project by normalized name.
+ *
+ * CI systems name the same branch differently, e.g. {@code refs/heads/feature/x}, {@code origin/feature/x}
+ * or {@code feature/x}. Names are normalized by removing the longest configured prefix, so that all these
+ * aliases resolve in constant time to the branch already known by the server.
+ */
+public final class BranchNameIndex {
+
+    /**
+     * Prefixes removed by default from branch names.
+     **/
+    public static final String DEFAULT_PREFIXES = "refs/heads/,refs/remotes/origin/,origin/";
+
+    private final List<String> prefixes;
+    private final Map<String, String> names;
+
+    /**
+     * Constructor.
+     *
+     * @param branchNames Names of the branches known by the server.
+     * @param prefixes    Prefixes removed from names before matching them, an empty list to disable normalization.
+     */
+    public BranchNameIndex(final Collection<String> branchNames, final Collection<String> prefixes) {
+        this.prefixes = Collections.unmodifiableList(prefixes.stream()
+                .map(String::trim)
+                .filter(prefix -> !prefix.isEmpty())
+                .distinct()
+                .sorted(Comparator.comparingInt(String::length).reversed())
+                .collect(Collectors.toList()));
+        this.names = new HashMap<>(branchNames.size() * 2);
+        for (final String name : branchNames) {
+            final String normalized = this.normalize(name);
+            // a branch already named by the normalized form wins over branches created with an alias
+            if (normalized.equals(name)) {
+                this.names.put(normalized, name);
+            } else {
+                this.names.putIfAbsent(normalized, name);
+            }
+        }
+    }
+
+    /**
+     * Parse a comma separated list of prefixes.
+     *
+     * @param value Value of the normalization property, null to use the default prefixes.
+     * @return Prefixes, empty if normalization is disabled.
+     */
+    public static List<String> parsePrefixes(final String value) {
+        final String prefixes = value == null ? DEFAULT_PREFIXES : value;
+        return Arrays.stream(prefixes.split(","))
+                .map(String::trim)
+                .filter(prefix -> !prefix.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Remove the longest matching prefix from a branch name.
+     *
+     * @param name Name of the branch.
+     * @return Normalized name, the name itself if no prefix matches.
+     */
+    public String normalize(final String name) {
+        for (final String prefix : this.prefixes) {
+            if (name.length() > prefix.length() && name.startsWith(prefix)) {
+                return name.substring(prefix.length());
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Find the known branch sharing the normalized name of a branch.
+     *
+     * @param name Name of the branch, as given to the analysis.
+     * @return The match, empty if no known branch shares the normalized name.
+     */
+    public Optional<Match> resolve(final String name) {
+        final String normalized = this.normalize(name);
+        final String known = this.names.get(normalized);
+        return known == null ? Optional.empty() : Optional.of(new Match(name, known, normalized));
+    }
+
+    /**
+     * @return Prefixes removed from names, longest first.
+     */
+    public List<String> getPrefixes() {
+        return this.prefixes;
+    }
+
+    /**
+     * A branch name resolved to a known branch through their normalized name.
+     */
+    public static final class Match {
+
+        private final String alias;
+        private final String name;
+        private final String normalizedName;
+
+        /**
+         * Constructor.
+         *
+         * @param alias          Name of the branch, as given to the analysis.
+         * @param name           Name of the known branch.
+         * @param normalizedName Normalized name shared by both.
+         */
+        Match(final String alias, final String name, final String normalizedName) {
+            this.alias = alias;
+            this.name = name;
+            this.normalizedName = normalizedName;
+        }
+
+        /**
+         * @return Name of the branch, as given to the analysis.
+         */
+        public String getAlias() {
+            return this.alias;
+        }
+
+        /**
+         * @return Name of the known branch.
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return Normalized name shared by the alias and the known branch.
+         */
+        public String getNormalizedName() {
+            return this.normalizedName;
+        }
+    }
+}
@@ -16,7 +16,36 @@
  */
 package io.facthunder.sonar.branch;
 
+import io.facthunder.sonar.branch.archive.BranchArchive;
+import io.facthunder.sonar.branch.archive.BranchArchiveFilter;
+import io.facthunder.sonar.branch.archive.BranchRestorer;
+import io.facthunder.sonar.branch.batch.BatchBranchMetadata;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.decoration.DecorationQueue;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.listcache.BranchListCacheFilter;
+import io.facthunder.sonar.branch.listcache.BranchListStamps;
 import io.facthunder.sonar.branch.pr.ProjectPullRequestsLoaderImpl;
+import io.facthunder.sonar.branch.profile.BranchAnalysisProfileBuilder;
+import io.facthunder.sonar.branch.profile.BranchAnalysisProfileIssueFilter;
+import io.facthunder.sonar.branch.retention.SnapshotRetentionJob;
+import io.facthunder.sonar.branch.scm.ReferenceBranchScmProvider;
+import io.facthunder.sonar.branch.scm.TargetBlameScmProvider;
+import io.facthunder.sonar.branch.scm.TargetBranchSources;
+import io.facthunder.sonar.branch.summary.BranchSummaryReconciler;
+import io.facthunder.sonar.branch.summary.BranchSummaryStore;
+import io.facthunder.sonar.branch.ws.AnalysisHistoryAction;
+import io.facthunder.sonar.branch.ws.ArchiveBranchesAction;
+import io.facthunder.sonar.branch.ws.BranchComponentsAction;
+import io.facthunder.sonar.branch.ws.BranchEventsAction;
+import io.facthunder.sonar.branch.ws.BranchHierarchyAction;
+import io.facthunder.sonar.branch.ws.BranchPluginWs;
+import io.facthunder.sonar.branch.ws.BranchSummariesAction;
+import io.facthunder.sonar.branch.ws.BulkDeleteAction;
+import io.facthunder.sonar.branch.ws.CompareBranchesAction;
+import io.facthunder.sonar.branch.ws.ProjectBranchesBatchAction;
+import io.facthunder.sonar.branch.ws.TargetBlameAction;
 import org.sonar.api.Plugin;
 import org.sonar.api.SonarQubeSide;
 
@@ -43,13 +72,49 @@ public final class BranchPlugin implements Plugin {
 
         if (sonarQubeSide == SonarQubeSide.COMPUTE_ENGINE) {
             context.addExtension(ReportAnalysisComponentProviderImpl.class);
+            context.addExtension(BranchSummaryStore.class);
+            context.addExtension(BranchListStamps.class);
+            context.addExtension(BranchEventLog.class);
+            context.addExtension(BranchMetadataCache.class);
+            context.addExtension(BranchArchive.class);
+            context.addExtension(BranchHierarchyStore.class);
+            context.addExtension(SnapshotRetentionJob.class);
+            context.addExtension(BranchComponentStore.class);
+            context.addExtension(BranchSummaryReconciler.class);
+            context.addExtension(DecorationQueue.class);
         } else if (sonarQubeSide == SonarQubeSide.SCANNER) {
             context.addExtension(BranchParamsValidatorImpl.class);
             context.addExtension(BranchConfigurationLoaderImpl.class);
             context.addExtension(ProjectBranchesLoaderImpl.class);
             context.addExtension(ProjectPullRequestsLoaderImpl.class);
+            context.addExtension(BatchBranchMetadata.class);
+            context.addExtension(TargetBranchSources.class);
+            context.addExtension(ReferenceBranchScmProvider.class);
+            context.addExtension(TargetBlameScmProvider.class);
+            context.addExtension(BranchAnalysisProfileBuilder.class);
+            context.addExtension(BranchAnalysisProfileIssueFilter.class);
         } else if (sonarQubeSide == SonarQubeSide.SERVER) {
             context.addExtension(BranchFeatureExtensionImpl.class);
+            context.addExtension(BranchPluginWs.class);
+            context.addExtension(BulkDeleteAction.class);
+            context.addExtension(AnalysisHistoryAction.class);
+            context.addExtension(CompareBranchesAction.class);
+            context.addExtension(BranchSummaryStore.class);
+            context.addExtension(BranchSummariesAction.class);
+            context.addExtension(ProjectBranchesBatchAction.class);
+            context.addExtension(BranchListStamps.class);
+            context.addExtension(BranchListCacheFilter.class);
+            context.addExtension(BranchEventLog.class);
+            context.addExtension(BranchEventsAction.class);
+            context.addExtension(BranchArchive.class);
+            context.addExtension(ArchiveBranchesAction.class);
+            context.addExtension(BranchArchiveFilter.class);
+            context.addExtension(BranchRestorer.class);
+            context.addExtension(BranchHierarchyStore.class);
+            context.addExtension(BranchHierarchyAction.class);
+            context.addExtension(BranchComponentStore.class);
+            context.addExtension(BranchComponentsAction.class);
+            context.addExtension(TargetBlameAction.class);
         }
 
         context.addExtensions(BranchPropertyDefinition.getPropertiesDefinition());
@@ -27,6 +27,83 @@ import org.sonar.api.config.PropertyDefinition;
  */
 public class BranchPropertyDefinition {
 
+    /**
+     * Property enabling the warm-up of branch metadata at compute engine startup.
+     **/
+    public static final String WARMUP_ENABLED = "sonar.branch.warmup.enabled";
+    /**
+     * Property defining the number of projects whose branches are loaded during warm-up.
+     **/
+    public static final String WARMUP_PROJECTS = "sonar.branch.warmup.projects";
+    /**
+     * Property defining the maximum duration of the warm-up, in seconds.
+     **/
+    public static final String WARMUP_TIMEOUT = "sonar.branch.warmup.timeout";
+    /**
+     * Property enabling the loading of branch metadata of a project the first time one of its tasks needs them.
+     **/
+    public static final String WARMUP_ON_DEMAND = "sonar.branch.warmup.onDemand";
+    /**
+     * Property defining analysis properties overridden for short living branches.
+     **/
+    public static final String PROFILE_SHORT_PROPERTIES = "sonar.branch.analysisProfile.short.properties";
+    /**
+     * Property defining rules whose issues are not reported on short living branches.
+     **/
+    public static final String PROFILE_SHORT_DISABLED_RULES = "sonar.branch.analysisProfile.short.disabledRules";
+    /**
+     * Property defining analysis properties overridden for pull requests.
+     **/
+    public static final String PROFILE_PULL_REQUEST_PROPERTIES = "sonar.branch.analysisProfile.pullRequest.properties";
+    /**
+     * Property defining rules whose issues are not reported on pull requests.
+     **/
+    public static final String PROFILE_PULL_REQUEST_DISABLED_RULES = "sonar.branch.analysisProfile.pullRequest.disabledRules";
+    /**
+     * Property enabling the cache of branch and pull request lists.
+     **/
+    public static final String LIST_CACHE_ENABLED = "sonar.branch.listCache.enabled";
+    /**
+     * Property bounding the number of branch and pull request lists kept in memory.
+     **/
+    public static final String LIST_CACHE_MAX_ENTRIES = "sonar.branch.listCache.maxEntries";
+    /**
+     * Property defining the age of analyses of long living branches after which only one analysis per day is kept.
+     **/
+    public static final String RETENTION_LONG_DAILY = "sonar.branch.retention.long.daysBeforeKeepingOnlyOneSnapshotByDay";
+    /**
+     * Property defining the age of analyses of long living branches after which only one analysis per week is kept.
+     **/
+    public static final String RETENTION_LONG_WEEKLY = "sonar.branch.retention.long.daysBeforeKeepingOnlyOneSnapshotByWeek";
+    /**
+     * Property defining the age of analyses of short living branches after which only one analysis per day is kept.
+     **/
+    public static final String RETENTION_SHORT_DAILY = "sonar.branch.retention.short.daysBeforeKeepingOnlyOneSnapshotByDay";
+    /**
+     * Property defining the age of analyses of short living branches after which only one analysis per week is kept.
+     **/
+    public static final String RETENTION_SHORT_WEEKLY = "sonar.branch.retention.short.daysBeforeKeepingOnlyOneSnapshotByWeek";
+    /**
+     * Property enabling the matching of branch names with known branches through their normalized names.
+     **/
+    public static final String NORMALIZATION_ENABLED = "sonar.branch.normalization.enabled";
+    /**
+     * Property defining prefixes removed from branch names before matching them with known branches.
+     **/
+    public static final String NORMALIZATION_PREFIXES = "sonar.branch.normalization.prefixes";
+    /**
+     * Property defining the URL receiving pull request decorations.
+     **/
+    public static final String DECORATION_URL = "sonar.branch.decoration.url";
+    /**
+     * Property defining the token authenticating the compute engine to the code host, secured so that it is not sent to scanners.
+     **/
+    public static final String DECORATION_TOKEN = "sonar.branch.decoration.token.secured";
+    /**
+     * Property bounding the number of comments posted on a pull request.
+     **/
+    public static final String DECORATION_MAX_COMMENTS = "sonar.branch.decoration.maxComments";
+
     /**
      * Private constructor.
      */
@@ -56,6 +133,157 @@ public class BranchPropertyDefinition {
                         .subCategory("Branches")
                         .type(PropertyType.INTEGER)
                         .defaultValue("30")
+                        .build(),
+                PropertyDefinition.builder(WARMUP_ENABLED)
+                        .name("Warm-up branch metadata at compute engine startup")
+                        .description("Load long living branches of the most recently analyzed projects when the compute engine starts. Requires a restart of the compute engine.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.BOOLEAN)
+                        .defaultValue("false")
+                        .build(),
+                PropertyDefinition.builder(WARMUP_PROJECTS)
+                        .name("Number of projects loaded during warm-up")
+                        .description("Branches of this number of most recently analyzed projects are loaded during warm-up.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.INTEGER)
+                        .defaultValue("100")
+                        .build(),
+                PropertyDefinition.builder(WARMUP_TIMEOUT)
+                        .name("Maximum duration of warm-up")
+                        .description("Warm-up stops loading projects after this number of seconds.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.INTEGER)
+                        .defaultValue("30")
+                        .build(),
+                PropertyDefinition.builder(WARMUP_ON_DEMAND)
+                        .name("Load branch metadata on demand")
+                        .description("Load long living branches of a project the first time one of its tasks needs them, and share them with the following tasks of the project whichever compute engine worker runs them. At most the number of projects loaded during warm-up are kept.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.BOOLEAN)
+                        .defaultValue("false")
+                        .build(),
+                PropertyDefinition.builder(PROFILE_SHORT_PROPERTIES)
+                        .name("Analysis properties of short living branches")
+                        .description("Analysis properties overridden for short living branches, one 'key=value' per line, e.g. 'sonar.cpd.exclusions=**/*' to skip duplication detection or 'sonar.scm.disabled=true' to skip blame.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.TEXT)
+                        .onQualifiers("TRK", new String[0])
+                        .build(),
+                PropertyDefinition.builder(PROFILE_SHORT_DISABLED_RULES)
+                        .name("Rules hidden on short living branches")
+                        .description("Rule key patterns, e.g. 'squid:S*' or 'common-java:*', whose issues are not reported on short living branches. The rules still run: their issues are only filtered out.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .multiValues(true)
+                        .onQualifiers("TRK", new String[0])
+                        .build(),
+                PropertyDefinition.builder(PROFILE_PULL_REQUEST_PROPERTIES)
+                        .name("Analysis properties of pull requests")
+                        .description("Analysis properties overridden for pull requests, one 'key=value' per line, e.g. 'sonar.cpd.exclusions=**/*' to skip duplication detection or 'sonar.scm.disabled=true' to skip blame.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.TEXT)
+                        .onQualifiers("TRK", new String[0])
+                        .build(),
+                PropertyDefinition.builder(PROFILE_PULL_REQUEST_DISABLED_RULES)
+                        .name("Rules hidden on pull requests")
+                        .description("Rule key patterns, e.g. 'squid:S*' or 'common-java:*', whose issues are not reported on pull requests. The rules still run: their issues are only filtered out.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .multiValues(true)
+                        .onQualifiers("TRK", new String[0])
+                        .build(),
+                PropertyDefinition.builder(LIST_CACHE_ENABLED)
+                        .name("Cache branch and pull request lists")
+                        .description("Serve the branch and pull request lists of a project from memory until an analysis or a deletion changes them.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.BOOLEAN)
+                        .defaultValue("false")
+                        .build(),
+                PropertyDefinition.builder(LIST_CACHE_MAX_ENTRIES)
+                        .name("Maximum number of cached branch and pull request lists")
+                        .description("Upper bound of lists kept in memory by the web server. Least recently used lists are evicted first.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.INTEGER)
+                        .defaultValue("1000")
+                        .build(),
+                PropertyDefinition.builder(RETENTION_LONG_DAILY)
+                        .name("Number of days before keeping only one analysis a day of long living branches")
+                        .description("After this number of days, only the most recent analysis of each day is kept on long living branches other than the main branch. Analyses with events are always kept. 0 disables it. Requires a restart of the compute engine.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.INTEGER)
+                        .defaultValue("0")
+                        .build(),
+                PropertyDefinition.builder(RETENTION_LONG_WEEKLY)
+                        .name("Number of days before keeping only one analysis a week of long living branches")
+                        .description("After this number of days, only the most recent analysis of each week is kept on long living branches other than the main branch. Analyses with events are always kept. 0 disables it. Requires a restart of the compute engine.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.INTEGER)
+                        .defaultValue("0")
+                        .build(),
+                PropertyDefinition.builder(RETENTION_SHORT_DAILY)
+                        .name("Number of days before keeping only one analysis a day of short living branches")
+                        .description("After this number of days, only the most recent analysis of each day is kept on short living branches. Analyses with events are always kept. 0 disables it. Requires a restart of the compute engine.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.INTEGER)
+                        .defaultValue("0")
+                        .build(),
+                PropertyDefinition.builder(RETENTION_SHORT_WEEKLY)
+                        .name("Number of days before keeping only one analysis a week of short living branches")
+                        .description("After this number of days, only the most recent analysis of each week is kept on short living branches. Analyses with events are always kept. 0 disables it. Requires a restart of the compute engine.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.INTEGER)
+                        .defaultValue("0")
+                        .build(),
+                PropertyDefinition.builder(NORMALIZATION_ENABLED)
+                        .name("Match branch name aliases")
+                        .description("Match branch names given to an analysis with existing branches after removing the branch name prefixes, so that refs/heads/feature/x or origin/feature/x analyze the existing branch feature/x. Exact names always match first. When disabled, only exact names match.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.BOOLEAN)
+                        .defaultValue("false")
+                        .onQualifiers("TRK", new String[0])
+                        .build(),
+                PropertyDefinition.builder(NORMALIZATION_PREFIXES)
+                        .name("Branch name prefixes")
+                        .description("Prefixes removed from branch names given to an analysis, and from names of existing branches, before matching them, when matching branch name aliases is enabled.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .multiValues(true)
+                        .defaultValue(BranchNameIndex.DEFAULT_PREFIXES)
+                        .onQualifiers("TRK", new String[0])
+                        .build(),
+                PropertyDefinition.builder(DECORATION_URL)
+                        .name("Pull request decoration URL")
+                        .description("URL of the code host, or of a relay to it, receiving by POST the quality gate status and the comments of each analyzed pull request as a JSON object. Calls are made in the background by the compute engine, never by the analysis task. Empty disables decoration. Requires a restart of the compute engine.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .build(),
+                PropertyDefinition.builder(DECORATION_TOKEN)
+                        .name("Pull request decoration token")
+                        .description("Token sent as bearer authorization to the pull request decoration URL. Requires a restart of the compute engine.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.PASSWORD)
+                        .build(),
+                PropertyDefinition.builder(DECORATION_MAX_COMMENTS)
+                        .name("Maximum number of comments on a pull request")
+                        .description("Upper bound of unresolved issues posted as comments on a pull request, ordered by file and line. 0 only posts the quality gate status.")
+                        .category("general")
+                        .subCategory("Branches")
+                        .type(PropertyType.INTEGER)
+                        .defaultValue("50")
                         .build());
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.sonar.scanner.scan.branch.BranchInfo;
+import org.sonar.scanner.scan.branch.ProjectBranches;
+
+/**
+ * Branches of a project, also indexed by normalized name.
+ * The index is built once per loaded list, the first time an exact lookup misses.
+ */
+public class IndexedProjectBranches extends ProjectBranches {
+
+    private final List<String> names;
+    private List<String> indexedPrefixes;
+    private BranchNameIndex nameIndex;
+
+    /**
+     * Constructor.
+     *
+     * @param branchInfos Branches of the project.
+     */
+    public IndexedProjectBranches(final List<BranchInfo> branchInfos) {
+        super(branchInfos);
+        this.names = branchInfos.stream().map(BranchInfo::name).collect(Collectors.toList());
+    }
+
+    /**
+     * Get the index of branch names, built on first call.
+     *
+     * @param prefixes Prefixes removed from names, the index is rebuilt if they change.
+     * @return The index of branch names.
+     */
+    public synchronized BranchNameIndex getNameIndex(final List<String> prefixes) {
+        if (this.nameIndex == null || !prefixes.equals(this.indexedPrefixes)) {
+            this.nameIndex = new BranchNameIndex(this.names, prefixes);
+            this.indexedPrefixes = prefixes;
+        }
+        return this.nameIndex;
+    }
+}
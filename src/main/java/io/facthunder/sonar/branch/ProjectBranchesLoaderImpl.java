@@ -21,8 +21,10 @@ import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
+import io.facthunder.sonar.branch.batch.BatchBranchMetadata;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.scanner.bootstrap.ScannerWsClient;
@@ -42,9 +44,21 @@ public class ProjectBranchesLoaderImpl implements ProjectBranchesLoader {
 
     private static final Logger LOGGER = Loggers.get(ProjectBranchesLoaderImpl.class);
     private final ScannerWsClient scannerWsClient;
+    private final BatchBranchMetadata batchBranchMetadata;
 
     public ProjectBranchesLoaderImpl(final ScannerWsClient wsClient) {
+        this(wsClient, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param wsClient            Client to call the server.
+     * @param batchBranchMetadata Branches loaded in batch for the pipeline, null to always load them by project.
+     */
+    public ProjectBranchesLoaderImpl(final ScannerWsClient wsClient, final BatchBranchMetadata batchBranchMetadata) {
         this.scannerWsClient = wsClient;
+        this.batchBranchMetadata = batchBranchMetadata;
     }
 
     /**
@@ -52,7 +66,9 @@ public class ProjectBranchesLoaderImpl implements ProjectBranchesLoader {
      */
     @Override
     public ProjectBranches load(final String projectKey) {
-        return new ProjectBranches(this.getBranchesInfo(projectKey));
+        final Optional<List<BranchInfo>> batch = this.batchBranchMetadata == null
+                ? Optional.empty() : this.batchBranchMetadata.branches(projectKey);
+        return new IndexedProjectBranches(batch.orElseGet(() -> this.getBranchesInfo(projectKey)));
     }
 
     private List<BranchInfo> getBranchesInfo(final String projectKey) {
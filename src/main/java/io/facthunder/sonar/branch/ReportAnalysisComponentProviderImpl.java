@@ -16,6 +16,14 @@
  */
 package io.facthunder.sonar.branch;
 
+import io.facthunder.sonar.branch.component.BranchComponentUpdater;
+import io.facthunder.sonar.branch.decoration.PullRequestDecorator;
+import io.facthunder.sonar.branch.events.BranchEventPublisher;
+import io.facthunder.sonar.branch.events.ResolvedBranchHolder;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyUpdater;
+import io.facthunder.sonar.branch.listcache.BranchListInvalidator;
+import io.facthunder.sonar.branch.summary.BranchSummaryUpdater;
+
 import java.util.Arrays;
 import java.util.List;
 
@@ -42,6 +50,8 @@ public final class ReportAnalysisComponentProviderImpl implements ReportAnalysis
      */
     @Override
     public List<Object> getComponents() {
-        return Arrays.asList(BranchLoaderDelegateImpl.class);
+        return Arrays.asList(BranchLoaderDelegateImpl.class, BranchSummaryUpdater.class,
+                BranchListInvalidator.class, ResolvedBranchHolder.class, BranchEventPublisher.class, BranchHierarchyUpdater.class,
+                BranchComponentUpdater.class, PullRequestDecorator.class);
     }
 }
\ No newline at end of file
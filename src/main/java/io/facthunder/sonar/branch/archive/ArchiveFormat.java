@@ -0,0 +1,289 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Binary format of branch archives: a sequence of tables, each one made of its name, its columns
+ * with their SQL types, then its rows. Values are tagged with their Java type, so rows can be
+ * inserted back whatever the database vendor. Surrogate keys are not archived: they are generated
+ * again by the database when rows are inserted back, as identity columns reject explicit values.
+ */
+final class ArchiveFormat {
+
+    /**
+     * Name of the surrogate key columns generated by the database.
+     **/
+    static final String GENERATED_COLUMN = "id";
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte DECIMAL = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte BYTES = 7;
+    private static final byte TIMESTAMP = 8;
+
+    /**
+     * Private constructor.
+     */
+    private ArchiveFormat() {
+
+    }
+
+    /**
+     * Write a table and all the rows of a result set.
+     *
+     * @param output    Stream of the archive.
+     * @param table     Name of the table.
+     * @param resultSet Rows of the table.
+     * @return Number of written rows.
+     * @throws IOException  If the archive could not be written.
+     * @throws SQLException If the rows could not be read.
+     */
+    static int writeTable(final DataOutputStream output, final String table, final ResultSet resultSet) throws IOException, SQLException {
+        final ResultSetMetaData metaData = resultSet.getMetaData();
+        final List<Integer> columns = new ArrayList<>();
+        for (int column = 1; column <= metaData.getColumnCount(); column++) {
+            if (!isGenerated(metaData.getColumnName(column).toLowerCase(Locale.ENGLISH))) {
+                columns.add(column);
+            }
+        }
+        output.writeBoolean(true);
+        output.writeUTF(table);
+        output.writeInt(columns.size());
+        for (final int column : columns) {
+            output.writeUTF(metaData.getColumnName(column).toLowerCase(Locale.ENGLISH));
+            output.writeInt(metaData.getColumnType(column));
+        }
+        int rows = 0;
+        while (resultSet.next()) {
+            output.writeBoolean(true);
+            for (final int column : columns) {
+                writeValue(output, resultSet.getObject(column));
+            }
+            rows++;
+        }
+        output.writeBoolean(false);
+        return rows;
+    }
+
+    /**
+     * Check whether a column is a surrogate key generated by the database.
+     *
+     * @param column Name of the column, in lower case.
+     * @return True if the column must not be archived nor inserted back.
+     */
+    static boolean isGenerated(final String column) {
+        return GENERATED_COLUMN.equals(column);
+    }
+
+    /**
+     * Write the end of the archive.
+     *
+     * @param output Stream of the archive.
+     * @throws IOException If the archive could not be written.
+     */
+    static void writeEnd(final DataOutputStream output) throws IOException {
+        output.writeBoolean(false);
+    }
+
+    /**
+     * Read the header of the next table.
+     *
+     * @param input Stream of the archive.
+     * @return The header, null at the end of the archive.
+     * @throws IOException If the archive could not be read.
+     */
+    static TableHeader readTableHeader(final DataInputStream input) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        final String table = input.readUTF();
+        final int columnCount = input.readInt();
+        final String[] columns = new String[columnCount];
+        final int[] types = new int[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            columns[column] = input.readUTF();
+            types[column] = input.readInt();
+        }
+        return new TableHeader(table, columns, types);
+    }
+
+    /**
+     * Read the next row of the current table.
+     *
+     * @param input  Stream of the archive.
+     * @param header Header of the current table.
+     * @return Values of the row, null at the end of the table.
+     * @throws IOException If the archive could not be read.
+     */
+    static Object[] readRow(final DataInputStream input, final TableHeader header) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        final Object[] values = new Object[header.columns.length];
+        for (int column = 0; column < values.length; column++) {
+            values[column] = readValue(input);
+        }
+        return values;
+    }
+
+    private static void writeValue(final DataOutputStream output, final Object value) throws IOException, SQLException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof String) {
+            output.writeByte(STRING);
+            writeBytes(output, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Clob) {
+            output.writeByte(STRING);
+            writeBytes(output, read((Clob) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            output.writeByte(INTEGER);
+            output.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            output.writeByte(DOUBLE);
+            output.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            output.writeByte(DECIMAL);
+            output.writeUTF(new BigDecimal(value.toString()).toString());
+        } else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            output.writeByte(BYTES);
+            writeBytes(output, (byte[]) value);
+        } else if (value instanceof Blob) {
+            output.writeByte(BYTES);
+            writeBytes(output, read((Blob) value));
+        } else if (value instanceof Timestamp) {
+            output.writeByte(TIMESTAMP);
+            output.writeLong(((Timestamp) value).getTime());
+        } else {
+            throw new IllegalArgumentException("Unsupported column value: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(final DataInputStream input) throws IOException {
+        final byte tag = input.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(readBytes(input), StandardCharsets.UTF_8);
+            case INTEGER:
+                return input.readInt();
+            case LONG:
+                return input.readLong();
+            case DOUBLE:
+                return input.readDouble();
+            case DECIMAL:
+                return new BigDecimal(input.readUTF());
+            case BOOLEAN:
+                return input.readBoolean();
+            case BYTES:
+                return readBytes(input);
+            case TIMESTAMP:
+                return new Timestamp(input.readLong());
+            default:
+                throw new IOException("Corrupted archive: unknown value tag " + tag);
+        }
+    }
+
+    private static void writeBytes(final DataOutputStream output, final byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInputStream input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static String read(final Clob clob) throws IOException, SQLException {
+        final StringBuilder builder = new StringBuilder();
+        try (Reader reader = clob.getCharacterStream()) {
+            final char[] buffer = new char[8192];
+            for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+                builder.append(buffer, 0, read);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static byte[] read(final Blob blob) throws IOException, SQLException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream stream = blob.getBinaryStream()) {
+            final byte[] buffer = new byte[8192];
+            for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Name and columns of an archived table.
+     */
+    static final class TableHeader {
+
+        private final String table;
+        private final String[] columns;
+        private final int[] types;
+
+        private TableHeader(final String table, final String[] columns, final int[] types) {
+            this.table = table;
+            this.columns = columns;
+            this.types = types;
+        }
+
+        String getTable() {
+            return this.table;
+        }
+
+        String[] getColumns() {
+            return this.columns.clone();
+        }
+
+        int getType(final int column) {
+            return this.types[column];
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.archive;
+
+import io.facthunder.sonar.branch.BranchDataDirectory;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbSession;
+import org.sonar.server.issue.index.IssueIndexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archive of the analysis data of inactive long living branches, in one compressed file per branch
+ * of the plugin data directory. Archiving moves the components, measures, issues and sources of
+ * a branch out of the database, except its root component and its analyses, so the branch is still
+ * listed with its last quality gate status; restoring inserts them back, with new surrogate keys.
+ * Issues of the branch are removed from the issue index when archived, and indexed again when restored.
+ * The web server and the Compute Engine may archive and restore concurrently: both are serialized by a file lock.
+ */
+@ServerSide
+@ComputeEngineSide
+public class BranchArchive {
+
+    private static final Logger LOGGER = Loggers.get(BranchArchive.class);
+    private static final String BRANCH_COMPONENTS = "select uuid from projects where project_uuid = ? and uuid <> project_uuid";
+    private static final String BRANCH_ISSUES = "select kee from issues where project_uuid = ?";
+    /**
+     * Archived tables, with the condition selecting the rows of a branch, in deletion order.
+     **/
+    private static final Map<String, String> TABLES = new LinkedHashMap<>();
+    private static final Pattern COLUMN_PATTERN = Pattern.compile("[a-z_0-9]+");
+    /**
+     * Number of rows inserted by a single batch.
+     **/
+    private static final int BATCH_SIZE = 500;
+
+    static {
+        TABLES.put("issue_changes", "issue_key in (select kee from issues where project_uuid = ?)");
+        TABLES.put("issues", "project_uuid = ?");
+        TABLES.put("duplications_index", "component_uuid in (" + BRANCH_COMPONENTS + ")");
+        TABLES.put("live_measures", "project_uuid = ? and component_uuid <> project_uuid");
+        TABLES.put("project_measures", "component_uuid in (" + BRANCH_COMPONENTS + ")");
+        TABLES.put("file_sources", "project_uuid = ?");
+        TABLES.put("projects", "project_uuid = ? and uuid <> project_uuid");
+    }
+
+    private final Configuration configuration;
+    private final System2 system2;
+    private final IssueIndexer issueIndexer;
+
+    /**
+     * Constructor.
+     *
+     * @param configuration Configuration of the running process.
+     * @param system2       Access to system clock.
+     * @param issueIndexer  Indexer of issues, kept in sync with archived issues.
+     */
+    public BranchArchive(final Configuration configuration, final System2 system2, final IssueIndexer issueIndexer) {
+        this.configuration = configuration;
+        this.system2 = system2;
+        this.issueIndexer = issueIndexer;
+    }
+
+    /**
+     * Check whether a branch is archived.
+     *
+     * @param projectUuid UUID of the project.
+     * @param branchUuid  UUID of the branch.
+     * @return True if the data of the branch are in the archive.
+     */
+    public boolean isArchived(final String projectUuid, final String branchUuid) {
+        return Files.exists(this.path(projectUuid, branchUuid));
+    }
+
+    /**
+     * Move the data of a branch from the database to its archive.
+     * The archive is complete on disk before rows are deleted, in a single transaction.
+     *
+     * @param dbSession   Session to the database.
+     * @param projectUuid UUID of the project.
+     * @param branchUuid  UUID of the branch.
+     * @return Number of archived rows and throughput.
+     */
+    public synchronized Report archive(final DbSession dbSession, final String projectUuid, final String branchUuid) {
+        final Path path = this.path(projectUuid, branchUuid);
+        return this.locked(path, () -> {
+            if (Files.exists(path)) {
+                throw new IllegalStateException("Branch " + branchUuid + " is already archived");
+            }
+            final long start = this.system2.now();
+            final Connection connection = dbSession.getConnection();
+            final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            long rows = 0;
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary))))) {
+                for (final Map.Entry<String, String> table : TABLES.entrySet()) {
+                    try (PreparedStatement statement = prepare(connection, "select * from " + table.getKey(), table.getValue(), branchUuid)) {
+                        statement.setFetchSize(BATCH_SIZE);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            rows += ArchiveFormat.writeTable(output, table.getKey(), resultSet);
+                        }
+                    }
+                }
+                ArchiveFormat.writeEnd(output);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            final List<String> issueKeys;
+            try {
+                issueKeys = selectIssueKeys(connection, branchUuid);
+                deleteRows(connection, branchUuid);
+                dbSession.commit();
+            } catch (final SQLException | RuntimeException e) {
+                dbSession.rollback();
+                Files.delete(path);
+                throw e;
+            }
+            try {
+                this.issueIndexer.deleteByKeys(projectUuid, issueKeys);
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Could not remove archived issues of branch {} from the issue index", branchUuid, e);
+            }
+            final Report report = new Report(rows, Files.size(path), this.system2.now() - start);
+            LOGGER.info("Branch {} archived: {}", branchUuid, report);
+            return report;
+        });
+    }
+
+    /**
+     * Move the data of a branch from its archive back to the database, if it is archived.
+     * Rows left in the database by an interrupted archiving are replaced by the archived ones.
+     *
+     * @param dbSession   Session to the database.
+     * @param projectUuid UUID of the project.
+     * @param branchUuid  UUID of the branch.
+     * @return Number of restored rows and throughput, empty if the branch is not archived.
+     */
+    public synchronized Optional<Report> restore(final DbSession dbSession, final String projectUuid, final String branchUuid) {
+        final Path path = this.path(projectUuid, branchUuid);
+        if (!Files.exists(path)) {
+            return Optional.empty();
+        }
+        return this.locked(path, () -> {
+            if (!Files.exists(path)) {
+                return Optional.empty();
+            }
+            final long start = this.system2.now();
+            final Connection connection = dbSession.getConnection();
+            long rows = 0;
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+                deleteRows(connection, branchUuid);
+                for (ArchiveFormat.TableHeader header = ArchiveFormat.readTableHeader(input); header != null;
+                     header = ArchiveFormat.readTableHeader(input)) {
+                    rows += insertRows(connection, input, header);
+                }
+                dbSession.commit();
+            } catch (final SQLException | IOException | RuntimeException e) {
+                dbSession.rollback();
+                throw e;
+            }
+            final Report report = new Report(rows, Files.size(path), this.system2.now() - start);
+            Files.delete(path);
+            try {
+                this.issueIndexer.indexOnAnalysis(branchUuid);
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Could not index restored issues of branch {}", branchUuid, e);
+            }
+            LOGGER.info("Branch {} restored: {}", branchUuid, report);
+            return Optional.of(report);
+        });
+    }
+
+    /**
+     * Forget the archives of deleted branches.
+     *
+     * @param projectUuid UUID of the project.
+     * @param branchUuids UUIDs of the deleted branches.
+     */
+    public synchronized void discard(final String projectUuid, final Collection<String> branchUuids) {
+        for (final String branchUuid : branchUuids) {
+            try {
+                Files.deleteIfExists(this.path(projectUuid, branchUuid));
+            } catch (final IOException e) {
+                LOGGER.warn("Could not delete archive of branch {}", branchUuid);
+            }
+        }
+    }
+
+    private static List<String> selectIssueKeys(final Connection connection, final String branchUuid) throws SQLException {
+        final List<String> keys = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(BRANCH_ISSUES)) {
+            statement.setString(1, branchUuid);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    keys.add(resultSet.getString(1));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static void deleteRows(final Connection connection, final String branchUuid) throws SQLException {
+        for (final Map.Entry<String, String> table : TABLES.entrySet()) {
+            try (PreparedStatement statement = prepare(connection, "delete from " + table.getKey(), table.getValue(), branchUuid)) {
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static int insertRows(final Connection connection, final DataInputStream input, final ArchiveFormat.TableHeader header)
+            throws IOException, SQLException {
+        final String[] allColumns = header.getColumns();
+        if (!TABLES.containsKey(header.getTable()) || !Arrays.stream(allColumns).allMatch(column -> COLUMN_PATTERN.matcher(column).matches())) {
+            throw new IOException("Corrupted archive: unexpected table " + header.getTable());
+        }
+        // surrogate keys of archives written by previous versions are left to the database
+        final int[] inserted = IntStream.range(0, allColumns.length)
+                .filter(column -> !ArchiveFormat.isGenerated(allColumns[column]))
+                .toArray();
+        final List<String> columns = Arrays.stream(inserted).mapToObj(column -> allColumns[column]).collect(Collectors.toList());
+        final String sql = String.format("insert into %s (%s) values (%s)", header.getTable(), String.join(",", columns),
+                String.join(",", Collections.nCopies(columns.size(), "?")));
+        int rows = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object[] values = ArchiveFormat.readRow(input, header); values != null; values = ArchiveFormat.readRow(input, header)) {
+                for (int parameter = 0; parameter < inserted.length; parameter++) {
+                    final int column = inserted[parameter];
+                    if (values[column] == null) {
+                        statement.setNull(parameter + 1, header.getType(column));
+                    } else {
+                        statement.setObject(parameter + 1, values[column]);
+                    }
+                }
+                statement.addBatch();
+                rows++;
+                if (rows % BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+        return rows;
+    }
+
+    private static PreparedStatement prepare(final Connection connection, final String statement, final String condition,
+                                             final String branchUuid) throws SQLException {
+        final PreparedStatement prepared = connection.prepareStatement(statement + " where " + condition);
+        prepared.setString(1, branchUuid);
+        return prepared;
+    }
+
+    /**
+     * Run an operation on an archive while holding the archive lock.
+     */
+    private <T> T locked(final Path path, final ArchiveOperation<T> operation) {
+        final Path lock = path.getParent().getParent().resolve(".lock");
+        try {
+            Files.createDirectories(path.getParent());
+            try (FileChannel channel = FileChannel.open(lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                return operation.run();
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not access " + path, e);
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Could not move data of branch archive " + path, e);
+        }
+    }
+
+    private Path path(final String projectUuid, final String branchUuid) {
+        return BranchDataDirectory.resolve(this.configuration, "archive", BranchDataDirectory.encode(projectUuid),
+                BranchDataDirectory.encode(branchUuid) + ".gz");
+    }
+
+    /**
+     * Operation on an archive.
+     */
+    @FunctionalInterface
+    private interface ArchiveOperation<T> {
+        T run() throws IOException, SQLException;
+    }
+
+    /**
+     * Number of rows moved by an archiving or a restoration, with its duration.
+     */
+    public static final class Report {
+
+        private final long rows;
+        private final long bytes;
+        private final long duration;
+
+        private Report(final long rows, final long bytes, final long duration) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.duration = duration;
+        }
+
+        /**
+         * @return Number of moved rows.
+         */
+        public long getRows() {
+            return this.rows;
+        }
+
+        /**
+         * @return Size of the archive, in bytes.
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        /**
+         * @return Duration of the move, in milliseconds.
+         */
+        public long getDuration() {
+            return this.duration;
+        }
+
+        /**
+         * @return Number of rows moved per second.
+         */
+        public long getRowsPerSecond() {
+            return this.rows * 1000 / Math.max(this.duration, 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows, %d bytes in %d ms (%d rows/s)", this.rows, this.bytes, this.duration, this.getRowsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.archive;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.web.ServletFilter;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.NotFoundException;
+import org.sonar.server.user.UserSession;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * Restore archived branches when they are opened, see {@link BranchArchive}: the web application
+ * loads the navigation of a branch before any of its pages, so the restoration of the branch is
+ * queued to {@link BranchRestorer} as soon as it is opened, without holding the request.
+ * Archives of branches deleted through the web services of the server are discarded.
+ */
+public class BranchArchiveFilter extends ServletFilter {
+
+    private static final Logger LOGGER = Loggers.get(BranchArchiveFilter.class);
+    private static final String NAVIGATION = "/api/navigation/component";
+    private static final String DELETION = "/api/project_branches/delete";
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final BranchArchive branchArchive;
+    private final BranchRestorer branchRestorer;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient        Client to join the database.
+     * @param userSession     Session of the calling user.
+     * @param componentFinder Service to find projects.
+     * @param branchArchive   Archive of inactive branches.
+     * @param branchRestorer  Queue of branches to restore.
+     */
+    public BranchArchiveFilter(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder,
+                               final BranchArchive branchArchive, final BranchRestorer branchRestorer) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.branchArchive = branchArchive;
+        this.branchRestorer = branchRestorer;
+    }
+
+    /**
+     * @see ServletFilter
+     */
+    @Override
+    public UrlPattern doGetPattern() {
+        return UrlPattern.builder().includes(NAVIGATION, DELETION).build();
+    }
+
+    /**
+     * @see ServletFilter
+     */
+    @Override
+    public void init(final FilterConfig filterConfig) {
+        // nothing to initialize
+    }
+
+    /**
+     * @see ServletFilter
+     */
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+        final String componentKey = request.getParameter(NAVIGATION.equals(path) ? "component" : "project");
+        final String branchKey = request.getParameter("branch");
+        final Optional<BranchDto> branch = componentKey == null || branchKey == null ? Optional.empty() : this.branch(componentKey, branchKey);
+        if (branch.isPresent() && NAVIGATION.equals(path) && this.branchRestorer.submit(branch.get())) {
+            LOGGER.debug("Restoration of branch '{}' queued on opening", branch.get().getKey());
+        }
+        chain.doFilter(request, response);
+        if (branch.isPresent() && DELETION.equals(path) && ((HttpServletResponse) response).getStatus() < HttpServletResponse.SC_BAD_REQUEST) {
+            this.branchArchive.discard(branch.get().getProjectUuid(), Collections.singletonList(branch.get().getUuid()));
+        }
+    }
+
+    /**
+     * @see ServletFilter
+     */
+    @Override
+    public void destroy() {
+        // nothing to release
+    }
+
+    /**
+     * Find a branch of a project the calling user is allowed to browse.
+     */
+    private Optional<BranchDto> branch(final String componentKey, final String branchKey) {
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final ComponentDto component = this.componentFinder.getByKey(dbSession, componentKey);
+            final ComponentDto project = this.componentFinder.getByUuid(dbSession, component.projectUuid());
+            if (!this.userSession.hasComponentPermission(UserRole.USER, project)) {
+                return Optional.empty();
+            }
+            return this.dbClient.branchDao().selectByBranchKey(dbSession, project.uuid(), branchKey);
+        } catch (final NotFoundException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.archive;
+
+import org.picocontainer.Startable;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Queue of archived branches to restore on the web server, see {@link BranchArchive}.
+ * Branches are restored one at a time by a background thread, so that requests opening
+ * an archived branch never run the restoration themselves; a branch queued several times
+ * is restored once.
+ */
+@ServerSide
+public class BranchRestorer implements Startable {
+
+    private static final Logger LOGGER = Loggers.get(BranchRestorer.class);
+
+    private final DbClient dbClient;
+    private final BranchArchive branchArchive;
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient      Client to join the database.
+     * @param branchArchive Archive of inactive branches.
+     */
+    public BranchRestorer(final DbClient dbClient, final BranchArchive branchArchive) {
+        this.dbClient = dbClient;
+        this.branchArchive = branchArchive;
+    }
+
+    /**
+     * Start the background thread.
+     */
+    @Override
+    public void start() {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "branch-restore");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stop the background thread, the current restoration is rolled back.
+     */
+    @Override
+    public void stop() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue the restoration of a branch, if it is archived and not already queued. Never blocks.
+     *
+     * @param branch Branch to restore.
+     * @return True if the branch is archived, and will be restored.
+     */
+    public boolean submit(final BranchDto branch) {
+        if (!this.branchArchive.isArchived(branch.getProjectUuid(), branch.getUuid())) {
+            return false;
+        }
+        if (this.queued.add(branch.getUuid())) {
+            try {
+                this.executor.execute(() -> this.restore(branch));
+            } catch (final RejectedExecutionException e) {
+                this.queued.remove(branch.getUuid());
+                LOGGER.warn("Could not queue restoration of branch '{}'", branch.getKey());
+            }
+        }
+        return true;
+    }
+
+    private void restore(final BranchDto branch) {
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            this.branchArchive.restore(dbSession, branch.getProjectUuid(), branch.getUuid())
+                    .ifPresent(report -> LOGGER.info("Branch '{}' restored on opening: {}", branch.getKey(), report));
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Could not restore branch '{}'", branch.getKey(), e);
+        } finally {
+            this.queued.remove(branch.getUuid());
+        }
+    }
+}
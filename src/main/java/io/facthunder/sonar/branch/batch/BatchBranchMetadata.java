@@ -0,0 +1,235 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.scanner.bootstrap.GlobalConfiguration;
+import org.sonar.scanner.bootstrap.ScannerWsClient;
+import org.sonar.scanner.protocol.GsonHelper;
+import org.sonar.scanner.scan.branch.BranchInfo;
+import org.sonar.scanner.scan.branch.BranchType;
+import org.sonar.scanner.scan.branch.PullRequestInfo;
+import org.sonarqube.ws.client.PostRequest;
+import org.sonarqube.ws.client.WsResponse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Branches and pull requests of all the projects analyzed by a pipeline, loaded with a single call
+ * to the server instead of one call per project and per list.
+ * The batch mode is enabled by listing the projects of the pipeline in sonar.branch.batch.projects.
+ * When sonar.branch.batch.execution identifies the execution of the pipeline, the loaded lists are kept
+ * in a file shared by all the analyses of this execution, so only the first analysis calls the server.
+ * Projects which are not listed, or not returned by the server, are loaded one by one as usual.
+ */
+@ScannerSide
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class BatchBranchMetadata {
+
+    /**
+     * Property listing the keys of the projects analyzed by the pipeline.
+     **/
+    public static final String PROJECTS = "sonar.branch.batch.projects";
+    /**
+     * Property identifying the execution of the pipeline, such as a CI build id.
+     **/
+    public static final String EXECUTION = "sonar.branch.batch.execution";
+    /**
+     * Property defining the directory shared by the analyses of the pipeline, temporary directory by default.
+     **/
+    public static final String CACHE_DIRECTORY = "sonar.branch.batch.cacheDir";
+    private static final Logger LOGGER = Loggers.get(BatchBranchMetadata.class);
+    private static final String URL = "/api/branch_plugin/project_branches_batch";
+    private static final String PARAM_PROJECTS = "projects";
+    /**
+     * Maximum number of projects of a single call, as accepted by the server. Keys are sent in the
+     * body of a POST request, as such a page would exceed the URL length accepted by the server.
+     **/
+    private static final int BATCH_SIZE = 500;
+    private final ScannerWsClient scannerWsClient;
+    private final GlobalConfiguration configuration;
+    private Map<String, WsProject> projects;
+
+    /**
+     * Constructor.
+     *
+     * @param scannerWsClient Client to call the server.
+     * @param configuration   Configuration of the scanner.
+     */
+    public BatchBranchMetadata(final ScannerWsClient scannerWsClient, final GlobalConfiguration configuration) {
+        this.scannerWsClient = scannerWsClient;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Get the branches of a project loaded in batch.
+     *
+     * @param projectKey Key of the project.
+     * @return Branches of the project, empty if the project was not loaded in batch.
+     */
+    public Optional<List<BranchInfo>> branches(final String projectKey) {
+        return this.project(projectKey).map(project -> project.branches.stream()
+                .map(branch -> new BranchInfo(branch.name, BranchType.valueOf(branch.type), branch.isMain, branch.mergeBranch))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Get the pull requests of a project loaded in batch.
+     *
+     * @param projectKey Key of the project.
+     * @return Pull requests of the project, empty if the project was not loaded in batch.
+     */
+    public Optional<List<PullRequestInfo>> pullRequests(final String projectKey) {
+        return this.project(projectKey).map(project -> project.pullRequests.stream()
+                .map(pullRequest -> new PullRequestInfo(pullRequest.key, pullRequest.branch, pullRequest.base,
+                        pullRequest.analysisDate == null ? 0L : pullRequest.analysisDate.getTime()))
+                .collect(Collectors.toList()));
+    }
+
+    private synchronized Optional<WsProject> project(final String projectKey) {
+        if (this.projects == null) {
+            this.projects = new HashMap<>();
+            final List<String> keys = Arrays.stream(this.configuration.getStringArray(PROJECTS))
+                    .map(String::trim)
+                    .filter(key -> !key.isEmpty())
+                    .distinct()
+                    .sorted()
+                    .collect(Collectors.toList());
+            if (!keys.isEmpty()) {
+                try {
+                    this.load(keys).forEach(project -> this.projects.put(project.key, project));
+                    LOGGER.info("Branches of {} projects loaded in batch", this.projects.size());
+                } catch (final RuntimeException | IOException e) {
+                    LOGGER.warn("Could not load branches in batch - loading them by project", e);
+                }
+            }
+        }
+        return Optional.ofNullable(this.projects.get(projectKey));
+    }
+
+    /**
+     * Load projects from the file of the pipeline execution if any, or from the server.
+     *
+     * @param keys Keys of the projects of the pipeline.
+     * @return Branches and pull requests of the projects.
+     */
+    private List<WsProject> load(final List<String> keys) throws IOException {
+        final Optional<String> execution = this.configuration.get(EXECUTION);
+        if (!execution.isPresent()) {
+            return this.fetch(keys);
+        }
+
+        final Path directory = this.configuration.get(CACHE_DIRECTORY).map(Paths::get)
+                .orElse(Paths.get(System.getProperty("java.io.tmpdir"), "sonar-branch-batch"));
+        final String name = DigestUtils.sha256Hex(this.configuration.get("sonar.host.url").orElse("") + '\n'
+                + execution.get() + '\n' + String.join(",", keys));
+        final Path path = directory.resolve(name + ".json");
+        Files.createDirectories(directory);
+        try (FileChannel channel = FileChannel.open(directory.resolve(name + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            if (Files.exists(path)) {
+                try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    final WsBatchResponse cached = GsonHelper.create().fromJson(reader, WsBatchResponse.class);
+                    if (cached != null) {
+                        LOGGER.debug("Branches of execution '{}' read from {}", execution.get(), path);
+                        return cached.projects;
+                    }
+                } catch (final JsonParseException e) {
+                    LOGGER.debug("Could not read {} - loading branches again", path);
+                }
+            }
+            final WsBatchResponse loaded = new WsBatchResponse();
+            loaded.projects.addAll(this.fetch(keys));
+            final Path temporary = directory.resolve(name + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                GsonHelper.create().toJson(loaded, writer);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return loaded.projects;
+        }
+    }
+
+    /**
+     * Load projects from the server, by pages of the maximum size accepted by the server.
+     *
+     * @param keys Keys of the projects.
+     * @return Branches and pull requests of the projects.
+     */
+    private List<WsProject> fetch(final List<String> keys) throws IOException {
+        final Gson gson = GsonHelper.create();
+        final List<WsProject> loaded = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += BATCH_SIZE) {
+            final List<String> page = keys.subList(from, Math.min(from + BATCH_SIZE, keys.size()));
+            final WsResponse response = this.scannerWsClient.call(new PostRequest(URL)
+                    .setParam(PARAM_PROJECTS, String.join(",", page)));
+            try (Reader reader = response.contentReader()) {
+                final WsBatchResponse batch = gson.fromJson(reader, WsBatchResponse.class);
+                loaded.addAll(batch == null ? Collections.emptyList() : batch.projects);
+            }
+        }
+        return loaded;
+    }
+
+    private static class WsBatchResponse {
+        private List<WsProject> projects = new ArrayList<>();
+    }
+
+    private static class WsProject {
+        private String key;
+        private List<WsBranch> branches = new ArrayList<>();
+        private List<WsPullRequest> pullRequests = new ArrayList<>();
+    }
+
+    private static class WsBranch {
+        private String name;
+        private String type;
+        private boolean isMain;
+        private String mergeBranch;
+    }
+
+    private static class WsPullRequest {
+        private String key;
+        private String branch;
+        private String base;
+        private Date analysisDate;
+    }
+}
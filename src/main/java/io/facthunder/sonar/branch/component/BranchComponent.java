@@ -0,0 +1,62 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.component;
+
+/**
+ * Component of a branch or pull request, identified by its key without branch suffix,
+ * so that the same component of two branches has the same key.
+ */
+public final class BranchComponent {
+
+    private final String key;
+    private final String uuid;
+    private final String qualifier;
+
+    /**
+     * Constructor.
+     *
+     * @param key       Key of the component without branch suffix.
+     * @param uuid      UUID of the component in the branch.
+     * @param qualifier Qualifier of the component.
+     */
+    public BranchComponent(final String key, final String uuid, final String qualifier) {
+        this.key = key;
+        this.uuid = uuid;
+        this.qualifier = qualifier.intern();
+    }
+
+    /**
+     * @return Key of the component without branch suffix.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return UUID of the component in the branch.
+     */
+    public String getUuid() {
+        return this.uuid;
+    }
+
+    /**
+     * @return Qualifier of the component.
+     */
+    public String getQualifier() {
+        return this.qualifier;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.component;
+
+import io.facthunder.sonar.branch.BranchComponentKey;
+import io.facthunder.sonar.branch.BranchDataDirectory;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Store of the component index of each branch and pull request, in one file per branch of the plugin data directory.
+ * The Compute Engine writes the index of the analyzed branch at the end of each analysis; branches analyzed before
+ * have their index built from their own components in the database the first time it is read.
+ * Parsed indexes are kept in memory until they change on disk, as long as their total number of components
+ * does not exceed a bound.
+ */
+@ServerSide
+@ComputeEngineSide
+public class BranchComponentStore {
+
+    private static final Logger LOGGER = Loggers.get(BranchComponentStore.class);
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final String SELECT_COMPONENTS = "select uuid, kee, qualifier from projects where project_uuid = ? and enabled = ?";
+    /**
+     * Maximum number of components of the indexes kept in memory.
+     **/
+    private static final long MAX_CACHED_COMPONENTS = 500_000L;
+    private final Configuration configuration;
+    private final DbClient dbClient;
+    private final Map<String, Cached> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedComponents;
+
+    /**
+     * Constructor.
+     *
+     * @param configuration Configuration of the running process.
+     * @param dbClient      Client to join the database.
+     */
+    public BranchComponentStore(final Configuration configuration, final DbClient dbClient) {
+        this.configuration = configuration;
+        this.dbClient = dbClient;
+        this.cachedComponents = 0;
+    }
+
+    /**
+     * Get the component index of a branch, building it from the database if it is not stored yet.
+     *
+     * @param projectUuid UUID of the project.
+     * @param branchUuid  UUID of the branch or pull request.
+     * @return The index of the branch.
+     */
+    public synchronized BranchComponents get(final String projectUuid, final String branchUuid) {
+        final Path path = this.path(projectUuid, branchUuid);
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            return this.rebuild(projectUuid, branchUuid);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+        final Cached cached = this.cache.get(branchUuid);
+        if (cached != null && cached.isCurrent(attributes)) {
+            return cached.components;
+        }
+        final BranchComponents components;
+        try {
+            components = BranchComponents.readFrom(path);
+        } catch (final IOException e) {
+            LOGGER.warn("Could not read {} - component index is rebuilt from the database", path);
+            return this.rebuild(projectUuid, branchUuid);
+        }
+        this.cache(branchUuid, attributes, components);
+        return components;
+    }
+
+    /**
+     * Replace the component index of a branch.
+     *
+     * @param projectUuid UUID of the project.
+     * @param branchUuid  UUID of the branch or pull request.
+     * @param components  New index of the branch.
+     */
+    public synchronized void save(final String projectUuid, final String branchUuid, final BranchComponents components) {
+        final Path path = this.path(projectUuid, branchUuid);
+        try {
+            components.writeTo(path);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not write component index of branch " + branchUuid, e);
+        }
+        this.uncache(branchUuid);
+    }
+
+    /**
+     * Forget the component indexes of deleted branches.
+     *
+     * @param projectUuid UUID of the project.
+     * @param branchUuids UUIDs of the deleted branches and pull requests.
+     */
+    public synchronized void remove(final String projectUuid, final Collection<String> branchUuids) {
+        for (final String branchUuid : branchUuids) {
+            try {
+                Files.deleteIfExists(this.path(projectUuid, branchUuid));
+            } catch (final IOException e) {
+                LOGGER.warn("Could not delete component index of branch {}", branchUuid, e);
+            }
+            this.uncache(branchUuid);
+        }
+    }
+
+    /**
+     * Forget the component indexes of the branches of a project which no longer exist.
+     *
+     * @param projectUuid UUID of the project.
+     * @param branchUuids UUIDs of the existing branches and pull requests.
+     * @return UUIDs of the branches whose index was removed.
+     */
+    public synchronized List<String> retain(final String projectUuid, final Set<String> branchUuids) {
+        final Path directory = BranchDataDirectory.resolve(this.configuration, "components", BranchDataDirectory.encode(projectUuid));
+        final List<String> removed = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return removed;
+        }
+        try (DirectoryStream<Path> indexes = Files.newDirectoryStream(directory, "*" + INDEX_EXTENSION)) {
+            for (final Path index : indexes) {
+                final String fileName = index.getFileName().toString();
+                final String branchUuid = BranchDataDirectory.decode(fileName.substring(0, fileName.length() - INDEX_EXTENSION.length()));
+                if (!branchUuids.contains(branchUuid)) {
+                    removed.add(branchUuid);
+                }
+            }
+        } catch (final IOException | IllegalArgumentException e) {
+            LOGGER.warn("Could not list component indexes of project {}", projectUuid, e);
+        }
+        this.remove(projectUuid, removed);
+        return removed;
+    }
+
+    /**
+     * Build the index of a branch from its components in the database, then store it.
+     *
+     * @param projectUuid UUID of the project.
+     * @param branchUuid  UUID of the branch or pull request.
+     * @return The index of the branch.
+     */
+    private BranchComponents rebuild(final String projectUuid, final String branchUuid) {
+        final List<BranchComponent> components = new ArrayList<>();
+        try (DbSession dbSession = this.dbClient.openSession(false);
+             PreparedStatement statement = dbSession.getConnection().prepareStatement(SELECT_COMPONENTS)) {
+            statement.setString(1, branchUuid);
+            statement.setBoolean(2, true);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    components.add(new BranchComponent(BranchComponentKey.parse(resultSet.getString(2)).getComponentKey(),
+                            resultSet.getString(1), resultSet.getString(3)));
+                }
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Could not load components of branch " + branchUuid, e);
+        }
+        final BranchComponents index = BranchComponents.of(components);
+        if (!components.isEmpty()) {
+            this.save(projectUuid, branchUuid, index);
+            LOGGER.debug("Component index of branch {} rebuilt: {} components", branchUuid, index.size());
+        }
+        return index;
+    }
+
+    private void uncache(final String branchUuid) {
+        final Cached previous = this.cache.remove(branchUuid);
+        if (previous != null) {
+            this.cachedComponents -= previous.components.size();
+        }
+    }
+
+    private void cache(final String branchUuid, final BasicFileAttributes attributes, final BranchComponents components) {
+        if (components.size() > MAX_CACHED_COMPONENTS) {
+            return;
+        }
+        this.uncache(branchUuid);
+        this.cache.put(branchUuid, new Cached(attributes, components));
+        this.cachedComponents += components.size();
+        final Iterator<Cached> eldest = this.cache.values().iterator();
+        while (this.cachedComponents > MAX_CACHED_COMPONENTS && eldest.hasNext()) {
+            this.cachedComponents -= eldest.next().components.size();
+            eldest.remove();
+        }
+    }
+
+    private Path path(final String projectUuid, final String branchUuid) {
+        return BranchDataDirectory.resolve(this.configuration, "components", BranchDataDirectory.encode(projectUuid),
+                BranchDataDirectory.encode(branchUuid) + INDEX_EXTENSION);
+    }
+
+    /**
+     * Index parsed from a file, with the attributes identifying the version of the file.
+     * Files are replaced by a move, so their file key changes even if their modification time does not.
+     */
+    private static final class Cached {
+
+        private final FileTime lastModified;
+        private final Object fileKey;
+        private final BranchComponents components;
+
+        private Cached(final BasicFileAttributes attributes, final BranchComponents components) {
+            this.lastModified = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+            this.components = components;
+        }
+
+        private boolean isCurrent(final BasicFileAttributes attributes) {
+            return this.lastModified.equals(attributes.lastModifiedTime()) && Objects.equals(this.fileKey, attributes.fileKey());
+        }
+    }
+}
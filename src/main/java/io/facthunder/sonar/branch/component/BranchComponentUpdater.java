@@ -0,0 +1,105 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.component;
+
+import io.facthunder.sonar.branch.BranchComponentKey;
+import org.sonar.api.ce.posttask.CeTask;
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
+import org.sonar.api.resources.Qualifiers;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.server.computation.task.projectanalysis.component.Component;
+import org.sonar.server.computation.task.projectanalysis.component.TreeRootHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replace the component index of the analyzed branch or pull request at the end of each successful analysis,
+ * from the component tree persisted by the Compute Engine.
+ *
+ * @see BranchComponentStore
+ */
+public class BranchComponentUpdater implements PostProjectAnalysisTask {
+
+    private static final Logger LOGGER = Loggers.get(BranchComponentUpdater.class);
+
+    private final BranchComponentStore store;
+    private final TreeRootHolder treeRootHolder;
+
+    /**
+     * Constructor.
+     *
+     * @param store          Store of the component indexes.
+     * @param treeRootHolder Holder of the analyzed component tree.
+     */
+    public BranchComponentUpdater(final BranchComponentStore store, final TreeRootHolder treeRootHolder) {
+        this.store = store;
+        this.treeRootHolder = treeRootHolder;
+    }
+
+    /**
+     * @see PostProjectAnalysisTask
+     */
+    @Override
+    public void finished(final ProjectAnalysis analysis) {
+        if (analysis.getCeTask().getStatus() != CeTask.Status.SUCCESS) {
+            return;
+        }
+        final Component root = this.treeRootHolder.getRoot();
+        final List<BranchComponent> components = new ArrayList<>();
+        this.visit(root, components);
+        try {
+            this.store.save(analysis.getProject().getUuid(), root.getUuid(), BranchComponents.of(components));
+            LOGGER.debug("Component index of branch {} updated: {} components", root.getUuid(), components.size());
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Could not update component index of branch {}", root.getUuid(), e);
+        }
+    }
+
+    /**
+     * Collect a component and all its descendants.
+     *
+     * @param component  Component to visit.
+     * @param components Collected components.
+     */
+    private void visit(final Component component, final List<BranchComponent> components) {
+        components.add(new BranchComponent(BranchComponentKey.parse(component.getKey()).getComponentKey(),
+                component.getUuid(), qualifier(component)));
+        for (final Component child : component.getChildren()) {
+            this.visit(child, components);
+        }
+    }
+
+    /**
+     * Give the qualifier under which a component is persisted.
+     */
+    private static String qualifier(final Component component) {
+        switch (component.getType()) {
+            case PROJECT:
+                return Qualifiers.PROJECT;
+            case MODULE:
+                return Qualifiers.MODULE;
+            case DIRECTORY:
+                return Qualifiers.DIRECTORY;
+            case FILE:
+                return component.getFileAttributes().isUnitTest() ? Qualifiers.UNIT_TEST_FILE : Qualifiers.FILE;
+            default:
+                return component.getType().name();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Components of a branch or pull request, sorted by key without branch suffix in the order of {@link String#compareTo(String)}.
+ * Components are found by key or by key prefix with a binary search, and the components of two branches
+ * are compared by merging both lists, so that the cost of these operations only depends on the size of the branch.
+ */
+public final class BranchComponents {
+
+    /**
+     * Identify index files.
+     **/
+    private static final int MAGIC = 0x42434958;
+    /**
+     * Version of the on-disk layout.
+     **/
+    private static final int VERSION = 1;
+    private static final Comparator<BranchComponent> KEY_ORDER = Comparator.comparing(BranchComponent::getKey);
+    private static final BranchComponents EMPTY = new BranchComponents(new BranchComponent[0]);
+
+    private final BranchComponent[] components;
+
+    /**
+     * Constructor.
+     *
+     * @param components Components sorted by key.
+     */
+    private BranchComponents(final BranchComponent[] components) {
+        this.components = components;
+    }
+
+    /**
+     * @return An index without components.
+     */
+    public static BranchComponents empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Build an index.
+     *
+     * @param components Components of the branch, in any order.
+     * @return The index.
+     */
+    public static BranchComponents of(final Collection<BranchComponent> components) {
+        final BranchComponent[] sorted = components.toArray(new BranchComponent[0]);
+        Arrays.sort(sorted, KEY_ORDER);
+        return new BranchComponents(sorted);
+    }
+
+    /**
+     * @return Number of components.
+     */
+    public int size() {
+        return this.components.length;
+    }
+
+    /**
+     * @return All components, sorted by key.
+     */
+    public List<BranchComponent> getComponents() {
+        return Collections.unmodifiableList(Arrays.asList(this.components));
+    }
+
+    /**
+     * Find a component by key.
+     *
+     * @param key Key of the component without branch suffix.
+     * @return The component, empty if the branch has no such component.
+     */
+    public Optional<BranchComponent> find(final String key) {
+        final int index = this.lowerBound(key);
+        return index < this.components.length && this.components[index].getKey().equals(key)
+                ? Optional.of(this.components[index]) : Optional.empty();
+    }
+
+    /**
+     * Find components whose key starts with a prefix.
+     *
+     * @param prefix Prefix of the key without branch suffix.
+     * @return Matching components, sorted by key.
+     */
+    public List<BranchComponent> startingWith(final String prefix) {
+        final int from = this.lowerBound(prefix);
+        int to = from;
+        while (to < this.components.length && this.components[to].getKey().startsWith(prefix)) {
+            to++;
+        }
+        return this.getComponents().subList(from, to);
+    }
+
+    /**
+     * Write the index in a file, replacing it atomically.
+     *
+     * @param path Location of the index.
+     * @throws IOException If the file can't be written.
+     */
+    public void writeTo(final Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(this.components.length);
+            for (final BranchComponent component : this.components) {
+                output.writeUTF(component.getKey());
+                output.writeUTF(component.getUuid());
+                output.writeUTF(component.getQualifier());
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read an index previously written with {@link #writeTo(Path)}.
+     *
+     * @param path Location of the index.
+     * @return The read index.
+     * @throws IOException If the file can't be read or is not an index.
+     */
+    public static BranchComponents readFrom(final Path path) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a branch component index: " + path);
+            }
+            final int size = input.readInt();
+            final List<BranchComponent> components = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                components.add(new BranchComponent(input.readUTF(), input.readUTF(), input.readUTF()));
+            }
+            return new BranchComponents(components.toArray(new BranchComponent[0]));
+        }
+    }
+
+    /**
+     * Find the first component whose key is not lower than a key.
+     */
+    private int lowerBound(final String key) {
+        int low = 0;
+        int high = this.components.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (this.components[middle].getKey().compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.decoration;
+
+import com.google.gson.Gson;
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import org.picocontainer.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound queue of pull request decorations, posted to the code host by a background thread of the compute engine.
+ *
+ * Offering a decoration never blocks the analysis task: it only replaces the pending decoration of the same
+ * pull request, so that a pull request analyzed several times while the host is slow is only decorated
+ * with its last results, in a single call carrying the status and all the comments.
+ * Rate limits of the host are honored from {@code Retry-After} and {@code X-RateLimit-*} headers, and failed
+ * calls are retried with an exponential backoff.
+ */
+@ComputeEngineSide
+public class DecorationQueue implements Startable {
+
+    private static final Logger LOGGER = Loggers.get(DecorationQueue.class);
+    /**
+     * Maximum number of pull requests waiting for decoration, the oldest is dropped beyond.
+     **/
+    private static final int MAX_PENDING = 1000;
+    /**
+     * Number of calls made for a decoration before giving up, rate limited calls excluded.
+     **/
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_BACKOFF_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final int TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private final String url;
+    private final String token;
+    private final System2 system2;
+    private final long backoff;
+    private final Gson gson = new Gson();
+    private final Object lock = new Object();
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private long pausedUntil;
+    private Thread sender;
+
+    /**
+     * Constructor.
+     *
+     * @param configuration Configuration of the compute engine.
+     * @param system2       Access to system clock.
+     */
+    public DecorationQueue(final Configuration configuration, final System2 system2) {
+        this(configuration, system2, DEFAULT_BACKOFF_MS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param configuration Configuration of the compute engine.
+     * @param system2       Access to system clock.
+     * @param backoff       Delay before retrying a failed call for the first time, in milliseconds.
+     */
+    DecorationQueue(final Configuration configuration, final System2 system2, final long backoff) {
+        this.url = configuration.get(BranchPropertyDefinition.DECORATION_URL).orElse(null);
+        this.token = configuration.get(BranchPropertyDefinition.DECORATION_TOKEN).orElse(null);
+        this.system2 = system2;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Start the sender if decoration is enabled.
+     */
+    @Override
+    public void start() {
+        if (!this.isEnabled()) {
+            return;
+        }
+        this.sender = new Thread(this::sendAll, "branch-pr-decoration");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Stop the sender, pending decorations are dropped.
+     */
+    @Override
+    public void stop() {
+        if (this.sender != null) {
+            this.sender.interrupt();
+        }
+        synchronized (this.lock) {
+            if (!this.pending.isEmpty()) {
+                LOGGER.info("{} pull request decorations dropped at shutdown", this.pending.size());
+                this.pending.clear();
+            }
+        }
+    }
+
+    /**
+     * @return True if a code host is configured.
+     */
+    public boolean isEnabled() {
+        return this.url != null;
+    }
+
+    /**
+     * Queue a decoration, replacing the pending decoration of the same pull request. Never blocks.
+     *
+     * @param decoration Decoration of a pull request.
+     * @return False if decoration is disabled.
+     */
+    public boolean offer(final PullRequestDecoration decoration) {
+        if (!this.isEnabled()) {
+            return false;
+        }
+        synchronized (this.lock) {
+            final Pending previous = this.pending.get(decoration.key());
+            if (previous == null && this.pending.size() >= MAX_PENDING) {
+                final Iterator<Pending> eldest = this.pending.values().iterator();
+                LOGGER.warn("Too many pending pull request decorations, dropping {}", eldest.next().decoration.key());
+                eldest.remove();
+            }
+            // a superseded decoration keeps its place in the queue and its backoff
+            this.pending.put(decoration.key(), new Pending(decoration, previous == null ? 0 : previous.notBefore));
+            this.lock.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of pull requests waiting for decoration.
+     */
+    public int size() {
+        synchronized (this.lock) {
+            return this.pending.size();
+        }
+    }
+
+    private void sendAll() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                this.send(this.take());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Pull request decoration failed", e);
+            }
+        }
+    }
+
+    /**
+     * Wait for a decoration ready to be sent, neither paused by the rate limit of the host nor backing off.
+     *
+     * @return The first ready decoration, removed from the queue.
+     */
+    private Pending take() throws InterruptedException {
+        synchronized (this.lock) {
+            while (true) {
+                final long now = this.system2.now();
+                long wait = this.pausedUntil - now;
+                if (wait <= 0) {
+                    wait = 0;
+                    final Iterator<Pending> iterator = this.pending.values().iterator();
+                    while (iterator.hasNext()) {
+                        final Pending next = iterator.next();
+                        if (next.notBefore <= now) {
+                            iterator.remove();
+                            return next;
+                        }
+                        wait = wait == 0 ? next.notBefore - now : Math.min(wait, next.notBefore - now);
+                    }
+                }
+                this.lock.wait(wait);
+            }
+        }
+    }
+
+    private void send(final Pending next) {
+        final String key = next.decoration.key();
+        final Response response;
+        try {
+            response = this.post(next.decoration);
+        } catch (final IOException e) {
+            this.retry(next, e.toString());
+            return;
+        }
+        final long now = this.system2.now();
+        if (response.remaining == 0 && response.reset > 0) {
+            this.pause(TimeUnit.SECONDS.toMillis(response.reset));
+        }
+        if (response.code / 100 == 2) {
+            LOGGER.debug("Pull request {} decorated with {} comments", key, next.decoration.getComments().size());
+        } else if (response.code == 429 || (response.code == 403 && response.remaining == 0)) {
+            final long until = response.retryAfter >= 0 ? now + TimeUnit.SECONDS.toMillis(response.retryAfter)
+                    : response.reset > 0 ? TimeUnit.SECONDS.toMillis(response.reset) : now + this.backoff;
+            LOGGER.info("Rate limit of the code host reached, decorations paused for {} ms", until - now);
+            this.pause(until);
+            this.requeue(next);
+        } else if (response.code >= 500) {
+            this.retry(next, "HTTP " + response.code);
+        } else {
+            LOGGER.warn("Decoration of pull request {} rejected by the code host: HTTP {}", key, response.code);
+        }
+    }
+
+    private void pause(final long until) {
+        synchronized (this.lock) {
+            this.pausedUntil = Math.max(this.pausedUntil, until);
+        }
+    }
+
+    private void retry(final Pending failed, final String cause) {
+        failed.attempts++;
+        if (failed.attempts >= MAX_ATTEMPTS) {
+            LOGGER.warn("Decoration of pull request {} dropped after {} attempts: {}", failed.decoration.key(), failed.attempts, cause);
+            return;
+        }
+        final long delay = Math.min(MAX_BACKOFF_MS, this.backoff << (failed.attempts - 1));
+        LOGGER.debug("Decoration of pull request {} failed, retrying in {} ms: {}", failed.decoration.key(), delay, cause);
+        failed.notBefore = this.system2.now() + delay;
+        this.requeue(failed);
+    }
+
+    /**
+     * Put back a decoration which could not be sent, unless a newer decoration of the same pull request was queued meanwhile.
+     */
+    private void requeue(final Pending failed) {
+        synchronized (this.lock) {
+            this.pending.putIfAbsent(failed.decoration.key(), failed);
+            this.lock.notifyAll();
+        }
+    }
+
+    private Response post(final PullRequestDecoration decoration) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(this.url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        if (this.token != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + this.token);
+        }
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(this.gson.toJson(decoration).getBytes(StandardCharsets.UTF_8));
+        }
+        final int code = connection.getResponseCode();
+        // the body is read to the end so that the connection is reused
+        try (InputStream input = code >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+            if (input != null) {
+                final byte[] buffer = new byte[4096];
+                while (input.read(buffer) >= 0) {
+                    // skip
+                }
+            }
+        }
+        return new Response(code, header(connection, "Retry-After"), header(connection, "X-RateLimit-Remaining"),
+                header(connection, "X-RateLimit-Reset"));
+    }
+
+    private static long header(final HttpURLConnection connection, final String name) {
+        final String value = connection.getHeaderField(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Decoration waiting in the queue.
+     */
+    private static final class Pending {
+        private final PullRequestDecoration decoration;
+        private long notBefore;
+        private int attempts;
+
+        private Pending(final PullRequestDecoration decoration, final long notBefore) {
+            this.decoration = decoration;
+            this.notBefore = notBefore;
+        }
+    }
+
+    /**
+     * Status and rate limit headers of a response, -1 for missing headers.
+     */
+    private static final class Response {
+        private final int code;
+        private final long retryAfter;
+        private final long remaining;
+        private final long reset;
+
+        private Response(final int code, final long retryAfter, final long remaining, final long reset) {
+            this.code = code;
+            this.retryAfter = retryAfter;
+            this.remaining = remaining;
+            this.reset = reset;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.decoration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of the analysis of a pull request posted to its code host: the quality gate status
+ * and one comment per unresolved issue, sent together in a single call.
+ */
+public final class PullRequestDecoration {
+
+    private final String projectKey;
+    private final String pullRequest;
+    private final String branch;
+    private final String base;
+    private final long analysisDate;
+    private final String qualityGateStatus;
+    private final List<Comment> comments;
+
+    /**
+     * Constructor.
+     *
+     * @param projectKey        Key of the project.
+     * @param pullRequest       Id of the pull request.
+     * @param branch            Name of the branch of the pull request.
+     * @param base              Name of the branch the pull request is merged into, null if unknown.
+     * @param analysisDate      Date of the analysis.
+     * @param qualityGateStatus Quality gate status of the analysis, null if there is no quality gate.
+     * @param comments          Comments on the unresolved issues of the pull request.
+     */
+    public PullRequestDecoration(final String projectKey, final String pullRequest, final String branch, final String base,
+                                 final long analysisDate, final String qualityGateStatus, final List<Comment> comments) {
+        this.projectKey = projectKey;
+        this.pullRequest = pullRequest;
+        this.branch = branch;
+        this.base = base;
+        this.analysisDate = analysisDate;
+        this.qualityGateStatus = qualityGateStatus;
+        this.comments = new ArrayList<>(comments);
+    }
+
+    /**
+     * Key identifying the pull request in the queue, decorations with the same key supersede each other.
+     *
+     * @return Key of the project and id of the pull request.
+     */
+    public String key() {
+        return this.projectKey + ':' + this.pullRequest;
+    }
+
+    /**
+     * @return Key of the project.
+     */
+    public String getProjectKey() {
+        return this.projectKey;
+    }
+
+    /**
+     * @return Id of the pull request.
+     */
+    public String getPullRequest() {
+        return this.pullRequest;
+    }
+
+    /**
+     * @return Name of the branch of the pull request.
+     */
+    public String getBranch() {
+        return this.branch;
+    }
+
+    /**
+     * @return Name of the branch the pull request is merged into, null if unknown.
+     */
+    public String getBase() {
+        return this.base;
+    }
+
+    /**
+     * @return Date of the analysis.
+     */
+    public long getAnalysisDate() {
+        return this.analysisDate;
+    }
+
+    /**
+     * @return Quality gate status of the analysis, null if there is no quality gate.
+     */
+    public String getQualityGateStatus() {
+        return this.qualityGateStatus;
+    }
+
+    /**
+     * @return Comments on the unresolved issues of the pull request.
+     */
+    public List<Comment> getComments() {
+        return Collections.unmodifiableList(this.comments);
+    }
+
+    /**
+     * Comment on an issue of the pull request.
+     */
+    public static final class Comment {
+
+        private final String path;
+        private final int line;
+        private final String rule;
+        private final String severity;
+        private final String message;
+
+        /**
+         * Constructor.
+         *
+         * @param path     Path of the file, null for an issue on the project.
+         * @param line     Line of the issue, 0 for an issue on the whole file.
+         * @param rule     Key of the rule.
+         * @param severity Severity of the issue.
+         * @param message  Message of the issue.
+         */
+        public Comment(final String path, final int line, final String rule, final String severity, final String message) {
+            this.path = path;
+            this.line = line;
+            this.rule = rule;
+            this.severity = severity;
+            this.message = message;
+        }
+
+        /**
+         * @return Path of the file, null for an issue on the project.
+         */
+        public String getPath() {
+            return this.path;
+        }
+
+        /**
+         * @return Line of the issue, 0 for an issue on the whole file.
+         */
+        public int getLine() {
+            return this.line;
+        }
+
+        /**
+         * @return Key of the rule.
+         */
+        public String getRule() {
+            return this.rule;
+        }
+
+        /**
+         * @return Severity of the issue.
+         */
+        public String getSeverity() {
+            return this.severity;
+        }
+
+        /**
+         * @return Message of the issue.
+         */
+        public String getMessage() {
+            return this.message;
+        }
+    }
+}
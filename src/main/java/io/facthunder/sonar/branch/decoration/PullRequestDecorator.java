@@ -0,0 +1,132 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.decoration;
+
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import org.sonar.api.ce.posttask.CeTask;
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+import org.sonar.db.component.BranchType;
+import org.sonar.server.computation.task.projectanalysis.analysis.AnalysisMetadataHolder;
+import org.sonar.server.computation.task.projectanalysis.analysis.Branch;
+import org.sonar.server.computation.task.projectanalysis.component.TreeRootHolder;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queue the decoration of an analyzed pull request: its quality gate status and its unresolved issues,
+ * read with a single bounded query once they are persisted. Posting them to the code host is left
+ * to {@link DecorationQueue}, so that the analysis task never waits for the host.
+ */
+public class PullRequestDecorator implements PostProjectAnalysisTask {
+
+    private static final Logger LOGGER = Loggers.get(PullRequestDecorator.class);
+    private static final int DEFAULT_MAX_COMMENTS = 50;
+    private static final String SELECT_ISSUES = "select c.path, coalesce(i.line, 0), r.plugin_name, r.plugin_rule_key, i.severity, i.message"
+            + " from issues i"
+            + " inner join rules r on r.id = i.rule_id"
+            + " inner join projects c on c.uuid = i.component_uuid"
+            + " where i.project_uuid = ? and i.status <> 'CLOSED' and i.resolution is null"
+            + " order by c.path, i.line";
+
+    private final DecorationQueue queue;
+    private final AnalysisMetadataHolder analysisMetadataHolder;
+    private final TreeRootHolder treeRootHolder;
+    private final DbClient dbClient;
+    private final Configuration configuration;
+
+    /**
+     * Constructor.
+     *
+     * @param queue                  Outbound queue of decorations.
+     * @param analysisMetadataHolder Holder of the analyzed branch.
+     * @param treeRootHolder         Holder of the analyzed component tree.
+     * @param dbClient               Client to join the database.
+     * @param configuration          Configuration of the compute engine.
+     */
+    public PullRequestDecorator(final DecorationQueue queue, final AnalysisMetadataHolder analysisMetadataHolder,
+                                final TreeRootHolder treeRootHolder, final DbClient dbClient, final Configuration configuration) {
+        this.queue = queue;
+        this.analysisMetadataHolder = analysisMetadataHolder;
+        this.treeRootHolder = treeRootHolder;
+        this.dbClient = dbClient;
+        this.configuration = configuration;
+    }
+
+    /**
+     * @see PostProjectAnalysisTask
+     */
+    @Override
+    public void finished(final ProjectAnalysis analysis) {
+        if (!this.queue.isEnabled() || analysis.getCeTask().getStatus() != CeTask.Status.SUCCESS) {
+            return;
+        }
+        final Branch branch = this.analysisMetadataHolder.getBranch();
+        if (branch.getType() != BranchType.PULL_REQUEST) {
+            return;
+        }
+        final QualityGate qualityGate = analysis.getQualityGate();
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            this.queue.offer(new PullRequestDecoration(analysis.getProject().getKey(), branch.getPullRequestId(), branch.getName(),
+                    this.baseName(dbSession, branch), this.analysisMetadataHolder.getAnalysisDate(),
+                    qualityGate == null ? null : qualityGate.getStatus().name(), this.comments(dbSession)));
+        } catch (final SQLException | RuntimeException e) {
+            LOGGER.warn("Could not queue decoration of pull request '{}'", branch.getPullRequestId(), e);
+        }
+    }
+
+    private String baseName(final DbSession dbSession, final Branch branch) {
+        return branch.getMergeBranchUuid()
+                .flatMap(uuid -> this.dbClient.branchDao().selectByUuid(dbSession, uuid))
+                .map(BranchDto::getKey)
+                .orElse(null);
+    }
+
+    /**
+     * Read the unresolved issues of the pull request, up to the configured number of comments.
+     *
+     * @return Comments, ordered by file and line, empty if only the status is posted.
+     */
+    private List<PullRequestDecoration.Comment> comments(final DbSession dbSession) throws SQLException {
+        final List<PullRequestDecoration.Comment> comments = new ArrayList<>();
+        final int maxComments = this.configuration.getInt(BranchPropertyDefinition.DECORATION_MAX_COMMENTS).orElse(DEFAULT_MAX_COMMENTS);
+        if (maxComments <= 0) {
+            return comments;
+        }
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(SELECT_ISSUES)) {
+            statement.setMaxRows(maxComments);
+            statement.setString(1, this.treeRootHolder.getRoot().getUuid());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    comments.add(new PullRequestDecoration.Comment(resultSet.getString(1), resultSet.getInt(2),
+                            resultSet.getString(3) + ':' + resultSet.getString(4), resultSet.getString(5), resultSet.getString(6)));
+                }
+            }
+        }
+        return comments;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.events;
+
+/**
+ * Change of a branch or pull request, numbered in the order changes are published.
+ */
+public final class BranchEvent {
+
+    /**
+     * Kinds of changes.
+     */
+    public enum Type {
+        /**
+         * First analysis of a branch.
+         **/
+        CREATED,
+        /**
+         * Deletion of a branch.
+         **/
+        DELETED,
+        /**
+         * Successful analysis of a branch.
+         **/
+        ANALYZED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String projectUuid;
+    private final String projectKey;
+    private final String branch;
+    private final String branchType;
+    private final long date;
+
+    /**
+     * Constructor.
+     *
+     * @param sequence    Number of the event, 0 until it is published.
+     * @param type        Kind of change.
+     * @param projectUuid UUID of the project.
+     * @param projectKey  Key of the project.
+     * @param branch      Name of the branch, or id of the pull request.
+     * @param branchType  Type of the branch.
+     * @param date        Date of the change.
+     */
+    public BranchEvent(final long sequence, final Type type, final String projectUuid, final String projectKey,
+                       final String branch, final String branchType, final long date) {
+        this.sequence = sequence;
+        this.type = type;
+        this.projectUuid = projectUuid;
+        this.projectKey = projectKey;
+        this.branch = branch;
+        this.branchType = branchType;
+        this.date = date;
+    }
+
+    /**
+     * Copy this event with its number.
+     *
+     * @param number Number of the event.
+     * @return The numbered event.
+     */
+    BranchEvent withSequence(final long number) {
+        return new BranchEvent(number, this.type, this.projectUuid, this.projectKey, this.branch, this.branchType, this.date);
+    }
+
+    /**
+     * @return Number of the event.
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return Kind of change.
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * @return UUID of the project.
+     */
+    public String getProjectUuid() {
+        return this.projectUuid;
+    }
+
+    /**
+     * @return Key of the project.
+     */
+    public String getProjectKey() {
+        return this.projectKey;
+    }
+
+    /**
+     * @return Name of the branch, or id of the pull request.
+     */
+    public String getBranch() {
+        return this.branch;
+    }
+
+    /**
+     * @return Type of the branch.
+     */
+    public String getBranchType() {
+        return this.branchType;
+    }
+
+    /**
+     * @return Date of the change.
+     */
+    public long getDate() {
+        return this.date;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.events;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.facthunder.sonar.branch.BranchDataDirectory;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Log of branch events, shared by the Compute Engine and the web server through files of the plugin data directory.
+ * Events are appended as JSON lines under a file lock, and numbered from a sequence stored next to the log,
+ * so numbers always increase whichever process publishes them. When the log grows too large, it is kept
+ * as the previous log and a new one is started: readers resuming from an older number are told to reset.
+ * Readers keep the most recent events in memory and only read what was appended since their last read.
+ */
+@ServerSide
+@ComputeEngineSide
+public class BranchEventLog {
+
+    private static final Logger LOGGER = Loggers.get(BranchEventLog.class);
+    private static final String LOG = "branch-events.log";
+    private static final String PREVIOUS_LOG = "branch-events.log.1";
+    private static final String SEQUENCE = "branch-events.seq";
+    private static final String LOCK = "branch-events.lock";
+    /**
+     * Size from which a new log is started.
+     **/
+    private static final long MAX_LOG_SIZE = 8L * 1024L * 1024L;
+    /**
+     * Number of events kept in memory by readers.
+     **/
+    static final int RETAINED_EVENTS = 10_000;
+
+    private final Configuration configuration;
+    private final Gson gson = new Gson();
+    private final Deque<BranchEvent> recent = new ArrayDeque<>();
+    private Object readFileKey;
+    private long readOffset;
+
+    /**
+     * Constructor.
+     *
+     * @param configuration Configuration of the server.
+     */
+    public BranchEventLog(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Number and append events to the log.
+     *
+     * @param events Events to publish.
+     */
+    public synchronized void publish(final List<BranchEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        final Path directory = this.directory();
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                long sequence = this.lastPublishedSequence();
+                final StringBuilder lines = new StringBuilder();
+                for (final BranchEvent event : events) {
+                    sequence++;
+                    lines.append(this.gson.toJson(event.withSequence(sequence))).append('\n');
+                }
+                // numbers are reserved before events are appended: a failure leaves a gap, never a duplicate
+                final Path temporary = directory.resolve(SEQUENCE + ".tmp");
+                Files.write(temporary, String.valueOf(sequence).getBytes(StandardCharsets.UTF_8));
+                Files.move(temporary, directory.resolve(SEQUENCE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                final Path log = directory.resolve(LOG);
+                if (Files.exists(log) && Files.size(log) > MAX_LOG_SIZE) {
+                    Files.move(log, directory.resolve(PREVIOUS_LOG), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                Files.write(log, lines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not publish branch events", e);
+        }
+    }
+
+    /**
+     * Get the number of the last published event.
+     *
+     * @return Number of the last event, 0 if none was published.
+     */
+    public synchronized long lastSequence() {
+        try {
+            this.refresh();
+        } catch (final IOException e) {
+            LOGGER.debug("Could not read branch events - serving known events", e);
+        }
+        return this.recent.isEmpty() ? 0 : this.recent.getLast().getSequence();
+    }
+
+    /**
+     * Read events published after a number.
+     *
+     * @param after       Number of the last event already read, 0 to read from the oldest known event.
+     * @param limit       Maximum number of events.
+     * @param projectUuid UUID of the project of the events, null for all projects.
+     * @return Events following the given number.
+     */
+    public synchronized Page read(final long after, final int limit, final String projectUuid) {
+        try {
+            this.refresh();
+        } catch (final IOException e) {
+            LOGGER.debug("Could not read branch events - serving known events", e);
+        }
+        final long first = this.recent.isEmpty() ? 0 : this.recent.getFirst().getSequence();
+        final long last = this.recent.isEmpty() ? after : this.recent.getLast().getSequence();
+        final List<BranchEvent> events = new ArrayList<>();
+        for (final BranchEvent event : this.recent) {
+            if (events.size() >= limit) {
+                return new Page(events, events.get(events.size() - 1).getSequence(), after < first - 1);
+            }
+            if (event.getSequence() > after && (projectUuid == null || projectUuid.equals(event.getProjectUuid()))) {
+                events.add(event);
+            }
+        }
+        return new Page(events, Math.max(after, last), after < first - 1);
+    }
+
+    /**
+     * Read events appended since the last read, starting again from the previous log when a new log was started.
+     */
+    private void refresh() throws IOException {
+        final Path log = this.directory().resolve(LOG);
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(log, BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            return;
+        }
+        if (this.readFileKey == null || !Objects.equals(this.readFileKey, attributes.fileKey()) || attributes.size() < this.readOffset) {
+            final Path previous = this.directory().resolve(PREVIOUS_LOG);
+            if (Files.exists(previous)) {
+                this.readFrom(previous, 0);
+            }
+            this.readFileKey = attributes.fileKey();
+            this.readOffset = 0;
+        }
+        this.readOffset = this.readFrom(log, this.readOffset);
+    }
+
+    /**
+     * Read complete lines of a log from an offset and keep events not read yet.
+     *
+     * @param log    Log to read.
+     * @param offset Offset of the first line to read.
+     * @return Offset following the last complete line.
+     */
+    private long readFrom(final Path log, final long offset) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            channel.position(offset);
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) > 0) {
+                bytes.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        final byte[] content = bytes.toByteArray();
+        int start = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                this.keep(new String(content, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return offset + start;
+    }
+
+    private void keep(final String line) {
+        final BranchEvent event;
+        try {
+            event = this.gson.fromJson(line, BranchEvent.class);
+        } catch (final JsonParseException e) {
+            LOGGER.debug("Invalid branch event ignored: {}", line);
+            return;
+        }
+        if (event != null && (this.recent.isEmpty() || event.getSequence() > this.recent.getLast().getSequence())) {
+            this.recent.addLast(event);
+            if (this.recent.size() > RETAINED_EVENTS) {
+                this.recent.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Read the number of the last published event, from the sequence file or else from the logs.
+     *
+     * @return Number of the last event, 0 if none was published.
+     */
+    private long lastPublishedSequence() throws IOException {
+        final Path sequence = this.directory().resolve(SEQUENCE);
+        if (Files.exists(sequence)) {
+            try {
+                return Long.parseLong(new String(Files.readAllBytes(sequence), StandardCharsets.UTF_8).trim());
+            } catch (final NumberFormatException e) {
+                LOGGER.warn("Invalid {} - numbering events from the logs", sequence);
+            }
+        }
+        long last = 0;
+        for (final String name : new String[]{PREVIOUS_LOG, LOG}) {
+            final Path log = this.directory().resolve(name);
+            if (Files.exists(log)) {
+                for (final String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+                    try {
+                        final BranchEvent event = this.gson.fromJson(line, BranchEvent.class);
+                        last = event == null ? last : Math.max(last, event.getSequence());
+                    } catch (final JsonParseException e) {
+                        LOGGER.debug("Invalid branch event ignored: {}", line);
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    private Path directory() {
+        return BranchDataDirectory.resolve(this.configuration, "events");
+    }
+
+    /**
+     * Events read from the log.
+     */
+    public static final class Page {
+
+        private final List<BranchEvent> events;
+        private final long last;
+        private final boolean reset;
+
+        private Page(final List<BranchEvent> events, final long last, final boolean reset) {
+            this.events = Collections.unmodifiableList(events);
+            this.last = last;
+            this.reset = reset;
+        }
+
+        /**
+         * @return Events in order of their numbers.
+         */
+        public List<BranchEvent> getEvents() {
+            return this.events;
+        }
+
+        /**
+         * @return Number to resume reading from.
+         */
+        public long getLast() {
+            return this.last;
+        }
+
+        /**
+         * @return True if events following the requested number are no longer known, so the reader must reload its state.
+         */
+        public boolean isReset() {
+            return this.reset;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.events;
+
+import org.sonar.api.ce.posttask.CeTask;
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchType;
+import org.sonar.server.computation.task.projectanalysis.analysis.AnalysisMetadataHolder;
+import org.sonar.server.computation.task.projectanalysis.analysis.Branch;
+import org.sonar.server.computation.task.projectanalysis.component.TreeRootHolder;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publish the events of a successful analysis: its branch was analyzed, and created if it did not exist before.
+ *
+ * @see BranchEventLog
+ */
+public class BranchEventPublisher implements PostProjectAnalysisTask {
+
+    private static final Logger LOGGER = Loggers.get(BranchEventPublisher.class);
+    private static final String COUNT_ANALYSES = "select count(*) from snapshots where component_uuid = ? and status = ?";
+    private final BranchEventLog branchEventLog;
+    private final ResolvedBranchHolder resolvedBranchHolder;
+    private final AnalysisMetadataHolder analysisMetadataHolder;
+    private final TreeRootHolder treeRootHolder;
+    private final DbClient dbClient;
+
+    /**
+     * Constructor.
+     *
+     * @param branchEventLog         Log of branch events.
+     * @param resolvedBranchHolder   What was found out while resolving the analyzed branch.
+     * @param analysisMetadataHolder Holder of the analyzed branch.
+     * @param treeRootHolder         Holder of the analyzed component tree.
+     * @param dbClient               Client to join the database.
+     */
+    public BranchEventPublisher(final BranchEventLog branchEventLog, final ResolvedBranchHolder resolvedBranchHolder,
+                                final AnalysisMetadataHolder analysisMetadataHolder, final TreeRootHolder treeRootHolder,
+                                final DbClient dbClient) {
+        this.branchEventLog = branchEventLog;
+        this.resolvedBranchHolder = resolvedBranchHolder;
+        this.analysisMetadataHolder = analysisMetadataHolder;
+        this.treeRootHolder = treeRootHolder;
+        this.dbClient = dbClient;
+    }
+
+    /**
+     * @see PostProjectAnalysisTask
+     */
+    @Override
+    public void finished(final ProjectAnalysis analysis) {
+        if (analysis.getCeTask().getStatus() != CeTask.Status.SUCCESS) {
+            return;
+        }
+        final Branch branch = this.analysisMetadataHolder.getBranch();
+        final String key = branch.getType() == BranchType.PULL_REQUEST ? branch.getPullRequestId() : branch.getName();
+        final String projectUuid = analysis.getProject().getUuid();
+        final String projectKey = analysis.getProject().getKey();
+        final long date = this.analysisMetadataHolder.getAnalysisDate();
+        final List<BranchEvent> events = new ArrayList<>();
+        try {
+            if (!this.resolvedBranchHolder.existed().orElseGet(this::isAnalyzedBefore)) {
+                events.add(new BranchEvent(0, BranchEvent.Type.CREATED, projectUuid, projectKey, key, branch.getType().name(), date));
+            }
+            events.add(new BranchEvent(0, BranchEvent.Type.ANALYZED, projectUuid, projectKey, key, branch.getType().name(), date));
+            this.branchEventLog.publish(events);
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Could not publish events of branch '{}'", key, e);
+        }
+    }
+
+    /**
+     * Check if the analyzed branch had another analysis than the current one.
+     *
+     * @return True if the branch was analyzed before.
+     */
+    private boolean isAnalyzedBefore() {
+        try (DbSession dbSession = this.dbClient.openSession(false);
+             PreparedStatement statement = dbSession.getConnection().prepareStatement(COUNT_ANALYSES)) {
+            statement.setString(1, this.treeRootHolder.getRoot().getUuid());
+            statement.setString(2, "P");
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(1) > 1;
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Could not count analyses of the branch", e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.events;
+
+import java.util.Optional;
+
+/**
+ * Holder of what {@link io.facthunder.sonar.branch.BranchLoaderDelegateImpl} found out about the analyzed branch
+ * while resolving it, for the events published at the end of the analysis.
+ */
+public class ResolvedBranchHolder {
+
+    private Boolean existed;
+
+    /**
+     * Record whether the analyzed branch existed before the analysis.
+     *
+     * @param existed True if it existed, null if it was not looked up.
+     */
+    public void setExisted(final Boolean existed) {
+        this.existed = existed;
+    }
+
+    /**
+     * @return Whether the analyzed branch existed before the analysis, empty if it was not looked up.
+     */
+    public Optional<Boolean> existed() {
+        return Optional.ofNullable(this.existed);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.hierarchy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Branches and pull requests of a project, organized by merge branch.
+ * Ancestors are materialized in each node, and children are indexed once,
+ * so ancestry and descendants of a branch are answered without walking the branch lists.
+ */
+public final class BranchHierarchy {
+
+    private static final String PULL_REQUEST = "PULL_REQUEST";
+
+    private final Map<String, BranchNode> nodes = new LinkedHashMap<>();
+    private final Map<String, List<BranchNode>> children;
+
+    /**
+     * Constructor.
+     *
+     * @param nodes Materialized nodes of the project.
+     */
+    BranchHierarchy(final Collection<BranchNode> nodes) {
+        nodes.forEach(node -> this.nodes.put(node.getUuid(), node));
+        this.children = nodes.stream()
+                .filter(node -> node.getParentUuid() != null)
+                .collect(Collectors.groupingBy(BranchNode::getParentUuid));
+    }
+
+    /**
+     * @return All the nodes of the project.
+     */
+    public Collection<BranchNode> getNodes() {
+        return Collections.unmodifiableCollection(this.nodes.values());
+    }
+
+    /**
+     * Find a node by its UUID.
+     *
+     * @param uuid UUID of the branch or pull request.
+     * @return The node, empty if it is not in the hierarchy.
+     */
+    public Optional<BranchNode> get(final String uuid) {
+        return Optional.ofNullable(this.nodes.get(uuid));
+    }
+
+    /**
+     * Find a branch by its name.
+     *
+     * @param name Name of the branch.
+     * @return The branch, empty if it is not in the hierarchy.
+     */
+    public Optional<BranchNode> getBranch(final String name) {
+        return this.nodes.values().stream()
+                .filter(node -> !PULL_REQUEST.equals(node.getType()) && node.getKey().equals(name))
+                .findFirst();
+    }
+
+    /**
+     * Find a pull request by its id.
+     *
+     * @param id Id of the pull request.
+     * @return The pull request, empty if it is not in the hierarchy.
+     */
+    public Optional<BranchNode> getPullRequest(final String id) {
+        return this.nodes.values().stream()
+                .filter(node -> PULL_REQUEST.equals(node.getType()) && node.getKey().equals(id))
+                .findFirst();
+    }
+
+    /**
+     * Get the nearest long living ancestor of a node.
+     *
+     * @param node Node of the hierarchy.
+     * @return The ancestor, empty for the main branch.
+     */
+    public Optional<BranchNode> getNearestLongLivedAncestor(final BranchNode node) {
+        return Optional.ofNullable(node.getLongLivedAncestorUuid()).map(this.nodes::get);
+    }
+
+    /**
+     * Get the ancestors of a node.
+     *
+     * @param node Node of the hierarchy.
+     * @return Ancestors, from the main branch to the parent of the node.
+     */
+    public List<BranchNode> getAncestors(final BranchNode node) {
+        return node.getPath().stream().map(this.nodes::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * Get all the descendants of a node.
+     *
+     * @param node Node of the hierarchy.
+     * @return Descendants, each one after its parent.
+     */
+    public List<BranchNode> getDescendants(final BranchNode node) {
+        final List<BranchNode> descendants = new ArrayList<>();
+        final Set<String> visited = new HashSet<>(Collections.singleton(node.getUuid()));
+        final Deque<BranchNode> queue = new ArrayDeque<>(this.children.getOrDefault(node.getUuid(), Collections.emptyList()));
+        while (!queue.isEmpty()) {
+            final BranchNode descendant = queue.poll();
+            if (visited.add(descendant.getUuid())) {
+                descendants.add(descendant);
+                queue.addAll(this.children.getOrDefault(descendant.getUuid(), Collections.emptyList()));
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * Materialize the ancestry of some nodes and of all their descendants,
+     * from the ancestry of their parents.
+     *
+     * @param nodes  Nodes of the project, by UUID, replaced by their materialized copies.
+     * @param starts UUIDs of the nodes whose ancestry changed.
+     */
+    static void materialize(final Map<String, BranchNode> nodes, final Collection<String> starts) {
+        final Map<String, List<String>> childUuids = new HashMap<>();
+        nodes.values().stream()
+                .filter(node -> node.getParentUuid() != null)
+                .forEach(node -> childUuids.computeIfAbsent(node.getParentUuid(), uuid -> new ArrayList<>()).add(node.getUuid()));
+        final Deque<String> queue = new ArrayDeque<>(starts);
+        final Set<String> visited = new HashSet<>();
+        while (!queue.isEmpty()) {
+            final String uuid = queue.poll();
+            final BranchNode node = nodes.get(uuid);
+            if (node != null && visited.add(uuid)) {
+                nodes.put(uuid, node.materialize(node.getParentUuid() == null ? null : nodes.get(node.getParentUuid())));
+                queue.addAll(childUuids.getOrDefault(uuid, Collections.emptyList()));
+            }
+        }
+    }
+
+    /**
+     * Materialize the ancestry of all nodes.
+     *
+     * @param nodes Nodes of the project, by UUID, replaced by their materialized copies.
+     */
+    static void materialize(final Map<String, BranchNode> nodes) {
+        materialize(nodes, nodes.values().stream()
+                .filter(node -> node.getParentUuid() == null || !nodes.containsKey(node.getParentUuid()))
+                .map(BranchNode::getUuid)
+                .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.hierarchy;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import io.facthunder.sonar.branch.BranchDataDirectory;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+/**
+ * Store of the branch hierarchy of each project, in one file per project of the plugin data directory.
+ * The hierarchy of a project is built from the database the first time it is read, then the Compute Engine
+ * updates the analyzed branch and its descendants only, at the end of each analysis.
+ * Updates are serialized by a file lock, as Compute Engine workers and the web server may write concurrently,
+ * and parsed files are kept in memory until they change on disk.
+ */
+@ServerSide
+@ComputeEngineSide
+public class BranchHierarchyStore {
+
+    private static final Logger LOGGER = Loggers.get(BranchHierarchyStore.class);
+    private static final Type NODES_TYPE = new TypeToken<List<BranchNode>>() {}.getType();
+    private static final String SELECT_BRANCHES = "select uuid, kee, branch_type, merge_branch_uuid from project_branches"
+            + " where project_uuid = ?";
+    /**
+     * Maximum number of projects whose hierarchy is kept in memory.
+     **/
+    private static final int MAX_CACHED_PROJECTS = 1000;
+    private final Configuration configuration;
+    private final DbClient dbClient;
+    private final Gson gson = new Gson();
+    private final Map<String, Cached> cache = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Cached> eldest) {
+            return this.size() > MAX_CACHED_PROJECTS;
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param configuration Configuration of the running process.
+     * @param dbClient      Client to join the database.
+     */
+    public BranchHierarchyStore(final Configuration configuration, final DbClient dbClient) {
+        this.configuration = configuration;
+        this.dbClient = dbClient;
+    }
+
+    /**
+     * Get the branch hierarchy of a project, building it from the database if it is not stored yet.
+     *
+     * @param projectUuid UUID of the project.
+     * @return Hierarchy of the branches and pull requests of the project.
+     */
+    public synchronized BranchHierarchy get(final String projectUuid) {
+        final Path path = this.path(projectUuid);
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            return this.modify(projectUuid, UnaryOperator.identity());
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+        final Cached cached = this.cache.get(projectUuid);
+        if (cached != null && cached.isCurrent(attributes)) {
+            return cached.hierarchy;
+        }
+        final Map<String, BranchNode> nodes = this.read(path);
+        if (nodes == null) {
+            return this.modify(projectUuid, UnaryOperator.identity());
+        }
+        final BranchHierarchy hierarchy = new BranchHierarchy(nodes.values());
+        this.cache.put(projectUuid, new Cached(attributes, hierarchy));
+        return hierarchy;
+    }
+
+    /**
+     * Add or replace a branch, and update the ancestry of its descendants.
+     *
+     * @param projectUuid UUID of the project.
+     * @param node        Analyzed branch.
+     */
+    public void update(final String projectUuid, final BranchNode node) {
+        this.modify(projectUuid, nodes -> {
+            if (node.getParentUuid() != null && !nodes.containsKey(node.getParentUuid())) {
+                LOGGER.debug("Parent of branch '{}' is missing from the hierarchy - rebuilding it", node.getKey());
+                return this.load(projectUuid);
+            }
+            nodes.put(node.getUuid(), node);
+            BranchHierarchy.materialize(nodes, Collections.singletonList(node.getUuid()));
+            return nodes;
+        });
+    }
+
+    /**
+     * Forget the hierarchy of a project, rebuilt from the database when it is read again.
+     *
+     * @param projectUuid UUID of the project.
+     */
+    public synchronized void invalidate(final String projectUuid) {
+        final Path path = this.path(projectUuid);
+        this.locked(path, () -> Files.deleteIfExists(path));
+        this.cache.remove(projectUuid);
+    }
+
+    /**
+     * Read, modify and replace the hierarchy of a project while holding its lock.
+     * The hierarchy is loaded from the database if it is not stored yet.
+     *
+     * @param projectUuid  UUID of the project.
+     * @param modification Modification of the nodes, by UUID.
+     * @return The modified hierarchy.
+     */
+    private synchronized BranchHierarchy modify(final String projectUuid, final UnaryOperator<Map<String, BranchNode>> modification) {
+        final Path path = this.path(projectUuid);
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        final List<BranchNode> nodes = new ArrayList<>();
+        this.locked(path, () -> {
+            final Map<String, BranchNode> stored = Files.exists(path) ? this.read(path) : null;
+            nodes.addAll(modification.apply(stored != null ? stored : this.load(projectUuid)).values());
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                this.gson.toJson(nodes, NODES_TYPE, writer);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        });
+        this.cache.remove(projectUuid);
+        return new BranchHierarchy(nodes);
+    }
+
+    /**
+     * Load and materialize the hierarchy of a project from the database.
+     *
+     * @param projectUuid UUID of the project.
+     * @return Materialized nodes, by UUID.
+     */
+    private Map<String, BranchNode> load(final String projectUuid) {
+        final Map<String, BranchNode> nodes = new LinkedHashMap<>();
+        try (DbSession dbSession = this.dbClient.openSession(false);
+             PreparedStatement statement = dbSession.getConnection().prepareStatement(SELECT_BRANCHES)) {
+            statement.setString(1, projectUuid);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    final String uuid = resultSet.getString(1);
+                    final String mergeBranchUuid = resultSet.getString(4);
+                    final String parentUuid = mergeBranchUuid != null || uuid.equals(projectUuid) ? mergeBranchUuid : projectUuid;
+                    nodes.put(uuid, new BranchNode(uuid, resultSet.getString(2), resultSet.getString(3), parentUuid));
+                }
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Could not load branches of project " + projectUuid, e);
+        }
+        BranchHierarchy.materialize(nodes);
+        return nodes;
+    }
+
+    private Map<String, BranchNode> read(final Path path) {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            final List<BranchNode> nodes = this.gson.fromJson(reader, NODES_TYPE);
+            if (nodes == null) {
+                return null;
+            }
+            final Map<String, BranchNode> byUuid = new LinkedHashMap<>();
+            nodes.forEach(node -> byUuid.put(node.getUuid(), node));
+            return byUuid;
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException | JsonParseException e) {
+            LOGGER.warn("Could not read {} - branch hierarchy is rebuilt from the database", path);
+            return null;
+        }
+    }
+
+    private <T> T locked(final Path path, final LockedOperation<T> operation) {
+        final Path lock = path.resolveSibling(path.getFileName() + ".lock");
+        try {
+            Files.createDirectories(path.getParent());
+            try (FileChannel channel = FileChannel.open(lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                return operation.run();
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not write " + path, e);
+        }
+    }
+
+    private Path path(final String projectUuid) {
+        return BranchDataDirectory.resolve(this.configuration, "hierarchy", BranchDataDirectory.encode(projectUuid) + ".json");
+    }
+
+    /**
+     * Operation on the file of a project.
+     */
+    @FunctionalInterface
+    private interface LockedOperation<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Hierarchy parsed from a file, with the attributes identifying the version of the file.
+     * Files are replaced by a move, so their file key changes even if their modification time does not.
+     */
+    private static final class Cached {
+
+        private final FileTime lastModified;
+        private final Object fileKey;
+        private final BranchHierarchy hierarchy;
+
+        private Cached(final BasicFileAttributes attributes, final BranchHierarchy hierarchy) {
+            this.lastModified = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+            this.hierarchy = hierarchy;
+        }
+
+        private boolean isCurrent(final BasicFileAttributes attributes) {
+            return this.lastModified.equals(attributes.lastModifiedTime()) && Objects.equals(this.fileKey, attributes.fileKey());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.hierarchy;
+
+import org.sonar.api.ce.posttask.CeTask;
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.component.BranchType;
+import org.sonar.server.computation.task.projectanalysis.analysis.AnalysisMetadataHolder;
+import org.sonar.server.computation.task.projectanalysis.analysis.Branch;
+import org.sonar.server.computation.task.projectanalysis.component.TreeRootHolder;
+
+/**
+ * Update the analyzed branch or pull request in the hierarchy of its project at the end of each successful analysis,
+ * from the branch resolved by {@link io.facthunder.sonar.branch.BranchLoaderDelegateImpl}.
+ *
+ * @see BranchHierarchyStore
+ */
+public class BranchHierarchyUpdater implements PostProjectAnalysisTask {
+
+    private static final Logger LOGGER = Loggers.get(BranchHierarchyUpdater.class);
+
+    private final BranchHierarchyStore store;
+    private final AnalysisMetadataHolder analysisMetadataHolder;
+    private final TreeRootHolder treeRootHolder;
+
+    /**
+     * Constructor.
+     *
+     * @param store                  Store of the branch hierarchies.
+     * @param analysisMetadataHolder Holder of the analyzed branch.
+     * @param treeRootHolder         Holder of the analyzed component tree.
+     */
+    public BranchHierarchyUpdater(final BranchHierarchyStore store, final AnalysisMetadataHolder analysisMetadataHolder,
+                                  final TreeRootHolder treeRootHolder) {
+        this.store = store;
+        this.analysisMetadataHolder = analysisMetadataHolder;
+        this.treeRootHolder = treeRootHolder;
+    }
+
+    /**
+     * @see PostProjectAnalysisTask
+     */
+    @Override
+    public void finished(final ProjectAnalysis analysis) {
+        if (analysis.getCeTask().getStatus() != CeTask.Status.SUCCESS) {
+            return;
+        }
+        final Branch branch = this.analysisMetadataHolder.getBranch();
+        final String projectUuid = analysis.getProject().getUuid();
+        final String key = branch.getType() == BranchType.PULL_REQUEST ? branch.getPullRequestId() : branch.getName();
+        final String parentUuid = branch.isMain() ? null : branch.getMergeBranchUuid().orElse(projectUuid);
+        try {
+            this.store.update(projectUuid, new BranchNode(this.treeRootHolder.getRoot().getUuid(), key, branch.getType().name(), parentUuid));
+            LOGGER.debug("Branch '{}' updated in the hierarchy", key);
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Could not update branch '{}' in the hierarchy", key, e);
+        }
+    }
+}
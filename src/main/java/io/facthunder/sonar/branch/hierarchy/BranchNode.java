@@ -0,0 +1,124 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.hierarchy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Branch or pull request of a project in the branch hierarchy, with its materialized ancestry:
+ * the UUIDs of all its ancestors and of its nearest long living ancestor.
+ */
+public final class BranchNode {
+
+    private static final String LONG = "LONG";
+
+    private final String uuid;
+    private final String key;
+    private final String type;
+    private final String parentUuid;
+    private final List<String> path;
+    private final String longLivedAncestorUuid;
+
+    /**
+     * Constructor.
+     *
+     * @param uuid       UUID of the branch.
+     * @param key        Name of the branch, or id of the pull request.
+     * @param type       Type of the branch.
+     * @param parentUuid UUID of the branch it is merged into, null for the main branch.
+     */
+    public BranchNode(final String uuid, final String key, final String type, final String parentUuid) {
+        this(uuid, key, type, parentUuid, Collections.emptyList(), null);
+    }
+
+    private BranchNode(final String uuid, final String key, final String type, final String parentUuid,
+                       final List<String> path, final String longLivedAncestorUuid) {
+        this.uuid = uuid;
+        this.key = key;
+        this.type = type;
+        this.parentUuid = parentUuid;
+        this.path = new ArrayList<>(path);
+        this.longLivedAncestorUuid = longLivedAncestorUuid;
+    }
+
+    /**
+     * Copy this node with the ancestry derived from its parent.
+     *
+     * @param parent Materialized parent, null if the node has none.
+     * @return Materialized node.
+     */
+    BranchNode materialize(final BranchNode parent) {
+        if (parent == null) {
+            return new BranchNode(this.uuid, this.key, this.type, this.parentUuid, Collections.emptyList(), null);
+        }
+        final List<String> ancestors = new ArrayList<>(parent.getPath());
+        ancestors.add(parent.uuid);
+        return new BranchNode(this.uuid, this.key, this.type, this.parentUuid, ancestors,
+                parent.isLongLived() ? parent.uuid : parent.longLivedAncestorUuid);
+    }
+
+    /**
+     * @return UUID of the branch.
+     */
+    public String getUuid() {
+        return this.uuid;
+    }
+
+    /**
+     * @return Name of the branch, or id of the pull request.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return Type of the branch.
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * @return UUID of the branch it is merged into, null for the main branch.
+     */
+    public String getParentUuid() {
+        return this.parentUuid;
+    }
+
+    /**
+     * @return UUIDs of the ancestors of the branch, from the main branch to its parent.
+     */
+    public List<String> getPath() {
+        return this.path == null ? Collections.emptyList() : Collections.unmodifiableList(this.path);
+    }
+
+    /**
+     * @return UUID of the nearest long living ancestor, null for the main branch.
+     */
+    public String getLongLivedAncestorUuid() {
+        return this.longLivedAncestorUuid;
+    }
+
+    /**
+     * @return True for the main branch and long living branches.
+     */
+    public boolean isLongLived() {
+        return LONG.equals(this.type);
+    }
+}
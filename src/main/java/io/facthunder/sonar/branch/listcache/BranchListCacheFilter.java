@@ -0,0 +1,342 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.listcache;
+
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.events.BranchEvent;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.summary.BranchSummaryStore;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.web.ServletFilter;
+import org.sonar.api.web.UserRole;
+import org.sonar.core.permission.GlobalPermissions;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.permission.OrganizationPermission;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.NotFoundException;
+import org.sonar.server.user.UserSession;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Serve branch and pull request lists of projects from memory.
+ * Lists are cached as serialized by the web services listing them, and are served again until the branches
+ * of the project change: at the end of each of its analyses, see {@link BranchListInvalidator}, or when one
+ * of its branches is deleted or renamed. Concurrent requests of a list which is not cached wait for
+ * the first of them to load it, instead of each loading it again.
+ * Users must still be allowed to browse or analyze the project; other requests are not cached.
+ * Deletions of branches and pull requests through the web services of the server are also published
+ * as branch events, see {@link BranchEventLog}, make the branch hierarchy of the project rebuilt,
+ * see {@link BranchHierarchyStore}, and drop the summary and the component index of the deleted branch,
+ * see {@link BranchSummaryStore} and {@link BranchComponentStore}.
+ */
+public class BranchListCacheFilter extends ServletFilter {
+
+    private static final Logger LOGGER = Loggers.get(BranchListCacheFilter.class);
+    private static final String PARAM_PROJECT = "project";
+    private static final Set<String> LISTS = new HashSet<>(Arrays.asList(
+            "/api/project_branches/list", "/api/project_pull_requests/list"));
+    private static final Set<String> CHANGES = new HashSet<>(Arrays.asList(
+            "/api/project_branches/delete", "/api/project_branches/rename", "/api/project_pull_requests/delete"));
+    private static final Map<String, String> DELETED_BRANCH_PARAMS = new HashMap<>();
+
+    static {
+        DELETED_BRANCH_PARAMS.put("/api/project_branches/delete", "branch");
+        DELETED_BRANCH_PARAMS.put("/api/project_pull_requests/delete", "pullRequest");
+    }
+
+    /**
+     * Maximum time waited for a list loaded by a concurrent request.
+     **/
+    private static final long LOAD_TIMEOUT_SECONDS = 30;
+
+    private final Configuration configuration;
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final BranchListStamps stamps;
+    private final BranchEventLog branchEventLog;
+    private final BranchHierarchyStore branchHierarchyStore;
+    private final BranchComponentStore branchComponentStore;
+    private final BranchSummaryStore branchSummaryStore;
+    private final System2 system2;
+    private final Map<String, CachedList> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<CachedList>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param configuration        Configuration of the server.
+     * @param dbClient             Client to join the database.
+     * @param userSession          Session of the calling user.
+     * @param componentFinder      Service to find projects.
+     * @param stamps               Versions of the branch lists.
+     * @param branchEventLog       Log of branch events.
+     * @param branchHierarchyStore Store of the branch hierarchies.
+     * @param branchComponentStore Store of the component indexes of the branches.
+     * @param branchSummaryStore   Store of the branch summaries.
+     * @param system2              Access to system clock.
+     */
+    public BranchListCacheFilter(final Configuration configuration, final DbClient dbClient, final UserSession userSession,
+                                 final ComponentFinder componentFinder, final BranchListStamps stamps,
+                                 final BranchEventLog branchEventLog, final BranchHierarchyStore branchHierarchyStore,
+                                 final BranchComponentStore branchComponentStore, final BranchSummaryStore branchSummaryStore,
+                                 final System2 system2) {
+        this.configuration = configuration;
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.stamps = stamps;
+        this.branchEventLog = branchEventLog;
+        this.branchHierarchyStore = branchHierarchyStore;
+        this.branchComponentStore = branchComponentStore;
+        this.branchSummaryStore = branchSummaryStore;
+        this.system2 = system2;
+    }
+
+    /**
+     * @see ServletFilter
+     */
+    @Override
+    public UrlPattern doGetPattern() {
+        return UrlPattern.builder().includes(Stream.concat(LISTS.stream(), CHANGES.stream()).toArray(String[]::new)).build();
+    }
+
+    /**
+     * @see ServletFilter
+     */
+    @Override
+    public void init(final FilterConfig filterConfig) {
+        // nothing to initialize
+    }
+
+    /**
+     * @see ServletFilter
+     */
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+        final String projectKey = request.getParameter(PARAM_PROJECT);
+        if (projectKey == null) {
+            chain.doFilter(request, response);
+        } else if (CHANGES.contains(path)) {
+            this.change(path, projectKey, request, (HttpServletResponse) response, chain);
+        } else if (LISTS.contains(path) && "GET".equals(httpRequest.getMethod()) && !isProtobuf(httpRequest)
+                && this.configuration.getBoolean(BranchPropertyDefinition.LIST_CACHE_ENABLED).orElse(false)) {
+            final Optional<ComponentDto> project = this.project(projectKey).filter(this::isAuthorized);
+            if (project.isPresent()) {
+                this.serve(path + '\n' + projectKey, this.stamps.current(project.get().uuid()), request,
+                        (HttpServletResponse) response, chain);
+            } else {
+                chain.doFilter(request, response);
+            }
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    /**
+     * @see ServletFilter
+     */
+    @Override
+    public void destroy() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Let the server change the branches of a project, then invalidate its lists and publish deletions.
+     *
+     * @param path       Path of the web service.
+     * @param projectKey Key of the project.
+     * @param request    Request of the change.
+     * @param response   Response to the client.
+     * @param chain      Chain changing the branches.
+     */
+    private void change(final String path, final String projectKey, final ServletRequest request, final HttpServletResponse response,
+                        final FilterChain chain) throws IOException, ServletException {
+        final Optional<ComponentDto> project = this.project(projectKey);
+        final String deletedKey = DELETED_BRANCH_PARAMS.containsKey(path) ? request.getParameter(DELETED_BRANCH_PARAMS.get(path)) : null;
+        final Optional<BranchDto> deleted = project.flatMap(dto -> this.branch(dto, deletedKey));
+        chain.doFilter(request, response);
+        if (project.isPresent()) {
+            this.stamps.touch(project.get().uuid());
+            this.branchHierarchyStore.invalidate(project.get().uuid());
+            if (deleted.isPresent() && response.getStatus() < HttpServletResponse.SC_BAD_REQUEST) {
+                this.branchComponentStore.remove(project.get().uuid(), Collections.singletonList(deleted.get().getUuid()));
+                this.branchSummaryStore.remove(project.get().uuid(), Collections.singletonList(deleted.get().getUuid()));
+                this.branchEventLog.publish(Collections.singletonList(new BranchEvent(0, BranchEvent.Type.DELETED,
+                        project.get().uuid(), projectKey, deleted.get().getKey(), deleted.get().getBranchType().name(), this.system2.now())));
+            }
+        }
+    }
+
+    /**
+     * Serve a list from the cache, or load it, or wait for a concurrent request loading it.
+     *
+     * @param key      Key of the list.
+     * @param stamp    Current version of the branches of the project.
+     * @param request  Request of the list.
+     * @param response Response to the client.
+     * @param chain    Chain loading the list.
+     */
+    private void serve(final String key, final String stamp, final ServletRequest request, final HttpServletResponse response,
+                       final FilterChain chain) throws IOException, ServletException {
+        final CachedList cached;
+        synchronized (this.entries) {
+            cached = this.entries.get(key);
+        }
+        if (cached != null && cached.stamp.equals(stamp)) {
+            cached.writeTo(response);
+            return;
+        }
+
+        final CompletableFuture<CachedList> own = new CompletableFuture<>();
+        final CompletableFuture<CachedList> concurrent = this.loading.putIfAbsent(key + '\n' + stamp, own);
+        if (concurrent != null) {
+            final CachedList loaded = await(concurrent);
+            if (loaded != null) {
+                loaded.writeTo(response);
+            } else {
+                chain.doFilter(request, response);
+            }
+            return;
+        }
+
+        CachedList loaded = null;
+        try {
+            final BufferedResponse buffered = new BufferedResponse(response);
+            chain.doFilter(request, buffered);
+            final byte[] body = buffered.getBody();
+            if (buffered.getStatus() == HttpServletResponse.SC_OK) {
+                loaded = new CachedList(stamp, buffered.getContentType(), body);
+                this.put(key, loaded);
+            }
+            response.getOutputStream().write(body);
+        } finally {
+            own.complete(loaded);
+            this.loading.remove(key + '\n' + stamp, own);
+        }
+    }
+
+    private void put(final String key, final CachedList list) {
+        final int maxEntries = this.configuration.getInt(BranchPropertyDefinition.LIST_CACHE_MAX_ENTRIES).orElse(1000);
+        synchronized (this.entries) {
+            this.entries.put(key, list);
+            while (this.entries.size() > maxEntries) {
+                this.entries.remove(this.entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    private static CachedList await(final CompletableFuture<CachedList> future) throws ServletException {
+        try {
+            return future.get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        } catch (final ExecutionException | TimeoutException e) {
+            LOGGER.debug("Branch list not loaded by concurrent request - loading it again");
+            return null;
+        }
+    }
+
+    private Optional<ComponentDto> project(final String projectKey) {
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            return Optional.of(this.componentFinder.getByKey(dbSession, projectKey));
+        } catch (final NotFoundException e) {
+            return Optional.empty();
+        }
+    }
+
+    private Optional<BranchDto> branch(final ComponentDto project, final String key) {
+        if (key == null) {
+            return Optional.empty();
+        }
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            return this.dbClient.branchDao().selectByBranchKey(dbSession, project.uuid(), key);
+        }
+    }
+
+    private boolean isAuthorized(final ComponentDto project) {
+        return this.userSession.hasComponentPermission(UserRole.USER, project)
+                || this.userSession.hasComponentPermission(GlobalPermissions.SCAN_EXECUTION, project)
+                || this.userSession.hasPermission(OrganizationPermission.SCAN, project.getOrganizationUuid());
+    }
+
+    private static boolean isProtobuf(final HttpServletRequest request) {
+        final String accept = request.getHeader("Accept");
+        return accept != null && accept.contains("protobuf");
+    }
+
+    /**
+     * List serialized by its web service, with the version of the branches it was loaded from.
+     */
+    private static final class CachedList {
+
+        private final String stamp;
+        private final String contentType;
+        private final byte[] body;
+
+        private CachedList(final String stamp, final String contentType, final byte[] body) {
+            this.stamp = stamp;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        private void writeTo(final HttpServletResponse response) throws IOException {
+            response.setStatus(HttpServletResponse.SC_OK);
+            if (this.contentType != null) {
+                response.setContentType(this.contentType);
+            }
+            response.setContentLength(this.body.length);
+            response.getOutputStream().write(this.body);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.listcache;
+
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
+
+/**
+ * Invalidate cached branch lists of the analyzed project at the end of each analysis,
+ * which may have created the analyzed branch or changed its status.
+ *
+ * @see BranchListCacheFilter
+ */
+public class BranchListInvalidator implements PostProjectAnalysisTask {
+
+    private final BranchListStamps stamps;
+
+    /**
+     * Constructor.
+     *
+     * @param stamps Versions of the branch lists.
+     */
+    public BranchListInvalidator(final BranchListStamps stamps) {
+        this.stamps = stamps;
+    }
+
+    /**
+     * @see PostProjectAnalysisTask
+     */
+    @Override
+    public void finished(final ProjectAnalysis analysis) {
+        this.stamps.touch(analysis.getProject().getUuid());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.listcache;
+
+import io.facthunder.sonar.branch.BranchDataDirectory;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Versions of the branch lists of each project, shared by the Compute Engine and the web server
+ * through one file per project of the plugin data directory.
+ * Each change of the branches of a project replaces its file, which changes its version.
+ */
+@ServerSide
+@ComputeEngineSide
+public class BranchListStamps {
+
+    private static final Logger LOGGER = Loggers.get(BranchListStamps.class);
+    private static final String NEVER_CHANGED = "";
+    private final Configuration configuration;
+
+    /**
+     * Constructor.
+     *
+     * @param configuration Configuration of the server.
+     */
+    public BranchListStamps(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Get the current version of the branch lists of a project.
+     *
+     * @param projectUuid UUID of the project.
+     * @return Version of the lists, changed by each {@link #touch(String)}.
+     */
+    public String current(final String projectUuid) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(this.path(projectUuid), BasicFileAttributes.class);
+            return attributes.lastModifiedTime() + "/" + attributes.fileKey();
+        } catch (final NoSuchFileException e) {
+            return NEVER_CHANGED;
+        } catch (final IOException e) {
+            LOGGER.debug("Could not read version of branches of project '{}'", projectUuid);
+            return String.valueOf(System.nanoTime());
+        }
+    }
+
+    /**
+     * Record that the branches of a project changed.
+     *
+     * @param projectUuid UUID of the project.
+     */
+    public void touch(final String projectUuid) {
+        final Path path = this.path(projectUuid);
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            Files.write(temporary, String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            LOGGER.warn("Could not record change of branches of project '{}' - cached branch lists may be outdated", projectUuid, e);
+            deleteQuietly(temporary);
+        }
+    }
+
+    /**
+     * Delete a temporary file left by a failed change, if any.
+     *
+     * @param temporary The temporary file, null if it was not created.
+     */
+    private static void deleteQuietly(final Path temporary) {
+        if (temporary != null) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (final IOException e) {
+                LOGGER.debug("Could not delete '{}'", temporary);
+            }
+        }
+    }
+
+    private Path path(final String projectUuid) {
+        return BranchDataDirectory.resolve(this.configuration, "list-cache", BranchDataDirectory.encode(projectUuid) + ".stamp");
+    }
+}
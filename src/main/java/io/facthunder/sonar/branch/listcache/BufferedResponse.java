@@ -0,0 +1,118 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.listcache;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Response keeping its body in memory, to be cached and then sent to the client.
+ */
+class BufferedResponse extends HttpServletResponseWrapper {
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public void write(final int b) {
+            BufferedResponse.this.body.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            BufferedResponse.this.body.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            throw new UnsupportedOperationException("Buffered responses are written synchronously");
+        }
+    };
+    private PrintWriter writer;
+    private int status = SC_OK;
+
+    /**
+     * Constructor.
+     *
+     * @param response Response sent to the client.
+     */
+    BufferedResponse(final HttpServletResponse response) {
+        super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        if (this.writer == null) {
+            this.writer = new PrintWriter(new OutputStreamWriter(this.body, StandardCharsets.UTF_8));
+        }
+        return this.writer;
+    }
+
+    @Override
+    public void flushBuffer() {
+        if (this.writer != null) {
+            this.writer.flush();
+        }
+    }
+
+    @Override
+    public void setStatus(final int status) {
+        super.setStatus(status);
+        this.status = status;
+    }
+
+    @Override
+    public void sendError(final int status) throws IOException {
+        super.sendError(status);
+        this.status = status;
+    }
+
+    @Override
+    public void sendError(final int status, final String message) throws IOException {
+        super.sendError(status, message);
+        this.status = status;
+    }
+
+    @Override
+    public int getStatus() {
+        return this.status;
+    }
+
+    /**
+     * @return Body written so far.
+     */
+    byte[] getBody() {
+        this.flushBuffer();
+        return this.body.toByteArray();
+    }
+}
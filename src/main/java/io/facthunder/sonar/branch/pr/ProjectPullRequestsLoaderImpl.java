@@ -16,6 +16,7 @@
  */
 package io.facthunder.sonar.branch.pr;
 
+import io.facthunder.sonar.branch.batch.BatchBranchMetadata;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.scanner.bootstrap.ScannerWsClient;
@@ -33,19 +34,34 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class ProjectPullRequestsLoaderImpl implements ProjectPullRequestsLoader {
     private static final Logger A = Loggers.get(ProjectPullRequestsLoaderImpl.class);
     private static final String B = "/api/project_pull_requests/list";
     private final ScannerWsClient C;
+    private final BatchBranchMetadata batchBranchMetadata;
 
     public ProjectPullRequestsLoaderImpl(ScannerWsClient var1) {
+        this(var1, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param var1                Client to call the server.
+     * @param batchBranchMetadata Pull requests loaded in batch for the pipeline, null to always load them by project.
+     */
+    public ProjectPullRequestsLoaderImpl(final ScannerWsClient var1, final BatchBranchMetadata batchBranchMetadata) {
         this.C = var1;
+        this.batchBranchMetadata = batchBranchMetadata;
     }
 
     public ProjectPullRequests load(String var1) {
-        return new ProjectPullRequests(this.B(var1));
+        final Optional<List<PullRequestInfo>> batch = this.batchBranchMetadata == null
+                ? Optional.empty() : this.batchBranchMetadata.pullRequests(var1);
+        return new ProjectPullRequests(batch.orElseGet(() -> this.B(var1)));
     }
 
     private List<PullRequestInfo> B(String var1) {
@@ -0,0 +1,156 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.profile;
+
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.utils.WildcardPattern;
+import org.sonar.scanner.scan.branch.BranchType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Analysis profile of a branch type: analysis properties overridden to skip or reduce expensive work,
+ * and rules whose issues are not reported. Long living branches have no profile.
+ */
+public final class BranchAnalysisProfile {
+
+    private static final Pattern LINE_SEPARATOR = Pattern.compile("\r\n|\n|\r");
+    private final String name;
+    private final Map<String, String> properties;
+    private final List<String> disabledRules;
+    private final List<WildcardPattern> disabledRulePatterns;
+
+    /**
+     * Constructor.
+     *
+     * @param name          Name of the profile.
+     * @param properties    Overridden analysis properties.
+     * @param disabledRules Patterns of disabled rule keys.
+     */
+    private BranchAnalysisProfile(final String name, final Map<String, String> properties, final List<String> disabledRules) {
+        this.name = name;
+        this.properties = Collections.unmodifiableMap(properties);
+        this.disabledRules = Collections.unmodifiableList(disabledRules);
+        this.disabledRulePatterns = disabledRules.stream().map(WildcardPattern::create).collect(Collectors.toList());
+    }
+
+    /**
+     * Get the profile of a branch type.
+     *
+     * @param branchType Type of the analyzed branch.
+     * @param settings   Access to settings of the project.
+     * @return The profile, empty if the type has no profile or if it is not configured.
+     */
+    public static Optional<BranchAnalysisProfile> of(final BranchType branchType, final Function<String, Optional<String>> settings) {
+        final String name;
+        final Optional<String> properties;
+        final Optional<String> disabledRules;
+        if (branchType == BranchType.SHORT) {
+            name = "short";
+            properties = settings.apply(BranchPropertyDefinition.PROFILE_SHORT_PROPERTIES);
+            disabledRules = settings.apply(BranchPropertyDefinition.PROFILE_SHORT_DISABLED_RULES);
+        } else if (branchType == BranchType.PULL_REQUEST) {
+            name = "pullRequest";
+            properties = settings.apply(BranchPropertyDefinition.PROFILE_PULL_REQUEST_PROPERTIES);
+            disabledRules = settings.apply(BranchPropertyDefinition.PROFILE_PULL_REQUEST_DISABLED_RULES);
+        } else {
+            return Optional.empty();
+        }
+        final BranchAnalysisProfile profile = new BranchAnalysisProfile(name, parseProperties(properties.orElse("")),
+                Arrays.stream(StringUtils.split(disabledRules.orElse(""), ','))
+                        .map(String::trim).filter(pattern -> !pattern.isEmpty()).collect(Collectors.toList()));
+        return profile.properties.isEmpty() && profile.disabledRules.isEmpty() ? Optional.empty() : Optional.of(profile);
+    }
+
+    /**
+     * Parse overridden properties, one 'key=value' per line. Blank lines and lines starting with '#' are ignored.
+     *
+     * @param text Text of the setting.
+     * @return Properties in their order of definition.
+     */
+    static Map<String, String> parseProperties(final String text) {
+        final Map<String, String> properties = new LinkedHashMap<>();
+        for (final String line : LINE_SEPARATOR.split(text)) {
+            final String trimmedLine = line.trim();
+            final int separator = trimmedLine.indexOf('=');
+            if (!trimmedLine.isEmpty() && !trimmedLine.startsWith("#") && separator > 0) {
+                properties.put(trimmedLine.substring(0, separator).trim(), trimmedLine.substring(separator + 1).trim());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @return Name of the profile.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return Analysis properties overridden by the profile.
+     */
+    public Map<String, String> getProperties() {
+        return this.properties;
+    }
+
+    /**
+     * @return Patterns of rule keys whose issues are not reported.
+     */
+    public List<String> getDisabledRules() {
+        return this.disabledRules;
+    }
+
+    /**
+     * Check if issues of a rule must be reported.
+     *
+     * @param ruleKey Key of the rule.
+     * @return True if the rule is disabled by the profile.
+     */
+    public boolean isDisabled(final RuleKey ruleKey) {
+        final String key = ruleKey.toString();
+        for (final WildcardPattern pattern : this.disabledRulePatterns) {
+            if (pattern.match(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describe the profile, for logs.
+     *
+     * @return Name, overridden properties and disabled rules of the profile.
+     */
+    @Override
+    public String toString() {
+        final List<String> overrides = new ArrayList<>();
+        this.properties.forEach((key, value) -> overrides.add(key + '=' + value));
+        return String.format("'%s' (properties: %s, disabled rules: %s)", this.name, overrides, this.disabledRules);
+    }
+}
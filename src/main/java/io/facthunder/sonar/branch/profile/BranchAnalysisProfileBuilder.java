@@ -0,0 +1,87 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.profile;
+
+import org.sonar.api.batch.bootstrap.ProjectBuilder;
+import org.sonar.api.batch.bootstrap.ProjectDefinition;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.scanner.bootstrap.GlobalConfiguration;
+import org.sonar.scanner.repository.ProjectRepositories;
+import org.sonar.scanner.scan.branch.BranchConfiguration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Apply the analysis profile of the analyzed branch type to the analysis properties,
+ * before the configuration of the project is built. Properties given to the scanner are not overridden.
+ * The branch type and the settings of the project are the ones already loaded by the scanner, without calling the server again.
+ * {@link ProjectBuilder} is deprecated without replacement: it is still the only extension of the scanner
+ * running before the configuration of the project is built.
+ */
+public class BranchAnalysisProfileBuilder extends ProjectBuilder {
+
+    private static final Logger LOGGER = Loggers.get(BranchAnalysisProfileBuilder.class);
+    private final BranchConfiguration branchConfiguration;
+    private final ProjectRepositories projectRepositories;
+    private final GlobalConfiguration globalConfiguration;
+
+    /**
+     * Constructor.
+     *
+     * @param branchConfiguration Configuration of the analyzed branch.
+     * @param projectRepositories Settings of the project, as loaded by the scanner.
+     * @param globalConfiguration Global configuration of the analysis.
+     */
+    public BranchAnalysisProfileBuilder(final BranchConfiguration branchConfiguration, final ProjectRepositories projectRepositories,
+                                        final GlobalConfiguration globalConfiguration) {
+        this.branchConfiguration = branchConfiguration;
+        this.projectRepositories = projectRepositories;
+        this.globalConfiguration = globalConfiguration;
+    }
+
+    /**
+     * @see ProjectBuilder
+     */
+    @Override
+    public void build(final Context context) {
+        if (!this.branchConfiguration.isShortOrPullRequest()) {
+            return;
+        }
+
+        final ProjectDefinition root = context.projectReactor().getRoot();
+        final Map<String, String> properties = root.properties();
+        final Map<String, String> settings = new HashMap<>(this.globalConfiguration.getProperties());
+        settings.putAll(this.projectRepositories.settings(root.getKey()));
+        final Optional<BranchAnalysisProfile> profile = BranchAnalysisProfile.of(this.branchConfiguration.branchType(),
+                key -> Optional.ofNullable(settings.get(key)));
+        if (profile.isPresent()) {
+            profile.get().getProperties().forEach((key, value) -> {
+                if (properties.containsKey(key)) {
+                    LOGGER.debug("Property '{}' given to the scanner is not overridden by the analysis profile", key);
+                } else {
+                    root.setProperty(key, value);
+                }
+            });
+            LOGGER.info("Analysis profile {}", profile.get());
+        } else {
+            LOGGER.debug("No analysis profile for branch type {}", this.branchConfiguration.branchType());
+        }
+    }
+}
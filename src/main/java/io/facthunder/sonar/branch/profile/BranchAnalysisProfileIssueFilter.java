@@ -0,0 +1,56 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.profile;
+
+import org.sonar.api.config.Configuration;
+import org.sonar.api.scan.issue.filter.FilterableIssue;
+import org.sonar.api.scan.issue.filter.IssueFilter;
+import org.sonar.api.scan.issue.filter.IssueFilterChain;
+import org.sonar.scanner.scan.branch.BranchConfiguration;
+
+import java.util.Optional;
+
+/**
+ * Do not report issues of rules disabled by the analysis profile of the analyzed branch type.
+ * This only hides their issues: the scanner API gives no way to remove rules from the active
+ * rules of the quality profile, so disabled rules still run and do not make the analysis faster.
+ */
+public class BranchAnalysisProfileIssueFilter implements IssueFilter {
+
+    private final Optional<BranchAnalysisProfile> profile;
+
+    /**
+     * Constructor.
+     *
+     * @param branchConfiguration Configuration of the analyzed branch.
+     * @param configuration       Configuration of the analysis.
+     */
+    public BranchAnalysisProfileIssueFilter(final BranchConfiguration branchConfiguration, final Configuration configuration) {
+        this.profile = BranchAnalysisProfile.of(branchConfiguration.branchType(), configuration::get);
+    }
+
+    /**
+     * @see IssueFilter
+     */
+    @Override
+    public boolean accept(final FilterableIssue issue, final IssueFilterChain chain) {
+        if (this.profile.isPresent() && this.profile.get().isDisabled(issue.ruleKey())) {
+            return false;
+        }
+        return chain.accept(issue);
+    }
+}
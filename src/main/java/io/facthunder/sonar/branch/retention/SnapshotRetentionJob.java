@@ -0,0 +1,266 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.retention;
+
+import org.picocontainer.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job of the compute engine applying the snapshot retention policies of branch types,
+ * see {@link SnapshotRetentionPolicy}. Branches are read page by page, and analyses of a branch are
+ * deleted with their measures by batches, each batch in its own transaction.
+ * The main branch is left to the housekeeping of SonarQube.
+ */
+@ComputeEngineSide
+public class SnapshotRetentionJob implements Startable {
+
+    private static final Logger LOGGER = Loggers.get(SnapshotRetentionJob.class);
+    private static final long INITIAL_DELAY_MINUTES = 10;
+    private static final long PERIOD_MINUTES = TimeUnit.HOURS.toMinutes(24);
+    /**
+     * Number of branches read by a single query.
+     **/
+    private static final int BRANCHES_PER_PAGE = 100;
+    /**
+     * Number of analyses deleted by a single transaction.
+     **/
+    private static final int ANALYSES_PER_TRANSACTION = 100;
+    private static final String SELECT_BRANCHES = "select uuid from project_branches"
+            + " where branch_type = ? and uuid <> project_uuid and uuid > ? order by uuid";
+    private static final String SELECT_ANALYSES = "select s.uuid, s.created_at, s.islast, e.analysis_uuid from snapshots s"
+            + " left join events e on e.analysis_uuid = s.uuid"
+            + " where s.component_uuid = ? and s.status = ?";
+    private static final String[] DELETIONS = {
+            "delete from project_measures where analysis_uuid in (%s)",
+            "delete from analysis_properties where snapshot_uuid in (%s)",
+            "delete from snapshots where uuid in (%s)"
+    };
+
+    private final DbClient dbClient;
+    private final Configuration configuration;
+    private final System2 system2;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient      Client to join the database.
+     * @param configuration Configuration of the compute engine.
+     * @param system2       Access to system clock.
+     */
+    public SnapshotRetentionJob(final DbClient dbClient, final Configuration configuration, final System2 system2) {
+        this.dbClient = dbClient;
+        this.configuration = configuration;
+        this.system2 = system2;
+    }
+
+    /**
+     * Schedule the job if a policy is configured.
+     */
+    @Override
+    public void start() {
+        if (this.policies().isEmpty()) {
+            return;
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "branch-snapshot-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                this.run();
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Snapshot retention failed - retrying at next run", e);
+            }
+        }, INITIAL_DELAY_MINUTES, PERIOD_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stop the job, the current batch is rolled back.
+     */
+    @Override
+    public void stop() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Apply the retention policies to all the branches of their types.
+     *
+     * @return Reclaimed rows.
+     */
+    public Report run() {
+        final long start = this.system2.now();
+        final Report report = new Report();
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            for (final Map.Entry<BranchType, SnapshotRetentionPolicy> policy : this.policies().entrySet()) {
+                String cursor = "";
+                List<String> branches = selectBranches(dbSession, policy.getKey(), cursor);
+                while (!branches.isEmpty() && !Thread.currentThread().isInterrupted()) {
+                    for (final String branchUuid : branches) {
+                        this.purge(dbSession, branchUuid, policy.getValue(), report);
+                    }
+                    cursor = branches.get(branches.size() - 1);
+                    branches = selectBranches(dbSession, policy.getKey(), cursor);
+                }
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Could not apply snapshot retention", e);
+        }
+        report.duration = this.system2.now() - start;
+        LOGGER.info("Snapshot retention: {}", report);
+        return report;
+    }
+
+    private Map<BranchType, SnapshotRetentionPolicy> policies() {
+        final Map<BranchType, SnapshotRetentionPolicy> policies = new LinkedHashMap<>();
+        for (final BranchType branchType : BranchType.values()) {
+            SnapshotRetentionPolicy.of(branchType, this.configuration).ifPresent(policy -> policies.put(branchType, policy));
+        }
+        return policies;
+    }
+
+    /**
+     * Delete the analyses of a branch which are not retained by its policy, by batches.
+     */
+    private void purge(final DbSession dbSession, final String branchUuid, final SnapshotRetentionPolicy policy,
+                       final Report report) throws SQLException {
+        final List<String> purged = policy.selectPurged(selectAnalyses(dbSession, branchUuid), this.system2.now());
+        if (purged.isEmpty()) {
+            return;
+        }
+        for (int from = 0; from < purged.size(); from += ANALYSES_PER_TRANSACTION) {
+            final List<String> batch = purged.subList(from, Math.min(from + ANALYSES_PER_TRANSACTION, purged.size()));
+            try {
+                report.measures += delete(dbSession.getConnection(), DELETIONS[0], batch);
+                delete(dbSession.getConnection(), DELETIONS[1], batch);
+                report.analyses += delete(dbSession.getConnection(), DELETIONS[2], batch);
+                dbSession.commit();
+            } catch (final SQLException | RuntimeException e) {
+                dbSession.rollback();
+                throw e;
+            }
+        }
+        report.branches++;
+        LOGGER.debug("Snapshot retention: {} analyses of branch {} deleted by {} policy", purged.size(), branchUuid, policy);
+    }
+
+    private static List<String> selectBranches(final DbSession dbSession, final BranchType branchType, final String cursor)
+            throws SQLException {
+        final List<String> branches = new ArrayList<>();
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(SELECT_BRANCHES)) {
+            statement.setMaxRows(BRANCHES_PER_PAGE);
+            statement.setString(1, branchType.name());
+            statement.setString(2, cursor);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    branches.add(resultSet.getString(1));
+                }
+            }
+        }
+        return branches;
+    }
+
+    private static List<SnapshotRetentionPolicy.Analysis> selectAnalyses(final DbSession dbSession, final String branchUuid)
+            throws SQLException {
+        final Map<String, SnapshotRetentionPolicy.Analysis> analyses = new LinkedHashMap<>();
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(SELECT_ANALYSES)) {
+            statement.setString(1, branchUuid);
+            statement.setString(2, "P");
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    final String uuid = resultSet.getString(1);
+                    final boolean isProtected = resultSet.getBoolean(3) || resultSet.getString(4) != null;
+                    if (!analyses.containsKey(uuid) || isProtected) {
+                        analyses.put(uuid, new SnapshotRetentionPolicy.Analysis(uuid, resultSet.getLong(2), isProtected));
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(analyses.values());
+    }
+
+    private static int delete(final Connection connection, final String deletion, final List<String> uuids) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                String.format(deletion, String.join(",", Collections.nCopies(uuids.size(), "?"))))) {
+            for (int i = 0; i < uuids.size(); i++) {
+                statement.setString(i + 1, uuids.get(i));
+            }
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Rows reclaimed by a run of the job.
+     */
+    public static final class Report {
+
+        private int branches;
+        private int analyses;
+        private int measures;
+        private long duration;
+
+        /**
+         * @return Number of branches whose analyses were deleted.
+         */
+        public int getBranches() {
+            return this.branches;
+        }
+
+        /**
+         * @return Number of deleted analyses.
+         */
+        public int getAnalyses() {
+            return this.analyses;
+        }
+
+        /**
+         * @return Number of deleted measures.
+         */
+        public int getMeasures() {
+            return this.measures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d analyses and %d measures of %d branches reclaimed in %d ms",
+                    this.analyses, this.measures, this.branches, this.duration);
+        }
+    }
+}
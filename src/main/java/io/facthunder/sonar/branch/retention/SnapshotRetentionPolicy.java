@@ -0,0 +1,158 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.retention;
+
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import org.sonar.api.config.Configuration;
+import org.sonar.db.component.BranchType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retention policy of the analyses of a branch type: all recent analyses are kept, then only the most
+ * recent analysis of each day, then only the most recent analysis of each week.
+ * The last analysis of a branch and analyses with events are always kept.
+ */
+public final class SnapshotRetentionPolicy {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long WEEK = TimeUnit.DAYS.toMillis(7);
+    private final String name;
+    private final long dailyAfter;
+    private final long weeklyAfter;
+
+    /**
+     * Constructor.
+     *
+     * @param name       Name of the policy.
+     * @param dailyDays  Age, in days, after which only one analysis per day is kept, 0 to disable.
+     * @param weeklyDays Age, in days, after which only one analysis per week is kept, 0 to disable.
+     */
+    SnapshotRetentionPolicy(final String name, final int dailyDays, final int weeklyDays) {
+        this.name = name;
+        this.dailyAfter = dailyDays > 0 ? dailyDays * DAY : Long.MAX_VALUE;
+        this.weeklyAfter = weeklyDays > 0 ? weeklyDays * DAY : Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the policy of a branch type.
+     *
+     * @param branchType    Type of the branches.
+     * @param configuration Configuration of the compute engine.
+     * @return The policy, empty if the type has no policy or if it is not configured.
+     */
+    public static Optional<SnapshotRetentionPolicy> of(final BranchType branchType, final Configuration configuration) {
+        final SnapshotRetentionPolicy policy;
+        if (branchType == BranchType.LONG) {
+            policy = new SnapshotRetentionPolicy("long",
+                    configuration.getInt(BranchPropertyDefinition.RETENTION_LONG_DAILY).orElse(0),
+                    configuration.getInt(BranchPropertyDefinition.RETENTION_LONG_WEEKLY).orElse(0));
+        } else if (branchType == BranchType.SHORT) {
+            policy = new SnapshotRetentionPolicy("short",
+                    configuration.getInt(BranchPropertyDefinition.RETENTION_SHORT_DAILY).orElse(0),
+                    configuration.getInt(BranchPropertyDefinition.RETENTION_SHORT_WEEKLY).orElse(0));
+        } else {
+            return Optional.empty();
+        }
+        return policy.dailyAfter == Long.MAX_VALUE && policy.weeklyAfter == Long.MAX_VALUE ? Optional.empty() : Optional.of(policy);
+    }
+
+    /**
+     * Select the analyses of a branch to delete.
+     *
+     * @param analyses Analyses of the branch.
+     * @param now      Current date.
+     * @return UUIDs of the analyses to delete, most recent first.
+     */
+    public List<String> selectPurged(final List<Analysis> analyses, final long now) {
+        final List<Analysis> sorted = new ArrayList<>(analyses);
+        sorted.sort(Comparator.comparingLong(Analysis::getDate).reversed());
+        final Set<String> keptPeriods = new HashSet<>();
+        final List<String> purged = new ArrayList<>();
+        for (final Analysis analysis : sorted) {
+            final long age = now - analysis.getDate();
+            final String period;
+            if (age >= this.weeklyAfter) {
+                period = "w" + analysis.getDate() / WEEK;
+            } else if (age >= this.dailyAfter) {
+                period = "d" + analysis.getDate() / DAY;
+            } else {
+                continue;
+            }
+            if (keptPeriods.add(period) || analysis.isProtected()) {
+                continue;
+            }
+            purged.add(analysis.getUuid());
+        }
+        return purged;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    /**
+     * Analysis of a branch, as seen by the retention policy.
+     */
+    public static final class Analysis {
+
+        private final String uuid;
+        private final long date;
+        private final boolean protectedAnalysis;
+
+        /**
+         * Constructor.
+         *
+         * @param uuid              UUID of the analysis.
+         * @param date              Date of the analysis.
+         * @param protectedAnalysis True if the analysis must be kept: last analysis or analysis with events.
+         */
+        public Analysis(final String uuid, final long date, final boolean protectedAnalysis) {
+            this.uuid = uuid;
+            this.date = date;
+            this.protectedAnalysis = protectedAnalysis;
+        }
+
+        /**
+         * @return UUID of the analysis.
+         */
+        public String getUuid() {
+            return this.uuid;
+        }
+
+        /**
+         * @return Date of the analysis.
+         */
+        public long getDate() {
+            return this.date;
+        }
+
+        /**
+         * @return True if the analysis must be kept.
+         */
+        public boolean isProtected() {
+            return this.protectedAnalysis;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.scm;
+
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.scm.BlameCommand;
+import org.sonar.api.batch.scm.ScmProvider;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.core.platform.ComponentContainer;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * SCM provider relying on the provider which would have been used without it,
+ * for branch changed files and for blame it can't compute itself.
+ */
+public abstract class DelegatingScmProvider extends ScmProvider {
+
+    private static final Logger LOGGER = Loggers.get(DelegatingScmProvider.class);
+    private final ComponentContainer container;
+
+    /**
+     * Constructor.
+     *
+     * @param container Container of the scanner, to find the actual SCM provider.
+     */
+    protected DelegatingScmProvider(final ComponentContainer container) {
+        this.container = container;
+    }
+
+    /**
+     * @see ScmProvider
+     */
+    @Override
+    public Set<Path> branchChangedFiles(final String targetBranchName, final Path rootBaseDir) {
+        return this.delegate(rootBaseDir.toFile()).map(provider -> provider.branchChangedFiles(targetBranchName, rootBaseDir)).orElse(null);
+    }
+
+    /**
+     * Find the SCM provider which would have been used without this one.
+     *
+     * @param baseDir Base directory of the project.
+     * @return The provider supporting the project.
+     */
+    protected Optional<ScmProvider> delegate(final File baseDir) {
+        return this.container.getComponentsByType(ScmProvider.class).stream()
+                .filter(provider -> !(provider instanceof DelegatingScmProvider) && provider.supports(baseDir))
+                .findFirst();
+    }
+
+    /**
+     * Blame files with the SCM provider supporting the project.
+     *
+     * @param fileSystem  File system of the project.
+     * @param files       Files to blame.
+     * @param output      Where to send results.
+     */
+    protected void delegateBlame(final FileSystem fileSystem, final Iterable<InputFile> files, final BlameCommand.BlameOutput output) {
+        final Optional<ScmProvider> delegate = this.delegate(fileSystem.baseDir());
+        if (delegate.isPresent()) {
+            delegate.get().blameCommand().blame(new BlameCommand.BlameInput() {
+                @Override
+                public FileSystem fileSystem() {
+                    return fileSystem;
+                }
+
+                @Override
+                public Iterable<InputFile> filesToBlame() {
+                    return files;
+                }
+            }, output);
+        } else {
+            LOGGER.warn("No SCM provider supports this project - blame is skipped");
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.scm;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.sonar.core.hash.SourceHashComputer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Find lines of a file which changed compared to another version of the file, using line hashes,
+ * or whether the whole file changed, using the hash of its source.
+ */
+public final class LineDiff {
+
+    private static final Pattern WHITESPACES = Pattern.compile("\\s");
+    private static final Pattern LINE_SEPARATOR = Pattern.compile("\r\n|\n|\r");
+
+    /**
+     * Private constructor.
+     */
+    private LineDiff() {
+
+    }
+
+    /**
+     * Compute hashes of the lines of a file, the same way the server stores them:
+     * MD5 of the line without whitespaces, empty for blank lines.
+     *
+     * @param contents Contents of the file.
+     * @return Hash of each line.
+     */
+    public static List<String> lineHashes(final String contents) {
+        final String[] lines = LINE_SEPARATOR.split(contents, -1);
+        final List<String> hashes = new ArrayList<>(lines.length);
+        for (final String line : lines) {
+            final String reducedLine = WHITESPACES.matcher(line).replaceAll("");
+            hashes.add(reducedLine.isEmpty() ? "" : DigestUtils.md5Hex(reducedLine));
+        }
+        return hashes;
+    }
+
+    /**
+     * Compute the hash of the source of a file, the same way the server stores it:
+     * MD5 of its lines joined by line feeds. Unlike line hashes, any change but line separators changes it.
+     *
+     * @param contents Contents of the file.
+     * @return Hash of the source.
+     */
+    public static String sourceHash(final String contents) {
+        final String[] lines = LINE_SEPARATOR.split(contents, -1);
+        final SourceHashComputer computer = new SourceHashComputer();
+        for (int i = 0; i < lines.length; i++) {
+            computer.addLine(lines[i], i < lines.length - 1);
+        }
+        return computer.getHash();
+    }
+
+    /**
+     * Find changed lines. Common leading lines are matched while the reference is read,
+     * then common trailing lines; remaining lines are unchanged when the reference
+     * has an unmatched line with the same hash. Blank lines are never changed.
+     *
+     * @param hashes          Hashes of the lines of the file.
+     * @param referenceHashes Hashes of the lines of the reference version of the file, read once.
+     * @return Numbers of changed lines, starting at 1.
+     */
+    public static BitSet changedLines(final List<String> hashes, final Iterator<String> referenceHashes) {
+        int first = 0;
+        final List<String> remaining = new ArrayList<>();
+        while (referenceHashes.hasNext()) {
+            final String referenceHash = referenceHashes.next();
+            if (remaining.isEmpty() && first < hashes.size() && hashes.get(first).equals(referenceHash)) {
+                first++;
+            } else {
+                remaining.add(referenceHash);
+            }
+        }
+
+        int last = hashes.size() - 1;
+        int referenceLast = remaining.size() - 1;
+        while (last >= first && referenceLast >= 0 && hashes.get(last).equals(remaining.get(referenceLast))) {
+            last--;
+            referenceLast--;
+        }
+
+        final Map<String, Integer> unmatched = new HashMap<>();
+        for (int i = 0; i <= referenceLast; i++) {
+            unmatched.merge(remaining.get(i), 1, Integer::sum);
+        }
+        final BitSet changed = new BitSet(hashes.size() + 1);
+        for (int i = first; i <= last; i++) {
+            final String hash = hashes.get(i);
+            final Integer count = unmatched.get(hash);
+            if (count != null && count > 0) {
+                unmatched.put(hash, count - 1);
+            } else if (!hash.isEmpty()) {
+                changed.set(i + 1);
+            }
+        }
+        return changed;
+    }
+}
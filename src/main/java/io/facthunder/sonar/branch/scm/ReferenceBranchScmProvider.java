@@ -0,0 +1,106 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.scm;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.scm.BlameCommand;
+import org.sonar.api.batch.scm.BlameLine;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.core.platform.ComponentContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SCM provider comparing, on short living branches and pull requests, the line hashes of files with
+ * their version on the target branch, loaded with a few calls for all files.
+ * Files without changed lines, whitespaces ignored, reuse the blame stored by the target branch.
+ * Only files with changed lines are blamed by the SCM provider supporting the project,
+ * so that changed lines get their actual revision, date and author.
+ * Other analyses are delegated to the SCM provider supporting the project.
+ * Selected with sonar.scm.provider=reference-branch.
+ */
+public class ReferenceBranchScmProvider extends DelegatingScmProvider {
+
+    /**
+     * Key of this provider.
+     **/
+    public static final String KEY = "reference-branch";
+    private static final Logger LOGGER = Loggers.get(ReferenceBranchScmProvider.class);
+
+    private final TargetBranchSources targetBranchSources;
+
+    /**
+     * Constructor.
+     *
+     * @param targetBranchSources Access to sources of the target branch.
+     * @param container           Container of the scanner, to find the actual SCM provider.
+     */
+    public ReferenceBranchScmProvider(final TargetBranchSources targetBranchSources, final ComponentContainer container) {
+        super(container);
+        this.targetBranchSources = targetBranchSources;
+    }
+
+    /**
+     * @see org.sonar.api.batch.scm.ScmProvider
+     */
+    @Override
+    public String key() {
+        return KEY;
+    }
+
+    /**
+     * @see org.sonar.api.batch.scm.ScmProvider
+     */
+    @Override
+    public BlameCommand blameCommand() {
+        return new ReferenceBranchBlameCommand();
+    }
+
+    /**
+     * Reuse blame of files without changed lines, blame the other ones.
+     */
+    private class ReferenceBranchBlameCommand extends BlameCommand {
+
+        @Override
+        public void blame(final BlameInput input, final BlameOutput output) {
+            if (!ReferenceBranchScmProvider.this.targetBranchSources.isApplicable()) {
+                ReferenceBranchScmProvider.this.delegateBlame(input.fileSystem(), input.filesToBlame(), output);
+                return;
+            }
+
+            final List<InputFile> filesToBlame = new ArrayList<>();
+            input.filesToBlame().forEach(filesToBlame::add);
+            final Map<InputFile, List<BlameLine>> blames = ReferenceBranchScmProvider.this.targetBranchSources.unchangedLinesBlame(filesToBlame);
+            final List<InputFile> changedFiles = new ArrayList<>();
+            for (final InputFile inputFile : filesToBlame) {
+                final List<BlameLine> blame = blames.get(inputFile);
+                if (blame != null) {
+                    output.blameResult(inputFile, blame);
+                } else {
+                    changedFiles.add(inputFile);
+                }
+            }
+            LOGGER.info("{} files without changed lines compared to target branch, {} files to blame", blames.size(), changedFiles.size());
+            if (!changedFiles.isEmpty()) {
+                ReferenceBranchScmProvider.this.delegateBlame(input.fileSystem(), changedFiles, output);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.scm;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.scm.BlameCommand;
+import org.sonar.api.batch.scm.BlameLine;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.core.platform.ComponentContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SCM provider reusing, on short living branches and pull requests, the blame stored by the
+ * target branch for files identical to their target version, loaded with a few calls for all files.
+ * Only the other files are blamed by the SCM provider supporting the project.
+ * Selected with sonar.scm.provider=target-blame.
+ */
+public class TargetBlameScmProvider extends DelegatingScmProvider {
+
+    /**
+     * Key of this provider.
+     **/
+    public static final String KEY = "target-blame";
+    private static final Logger LOGGER = Loggers.get(TargetBlameScmProvider.class);
+
+    private final TargetBranchSources targetBranchSources;
+
+    /**
+     * Constructor.
+     *
+     * @param targetBranchSources Access to sources of the target branch.
+     * @param container           Container of the scanner, to find the actual SCM provider.
+     */
+    public TargetBlameScmProvider(final TargetBranchSources targetBranchSources, final ComponentContainer container) {
+        super(container);
+        this.targetBranchSources = targetBranchSources;
+    }
+
+    /**
+     * @see org.sonar.api.batch.scm.ScmProvider
+     */
+    @Override
+    public String key() {
+        return KEY;
+    }
+
+    /**
+     * @see org.sonar.api.batch.scm.ScmProvider
+     */
+    @Override
+    public BlameCommand blameCommand() {
+        return new TargetBlameCommand();
+    }
+
+    /**
+     * Reuse blame of unchanged files, blame the other ones.
+     */
+    private class TargetBlameCommand extends BlameCommand {
+
+        @Override
+        public void blame(final BlameInput input, final BlameOutput output) {
+            if (!TargetBlameScmProvider.this.targetBranchSources.isApplicable()) {
+                TargetBlameScmProvider.this.delegateBlame(input.fileSystem(), input.filesToBlame(), output);
+                return;
+            }
+
+            final List<InputFile> filesToBlame = new ArrayList<>();
+            input.filesToBlame().forEach(filesToBlame::add);
+            final Map<InputFile, List<BlameLine>> blames = TargetBlameScmProvider.this.targetBranchSources.unchangedFilesBlame(filesToBlame);
+            final List<InputFile> changedFiles = new ArrayList<>();
+            int reused = 0;
+            for (final InputFile inputFile : filesToBlame) {
+                final List<BlameLine> blame = blames.get(inputFile);
+                if (blame != null) {
+                    output.blameResult(inputFile, blame);
+                    reused++;
+                } else {
+                    changedFiles.add(inputFile);
+                }
+            }
+            LOGGER.info("Blame reused from target branch for {} files, {} files to blame", reused, changedFiles.size());
+            if (!changedFiles.isEmpty()) {
+                TargetBlameScmProvider.this.delegateBlame(input.fileSystem(), changedFiles, output);
+            }
+        }
+    }
+}
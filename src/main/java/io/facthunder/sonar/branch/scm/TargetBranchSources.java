@@ -0,0 +1,239 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.scm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.facthunder.sonar.branch.BranchComponentKey;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.InputModuleHierarchy;
+import org.sonar.api.batch.scm.BlameLine;
+import org.sonar.api.utils.DateUtils;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.scanner.bootstrap.ScannerWsClient;
+import org.sonar.scanner.scan.branch.BranchConfiguration;
+import org.sonar.scanner.scan.branch.BranchInfo;
+import org.sonar.scanner.scan.branch.BranchType;
+import org.sonar.scanner.scan.branch.ProjectBranches;
+import org.sonarqube.ws.client.PostRequest;
+import org.sonarqube.ws.client.WsResponse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Compare files of a short living branch or pull request with their version on the target branch,
+ * using the line and source hashes stored by the server.
+ */
+@ScannerSide
+public class TargetBranchSources {
+
+    private static final Logger LOGGER = Loggers.get(TargetBranchSources.class);
+    private static final String URL = "/api/branch_plugin/target_blame";
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_BRANCH = "branch";
+    private static final String PARAM_FILES = "files";
+    private static final String PARAM_LINE_HASHES = "lineHashes";
+    /**
+     * Maximum number of files of a single call, as accepted by the server.
+     **/
+    private static final int PAGE_SIZE = 500;
+    private final ScannerWsClient scannerWsClient;
+    private final BranchConfiguration branchConfiguration;
+    private final ProjectBranches projectBranches;
+    private final InputModuleHierarchy moduleHierarchy;
+
+    /**
+     * Constructor.
+     *
+     * @param scannerWsClient     Client to call the server.
+     * @param branchConfiguration Configuration of the analyzed branch.
+     * @param projectBranches     Branches of the project.
+     * @param moduleHierarchy     Modules of the project, to find its key.
+     */
+    public TargetBranchSources(final ScannerWsClient scannerWsClient, final BranchConfiguration branchConfiguration,
+                               final ProjectBranches projectBranches, final InputModuleHierarchy moduleHierarchy) {
+        this.scannerWsClient = scannerWsClient;
+        this.branchConfiguration = branchConfiguration;
+        this.projectBranches = projectBranches;
+        this.moduleHierarchy = moduleHierarchy;
+    }
+
+    /**
+     * @return True if the analysis is a short living branch or a pull request, which has a target.
+     */
+    public boolean isApplicable() {
+        return this.branchConfiguration.branchType() == BranchType.SHORT
+                || this.branchConfiguration.branchType() == BranchType.PULL_REQUEST;
+    }
+
+    /**
+     * @return Name of the target branch, null for the main branch.
+     */
+    public String targetBranchName() {
+        final String target = this.branchConfiguration.branchTarget();
+        if (target == null) {
+            return null;
+        } else {
+            final BranchInfo branchInfo = this.projectBranches.get(target);
+            return branchInfo != null && branchInfo.isMain() ? null : target;
+        }
+    }
+
+    /**
+     * Key of a file on the target branch.
+     *
+     * @param inputFile File of the analysis.
+     * @return Key of the same file on the target branch.
+     */
+    public String targetKey(final InputFile inputFile) {
+        final String target = this.targetBranchName();
+        return target == null ? inputFile.key() : inputFile.key() + BranchComponentKey.branchSuffix(target);
+    }
+
+    /**
+     * Get the blame stored on the target branch for the files whose source is identical to their target version.
+     * Files are sent to the server by pages, which gives the hash of their source and their blame, instead of
+     * calls for each file. Sources are compared exactly, so that files with whitespace changes are blamed again.
+     *
+     * @param inputFiles Files of the analysis.
+     * @return Blame of each line of the unchanged files with a complete blame on the target branch.
+     */
+    public Map<InputFile, List<BlameLine>> unchangedFilesBlame(final Collection<InputFile> inputFiles) {
+        final Map<InputFile, List<BlameLine>> blames = new HashMap<>();
+        this.forEachTargetFile(inputFiles, false, (inputFile, source) -> {
+            if (source.has("scm") && isUnchanged(inputFile, source.get("hash"))) {
+                blames.put(inputFile, blameLines(source.getAsJsonArray("scm")));
+            }
+        });
+        blames.entrySet().removeIf(blame -> blame.getValue().size() != blame.getKey().lines());
+        return blames;
+    }
+
+    /**
+     * Get the blame stored on the target branch for the files without changed lines compared to their target version.
+     * Line hashes are loaded by pages with the blame, like {@link #unchangedFilesBlame(Collection)} does,
+     * so whitespace changes are ignored. Other files are not returned, so that their changed lines get their actual blame.
+     *
+     * @param inputFiles Files of the analysis.
+     * @return Blame of each line of the files with unchanged lines and a complete blame on the target branch.
+     */
+    public Map<InputFile, List<BlameLine>> unchangedLinesBlame(final Collection<InputFile> inputFiles) {
+        final Map<InputFile, List<BlameLine>> blames = new HashMap<>();
+        this.forEachTargetFile(inputFiles, true, (inputFile, source) -> {
+            if (!source.has("lineHashes")) {
+                return;
+            }
+            final List<String> targetHashes = new ArrayList<>();
+            source.getAsJsonArray("lineHashes").forEach(hash -> targetHashes.add(hash.getAsString()));
+            final List<String> hashes;
+            try {
+                hashes = LineDiff.lineHashes(inputFile.contents());
+            } catch (final IOException e) {
+                LOGGER.debug("Could not read '{}'", inputFile);
+                return;
+            }
+            if (!hashes.equals(targetHashes)) {
+                LOGGER.debug("{} lines of '{}' changed compared to target branch",
+                        LineDiff.changedLines(hashes, targetHashes.iterator()).cardinality(), inputFile);
+            } else if (source.has("scm")) {
+                blames.put(inputFile, blameLines(source.getAsJsonArray("scm")));
+            }
+        });
+        blames.entrySet().removeIf(blame -> blame.getValue().size() != blame.getKey().lines());
+        return blames;
+    }
+
+    /**
+     * Load the files found on the target branch, by pages of files.
+     *
+     * @param inputFiles     Files of the analysis.
+     * @param withLineHashes True to also load the hashes of their lines.
+     * @param consumer       Consumer of each file with its target version, as given by the server.
+     */
+    private void forEachTargetFile(final Collection<InputFile> inputFiles, final boolean withLineHashes,
+                                   final BiConsumer<InputFile, JsonObject> consumer) {
+        final Map<String, InputFile> filesByKey = new LinkedHashMap<>();
+        inputFiles.forEach(inputFile -> filesByKey.put(this.targetKey(inputFile), inputFile));
+        final List<String> keys = new ArrayList<>(filesByKey.keySet());
+        final String target = this.targetBranchName();
+        for (int from = 0; from < keys.size(); from += PAGE_SIZE) {
+            final PostRequest request = new PostRequest(URL)
+                    .setParam(PARAM_PROJECT, this.moduleHierarchy.root().key())
+                    .setParam(PARAM_BRANCH, target)
+                    .setParam(PARAM_FILES, keys.subList(from, Math.min(from + PAGE_SIZE, keys.size())))
+                    .setParam(PARAM_LINE_HASHES, withLineHashes);
+            try {
+                final WsResponse response = this.scannerWsClient.call(request);
+                try (Reader reader = response.contentReader()) {
+                    final JsonArray files = new JsonParser().parse(reader).getAsJsonObject().getAsJsonArray("files");
+                    for (final JsonElement file : files) {
+                        final JsonObject source = file.getAsJsonObject();
+                        final InputFile inputFile = filesByKey.get(source.get("key").getAsString());
+                        if (inputFile != null) {
+                            consumer.accept(inputFile, source);
+                        }
+                    }
+                }
+            } catch (final RuntimeException | IOException exception) {
+                LOGGER.debug("Could not get files on target branch - blaming them", exception);
+            }
+        }
+    }
+
+    /**
+     * Check if the source of a file is identical to its version on the target branch.
+     *
+     * @param inputFile  File of the analysis.
+     * @param targetHash Hash of the source on the target branch.
+     * @return True if the hashes of the sources are equal.
+     */
+    private static boolean isUnchanged(final InputFile inputFile, final JsonElement targetHash) {
+        if (targetHash == null || targetHash.isJsonNull()) {
+            return false;
+        }
+        try {
+            return LineDiff.sourceHash(inputFile.contents()).equals(targetHash.getAsString());
+        } catch (final IOException e) {
+            LOGGER.debug("Could not read '{}'", inputFile);
+            return false;
+        }
+    }
+
+    private static List<BlameLine> blameLines(final JsonArray scm) {
+        final List<BlameLine> lines = new ArrayList<>(scm.size());
+        for (final JsonElement element : scm) {
+            final JsonObject line = element.getAsJsonObject();
+            lines.add(new BlameLine()
+                    .author(line.has("author") ? line.get("author").getAsString() : null)
+                    .date(DateUtils.parseDateTime(line.get("date").getAsString()))
+                    .revision(line.get("revision").getAsString()));
+        }
+        return lines;
+    }
+}
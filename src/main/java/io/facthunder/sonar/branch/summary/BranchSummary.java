@@ -0,0 +1,106 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.summary;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Summary of the last analysis of a branch or pull request, as listed without querying analysis data.
+ */
+public final class BranchSummary {
+
+    private final String uuid;
+    private final String key;
+    private final String type;
+    private final String mergeBranch;
+    private final long analysisDate;
+    private final String qualityGateStatus;
+    private final Map<String, Integer> issues;
+
+    /**
+     * Constructor.
+     *
+     * @param uuid              UUID of the branch.
+     * @param key               Name of the branch, or id of the pull request.
+     * @param type              Type of the branch.
+     * @param mergeBranch       Name of the merge branch, null for the main branch.
+     * @param analysisDate      Date of the last analysis.
+     * @param qualityGateStatus Quality gate status of the last analysis, null if there is no quality gate.
+     * @param issues            Number of unresolved issues by severity.
+     */
+    public BranchSummary(final String uuid, final String key, final String type, final String mergeBranch,
+                         final long analysisDate, final String qualityGateStatus, final Map<String, Integer> issues) {
+        this.uuid = uuid;
+        this.key = key;
+        this.type = type;
+        this.mergeBranch = mergeBranch;
+        this.analysisDate = analysisDate;
+        this.qualityGateStatus = qualityGateStatus;
+        this.issues = new LinkedHashMap<>(issues);
+    }
+
+    /**
+     * @return UUID of the branch.
+     */
+    public String getUuid() {
+        return this.uuid;
+    }
+
+    /**
+     * @return Name of the branch, or id of the pull request.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return Type of the branch.
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * @return Name of the merge branch, null for the main branch.
+     */
+    public String getMergeBranch() {
+        return this.mergeBranch;
+    }
+
+    /**
+     * @return Date of the last analysis.
+     */
+    public long getAnalysisDate() {
+        return this.analysisDate;
+    }
+
+    /**
+     * @return Quality gate status of the last analysis, null if there is no quality gate.
+     */
+    public String getQualityGateStatus() {
+        return this.qualityGateStatus;
+    }
+
+    /**
+     * @return Number of unresolved issues by severity.
+     */
+    public Map<String, Integer> getIssues() {
+        return Collections.unmodifiableMap(this.issues);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.summary;
+
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.events.BranchEvent;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.hierarchy.BranchNode;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Align the data the plugin derives from branches with the branches of the project in the database.
+ * Branches can be deleted without the plugin being told, by housekeeping of the Compute Engine or by
+ * web services it does not filter, and branches analyzed before the plugin was installed have no summary.
+ * Summaries, branch hierarchy and component indexes of deleted branches are dropped and their deletion
+ * is published as a branch event, renamed branches get their new name, and summaries of branches
+ * analyzed without the plugin are built from their last analysis.
+ * Runs in the Compute Engine after each analysis, see {@link BranchSummaryUpdater}, so that listings only read summaries.
+ */
+@ComputeEngineSide
+public class BranchSummaryReconciler {
+
+    private static final Logger LOGGER = Loggers.get(BranchSummaryReconciler.class);
+    private static final String SELECT_BRANCHES = "select uuid, kee, branch_type, merge_branch_uuid from project_branches"
+            + " where project_uuid = ?";
+    private static final String SELECT_LAST_ANALYSIS = "select created_at from snapshots where component_uuid = ? and islast = ?";
+    private static final String SELECT_MEASURES = "select m.name, lm.value, lm.text_value from live_measures lm"
+            + " inner join metrics m on m.id = lm.metric_id where lm.component_uuid = ?";
+
+    private final DbClient dbClient;
+    private final BranchSummaryStore branchSummaryStore;
+    private final BranchHierarchyStore branchHierarchyStore;
+    private final BranchComponentStore branchComponentStore;
+    private final BranchEventLog branchEventLog;
+    private final System2 system2;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient             Client to join the database.
+     * @param branchSummaryStore   Store of the branch summaries.
+     * @param branchHierarchyStore Store of the branch hierarchies.
+     * @param branchComponentStore Store of the component indexes of the branches.
+     * @param branchEventLog       Log of branch events.
+     * @param system2              Access to system clock.
+     */
+    public BranchSummaryReconciler(final DbClient dbClient, final BranchSummaryStore branchSummaryStore,
+                                   final BranchHierarchyStore branchHierarchyStore, final BranchComponentStore branchComponentStore,
+                                   final BranchEventLog branchEventLog, final System2 system2) {
+        this.dbClient = dbClient;
+        this.branchSummaryStore = branchSummaryStore;
+        this.branchHierarchyStore = branchHierarchyStore;
+        this.branchComponentStore = branchComponentStore;
+        this.branchEventLog = branchEventLog;
+        this.system2 = system2;
+    }
+
+    /**
+     * Align the summaries, hierarchy and component indexes of a project with its branches.
+     * Nothing is written when they already match.
+     *
+     * @param projectUuid UUID of the project.
+     * @param projectKey  Key of the project.
+     */
+    public void reconcile(final String projectUuid, final String projectKey) {
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final Connection connection = dbSession.getConnection();
+            final Map<String, BranchNode> branches = selectBranches(connection, projectUuid);
+            this.reconcileSummaries(connection, projectUuid, projectKey, branches);
+            final Map<String, String> nodes = this.branchHierarchyStore.get(projectUuid).getNodes().stream()
+                    .collect(Collectors.toMap(BranchNode::getUuid, BranchNode::getKey));
+            if (!nodes.equals(branches.values().stream().collect(Collectors.toMap(BranchNode::getUuid, BranchNode::getKey)))) {
+                this.branchHierarchyStore.invalidate(projectUuid);
+            }
+            this.branchComponentStore.retain(projectUuid, branches.keySet());
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Could not load branches of project " + projectUuid, e);
+        }
+    }
+
+    private void reconcileSummaries(final Connection connection, final String projectUuid, final String projectKey,
+                                    final Map<String, BranchNode> branches) throws SQLException {
+        final List<String> deleted = new ArrayList<>();
+        final List<BranchSummary> updated = new ArrayList<>();
+        final Set<String> summarized = new HashSet<>();
+        for (final BranchSummary summary : this.branchSummaryStore.list(projectUuid)) {
+            summarized.add(summary.getUuid());
+            final BranchNode branch = branches.get(summary.getUuid());
+            if (branch == null) {
+                deleted.add(summary.getUuid());
+            } else if (!branch.getKey().equals(summary.getKey())) {
+                updated.add(new BranchSummary(summary.getUuid(), branch.getKey(), summary.getType(), summary.getMergeBranch(),
+                        summary.getAnalysisDate(), summary.getQualityGateStatus(), summary.getIssues()));
+            }
+        }
+        for (final BranchNode branch : branches.values()) {
+            if (!summarized.contains(branch.getUuid())) {
+                final BranchSummary summary = this.load(connection, branch, branches);
+                if (summary != null) {
+                    updated.add(summary);
+                }
+            }
+        }
+        if (deleted.isEmpty() && updated.isEmpty()) {
+            return;
+        }
+
+        final List<BranchEvent> events = this.branchSummaryStore.reconcile(projectUuid, deleted, updated).stream()
+                .map(summary -> new BranchEvent(0, BranchEvent.Type.DELETED, projectUuid, projectKey, summary.getKey(),
+                        summary.getType(), this.system2.now()))
+                .collect(Collectors.toList());
+        if (!events.isEmpty()) {
+            this.branchEventLog.publish(events);
+        }
+        LOGGER.debug("Summaries of project '{}' reconciled: {} removed, {} added or renamed", projectKey, events.size(), updated.size());
+    }
+
+    /**
+     * Build the summary of a branch from its last analysis in the database.
+     *
+     * @return The summary, null if the branch was never analyzed.
+     */
+    private BranchSummary load(final Connection connection, final BranchNode branch, final Map<String, BranchNode> branches)
+            throws SQLException {
+        final long analysisDate;
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_LAST_ANALYSIS)) {
+            statement.setString(1, branch.getUuid());
+            statement.setBoolean(2, true);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                analysisDate = resultSet.getLong(1);
+            }
+        }
+        String qualityGateStatus = null;
+        final Map<String, Double> values = new LinkedHashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_MEASURES)) {
+            statement.setString(1, branch.getUuid());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (CoreMetrics.ALERT_STATUS_KEY.equals(resultSet.getString(1))) {
+                        qualityGateStatus = resultSet.getString(3);
+                    } else {
+                        values.put(resultSet.getString(1), resultSet.getDouble(2));
+                    }
+                }
+            }
+        }
+        final Map<String, Integer> issues = new LinkedHashMap<>();
+        BranchSummaryUpdater.SEVERITY_METRICS.forEach((severity, metricKey) ->
+                issues.put(severity, values.getOrDefault(metricKey, 0.0).intValue()));
+        final BranchNode mergeBranch = branch.getParentUuid() == null ? null : branches.get(branch.getParentUuid());
+        return new BranchSummary(branch.getUuid(), branch.getKey(), branch.getType(),
+                mergeBranch == null ? null : mergeBranch.getKey(), analysisDate, qualityGateStatus, issues);
+    }
+
+    /**
+     * Select the branches and pull requests of a project, by UUID.
+     * The parent of each node is the merge branch of the branch.
+     */
+    private static Map<String, BranchNode> selectBranches(final Connection connection, final String projectUuid) throws SQLException {
+        final Map<String, BranchNode> branches = new LinkedHashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_BRANCHES)) {
+            statement.setString(1, projectUuid);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    branches.put(resultSet.getString(1), new BranchNode(resultSet.getString(1), resultSet.getString(2),
+                            resultSet.getString(3), resultSet.getString(4)));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(branches);
+    }
+}
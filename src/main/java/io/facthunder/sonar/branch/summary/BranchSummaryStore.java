@@ -0,0 +1,235 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.summary;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import io.facthunder.sonar.branch.BranchDataDirectory;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+
+/**
+ * Store of the summaries of the branches and pull requests of each project, in one file per project
+ * of the plugin data directory. The Compute Engine updates the summary of a branch at the end of each
+ * of its analyses, and branch lists are read from this file only, whatever the number of branches.
+ * Updates are serialized by a file lock, as Compute Engine workers and the web server may write concurrently,
+ * and parsed files are kept in memory until they change on disk.
+ */
+@ServerSide
+@ComputeEngineSide
+public class BranchSummaryStore {
+
+    private static final Logger LOGGER = Loggers.get(BranchSummaryStore.class);
+    private static final Type SUMMARIES_TYPE = new TypeToken<List<BranchSummary>>() {}.getType();
+    /**
+     * Maximum number of projects whose summaries are kept in memory.
+     **/
+    private static final int MAX_CACHED_PROJECTS = 1000;
+    private final Configuration configuration;
+    private final Gson gson = new Gson();
+    private final Map<String, Cached> cache = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Cached> eldest) {
+            return this.size() > MAX_CACHED_PROJECTS;
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param configuration Configuration of the server.
+     */
+    public BranchSummaryStore(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * List summaries of the branches of a project.
+     *
+     * @param projectUuid UUID of the project.
+     * @return Summaries, ordered by branch key.
+     */
+    public synchronized List<BranchSummary> list(final String projectUuid) {
+        final Path path = this.path(projectUuid);
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            this.cache.remove(projectUuid);
+            return Collections.emptyList();
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+        final Cached cached = this.cache.get(projectUuid);
+        if (cached != null && cached.isCurrent(attributes)) {
+            return cached.summaries;
+        }
+        final List<BranchSummary> summaries = Collections.unmodifiableList(this.read(path));
+        this.cache.put(projectUuid, new Cached(attributes, summaries));
+        return summaries;
+    }
+
+    /**
+     * Add or replace the summary of a branch.
+     *
+     * @param projectUuid UUID of the project.
+     * @param summary     Summary of the branch.
+     */
+    public void update(final String projectUuid, final BranchSummary summary) {
+        this.modify(projectUuid, summaries -> {
+            summaries.removeIf(existing -> existing.getUuid().equals(summary.getUuid()));
+            summaries.add(summary);
+            summaries.sort(Comparator.comparing(BranchSummary::getType).thenComparing(BranchSummary::getKey));
+            return summaries;
+        });
+    }
+
+    /**
+     * Remove summaries of deleted branches.
+     *
+     * @param projectUuid UUID of the project.
+     * @param branchUuids UUIDs of the deleted branches.
+     */
+    public void remove(final String projectUuid, final Collection<String> branchUuids) {
+        this.modify(projectUuid, summaries -> {
+            summaries.removeIf(existing -> branchUuids.contains(existing.getUuid()));
+            return summaries;
+        });
+    }
+
+    /**
+     * Remove summaries of deleted branches and add or replace others in a single write.
+     * A summary is not replaced by one of an older analysis, written concurrently by the Compute Engine.
+     *
+     * @param projectUuid UUID of the project.
+     * @param deleted     UUIDs of the deleted branches.
+     * @param summaries   Summaries to add or replace.
+     * @return Removed summaries.
+     */
+    public List<BranchSummary> reconcile(final String projectUuid, final Collection<String> deleted,
+                                         final Collection<BranchSummary> summaries) {
+        final List<BranchSummary> removed = new ArrayList<>();
+        this.modify(projectUuid, stored -> {
+            stored.stream().filter(existing -> deleted.contains(existing.getUuid())).forEach(removed::add);
+            stored.removeAll(removed);
+            for (final BranchSummary summary : summaries) {
+                final Optional<BranchSummary> existing = stored.stream()
+                        .filter(candidate -> candidate.getUuid().equals(summary.getUuid())).findFirst();
+                if (!existing.isPresent() || existing.get().getAnalysisDate() <= summary.getAnalysisDate()) {
+                    existing.ifPresent(stored::remove);
+                    stored.add(summary);
+                }
+            }
+            stored.sort(Comparator.comparing(BranchSummary::getType).thenComparing(BranchSummary::getKey));
+            return stored;
+        });
+        return removed;
+    }
+
+    /**
+     * Read, modify and replace the summaries of a project while holding its lock.
+     *
+     * @param projectUuid  UUID of the project.
+     * @param modification Modification of the summaries.
+     */
+    private synchronized void modify(final String projectUuid, final UnaryOperator<List<BranchSummary>> modification) {
+        final Path path = this.path(projectUuid);
+        final Path lock = path.resolveSibling(path.getFileName() + ".lock");
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (FileChannel channel = FileChannel.open(lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                final List<BranchSummary> summaries = modification.apply(Files.exists(path) ? this.read(path) : new ArrayList<>());
+                try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                    this.gson.toJson(summaries, SUMMARIES_TYPE, writer);
+                }
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not write " + path, e);
+        }
+        this.cache.remove(projectUuid);
+    }
+
+    private List<BranchSummary> read(final Path path) {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            final List<BranchSummary> summaries = this.gson.fromJson(reader, SUMMARIES_TYPE);
+            return summaries == null ? new ArrayList<>() : new ArrayList<>(summaries);
+        } catch (final NoSuchFileException e) {
+            return new ArrayList<>();
+        } catch (final IOException | JsonParseException e) {
+            LOGGER.warn("Could not read {} - branch summaries are rebuilt by next analyses", path);
+            return new ArrayList<>();
+        }
+    }
+
+    private Path path(final String projectUuid) {
+        return BranchDataDirectory.resolve(this.configuration, "summary", BranchDataDirectory.encode(projectUuid) + ".json");
+    }
+
+    /**
+     * Summaries parsed from a file, with the attributes identifying the version of the file.
+     * Files are replaced by a move, so their file key changes even if their modification time does not.
+     */
+    private static final class Cached {
+
+        private final FileTime lastModified;
+        private final Object fileKey;
+        private final List<BranchSummary> summaries;
+
+        private Cached(final BasicFileAttributes attributes, final List<BranchSummary> summaries) {
+            this.lastModified = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+            this.summaries = summaries;
+        }
+
+        private boolean isCurrent(final BasicFileAttributes attributes) {
+            return this.lastModified.equals(attributes.lastModifiedTime()) && Objects.equals(this.fileKey, attributes.fileKey());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.summary;
+
+import com.google.common.collect.Multimap;
+import org.sonar.api.ce.posttask.CeTask;
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+import org.sonar.db.component.BranchType;
+import org.sonar.server.computation.task.projectanalysis.analysis.AnalysisMetadataHolder;
+import org.sonar.server.computation.task.projectanalysis.analysis.Branch;
+import org.sonar.server.computation.task.projectanalysis.component.TreeRootHolder;
+import org.sonar.server.computation.task.projectanalysis.measure.Measure;
+import org.sonar.server.computation.task.projectanalysis.measure.MeasureRepository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Update the summary of the analyzed branch or pull request at the end of each successful analysis,
+ * from the branch resolved by {@link io.facthunder.sonar.branch.BranchLoaderDelegateImpl}
+ * and the measures computed for the project. Summaries of the other branches are then reconciled
+ * with the branches of the project, see {@link BranchSummaryReconciler}.
+ *
+ * @see BranchSummaryStore
+ */
+public class BranchSummaryUpdater implements PostProjectAnalysisTask {
+
+    private static final Logger LOGGER = Loggers.get(BranchSummaryUpdater.class);
+    static final Map<String, String> SEVERITY_METRICS = new LinkedHashMap<>();
+
+    static {
+        SEVERITY_METRICS.put(Severity.BLOCKER, CoreMetrics.BLOCKER_VIOLATIONS_KEY);
+        SEVERITY_METRICS.put(Severity.CRITICAL, CoreMetrics.CRITICAL_VIOLATIONS_KEY);
+        SEVERITY_METRICS.put(Severity.MAJOR, CoreMetrics.MAJOR_VIOLATIONS_KEY);
+        SEVERITY_METRICS.put(Severity.MINOR, CoreMetrics.MINOR_VIOLATIONS_KEY);
+        SEVERITY_METRICS.put(Severity.INFO, CoreMetrics.INFO_VIOLATIONS_KEY);
+    }
+
+    private final BranchSummaryStore store;
+    private final AnalysisMetadataHolder analysisMetadataHolder;
+    private final TreeRootHolder treeRootHolder;
+    private final MeasureRepository measureRepository;
+    private final DbClient dbClient;
+    private final BranchSummaryReconciler reconciler;
+
+    /**
+     * Constructor.
+     *
+     * @param store                  Store of the branch summaries.
+     * @param analysisMetadataHolder Holder of the analyzed branch.
+     * @param treeRootHolder         Holder of the analyzed component tree.
+     * @param measureRepository      Repository of the measures computed by the analysis.
+     * @param dbClient               Client to join the database.
+     * @param reconciler             Reconciler of the summaries with the branches of the project.
+     */
+    public BranchSummaryUpdater(final BranchSummaryStore store, final AnalysisMetadataHolder analysisMetadataHolder,
+                                final TreeRootHolder treeRootHolder, final MeasureRepository measureRepository,
+                                final DbClient dbClient, final BranchSummaryReconciler reconciler) {
+        this.store = store;
+        this.analysisMetadataHolder = analysisMetadataHolder;
+        this.treeRootHolder = treeRootHolder;
+        this.measureRepository = measureRepository;
+        this.dbClient = dbClient;
+        this.reconciler = reconciler;
+    }
+
+    /**
+     * @see PostProjectAnalysisTask
+     */
+    @Override
+    public void finished(final ProjectAnalysis analysis) {
+        if (analysis.getCeTask().getStatus() != CeTask.Status.SUCCESS) {
+            return;
+        }
+        final Branch branch = this.analysisMetadataHolder.getBranch();
+        final String key = branch.getType() == BranchType.PULL_REQUEST ? branch.getPullRequestId() : branch.getName();
+        final QualityGate qualityGate = analysis.getQualityGate();
+        final BranchSummary summary = new BranchSummary(this.treeRootHolder.getRoot().getUuid(), key, branch.getType().name(),
+                this.mergeBranchName(branch), this.analysisMetadataHolder.getAnalysisDate(),
+                qualityGate == null ? null : qualityGate.getStatus().name(), this.issueCounts());
+        try {
+            this.store.update(analysis.getProject().getUuid(), summary);
+            LOGGER.debug("Summary of branch '{}' updated", key);
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Could not update summary of branch '{}'", key, e);
+        }
+        try {
+            this.reconciler.reconcile(analysis.getProject().getUuid(), analysis.getProject().getKey());
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Could not reconcile branch summaries of project '{}'", analysis.getProject().getKey(), e);
+        }
+    }
+
+    /**
+     * Find the name of the merge branch of the analyzed branch.
+     *
+     * @param branch Analyzed branch.
+     * @return Name of the merge branch, null if there is none.
+     */
+    private String mergeBranchName(final Branch branch) {
+        if (!branch.getMergeBranchUuid().isPresent()) {
+            return null;
+        }
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            return this.dbClient.branchDao().selectByUuid(dbSession, branch.getMergeBranchUuid().get())
+                    .map(BranchDto::getKey)
+                    .orElse(null);
+        }
+    }
+
+    /**
+     * Read the number of unresolved issues by severity from the measures of the project.
+     *
+     * @return Number of issues of each severity.
+     */
+    private Map<String, Integer> issueCounts() {
+        final Multimap<String, Measure> measures = this.measureRepository.getRawMeasures(this.treeRootHolder.getRoot());
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        SEVERITY_METRICS.forEach((severity, metricKey) -> counts.put(severity,
+                measures.get(metricKey).stream().findFirst().map(Measure::getIntValue).orElse(0)));
+        return counts;
+    }
+}
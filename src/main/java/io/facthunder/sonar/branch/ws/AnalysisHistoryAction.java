@@ -0,0 +1,223 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import com.google.gson.Gson;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.DateUtils;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.user.UserSession;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Export the analysis history of branches and pull requests.
+ * Rows are read from a database cursor and written to the response as soon as they are read,
+ * so the memory used does not depend on the number of exported analyses.
+ */
+public class AnalysisHistoryAction implements BranchPluginWsAction {
+
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_TYPES = "types";
+    private static final String PARAM_FROM = "from";
+    private static final String PARAM_TO = "to";
+    private static final String PARAM_FORMAT = "format";
+    private static final String FORMAT_NDJSON = "ndjson";
+    private static final String FORMAT_CSV = "csv";
+    private static final String[] COLUMNS = {"project", "branch", "type", "mergeBranch", "analysis", "date", "durationMs", "ncloc"};
+    /**
+     * Number of rows written between two flushes of the response.
+     **/
+    private static final int FLUSH_INTERVAL = 1000;
+    private static final String SELECT_HISTORY = "select p.kee, pb.kee, pb.branch_type, mb.kee, s.uuid, s.created_at, ca.execution_time_ms, pm.value"
+            + " from snapshots s"
+            + " inner join project_branches pb on pb.uuid = s.component_uuid"
+            + " inner join projects p on p.uuid = pb.project_uuid"
+            + " left join project_branches mb on mb.uuid = pb.merge_branch_uuid"
+            + " left join ce_activity ca on ca.analysis_uuid = s.uuid"
+            + " left join project_measures pm on pm.analysis_uuid = s.uuid and pm.component_uuid = s.component_uuid"
+            + " and pm.metric_id = (select m.id from metrics m where m.name = 'ncloc')"
+            + " where s.status = 'P' and s.created_at >= ? and s.created_at < ?"
+            + " and pb.branch_type in (%s)%s"
+            + " order by s.created_at";
+
+    private static final Gson GSON = new Gson();
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient        Client to join the database.
+     * @param userSession     Session of the calling user.
+     * @param componentFinder Service to find the project.
+     */
+    public AnalysisHistoryAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("analysis_history")
+                .setDescription("Export the analyses of branches and pull requests: date, duration, merge branch and size. "
+                        + "Requires 'Administer' rights on the project, or 'Administer System' rights when no project is given.")
+                .setHandler(this);
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key. All projects are exported when not set");
+        action.createParam(PARAM_TYPES)
+                .setDescription("Comma-separated list of types of branches to export")
+                .setPossibleValues(Arrays.stream(BranchType.values()).map(Enum::name).collect(Collectors.toList()))
+                .setDefaultValue(Arrays.stream(BranchType.values()).map(Enum::name).collect(Collectors.joining(",")));
+        action.createParam(PARAM_FROM)
+                .setDescription("Export analyses done at or after this date (inclusive)");
+        action.createParam(PARAM_TO)
+                .setDescription("Export analyses done before this date (exclusive)");
+        action.createParam(PARAM_FORMAT)
+                .setDescription("Format of the export: one JSON object per line, or CSV with a header")
+                .setPossibleValues(FORMAT_NDJSON, FORMAT_CSV)
+                .setDefaultValue(FORMAT_NDJSON);
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) throws Exception {
+        final List<String> types = request.mandatoryParamAsStrings(PARAM_TYPES);
+        final Date from = request.paramAsDateTime(PARAM_FROM);
+        final Date to = request.paramAsDateTime(PARAM_TO);
+        final boolean csv = FORMAT_CSV.equals(request.mandatoryParam(PARAM_FORMAT));
+        final String projectKey = request.param(PARAM_PROJECT);
+
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final List<Object> parameters = new ArrayList<>();
+            parameters.add(from == null ? 0L : from.getTime());
+            parameters.add(to == null ? Long.MAX_VALUE : to.getTime());
+            parameters.addAll(types);
+            String projectCondition = "";
+            if (projectKey == null) {
+                this.userSession.checkIsSystemAdministrator();
+            } else {
+                final ComponentDto project = this.componentFinder.getByKey(dbSession, projectKey);
+                this.userSession.checkComponentPermission(UserRole.ADMIN, project);
+                projectCondition = " and pb.project_uuid = ?";
+                parameters.add(project.uuid());
+            }
+            final String sql = String.format(SELECT_HISTORY, String.join(",", Collections.nCopies(types.size(), "?")), projectCondition);
+
+            response.stream().setMediaType(csv ? "text/csv" : "application/x-ndjson");
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(response.stream().output(), StandardCharsets.UTF_8))) {
+                if (csv) {
+                    writer.write(String.join(",", COLUMNS));
+                    writer.write('\n');
+                }
+                this.export(dbSession, sql, parameters, writer, csv);
+            }
+        }
+    }
+
+    /**
+     * Write all rows of the query to the writer.
+     */
+    private void export(final DbSession dbSession, final String sql, final List<Object> parameters, final Writer writer,
+                        final boolean csv) throws SQLException, IOException {
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(sql)) {
+            statement.setFetchSize(this.dbClient.getDatabase().getDialect().getScrollDefaultFetchSize());
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                int rows = 0;
+                final Object[] values = new Object[COLUMNS.length];
+                while (resultSet.next()) {
+                    values[0] = resultSet.getString(1);
+                    values[1] = resultSet.getString(2);
+                    values[2] = resultSet.getString(3);
+                    values[3] = resultSet.getString(4);
+                    values[4] = resultSet.getString(5);
+                    values[5] = DateUtils.formatDateTime(resultSet.getLong(6));
+                    values[6] = nullableLong(resultSet, 7);
+                    values[7] = nullableLong(resultSet, 8);
+                    writer.write(csv ? toCsv(values) : toJson(values));
+                    writer.write('\n');
+                    if (++rows % FLUSH_INTERVAL == 0) {
+                        writer.flush();
+                    }
+                }
+            }
+        }
+    }
+
+    private static Long nullableLong(final ResultSet resultSet, final int column) throws SQLException {
+        final long value = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    private static String toJson(final Object[] values) {
+        final StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                json.append(json.length() > 1 ? "," : "").append('"').append(COLUMNS[i]).append("\":").append(GSON.toJson(values[i]));
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static String toCsv(final Object[] values) {
+        final StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                csv.append(',');
+            }
+            if (values[i] != null) {
+                final String value = values[i].toString();
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+                    csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+                } else {
+                    csv.append(value);
+                }
+            }
+        }
+        return csv.toString();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import io.facthunder.sonar.branch.archive.BranchArchive;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.System2;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.user.UserSession;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archive the long living branches of a project not analyzed for a given number of days,
+ * see {@link BranchArchive}. Archived branches are restored in the background when they are opened,
+ * or before being analyzed again.
+ * Progress is streamed as one JSON object per line, with the throughput of each branch.
+ */
+public class ArchiveBranchesAction implements BranchPluginWsAction {
+
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_OLDER_THAN = "olderThan";
+    private static final String PARAM_DRY_RUN = "dryRun";
+    private static final String SELECT_CANDIDATES = "select pb.uuid, pb.kee"
+            + " from project_branches pb"
+            + " left join snapshots s on s.component_uuid = pb.uuid and s.islast = ?"
+            + " where pb.project_uuid = ? and pb.uuid <> pb.project_uuid and pb.branch_type = ?"
+            + " and coalesce(s.created_at, pb.created_at) < ?"
+            + " order by pb.uuid";
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final BranchArchive branchArchive;
+    private final System2 system2;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient        Client to join the database.
+     * @param userSession     Session of the calling user.
+     * @param componentFinder Service to find the project.
+     * @param branchArchive   Archive of inactive branches.
+     * @param system2         Access to system clock.
+     */
+    public ArchiveBranchesAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder,
+                                 final BranchArchive branchArchive, final System2 system2) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.branchArchive = branchArchive;
+        this.system2 = system2;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("archive_branches")
+                .setPost(true)
+                .setDescription("Move components, measures, issues and sources of the inactive long living branches of a project "
+                        + "out of the database, to compressed archives, and remove their issues from the issue index. Archived branches "
+                        + "are still listed, and are restored in the background when opened, or before being analyzed again. "
+                        + "Progress is streamed as one JSON object per line. "
+                        + "Requires 'Administer' rights on the project.")
+                .setHandler(this);
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key")
+                .setRequired(true);
+        action.createParam(PARAM_OLDER_THAN)
+                .setDescription("Only archive branches not analyzed for this number of days")
+                .setDefaultValue("180");
+        action.createParam(PARAM_DRY_RUN)
+                .setDescription("Only report inactive branches, without archiving them")
+                .setBooleanPossibleValues()
+                .setDefaultValue("false");
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) throws Exception {
+        final long maxDate = this.system2.now() - TimeUnit.DAYS.toMillis(request.mandatoryParamAsInt(PARAM_OLDER_THAN));
+        final boolean dryRun = request.mandatoryParamAsBoolean(PARAM_DRY_RUN);
+
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final ComponentDto project = this.componentFinder.getByKey(dbSession, request.mandatoryParam(PARAM_PROJECT));
+            this.userSession.checkComponentPermission(UserRole.ADMIN, project);
+
+            response.stream().setMediaType("application/x-ndjson");
+            try (Writer writer = new OutputStreamWriter(response.stream().output(), StandardCharsets.UTF_8)) {
+                long rows = 0;
+                long bytes = 0;
+                long duration = 0;
+                int archived = 0;
+                for (final String[] candidate : this.selectCandidates(dbSession, project.uuid(), maxDate)) {
+                    if (this.branchArchive.isArchived(project.uuid(), candidate[0])) {
+                        continue;
+                    }
+                    if (dryRun) {
+                        writeProgress(writer, candidate[1], 0, 0, 0, 0);
+                    } else {
+                        final BranchArchive.Report report = this.branchArchive.archive(dbSession, project.uuid(), candidate[0]);
+                        writeProgress(writer, candidate[1], report.getRows(), report.getBytes(), report.getDuration(), report.getRowsPerSecond());
+                        rows += report.getRows();
+                        bytes += report.getBytes();
+                        duration += report.getDuration();
+                    }
+                    archived++;
+                }
+                writer.write(String.format("{\"archived\":%d,\"rows\":%d,\"bytes\":%d,\"ms\":%d,\"rowsPerSecond\":%d,\"done\":true}%n",
+                        dryRun ? 0 : archived, rows, bytes, duration, rows * 1000 / Math.max(duration, 1)));
+            }
+        }
+    }
+
+    /**
+     * Select long living branches of a project not analyzed since a date.
+     *
+     * @return UUID and key of each branch, ordered by UUID.
+     */
+    private List<String[]> selectCandidates(final DbSession dbSession, final String projectUuid, final long maxDate) throws SQLException {
+        final List<String[]> candidates = new ArrayList<>();
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(SELECT_CANDIDATES)) {
+            statement.setBoolean(1, true);
+            statement.setString(2, projectUuid);
+            statement.setString(3, BranchType.LONG.name());
+            statement.setLong(4, maxDate);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    candidates.add(new String[]{resultSet.getString(1), resultSet.getString(2)});
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Write the progress line of a branch.
+     */
+    private static void writeProgress(final Writer writer, final String branch, final long rows, final long bytes,
+                                      final long duration, final long rowsPerSecond) throws IOException {
+        writer.write(String.format("{\"branch\":\"%s\",\"rows\":%d,\"bytes\":%d,\"ms\":%d,\"rowsPerSecond\":%d}%n",
+                branch.replace("\\", "\\\\").replace("\"", "\\\""), rows, bytes, duration, rowsPerSecond));
+        writer.flush();
+    }
+}
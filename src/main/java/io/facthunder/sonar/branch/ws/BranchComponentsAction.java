@@ -0,0 +1,158 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import io.facthunder.sonar.branch.component.BranchComponent;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchy;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.hierarchy.BranchNode;
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.NotFoundException;
+import org.sonar.server.user.UserSession;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.sonar.server.ws.WsUtils.checkRequest;
+
+/**
+ * List the components of a branch or pull request, optionally filtered by key prefix, from the component index
+ * maintained by the Compute Engine, see {@link BranchComponentStore}. The branch is resolved from the branch hierarchy
+ * of the project and components are found by binary search, so the cost of a page does not depend on
+ * the number of components of the other branches.
+ */
+public class BranchComponentsAction implements BranchPluginWsAction {
+
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_BRANCH = "branch";
+    private static final String PARAM_PULL_REQUEST = "pullRequest";
+    private static final String PARAM_QUERY = "q";
+    private static final String PARAM_PAGE = "p";
+    private static final String PARAM_PAGE_SIZE = "ps";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final BranchHierarchyStore branchHierarchyStore;
+    private final BranchComponentStore branchComponentStore;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient             Client to join the database.
+     * @param userSession          Session of the calling user.
+     * @param componentFinder      Service to find the project.
+     * @param branchHierarchyStore Store of the branch hierarchies, to find the branch.
+     * @param branchComponentStore Store of the component indexes of the branches.
+     */
+    public BranchComponentsAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder,
+                                  final BranchHierarchyStore branchHierarchyStore, final BranchComponentStore branchComponentStore) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.branchHierarchyStore = branchHierarchyStore;
+        this.branchComponentStore = branchComponentStore;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("branch_components")
+                .setDescription("List the components of a branch or a pull request, sorted by key. "
+                        + "Keys are given without branch suffix, as they are on the main branch. "
+                        + "Requires 'Browse' rights on the project.")
+                .setHandler(this);
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key")
+                .setRequired(true);
+        action.createParam(PARAM_BRANCH)
+                .setDescription("Branch name. The main branch is listed if neither this parameter nor 'pullRequest' is set");
+        action.createParam(PARAM_PULL_REQUEST)
+                .setDescription("Pull request id");
+        action.createParam(PARAM_QUERY)
+                .setDescription("Only list components whose key starts with this prefix");
+        action.createParam(PARAM_PAGE)
+                .setDescription("1-based page number")
+                .setDefaultValue("1");
+        action.createParam(PARAM_PAGE_SIZE)
+                .setDescription("Page size, at most " + MAX_PAGE_SIZE)
+                .setDefaultValue(String.valueOf(DEFAULT_PAGE_SIZE));
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) {
+        final String branchName = request.param(PARAM_BRANCH);
+        final String pullRequestId = request.param(PARAM_PULL_REQUEST);
+        checkRequest(branchName == null || pullRequestId == null, "Either '%s' or '%s' can be given, not both", PARAM_BRANCH, PARAM_PULL_REQUEST);
+        final int page = request.mandatoryParamAsInt(PARAM_PAGE);
+        final int pageSize = request.mandatoryParamAsInt(PARAM_PAGE_SIZE);
+        checkRequest(page >= 1, "'%s' must be strictly positive", PARAM_PAGE);
+        checkRequest(pageSize >= 1 && pageSize <= MAX_PAGE_SIZE, "'%s' must be between 1 and %s", PARAM_PAGE_SIZE, MAX_PAGE_SIZE);
+        final String projectUuid;
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final ComponentDto project = this.componentFinder.getByKey(dbSession, request.mandatoryParam(PARAM_PROJECT));
+            this.userSession.checkComponentPermission(UserRole.USER, project);
+            projectUuid = project.uuid();
+        }
+
+        String branchUuid = projectUuid;
+        if (branchName != null || pullRequestId != null) {
+            final BranchHierarchy hierarchy = this.branchHierarchyStore.get(projectUuid);
+            final Optional<BranchNode> node = branchName != null ? hierarchy.getBranch(branchName) : hierarchy.getPullRequest(pullRequestId);
+            branchUuid = node.map(BranchNode::getUuid)
+                    .orElseThrow(() -> new NotFoundException(String.format("Branch '%s' not found", branchName != null ? branchName : pullRequestId)));
+        }
+        final List<BranchComponent> components = this.branchComponentStore.get(projectUuid, branchUuid)
+                .startingWith(StringUtils.defaultString(request.param(PARAM_QUERY)));
+        final int from = (int) Math.min((long) (page - 1) * pageSize, components.size());
+        final int to = Math.min(from + pageSize, components.size());
+
+        try (JsonWriter json = response.newJsonWriter()) {
+            json.beginObject()
+                    .name("paging").beginObject()
+                    .prop("pageIndex", page)
+                    .prop("pageSize", pageSize)
+                    .prop("total", components.size())
+                    .endObject()
+                    .name("components").beginArray();
+            for (final BranchComponent component : components.subList(from, to)) {
+                json.beginObject()
+                        .prop("key", component.getKey())
+                        .prop("qualifier", component.getQualifier())
+                        .endObject();
+            }
+            json.endArray().endObject();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import io.facthunder.sonar.branch.events.BranchEvent;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.DateUtils;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.user.UserSession;
+
+import java.util.Date;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-poll the events of branches and pull requests: creations, deletions and analyses.
+ * Events are numbered in increasing order, so clients resume from the number of the last event they read;
+ * when some events following this number are no longer kept, the response asks them to reset their state.
+ * Calls wait until an event is published or the timeout expires. Each waiting call holds a thread of the web server,
+ * so only a few calls wait at the same time: others return right away, and clients poll again.
+ */
+public class BranchEventsAction implements BranchPluginWsAction {
+
+    private static final String PARAM_AFTER = "after";
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_TIMEOUT = "timeout";
+    private static final String PARAM_LIMIT = "limit";
+    private static final int MAX_TIMEOUT = 60;
+    private static final int MAX_LIMIT = 1000;
+    /**
+     * Delay between two reads of the log while waiting for events.
+     **/
+    private static final long POLL_INTERVAL_MS = 500;
+    /**
+     * Maximum number of calls waiting for events at the same time.
+     **/
+    private static final int MAX_WAITING_CALLS = 4;
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final BranchEventLog branchEventLog;
+    private final Semaphore waitingCalls = new Semaphore(MAX_WAITING_CALLS);
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient        Client to join the database.
+     * @param userSession     Session of the calling user.
+     * @param componentFinder Service to find the project.
+     * @param branchEventLog  Log of branch events.
+     */
+    public BranchEventsAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder,
+                              final BranchEventLog branchEventLog) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.branchEventLog = branchEventLog;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("branch_events")
+                .setDescription("Wait for events of branches and pull requests following a number: "
+                        + "CREATED, DELETED and ANALYZED. Requires 'Browse' rights on the project, "
+                        + "or 'Administer System' rights when no project is given. "
+                        + "At most " + MAX_WAITING_CALLS + " calls wait at the same time, others return immediately.")
+                .setHandler(this);
+        action.createParam(PARAM_AFTER)
+                .setDescription("Number of the last event already read. Only events published after the call are returned when not set");
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key. Events of all projects are returned when not set");
+        action.createParam(PARAM_TIMEOUT)
+                .setDescription("Maximum number of seconds to wait for an event")
+                .setDefaultValue(30);
+        action.createParam(PARAM_LIMIT)
+                .setDescription("Maximum number of returned events")
+                .setDefaultValue(100);
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) throws InterruptedException {
+        final String projectKey = request.param(PARAM_PROJECT);
+        final String projectUuid;
+        if (projectKey == null) {
+            this.userSession.checkIsSystemAdministrator();
+            projectUuid = null;
+        } else {
+            try (DbSession dbSession = this.dbClient.openSession(false)) {
+                final ComponentDto project = this.componentFinder.getByKey(dbSession, projectKey);
+                this.userSession.checkComponentPermission(UserRole.USER, project);
+                projectUuid = project.uuid();
+            }
+        }
+        final Long afterParam = request.paramAsLong(PARAM_AFTER);
+        final long after = afterParam == null ? this.branchEventLog.lastSequence() : afterParam;
+        final int limit = Math.min(Math.max(request.mandatoryParamAsInt(PARAM_LIMIT), 1), MAX_LIMIT);
+        final long deadline = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(Math.min(Math.max(request.mandatoryParamAsInt(PARAM_TIMEOUT), 0), MAX_TIMEOUT));
+
+        BranchEventLog.Page page = this.branchEventLog.read(after, limit, projectUuid);
+        if (page.getEvents().isEmpty() && !page.isReset() && System.nanoTime() < deadline && this.waitingCalls.tryAcquire()) {
+            try {
+                while (page.getEvents().isEmpty() && !page.isReset() && System.nanoTime() < deadline) {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                    page = this.branchEventLog.read(after, limit, projectUuid);
+                }
+            } finally {
+                this.waitingCalls.release();
+            }
+        }
+
+        try (JsonWriter json = response.newJsonWriter()) {
+            json.beginObject().name("events").beginArray();
+            for (final BranchEvent event : page.getEvents()) {
+                json.beginObject()
+                        .prop("sequence", event.getSequence())
+                        .prop("type", event.getType().name())
+                        .prop("project", event.getProjectKey())
+                        .prop("branch", event.getBranch())
+                        .prop("branchType", event.getBranchType())
+                        .prop("date", DateUtils.formatDateTime(new Date(event.getDate())))
+                        .endObject();
+            }
+            json.endArray()
+                    .prop("last", page.getLast())
+                    .prop("reset", page.isReset())
+                    .endObject();
+        }
+    }
+}
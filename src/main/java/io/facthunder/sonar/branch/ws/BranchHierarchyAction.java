@@ -0,0 +1,160 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchy;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.hierarchy.BranchNode;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.web.UserRole;
+import org.sonar.core.permission.GlobalPermissions;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.permission.OrganizationPermission;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.ForbiddenException;
+import org.sonar.server.exceptions.NotFoundException;
+import org.sonar.server.user.UserSession;
+
+import java.util.Collection;
+import java.util.Optional;
+
+import static org.sonar.server.ws.WsUtils.checkRequest;
+
+/**
+ * Give the hierarchy of the branches and pull requests of a project, or the nearest long living ancestor,
+ * the ancestors and the descendants of one of them, from the hierarchy maintained by the Compute Engine.
+ * Available to users allowed to browse or to analyze the project, so that scanners can use it.
+ */
+public class BranchHierarchyAction implements BranchPluginWsAction {
+
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_BRANCH = "branch";
+    private static final String PARAM_PULL_REQUEST = "pullRequest";
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final BranchHierarchyStore branchHierarchyStore;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient             Client to join the database.
+     * @param userSession          Session of the calling user.
+     * @param componentFinder      Service to find the project.
+     * @param branchHierarchyStore Store of the branch hierarchies.
+     */
+    public BranchHierarchyAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder,
+                                 final BranchHierarchyStore branchHierarchyStore) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.branchHierarchyStore = branchHierarchyStore;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("branch_hierarchy")
+                .setDescription("Give the hierarchy of the branches and pull requests of a project, each one with its merge branch "
+                        + "and its nearest long living ancestor. When a branch or a pull request is given, give its nearest "
+                        + "long living ancestor, its ancestors and all its descendants instead. "
+                        + "Requires 'Browse' or 'Execute Analysis' rights on the project.")
+                .setHandler(this);
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key")
+                .setRequired(true);
+        action.createParam(PARAM_BRANCH)
+                .setDescription("Branch name");
+        action.createParam(PARAM_PULL_REQUEST)
+                .setDescription("Pull request id");
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) {
+        final String branchName = request.param(PARAM_BRANCH);
+        final String pullRequestId = request.param(PARAM_PULL_REQUEST);
+        checkRequest(branchName == null || pullRequestId == null, "Either '%s' or '%s' can be given, not both", PARAM_BRANCH, PARAM_PULL_REQUEST);
+        final String projectUuid;
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final ComponentDto project = this.componentFinder.getByKey(dbSession, request.mandatoryParam(PARAM_PROJECT));
+            if (!this.isAuthorized(project)) {
+                throw new ForbiddenException("Insufficient privileges");
+            }
+            projectUuid = project.uuid();
+        }
+
+        final BranchHierarchy hierarchy = this.branchHierarchyStore.get(projectUuid);
+        try (JsonWriter json = response.newJsonWriter()) {
+            json.beginObject();
+            if (branchName == null && pullRequestId == null) {
+                writeNodes(json, "branches", hierarchy, hierarchy.getNodes());
+            } else {
+                final Optional<BranchNode> node = branchName != null ? hierarchy.getBranch(branchName) : hierarchy.getPullRequest(pullRequestId);
+                if (!node.isPresent()) {
+                    throw new NotFoundException(String.format("Branch '%s' not found", branchName != null ? branchName : pullRequestId));
+                }
+                json.name("branch");
+                writeNode(json, hierarchy, node.get());
+                final Optional<BranchNode> ancestor = hierarchy.getNearestLongLivedAncestor(node.get());
+                if (ancestor.isPresent()) {
+                    json.name("longLivedAncestor");
+                    writeNode(json, hierarchy, ancestor.get());
+                }
+                writeNodes(json, "ancestors", hierarchy, hierarchy.getAncestors(node.get()));
+                writeNodes(json, "descendants", hierarchy, hierarchy.getDescendants(node.get()));
+            }
+            json.endObject();
+        }
+    }
+
+    private boolean isAuthorized(final ComponentDto project) {
+        return this.userSession.hasComponentPermission(UserRole.USER, project)
+                || this.userSession.hasComponentPermission(GlobalPermissions.SCAN_EXECUTION, project)
+                || this.userSession.hasPermission(OrganizationPermission.SCAN, project.getOrganizationUuid());
+    }
+
+    private static void writeNodes(final JsonWriter json, final String name, final BranchHierarchy hierarchy,
+                                   final Collection<BranchNode> nodes) {
+        json.name(name).beginArray();
+        nodes.forEach(node -> writeNode(json, hierarchy, node));
+        json.endArray();
+    }
+
+    private static void writeNode(final JsonWriter json, final BranchHierarchy hierarchy, final BranchNode node) {
+        json.beginObject()
+                .prop("key", node.getKey())
+                .prop("type", node.getType())
+                .prop("mergeBranch", key(hierarchy, node.getParentUuid()))
+                .prop("longLivedAncestor", key(hierarchy, node.getLongLivedAncestorUuid()))
+                .endObject();
+    }
+
+    private static String key(final BranchHierarchy hierarchy, final String uuid) {
+        return uuid == null ? null : hierarchy.get(uuid).map(BranchNode::getKey).orElse(null);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import org.sonar.api.server.ws.WebService;
+
+/**
+ * Web service gathering all actions provided by this plugin.
+ */
+public class BranchPluginWs implements WebService {
+
+    /**
+     * Path of the controller.
+     **/
+    public static final String CONTROLLER = "api/branch_plugin";
+    private final BranchPluginWsAction[] actions;
+
+    /**
+     * Constructor.
+     *
+     * @param actions All actions of the web service.
+     */
+    public BranchPluginWs(final BranchPluginWsAction... actions) {
+        this.actions = actions;
+    }
+
+    /**
+     * @see WebService
+     */
+    @Override
+    public void define(final Context context) {
+        final NewController controller = context.createController(CONTROLLER)
+                .setDescription("Manage branches and pull requests at scale.");
+        for (final BranchPluginWsAction action : this.actions) {
+            action.define(controller);
+        }
+        controller.done();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import io.facthunder.sonar.branch.summary.BranchSummary;
+import io.facthunder.sonar.branch.summary.BranchSummaryStore;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.DateUtils;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.user.UserSession;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List the branches and pull requests of a project with their last analysis, quality gate status and issues.
+ * Branches are only read from the summaries maintained by the Compute Engine, which reconciles them with the branches
+ * of the project after each analysis, instead of reading measures of each branch: the cost of a listing does not
+ * depend on the number of branches analyzed since the last one.
+ */
+public class BranchSummariesAction implements BranchPluginWsAction {
+
+    private static final String PARAM_PROJECT = "project";
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final BranchSummaryStore branchSummaryStore;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient           Client to join the database.
+     * @param userSession        Session of the calling user.
+     * @param componentFinder    Service to find the project.
+     * @param branchSummaryStore Store of the branch summaries.
+     */
+    public BranchSummariesAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder,
+                                 final BranchSummaryStore branchSummaryStore) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.branchSummaryStore = branchSummaryStore;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("branch_summaries")
+                .setDescription("List the branches and pull requests of a project analyzed with this plugin: type, merge branch, "
+                        + "date of last analysis, quality gate status and number of issues by severity. "
+                        + "Requires 'Browse' rights on the project.")
+                .setHandler(this);
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key")
+                .setRequired(true);
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) {
+        final String projectUuid;
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final ComponentDto project = this.componentFinder.getByKey(dbSession, request.mandatoryParam(PARAM_PROJECT));
+            this.userSession.checkComponentPermission(UserRole.USER, project);
+            projectUuid = project.uuid();
+        }
+
+        final List<BranchSummary> summaries = this.branchSummaryStore.list(projectUuid);
+        try (JsonWriter json = response.newJsonWriter()) {
+            json.beginObject().name("branches").beginArray();
+            for (final BranchSummary summary : summaries) {
+                json.beginObject()
+                        .prop("key", summary.getKey())
+                        .prop("type", summary.getType())
+                        .prop("mergeBranch", summary.getMergeBranch())
+                        .prop("analysisDate", DateUtils.formatDateTime(new Date(summary.getAnalysisDate())))
+                        .prop("qualityGateStatus", summary.getQualityGateStatus())
+                        .name("issues").beginObject();
+                for (final Map.Entry<String, Integer> issues : summary.getIssues().entrySet()) {
+                    json.prop(issues.getKey(), issues.getValue());
+                }
+                json.endObject().endObject();
+            }
+            json.endArray().endObject();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import io.facthunder.sonar.branch.archive.BranchArchive;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.events.BranchEvent;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.listcache.BranchListStamps;
+import io.facthunder.sonar.branch.summary.BranchSummaryStore;
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.es.ProjectIndexer;
+import org.sonar.server.es.ProjectIndexers;
+import org.sonar.server.user.UserSession;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Delete all branches and pull requests of a project matching a filter.
+ * Matching branches are only reported unless the dry run is explicitly disabled.
+ * Candidates are read page by page, ordered by UUID, and each page is deleted in its own transaction.
+ * Progress is streamed as one JSON object per line; the "next" cursor of the last line
+ * can be given back in the "after" parameter to resume an interrupted deletion.
+ */
+public class BulkDeleteAction implements BranchPluginWsAction {
+
+    private static final Logger LOGGER = Loggers.get(BulkDeleteAction.class);
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_TYPES = "types";
+    private static final String PARAM_PATTERN = "pattern";
+    private static final String PARAM_OLDER_THAN = "olderThan";
+    private static final String PARAM_BATCH_SIZE = "batchSize";
+    private static final String PARAM_AFTER = "after";
+    private static final String PARAM_DRY_RUN = "dryRun";
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final String SELECT_CANDIDATES = "select pb.uuid, pb.kee, pb.branch_type"
+            + " from project_branches pb"
+            + " left join snapshots s on s.component_uuid = pb.uuid and s.islast = ?"
+            + " where pb.project_uuid = ? and pb.uuid <> pb.project_uuid and pb.uuid > ?"
+            + " and coalesce(s.created_at, pb.created_at) < ?"
+            + " and pb.branch_type in (%s)"
+            + " order by pb.uuid";
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final ProjectIndexers projectIndexers;
+    private final System2 system2;
+    private final BranchSummaryStore branchSummaryStore;
+    private final BranchListStamps branchListStamps;
+    private final BranchEventLog branchEventLog;
+    private final BranchArchive branchArchive;
+    private final BranchHierarchyStore branchHierarchyStore;
+    private final BranchComponentStore branchComponentStore;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient             Client to join the database.
+     * @param userSession          Session of the calling user.
+     * @param componentFinder      Service to find the project.
+     * @param projectIndexers      Indexers to update after deletion.
+     * @param system2              Access to system clock.
+     * @param branchSummaryStore   Store of the branch summaries, to forget deleted branches.
+     * @param branchListStamps     Versions of the branch lists, to invalidate cached lists.
+     * @param branchEventLog       Log of branch events, to publish deletions.
+     * @param branchArchive        Archive of inactive branches, to discard archives of deleted branches.
+     * @param branchHierarchyStore Store of the branch hierarchies, to forget deleted branches.
+     * @param branchComponentStore Store of the component indexes, to forget deleted branches.
+     */
+    public BulkDeleteAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder,
+                            final ProjectIndexers projectIndexers, final System2 system2, final BranchSummaryStore branchSummaryStore,
+                            final BranchListStamps branchListStamps, final BranchEventLog branchEventLog,
+                            final BranchArchive branchArchive, final BranchHierarchyStore branchHierarchyStore,
+                            final BranchComponentStore branchComponentStore) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.projectIndexers = projectIndexers;
+        this.system2 = system2;
+        this.branchSummaryStore = branchSummaryStore;
+        this.branchListStamps = branchListStamps;
+        this.branchEventLog = branchEventLog;
+        this.branchArchive = branchArchive;
+        this.branchHierarchyStore = branchHierarchyStore;
+        this.branchComponentStore = branchComponentStore;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("bulk_delete")
+                .setPost(true)
+                .setDescription("Delete all branches and pull requests of a project matching a name pattern and an age filter. "
+                        + "The main branch is never deleted. Branches are only reported unless 'dryRun' is set to false. "
+                        + "Progress is streamed as one JSON object per line. "
+                        + "Requires 'Administer' rights on the project.")
+                .setHandler(this);
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key")
+                .setRequired(true);
+        action.createParam(PARAM_TYPES)
+                .setDescription("Comma-separated list of types of branches to delete")
+                .setPossibleValues(Arrays.stream(BranchType.values()).map(Enum::name).collect(Collectors.toList()))
+                .setDefaultValue(BranchType.SHORT.name() + "," + BranchType.PULL_REQUEST.name());
+        action.createParam(PARAM_PATTERN)
+                .setDescription("Regular expression the branch name or pull request key must match")
+                .setDefaultValue(".*");
+        action.createParam(PARAM_OLDER_THAN)
+                .setDescription("Only delete branches not analyzed for this number of days")
+                .setDefaultValue("0");
+        action.createParam(PARAM_BATCH_SIZE)
+                .setDescription("Number of branches deleted in each transaction")
+                .setDefaultValue(String.valueOf(DEFAULT_BATCH_SIZE));
+        action.createParam(PARAM_AFTER)
+                .setDescription("Resume a previous deletion after this cursor, as returned in the 'next' field");
+        action.createParam(PARAM_DRY_RUN)
+                .setDescription("Only report matching branches, without deleting them. Must be set to false to delete them")
+                .setBooleanPossibleValues()
+                .setDefaultValue("true");
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) throws Exception {
+        final List<String> types = request.mandatoryParamAsStrings(PARAM_TYPES);
+        final Pattern pattern = Pattern.compile(request.mandatoryParam(PARAM_PATTERN));
+        final long maxDate = this.system2.now() - TimeUnit.DAYS.toMillis(request.mandatoryParamAsInt(PARAM_OLDER_THAN));
+        final int batchSize = Math.min(Math.max(request.mandatoryParamAsInt(PARAM_BATCH_SIZE), 1), MAX_BATCH_SIZE);
+        final boolean dryRun = request.mandatoryParamAsBoolean(PARAM_DRY_RUN);
+        String cursor = StringUtils.defaultString(request.param(PARAM_AFTER));
+
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final ComponentDto project = this.componentFinder.getByKey(dbSession, request.mandatoryParam(PARAM_PROJECT));
+            this.userSession.checkComponentPermission(UserRole.ADMIN, project);
+
+            response.stream().setMediaType("application/x-ndjson");
+            try (Writer writer = new OutputStreamWriter(response.stream().output(), StandardCharsets.UTF_8)) {
+                int scanned = 0;
+                int matched = 0;
+                List<Candidate> page = this.selectCandidates(dbSession, project.uuid(), types, maxDate, cursor, batchSize);
+                while (!page.isEmpty()) {
+                    cursor = page.get(page.size() - 1).uuid;
+                    final List<Candidate> deleted = page.stream()
+                            .filter(candidate -> pattern.matcher(candidate.name).matches())
+                            .collect(Collectors.toList());
+                    final List<String> uuids = deleted.stream().map(candidate -> candidate.uuid).collect(Collectors.toList());
+                    if (!dryRun && !uuids.isEmpty()) {
+                        this.delete(dbSession, uuids);
+                        this.branchSummaryStore.remove(project.uuid(), uuids);
+                        this.branchArchive.discard(project.uuid(), uuids);
+                        this.branchHierarchyStore.invalidate(project.uuid());
+                        this.branchComponentStore.remove(project.uuid(), uuids);
+                        this.branchListStamps.touch(project.uuid());
+                        final long date = this.system2.now();
+                        this.branchEventLog.publish(deleted.stream()
+                                .map(candidate -> new BranchEvent(0, BranchEvent.Type.DELETED, project.uuid(), project.getKey(),
+                                        candidate.name, candidate.type, date))
+                                .collect(Collectors.toList()));
+                    }
+                    scanned += page.size();
+                    matched += uuids.size();
+                    writeProgress(writer, scanned, matched, dryRun ? 0 : matched, cursor, false);
+                    page = this.selectCandidates(dbSession, project.uuid(), types, maxDate, cursor, batchSize);
+                }
+                writeProgress(writer, scanned, matched, dryRun ? 0 : matched, cursor, true);
+                LOGGER.info("Bulk deletion on project '{}': {} branches matched, dry run: {}", project.getKey(), matched, dryRun);
+            }
+        }
+    }
+
+    /**
+     * Delete branches in a single transaction, then update indexes.
+     *
+     * @param dbSession Session to the database.
+     * @param uuids     UUIDs of the branches to delete.
+     */
+    private void delete(final DbSession dbSession, final List<String> uuids) {
+        final List<ComponentDto> branches = this.dbClient.componentDao().selectByUuids(dbSession, uuids);
+        for (final String uuid : uuids) {
+            this.dbClient.purgeDao().deleteBranch(dbSession, uuid);
+        }
+        this.projectIndexers.commitAndIndex(dbSession, branches, ProjectIndexer.Cause.PROJECT_DELETION);
+    }
+
+    /**
+     * Select the next page of candidates to deletion.
+     *
+     * @param dbSession   Session to the database.
+     * @param projectUuid UUID of the project.
+     * @param types       Types of branches to select.
+     * @param maxDate     Select only branches analyzed before this date.
+     * @param cursor      Select only branches whose UUID is after this one.
+     * @param limit       Maximum number of candidates.
+     * @return Candidates ordered by UUID.
+     * @throws SQLException If the query fails.
+     */
+    private List<Candidate> selectCandidates(final DbSession dbSession, final String projectUuid, final List<String> types,
+                                             final long maxDate, final String cursor, final int limit) throws SQLException {
+        if (types.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final String sql = String.format(SELECT_CANDIDATES, String.join(",", Collections.nCopies(types.size(), "?")));
+        final List<Candidate> candidates = new ArrayList<>();
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(sql)) {
+            statement.setMaxRows(limit);
+            statement.setBoolean(1, true);
+            statement.setString(2, projectUuid);
+            statement.setString(3, cursor);
+            statement.setLong(4, maxDate);
+            for (int i = 0; i < types.size(); i++) {
+                statement.setString(5 + i, types.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    candidates.add(new Candidate(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3)));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Write a progress line.
+     */
+    private static void writeProgress(final Writer writer, final int scanned, final int matched, final int deleted,
+                                      final String next, final boolean done) throws IOException {
+        writer.write(String.format("{\"scanned\":%d,\"matched\":%d,\"deleted\":%d,\"next\":\"%s\",\"done\":%b}%n",
+                scanned, matched, deleted, next, done));
+        writer.flush();
+    }
+
+    /**
+     * Branch which may be deleted.
+     */
+    private static class Candidate {
+        private final String uuid;
+        private final String name;
+        private final String type;
+
+        private Candidate(final String uuid, final String name, final String type) {
+            this.uuid = uuid;
+            this.name = name;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import com.google.gson.JsonObject;
+import io.facthunder.sonar.branch.component.BranchComponent;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.component.BranchComponents;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.NotFoundException;
+import org.sonar.server.user.UserSession;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static org.sonar.server.ws.WsUtils.checkRequest;
+
+/**
+ * Compare the last analysis of a branch or pull request with its merge branch.
+ * Components of both sides are matched by key without branch suffix by walking their sorted component indexes,
+ * see {@link BranchComponentStore}: each chunk of matched components has its measures then its issues read
+ * and merge-joined before the next chunk is matched, so that only one chunk is held in memory.
+ * Only added, removed and changed elements are streamed, one JSON object per line.
+ * Queries only select components of both branches by UUID, so the cost of a comparison depends on
+ * the size of the compared branches only.
+ */
+public class CompareBranchesAction implements BranchPluginWsAction {
+
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_BRANCH = "branch";
+    private static final String PARAM_PULL_REQUEST = "pullRequest";
+    /**
+     * Number of lines written between two flushes of the response.
+     **/
+    private static final int FLUSH_INTERVAL = 1000;
+    /**
+     * Number of components whose measures or issues are read by a single query.
+     **/
+    static final int COMPONENTS_PER_QUERY = 500;
+    private static final Comparator<BranchComponent> KEY_ORDER = Comparator.comparing(BranchComponent::getKey);
+    private static final String SELECT_BRANCH = "select uuid, merge_branch_uuid"
+            + " from project_branches where project_uuid = ? and kee = ? and key_type = ?";
+    private static final String SELECT_BRANCH_BY_UUID = "select uuid, merge_branch_uuid"
+            + " from project_branches where uuid = ?";
+    private static final String SELECT_LAST_ANALYSIS = "select uuid from snapshots where component_uuid = ? and islast = ?";
+    private static final String SELECT_MEASURES = "select pm.component_uuid, m.name, pm.value, pm.text_value"
+            + " from project_measures pm"
+            + " inner join metrics m on m.id = pm.metric_id"
+            + " where pm.analysis_uuid = ? and pm.component_uuid in (%s)";
+    private static final String SELECT_ISSUES = "select i.component_uuid, r.plugin_name, r.plugin_rule_key, coalesce(i.checksum, ''),"
+            + " coalesce(i.line, 0), i.severity, i.status, i.resolution, i.message"
+            + " from issues i"
+            + " inner join rules r on r.id = i.rule_id"
+            + " where i.status <> 'CLOSED' and i.component_uuid in (%s)";
+    /**
+     * Measures are identified by component and metric.
+     **/
+    private static final Comparator<String[]> MEASURE_ORDER = Comparator.<String[], String>comparing(row -> row[0])
+            .thenComparing(row -> row[1]);
+    /**
+     * Issues are identified by component, rule and line hash.
+     **/
+    private static final Comparator<String[]> ISSUE_ORDER = Comparator.<String[], String>comparing(row -> row[0])
+            .thenComparing(row -> row[1])
+            .thenComparing(row -> row[2])
+            .thenComparing(row -> row[3]);
+    /**
+     * Issues with the same identity are sorted by line, so that they are matched in order.
+     **/
+    private static final Comparator<String[]> ISSUE_SORT = ISSUE_ORDER.thenComparingInt(row -> Integer.parseInt(row[4]));
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+    private final BranchComponentStore branchComponentStore;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient             Client to join the database.
+     * @param userSession          Session of the calling user.
+     * @param componentFinder      Service to find the project.
+     * @param branchComponentStore Store of the component indexes of the branches.
+     */
+    public CompareBranchesAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder,
+                                 final BranchComponentStore branchComponentStore) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+        this.branchComponentStore = branchComponentStore;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("compare")
+                .setDescription("Compare the last analysis of a branch or a pull request with its merge branch. "
+                        + "Added, removed and changed measures and issues are streamed as one JSON object per line. "
+                        + "Requires 'Browse' rights on the project.")
+                .setHandler(this);
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key")
+                .setRequired(true);
+        action.createParam(PARAM_BRANCH)
+                .setDescription("Branch key. Either this parameter or 'pullRequest' must be set");
+        action.createParam(PARAM_PULL_REQUEST)
+                .setDescription("Pull request id. Either this parameter or 'branch' must be set");
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) throws Exception {
+        final String branchKey = request.param(PARAM_BRANCH);
+        final String pullRequestKey = request.param(PARAM_PULL_REQUEST);
+        checkRequest(branchKey == null ^ pullRequestKey == null, "Either '%s' or '%s' must be set", PARAM_BRANCH, PARAM_PULL_REQUEST);
+
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final ComponentDto project = this.componentFinder.getByKey(dbSession, request.mandatoryParam(PARAM_PROJECT));
+            this.userSession.checkComponentPermission(UserRole.USER, project);
+            final String key = branchKey == null ? pullRequestKey : branchKey;
+            final Side compared = this.select(dbSession, project.uuid(), SELECT_BRANCH, project.uuid(), key,
+                    branchKey == null ? "PULL_REQUEST" : "BRANCH")
+                    .orElseThrow(() -> new NotFoundException(String.format("Branch or pull request '%s' not found", key)));
+            final String mergeBranchUuid = compared.mergeBranchUuid == null ? project.uuid() : compared.mergeBranchUuid;
+            final Side base = this.select(dbSession, project.uuid(), SELECT_BRANCH_BY_UUID, mergeBranchUuid)
+                    .orElseThrow(() -> new NotFoundException(String.format("Merge branch of '%s' not found", key)));
+
+            response.stream().setMediaType("application/x-ndjson");
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(response.stream().output(), StandardCharsets.UTF_8))) {
+                final Chunks chunks = new Chunks(dbSession, base, compared, new DiffWriter(writer));
+                SortedMergeJoin.join(base.components.getComponents().iterator(), compared.components.getComponents().iterator(),
+                        KEY_ORDER, chunks);
+                chunks.compare();
+            }
+        }
+    }
+
+    /**
+     * Merge-join measures of the last analyses of both sides for a chunk of components.
+     */
+    private static void compareMeasures(final DbSession dbSession, final Side base, final Side compared, final List<Pair> chunk,
+                                        final DiffWriter diffWriter) throws Exception {
+        final SortedMergeJoin.Visitor<String[]> visitor = new SortedMergeJoin.Visitor<String[]>() {
+            @Override
+            public void removed(final String[] row) throws IOException {
+                diffWriter.write(measure("removed", row, null));
+            }
+
+            @Override
+            public void added(final String[] row) throws IOException {
+                diffWriter.write(measure("added", null, row));
+            }
+
+            @Override
+            public void matched(final String[] baseRow, final String[] comparedRow) throws IOException {
+                if (!Objects.equals(baseRow[2], comparedRow[2]) || !Objects.equals(baseRow[3], comparedRow[3])) {
+                    diffWriter.write(measure("changed", baseRow, comparedRow));
+                }
+            }
+        };
+        final List<String[]> baseRows = base.analysisUuid == null ? Collections.emptyList()
+                : read(dbSession, SELECT_MEASURES, base.analysisUuid, chunk, pair -> pair.baseUuid, 4, MEASURE_ORDER);
+        final List<String[]> comparedRows = compared.analysisUuid == null ? Collections.emptyList()
+                : read(dbSession, SELECT_MEASURES, compared.analysisUuid, chunk, pair -> pair.comparedUuid, 4, MEASURE_ORDER);
+        SortedMergeJoin.join(baseRows.iterator(), comparedRows.iterator(), MEASURE_ORDER, visitor);
+    }
+
+    /**
+     * Merge-join unclosed issues of both sides for a chunk of components.
+     */
+    private static void compareIssues(final DbSession dbSession, final List<Pair> chunk, final DiffWriter diffWriter) throws Exception {
+        final SortedMergeJoin.Visitor<String[]> visitor = new SortedMergeJoin.Visitor<String[]>() {
+            @Override
+            public void removed(final String[] row) throws IOException {
+                diffWriter.write(issue("removed", row, null));
+            }
+
+            @Override
+            public void added(final String[] row) throws IOException {
+                diffWriter.write(issue("added", null, row));
+            }
+
+            @Override
+            public void matched(final String[] baseRow, final String[] comparedRow) throws IOException {
+                for (int i = 4; i < baseRow.length; i++) {
+                    if (!Objects.equals(baseRow[i], comparedRow[i])) {
+                        diffWriter.write(issue("changed", baseRow, comparedRow));
+                        return;
+                    }
+                }
+            }
+        };
+        SortedMergeJoin.join(
+                read(dbSession, SELECT_ISSUES, null, chunk, pair -> pair.baseUuid, 9, ISSUE_SORT).iterator(),
+                read(dbSession, SELECT_ISSUES, null, chunk, pair -> pair.comparedUuid, 9, ISSUE_SORT).iterator(),
+                ISSUE_ORDER, visitor);
+    }
+
+    /**
+     * Read the rows of the components of one side of a chunk, with the UUID of the component replaced by its key.
+     *
+     * @param dbSession    Session to the database.
+     * @param sql          Query, with a placeholder for the list of component UUIDs.
+     * @param analysisUuid UUID of the analysis, first parameter of the query, null if the query has no such parameter.
+     * @param chunk        Compared components.
+     * @param side         Give the UUID of a component on the read side, null if it is absent from this side.
+     * @param columns      Number of columns of the query.
+     * @param order        Order of the rows.
+     * @return Sorted rows.
+     */
+    private static List<String[]> read(final DbSession dbSession, final String sql, final String analysisUuid, final List<Pair> chunk,
+                                       final Function<Pair, String> side, final int columns, final Comparator<String[]> order)
+            throws SQLException {
+        final Map<String, String> keysByUuid = new HashMap<>();
+        chunk.stream().filter(pair -> side.apply(pair) != null).forEach(pair -> keysByUuid.put(side.apply(pair), pair.key));
+        if (keysByUuid.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String[]> rows = new ArrayList<>();
+        final List<String> uuids = new ArrayList<>(keysByUuid.keySet());
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(
+                String.format(sql, String.join(",", Collections.nCopies(uuids.size(), "?"))))) {
+            int index = 1;
+            if (analysisUuid != null) {
+                statement.setString(index++, analysisUuid);
+            }
+            for (final String uuid : uuids) {
+                statement.setString(index++, uuid);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    final String[] row = new String[columns];
+                    row[0] = keysByUuid.get(resultSet.getString(1));
+                    for (int i = 1; i < columns; i++) {
+                        row[i] = resultSet.getString(i + 1);
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        rows.sort(order);
+        return rows;
+    }
+
+    /**
+     * Read a branch with the UUID of its last analysis and its component index.
+     */
+    private Optional<Side> select(final DbSession dbSession, final String projectUuid, final String sql,
+                                  final String... parameters) throws SQLException {
+        final String uuid;
+        final String mergeBranchUuid;
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setString(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+                uuid = resultSet.getString(1);
+                mergeBranchUuid = resultSet.getString(2);
+            }
+        }
+        String analysisUuid = null;
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(SELECT_LAST_ANALYSIS)) {
+            statement.setString(1, uuid);
+            statement.setBoolean(2, true);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    analysisUuid = resultSet.getString(1);
+                }
+            }
+        }
+        return Optional.of(new Side(mergeBranchUuid, analysisUuid, this.branchComponentStore.get(projectUuid, uuid)));
+    }
+
+    private static JsonObject measure(final String change, final String[] base, final String[] compared) {
+        final String[] row = compared == null ? base : compared;
+        final JsonObject json = new JsonObject();
+        json.addProperty("type", "measure");
+        json.addProperty("change", change);
+        json.addProperty("component", row[0]);
+        json.addProperty("metric", row[1]);
+        if (base != null) {
+            json.addProperty("baseValue", base[2] == null ? base[3] : base[2]);
+        }
+        if (compared != null) {
+            json.addProperty("value", compared[2] == null ? compared[3] : compared[2]);
+        }
+        return json;
+    }
+
+    private static JsonObject issue(final String change, final String[] base, final String[] compared) {
+        final String[] row = compared == null ? base : compared;
+        final JsonObject json = new JsonObject();
+        json.addProperty("type", "issue");
+        json.addProperty("change", change);
+        json.addProperty("component", row[0]);
+        json.addProperty("rule", row[1] + ':' + row[2]);
+        if (!"0".equals(row[4])) {
+            json.addProperty("line", Integer.valueOf(row[4]));
+        }
+        json.addProperty("severity", row[5]);
+        json.addProperty("status", row[6]);
+        json.addProperty("resolution", row[7]);
+        json.addProperty("message", row[8]);
+        if (base != null && compared != null) {
+            json.addProperty("baseSeverity", base[5]);
+            json.addProperty("baseStatus", base[6]);
+            json.addProperty("baseResolution", base[7]);
+        }
+        return json;
+    }
+
+    /**
+     * A branch compared by this action.
+     */
+    private static final class Side {
+        private final String mergeBranchUuid;
+        private final String analysisUuid;
+        private final BranchComponents components;
+
+        private Side(final String mergeBranchUuid, final String analysisUuid, final BranchComponents components) {
+            this.mergeBranchUuid = mergeBranchUuid;
+            this.analysisUuid = analysisUuid;
+            this.components = components;
+        }
+    }
+
+    /**
+     * A component of the base side, of the compared side or of both.
+     */
+    private static final class Pair {
+        private final String key;
+        private final String baseUuid;
+        private final String comparedUuid;
+
+        private Pair(final String key, final String baseUuid, final String comparedUuid) {
+            this.key = key;
+            this.baseUuid = baseUuid;
+            this.comparedUuid = comparedUuid;
+        }
+    }
+
+    /**
+     * Collect the components matched by the merge-join of both indexes, comparing them each time a chunk is full.
+     */
+    private static final class Chunks implements SortedMergeJoin.Visitor<BranchComponent> {
+        private final DbSession dbSession;
+        private final Side base;
+        private final Side compared;
+        private final DiffWriter diffWriter;
+        private final List<Pair> chunk = new ArrayList<>(COMPONENTS_PER_QUERY);
+
+        private Chunks(final DbSession dbSession, final Side base, final Side compared, final DiffWriter diffWriter) {
+            this.dbSession = dbSession;
+            this.base = base;
+            this.compared = compared;
+            this.diffWriter = diffWriter;
+        }
+
+        @Override
+        public void removed(final BranchComponent component) throws Exception {
+            this.add(new Pair(component.getKey(), component.getUuid(), null));
+        }
+
+        @Override
+        public void added(final BranchComponent component) throws Exception {
+            this.add(new Pair(component.getKey(), null, component.getUuid()));
+        }
+
+        @Override
+        public void matched(final BranchComponent baseComponent, final BranchComponent comparedComponent) throws Exception {
+            this.add(new Pair(baseComponent.getKey(), baseComponent.getUuid(), comparedComponent.getUuid()));
+        }
+
+        /**
+         * Compare the components of the current chunk, then start a new chunk.
+         */
+        private void compare() throws Exception {
+            if (!this.chunk.isEmpty()) {
+                compareMeasures(this.dbSession, this.base, this.compared, this.chunk, this.diffWriter);
+                compareIssues(this.dbSession, this.chunk, this.diffWriter);
+                this.chunk.clear();
+            }
+        }
+
+        private void add(final Pair pair) throws Exception {
+            this.chunk.add(pair);
+            if (this.chunk.size() == COMPONENTS_PER_QUERY) {
+                this.compare();
+            }
+        }
+    }
+
+    /**
+     * Write differences, one per line, flushing regularly.
+     */
+    private static final class DiffWriter {
+        private final Writer writer;
+        private int lines;
+
+        private DiffWriter(final Writer writer) {
+            this.writer = writer;
+            this.lines = 0;
+        }
+
+        private void write(final JsonObject json) throws IOException {
+            this.writer.write(json.toString());
+            this.writer.write('\n');
+            if (++this.lines % FLUSH_INTERVAL == 0) {
+                this.writer.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.sonar.api.resources.Qualifiers;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.DateUtils;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.web.UserRole;
+import org.sonar.core.permission.GlobalPermissions;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.permission.OrganizationPermission;
+import org.sonar.db.protobuf.DbProjectBranches;
+import org.sonar.server.user.UserSession;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.sonar.server.ws.WsUtils.checkRequest;
+
+/**
+ * List the branches and pull requests of many projects in a single call, as
+ * api/project_branches/list and api/project_pull_requests/list do for one project.
+ * Scanners analyzing many projects in the same pipeline resolve all their branches with one call.
+ * Projects which do not exist or which the user can't browse nor analyze are not listed.
+ */
+public class ProjectBranchesBatchAction implements BranchPluginWsAction {
+
+    private static final String PARAM_PROJECTS = "projects";
+    /**
+     * Maximum number of projects of a single call.
+     **/
+    public static final int MAX_PROJECTS = 500;
+    /**
+     * Number of projects whose branches are loaded by a single query.
+     **/
+    private static final int PROJECTS_PER_QUERY = 50;
+    private static final String SELECT_BRANCHES = "select pb.uuid, pb.project_uuid, pb.kee, pb.branch_type, mb.kee,"
+            + " pb.pull_request_binary, s.created_at"
+            + " from project_branches pb"
+            + " left join project_branches mb on mb.uuid = pb.merge_branch_uuid"
+            + " left join snapshots s on s.component_uuid = pb.uuid and s.islast = ?"
+            + " where pb.project_uuid in (%s)"
+            + " order by pb.kee";
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient    Client to join the database.
+     * @param userSession Session of the calling user.
+     */
+    public ProjectBranchesBatchAction(final DbClient dbClient, final UserSession userSession) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("project_branches_batch")
+                .setDescription("List the branches and pull requests of several projects. "
+                        + "Only projects on which the user has 'Browse' or 'Execute Analysis' rights are listed. "
+                        + "Keys are sent in the body of the request, as a list of projects may exceed the URL length "
+                        + "accepted by the server.")
+                .setPost(true)
+                .setInternal(true)
+                .setHandler(this);
+        action.createParam(PARAM_PROJECTS)
+                .setDescription("Comma-separated list of project keys")
+                .setRequired(true);
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) throws SQLException {
+        final List<String> projectKeys = request.mandatoryParamAsStrings(PARAM_PROJECTS);
+        checkRequest(projectKeys.size() <= MAX_PROJECTS, "At most %s projects can be listed at once", MAX_PROJECTS);
+
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final List<ComponentDto> projects = this.authorizedProjects(dbSession, projectKeys);
+            final Map<String, List<Row>> rowsByProject = new LinkedHashMap<>();
+            final List<String> projectUuids = projects.stream().map(ComponentDto::uuid).collect(Collectors.toList());
+            for (int from = 0; from < projectUuids.size(); from += PROJECTS_PER_QUERY) {
+                this.loadBranches(dbSession, projectUuids.subList(from, Math.min(from + PROJECTS_PER_QUERY, projectUuids.size())), rowsByProject);
+            }
+
+            try (JsonWriter json = response.newJsonWriter()) {
+                json.beginObject().name("projects").beginArray();
+                for (final ComponentDto project : projects) {
+                    final List<Row> rows = rowsByProject.getOrDefault(project.uuid(), Collections.emptyList());
+                    json.beginObject().prop("key", project.getKey()).name("branches").beginArray();
+                    for (final Row row : rows) {
+                        if (row.type != BranchType.PULL_REQUEST) {
+                            json.beginObject()
+                                    .prop("name", row.key)
+                                    .prop("type", row.type.name())
+                                    .prop("isMain", row.uuid.equals(project.uuid()))
+                                    .prop("mergeBranch", row.mergeBranch)
+                                    .endObject();
+                        }
+                    }
+                    json.endArray().name("pullRequests").beginArray();
+                    for (final Row row : rows) {
+                        if (row.type == BranchType.PULL_REQUEST) {
+                            json.beginObject()
+                                    .prop("key", row.key)
+                                    .prop("branch", row.pullRequestBranch)
+                                    .prop("base", row.mergeBranch)
+                                    .prop("analysisDate", row.analysisDate == null ? null : DateUtils.formatDateTime(new Date(row.analysisDate)))
+                                    .endObject();
+                        }
+                    }
+                    json.endArray().endObject();
+                }
+                json.endArray().endObject();
+            }
+        }
+    }
+
+    /**
+     * Find the projects the user can browse or analyze.
+     *
+     * @param dbSession   Session to the database.
+     * @param projectKeys Keys of the projects.
+     * @return Authorized projects, in the order of their keys.
+     */
+    private List<ComponentDto> authorizedProjects(final DbSession dbSession, final List<String> projectKeys) {
+        final List<ComponentDto> projects = this.dbClient.componentDao().selectByKeys(dbSession, projectKeys).stream()
+                .filter(component -> Qualifiers.PROJECT.equals(component.qualifier()) && component.getMainBranchProjectUuid() == null)
+                .collect(Collectors.toList());
+        final Set<String> authorized = this.userSession.keepAuthorizedComponents(UserRole.USER, projects).stream()
+                .map(ComponentDto::uuid)
+                .collect(Collectors.toSet());
+        final List<ComponentDto> others = projects.stream()
+                .filter(project -> !authorized.contains(project.uuid()))
+                .collect(Collectors.toList());
+        this.userSession.keepAuthorizedComponents(GlobalPermissions.SCAN_EXECUTION, others).forEach(project -> authorized.add(project.uuid()));
+        others.stream()
+                .filter(project -> this.userSession.hasPermission(OrganizationPermission.SCAN, project.getOrganizationUuid()))
+                .forEach(project -> authorized.add(project.uuid()));
+        final Map<String, ComponentDto> byKey = projects.stream()
+                .filter(project -> authorized.contains(project.uuid()))
+                .collect(Collectors.toMap(ComponentDto::getKey, project -> project, (first, second) -> first));
+        return projectKeys.stream().distinct().map(byKey::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * Load branches and pull requests of some projects.
+     *
+     * @param dbSession     Session to the database.
+     * @param projectUuids  UUIDs of the projects.
+     * @param rowsByProject Where loaded rows are added, by project UUID.
+     */
+    private void loadBranches(final DbSession dbSession, final List<String> projectUuids, final Map<String, List<Row>> rowsByProject)
+            throws SQLException {
+        final String sql = String.format(SELECT_BRANCHES, String.join(",", Collections.nCopies(projectUuids.size(), "?")));
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(sql)) {
+            statement.setBoolean(1, true);
+            for (int i = 0; i < projectUuids.size(); i++) {
+                statement.setString(2 + i, projectUuids.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    final Row row = new Row();
+                    row.uuid = resultSet.getString(1);
+                    row.key = resultSet.getString(3);
+                    row.type = BranchType.valueOf(resultSet.getString(4));
+                    row.mergeBranch = resultSet.getString(5);
+                    row.pullRequestBranch = pullRequestBranch(resultSet.getBytes(6), row.key);
+                    final long analysisDate = resultSet.getLong(7);
+                    row.analysisDate = resultSet.wasNull() ? null : analysisDate;
+                    rowsByProject.computeIfAbsent(resultSet.getString(2), k -> new ArrayList<>()).add(row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the name of the branch of a pull request.
+     *
+     * @param data Serialized data of the pull request, may be null.
+     * @param key  Key of the pull request, used when no branch is known.
+     * @return Name of the branch.
+     */
+    private static String pullRequestBranch(final byte[] data, final String key) {
+        if (data == null) {
+            return key;
+        }
+        try {
+            return DbProjectBranches.PullRequestData.parseFrom(data).getBranch();
+        } catch (final InvalidProtocolBufferException e) {
+            return key;
+        }
+    }
+
+    /**
+     * Branch or pull request read from the database.
+     */
+    private static final class Row {
+        private String uuid;
+        private String key;
+        private BranchType type;
+        private String mergeBranch;
+        private String pullRequestBranch;
+        private Long analysisDate;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Merge-join of two iterators sorted by the same comparator, reading each element once,
+ * so that memory used does not depend on the number of elements.
+ */
+final class SortedMergeJoin {
+
+    /**
+     * Receive the result of a merge-join.
+     *
+     * @param <T> Type of joined elements.
+     */
+    interface Visitor<T> {
+
+        /**
+         * Called for an element only found on the base side.
+         *
+         * @param base Element of the base side.
+         * @throws Exception If the element can't be handled.
+         */
+        void removed(T base) throws Exception;
+
+        /**
+         * Called for an element only found on the compared side.
+         *
+         * @param compared Element of the compared side.
+         * @throws Exception If the element can't be handled.
+         */
+        void added(T compared) throws Exception;
+
+        /**
+         * Called for elements found on both sides.
+         *
+         * @param base     Element of the base side.
+         * @param compared Element of the compared side.
+         * @throws Exception If the elements can't be handled.
+         */
+        void matched(T base, T compared) throws Exception;
+    }
+
+    /**
+     * Private constructor.
+     */
+    private SortedMergeJoin() {
+
+    }
+
+    /**
+     * Join two sorted iterators. Equal elements of both sides are matched in their order of iteration.
+     *
+     * @param base       Elements of the base side, sorted.
+     * @param compared   Elements of the compared side, sorted.
+     * @param comparator Order of both sides.
+     * @param visitor    Receiver of the result.
+     * @param <T>        Type of joined elements.
+     * @throws Exception If the visitor fails.
+     */
+    static <T> void join(final Iterator<T> base, final Iterator<T> compared, final Comparator<? super T> comparator,
+                         final Visitor<T> visitor) throws Exception {
+        T left = base.hasNext() ? base.next() : null;
+        T right = compared.hasNext() ? compared.next() : null;
+        while (left != null || right != null) {
+            final int comparison;
+            if (left == null) {
+                comparison = 1;
+            } else if (right == null) {
+                comparison = -1;
+            } else {
+                comparison = comparator.compare(left, right);
+            }
+            if (comparison < 0) {
+                visitor.removed(left);
+                left = base.hasNext() ? base.next() : null;
+            } else if (comparison > 0) {
+                visitor.added(right);
+                right = compared.hasNext() ? compared.next() : null;
+            } else {
+                visitor.matched(left, right);
+                left = base.hasNext() ? base.next() : null;
+                right = compared.hasNext() ? compared.next() : null;
+            }
+        }
+    }
+}
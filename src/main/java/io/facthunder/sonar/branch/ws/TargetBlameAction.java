@@ -0,0 +1,197 @@
+/*
+ * This file is part of sonar-branch-plugin.
+ *
+ * sonar-branch-plugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * sonar-branch-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with sonar-branch-plugin.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.facthunder.sonar.branch.ws;
+
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.DateUtils;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.web.UserRole;
+import org.sonar.core.permission.GlobalPermissions;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.permission.OrganizationPermission;
+import org.sonar.db.protobuf.DbFileSources;
+import org.sonar.db.source.FileSourceDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.ForbiddenException;
+import org.sonar.server.exceptions.NotFoundException;
+import org.sonar.server.user.UserSession;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.sonar.server.ws.WsUtils.checkRequest;
+
+/**
+ * Give the hash of the source, the blame and optionally the line hashes of many files of a branch in a single call,
+ * as api/sources/hash and api/sources/scm do for one file. Scanners of short living branches and pull requests
+ * reuse the blame of the files whose source is identical to their version on the target branch,
+ * and compare line hashes to find changed lines.
+ * Files which do not exist on the branch are not listed.
+ */
+public class TargetBlameAction implements BranchPluginWsAction {
+
+    private static final String PARAM_PROJECT = "project";
+    private static final String PARAM_BRANCH = "branch";
+    private static final String PARAM_FILES = "files";
+    private static final String PARAM_LINE_HASHES = "lineHashes";
+    /**
+     * Maximum number of files of a single call.
+     **/
+    public static final int MAX_FILES = 500;
+    private static final String SELECT_SOURCES = "select p.kee, fs.src_hash, fs.binary_data, fs.line_hashes"
+            + " from file_sources fs"
+            + " inner join projects p on p.uuid = fs.file_uuid"
+            + " where fs.project_uuid = ? and fs.data_type = 'SOURCE' and p.kee in (%s)";
+
+    private final DbClient dbClient;
+    private final UserSession userSession;
+    private final ComponentFinder componentFinder;
+
+    /**
+     * Constructor.
+     *
+     * @param dbClient        Client to join the database.
+     * @param userSession     Session of the calling user.
+     * @param componentFinder Service to find the project.
+     */
+    public TargetBlameAction(final DbClient dbClient, final UserSession userSession, final ComponentFinder componentFinder) {
+        this.dbClient = dbClient;
+        this.userSession = userSession;
+        this.componentFinder = componentFinder;
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void define(final WebService.NewController controller) {
+        final WebService.NewAction action = controller.createAction("target_blame")
+                .setDescription("Get the hash of the source and the blame of files of a branch. "
+                        + "Blame is only given for files whose lines all have a revision and a date. "
+                        + "Requires 'Browse' or 'Execute Analysis' rights on the project.")
+                .setPost(true)
+                .setInternal(true)
+                .setHandler(this);
+        action.createParam(PARAM_PROJECT)
+                .setDescription("Project key")
+                .setRequired(true);
+        action.createParam(PARAM_BRANCH)
+                .setDescription("Branch name, the main branch when not set");
+        action.createParam(PARAM_FILES)
+                .setDescription("Keys of the files on the branch, given once per file, at most " + MAX_FILES)
+                .setRequired(true);
+        action.createParam(PARAM_LINE_HASHES)
+                .setDescription("Also give the hashes of the lines of the files, as api/sources/hash does")
+                .setBooleanPossibleValues()
+                .setDefaultValue("false");
+    }
+
+    /**
+     * @see BranchPluginWsAction
+     */
+    @Override
+    public void handle(final Request request, final Response response) throws SQLException {
+        final List<String> fileKeys = request.mandatoryMultiParam(PARAM_FILES);
+        checkRequest(fileKeys.size() <= MAX_FILES, "At most %s files can be given at once", MAX_FILES);
+        final String branchName = request.param(PARAM_BRANCH);
+        final boolean withLineHashes = request.mandatoryParamAsBoolean(PARAM_LINE_HASHES);
+
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            final ComponentDto project = this.componentFinder.getByKey(dbSession, request.mandatoryParam(PARAM_PROJECT));
+            if (!this.isAuthorized(project)) {
+                throw new ForbiddenException("Insufficient privileges");
+            }
+            final String branchUuid = branchName == null ? project.uuid() : this.dbClient.branchDao()
+                    .selectByBranchKey(dbSession, project.uuid(), branchName)
+                    .map(BranchDto::getUuid)
+                    .orElseThrow(() -> new NotFoundException(String.format("Branch '%s' not found", branchName)));
+
+            try (JsonWriter json = response.newJsonWriter()) {
+                json.beginObject().name("files").beginArray();
+                if (!fileKeys.isEmpty()) {
+                    this.writeFiles(dbSession, branchUuid, fileKeys, withLineHashes, json);
+                }
+                json.endArray().endObject();
+            }
+        }
+    }
+
+    private boolean isAuthorized(final ComponentDto project) {
+        return this.userSession.hasComponentPermission(UserRole.CODEVIEWER, project)
+                || this.userSession.hasComponentPermission(GlobalPermissions.SCAN_EXECUTION, project)
+                || this.userSession.hasPermission(OrganizationPermission.SCAN, project.getOrganizationUuid());
+    }
+
+    /**
+     * Write the hash and blame of the files found on the branch, decoding one source at a time.
+     *
+     * @param dbSession      Session to the database.
+     * @param branchUuid     UUID of the branch.
+     * @param fileKeys       Keys of the files.
+     * @param withLineHashes True to also write the hashes of the lines.
+     * @param json           Writer of the response.
+     */
+    private void writeFiles(final DbSession dbSession, final String branchUuid, final List<String> fileKeys,
+                            final boolean withLineHashes, final JsonWriter json) throws SQLException {
+        final String sql = String.format(SELECT_SOURCES, String.join(",", Collections.nCopies(fileKeys.size(), "?")));
+        final FileSourceDto decoder = new FileSourceDto();
+        try (PreparedStatement statement = dbSession.getConnection().prepareStatement(sql)) {
+            statement.setString(1, branchUuid);
+            for (int i = 0; i < fileKeys.size(); i++) {
+                statement.setString(2 + i, fileKeys.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    json.beginObject()
+                            .prop("key", resultSet.getString(1))
+                            .prop("hash", resultSet.getString(2));
+                    final byte[] data = resultSet.getBytes(3);
+                    final List<DbFileSources.Line> lines = data == null ? Collections.emptyList() : decoder.decodeSourceData(data).getLinesList();
+                    if (!lines.isEmpty() && lines.stream().allMatch(line -> line.hasScmRevision() && line.hasScmDate())) {
+                        json.name("scm").beginArray();
+                        for (final DbFileSources.Line line : lines) {
+                            json.beginObject()
+                                    .prop("author", line.hasScmAuthor() ? line.getScmAuthor() : null)
+                                    .prop("date", DateUtils.formatDateTime(new Date(line.getScmDate())))
+                                    .prop("revision", line.getScmRevision())
+                                    .endObject();
+                        }
+                        json.endArray();
+                    }
+                    final String lineHashes = withLineHashes ? resultSet.getString(4) : null;
+                    if (lineHashes != null) {
+                        json.name("lineHashes").beginArray();
+                        for (final String lineHash : lineHashes.split("\n", -1)) {
+                            json.value(lineHash);
+                        }
+                        json.endArray();
+                    }
+                    json.endObject();
+                }
+            }
+        }
+    }
+}
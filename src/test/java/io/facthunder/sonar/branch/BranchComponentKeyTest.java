@@ -0,0 +1,36 @@
+package io.facthunder.sonar.branch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sonar.db.component.BranchType;
+
+public class BranchComponentKeyTest {
+
+    /**
+     * Assert that keys of a branch are built in the legacy format.
+     */
+    @Test
+    public void suffixTest() {
+        final String suffix = BranchComponentKey.suffix(BranchType.SHORT, "feature/x");
+        final BranchComponentKey first = BranchComponentKey.of("project:src/A.java", suffix);
+        final BranchComponentKey second = BranchComponentKey.of("project:src/B.java", BranchComponentKey.suffix(BranchType.SHORT, "feature/x"));
+
+        Assert.assertEquals(":BRANCH:feature/x", second.getSuffix());
+        Assert.assertEquals("project:src/A.java:BRANCH:feature/x", first.toString());
+        Assert.assertEquals("project:src/B.java:BRANCH:feature/x", second.toString());
+    }
+
+    /**
+     * Assert that parsing a materialized key gives back the same key.
+     */
+    @Test
+    public void parseTest() {
+        final BranchComponentKey key = BranchComponentKey.of("project:src/A.java", BranchComponentKey.suffix(BranchType.PULL_REQUEST, "42"));
+        final BranchComponentKey parsed = BranchComponentKey.parse(key.toString());
+
+        Assert.assertEquals(key, parsed);
+        Assert.assertEquals(":PULL_REQUEST:42", parsed.getSuffix());
+        Assert.assertEquals("project:src/A.java", BranchComponentKey.parse("project:src/A.java").getComponentKey());
+        Assert.assertEquals("", BranchComponentKey.parse("project:src/A.java").getSuffix());
+    }
+}
@@ -0,0 +1,186 @@
+package io.facthunder.sonar.branch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.facthunder.sonar.branch.pr.ProjectPullRequestsLoaderImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.scanner.bootstrap.GlobalAnalysisMode;
+import org.sonar.scanner.bootstrap.ScannerWsClient;
+import org.sonar.scanner.scan.branch.BranchConfiguration;
+import org.sonar.scanner.scan.branch.BranchType;
+import org.sonar.scanner.scan.branch.ProjectBranches;
+import org.sonar.scanner.scan.branch.ProjectPullRequests;
+import org.sonarqube.ws.client.HttpConnector;
+import org.sonarqube.ws.client.WsClientFactories;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Guard the number of web service calls of branch resolution in the scanner,
+ * against a local stub server listing thousands of branches.
+ */
+public class BranchConfigurationLoaderPerformanceTest {
+
+    private static final int BRANCHES_PER_TYPE = 2000;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private ProjectBranches projectBranches;
+    private ProjectPullRequests projectPullRequests;
+
+    /**
+     * Start the stub server and load branches and pull requests from it.
+     */
+    @Before
+    public void prepare() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/api/project_branches/list", exchange -> this.reply(exchange, branchesJson()));
+        this.server.createContext("/api/project_pull_requests/list", exchange -> this.reply(exchange, pullRequestsJson()));
+        this.server.start();
+
+        final ScannerWsClient wsClient = new ScannerWsClient(WsClientFactories.getDefault().newClient(HttpConnector.newBuilder()
+                .url("http://localhost:" + this.server.getAddress().getPort())
+                .build()), false, Mockito.mock(GlobalAnalysisMode.class));
+
+        this.projectBranches = new ProjectBranchesLoaderImpl(wsClient).load("project");
+        this.projectPullRequests = new ProjectPullRequestsLoaderImpl(wsClient).load("project");
+
+        Assert.assertEquals("Web service calls to load branches and pull requests", 2, this.requests.get());
+        Assert.assertFalse(this.projectBranches.isEmpty());
+    }
+
+    @After
+    public void stop() {
+        this.server.stop(0);
+    }
+
+    /**
+     * Main branch resolution.
+     */
+    @Test
+    public void mainBranchTest() {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("sonar.branch.name", "master");
+        final BranchConfiguration configuration = this.assertNoCall(properties);
+        Assert.assertEquals(BranchType.LONG, configuration.branchType());
+    }
+
+    /**
+     * Long branch resolution.
+     */
+    @Test
+    public void longBranchTest() {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("sonar.branch.name", "release-1500");
+        final BranchConfiguration configuration = this.assertNoCall(properties);
+        Assert.assertEquals(BranchType.LONG, configuration.branchType());
+        Assert.assertEquals("release-1500", configuration.branchBase());
+    }
+
+    /**
+     * Short branch resolution, targeting a short branch which must be resolved to its long base.
+     */
+    @Test
+    public void shortBranchTest() {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("sonar.branch.name", "feature-new");
+        properties.put("sonar.branch.target", "feature-1500");
+        final BranchConfiguration configuration = this.assertNoCall(properties);
+        Assert.assertEquals(BranchType.SHORT, configuration.branchType());
+        Assert.assertEquals("release-1500", configuration.branchTarget());
+    }
+
+    /**
+     * Pull request resolution, targeting another pull request.
+     */
+    @Test
+    public void pullRequestTest() {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("sonar.pullrequest.key", "new");
+        properties.put("sonar.pullrequest.branch", "feature-pr");
+        properties.put("sonar.pullrequest.base", "pr-branch-1500");
+        final BranchConfiguration configuration = this.assertNoCall(properties);
+        Assert.assertEquals(BranchType.PULL_REQUEST, configuration.branchType());
+        Assert.assertEquals("release-1500", configuration.branchTarget());
+    }
+
+    /**
+     * Resolution of CI aliases of existing branches, for the analyzed branch and its target, when enabled.
+     */
+    @Test
+    public void aliasTest() {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("sonar.branch.name", "refs/heads/release-1500");
+        BranchConfiguration configuration = this.assertNoCall(properties);
+        Assert.assertEquals("refs/heads/release-1500", configuration.branchName());
+
+        properties.put("sonar.branch.normalization.enabled", "true");
+        configuration = this.assertNoCall(properties);
+        Assert.assertEquals(BranchType.LONG, configuration.branchType());
+        Assert.assertEquals("release-1500", configuration.branchName());
+
+        properties.put("sonar.branch.name", "origin/feature-new");
+        properties.put("sonar.branch.target", "origin/feature-1500");
+        configuration = this.assertNoCall(properties);
+        Assert.assertEquals(BranchType.SHORT, configuration.branchType());
+        Assert.assertEquals("origin/feature-new", configuration.branchName());
+        Assert.assertEquals("release-1500", configuration.branchTarget());
+
+        properties.put("sonar.branch.normalization.prefixes", "origin/");
+        properties.remove("sonar.branch.target");
+        properties.put("sonar.branch.name", "refs/heads/release-1500");
+        configuration = this.assertNoCall(properties);
+        Assert.assertEquals("refs/heads/release-1500", configuration.branchName());
+    }
+
+    /**
+     * Resolve a configuration and check it doesn't call the server, branches being already loaded.
+     *
+     * @return The resolved configuration.
+     */
+    private BranchConfiguration assertNoCall(final Map<String, String> properties) {
+        final int requestsBefore = this.requests.get();
+        final BranchConfiguration configuration = new BranchConfigurationLoaderImpl()
+                .load(properties, HashMap::new, this.projectBranches, this.projectPullRequests);
+        Assert.assertEquals("Web service calls during resolution", requestsBefore, this.requests.get());
+        return configuration;
+    }
+
+    private void reply(final HttpExchange exchange, final String json) throws IOException {
+        this.requests.incrementAndGet();
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private static String branchesJson() {
+        final StringBuilder json = new StringBuilder("{\"branches\":[{\"name\":\"master\",\"type\":\"LONG\",\"isMain\":true}");
+        for (int i = 0; i < BRANCHES_PER_TYPE; i++) {
+            json.append(String.format(",{\"name\":\"release-%d\",\"type\":\"LONG\",\"isMain\":false,\"mergeBranch\":\"master\"}", i));
+            json.append(String.format(",{\"name\":\"feature-%d\",\"type\":\"SHORT\",\"isMain\":false,\"mergeBranch\":\"release-%d\"}", i, i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String pullRequestsJson() {
+        final StringBuilder json = new StringBuilder("{\"pullRequests\":[");
+        for (int i = 0; i < BRANCHES_PER_TYPE; i++) {
+            json.append(i == 0 ? "" : ",").append(String.format("{\"key\":\"%d\",\"branch\":\"pr-branch-%d\",\"base\":\"release-%d\","
+                    + "\"analysisDate\":\"2018-05-01T00:00:00+0000\"}", i, i, i));
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,224 @@
+package io.facthunder.sonar.branch;
+
+import io.facthunder.sonar.branch.archive.BranchArchive;
+import io.facthunder.sonar.branch.events.ResolvedBranchHolder;
+import io.facthunder.sonar.branch.listcache.BranchListStamps;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+import org.sonar.db.component.BranchType;
+import org.sonar.scanner.protocol.output.ScannerReport.Metadata;
+import org.sonar.server.computation.task.projectanalysis.analysis.Branch;
+import org.sonar.server.computation.task.projectanalysis.analysis.MutableAnalysisMetadataHolder;
+import org.sonar.server.issue.index.IssueIndexer;
+import org.sonar.server.project.Project;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guard the number of database queries and the latency of branch resolution in the compute engine,
+ * against an embedded database with the schema of SonarQube holding thousands of branches.
+ * The latency budget is coarse, far above the duration of a warmed-up resolution, so that it only
+ * catches resolutions scanning all branches, not the noise of the build machine.
+ */
+public class BranchLoaderDelegatePerformanceTest {
+
+    private static final String PROJECT_UUID = "project-uuid";
+    private static final int BRANCHES_PER_TYPE = 2000;
+    /**
+     * Number of resolutions following the first one, which must not query more than it.
+     */
+    private static final int RESOLUTIONS = 10;
+    /**
+     * Maximum average duration of the resolutions following the first one, in milliseconds.
+     **/
+    private static final long LATENCY_BUDGET_MS = 250;
+
+    private TestDatabase database;
+    private MutableAnalysisMetadataHolder metadataHolder;
+
+    /**
+     * Seed an in-memory database with branches of all types.
+     */
+    @Before
+    public void prepare() throws SQLException {
+        this.database = new TestDatabase("jdbc:h2:mem:branches;DB_CLOSE_DELAY=-1");
+        try (Connection connection = this.database.connect()) {
+            TestDatabase.insertBranch(connection, PROJECT_UUID, PROJECT_UUID, "master", BranchType.LONG, null);
+            for (int i = 0; i < BRANCHES_PER_TYPE; i++) {
+                TestDatabase.insertBranch(connection, "long-" + i, PROJECT_UUID, "release-" + i, BranchType.LONG, PROJECT_UUID);
+                TestDatabase.insertBranch(connection, "short-" + i, PROJECT_UUID, "feature-" + i, BranchType.SHORT, "long-" + i);
+                TestDatabase.insertBranch(connection, "pr-" + i, PROJECT_UUID, String.valueOf(i), BranchType.PULL_REQUEST, "long-" + i);
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into snapshots (uuid, component_uuid, islast, created_at) values (?, ?, ?, ?)")) {
+                statement.setString(1, "analysis");
+                statement.setString(2, PROJECT_UUID);
+                statement.setBoolean(3, true);
+                statement.setLong(4, 0L);
+                statement.execute();
+            }
+        }
+
+        final Project project = Mockito.mock(Project.class);
+        Mockito.when(project.getUuid()).thenReturn(PROJECT_UUID);
+        Mockito.when(project.getKey()).thenReturn("project");
+        this.metadataHolder = Mockito.mock(MutableAnalysisMetadataHolder.class);
+        Mockito.when(this.metadataHolder.getProject()).thenReturn(project);
+    }
+
+    @After
+    public void cleanUp() throws SQLException {
+        this.database.close();
+    }
+
+    /**
+     * Main branch is resolved with a single query.
+     */
+    @Test
+    public void mainBranchTest() {
+        final Metadata metadata = Metadata.newBuilder().build();
+        final Branch branch = this.assertQueries(metadata, 1, 1, this.coldCache());
+        Assert.assertTrue(branch.isMain());
+    }
+
+    /**
+     * Long branch is resolved with a single query.
+     */
+    @Test
+    public void longBranchTest() {
+        final Metadata metadata = Metadata.newBuilder()
+                .setBranchName("release-1500")
+                .setBranchType(Metadata.BranchType.LONG)
+                .build();
+        final Branch branch = this.assertQueries(metadata, 1, 1, this.coldCache());
+        Assert.assertEquals(BranchType.LONG, branch.getType());
+    }
+
+    /**
+     * Short branch is resolved with one query for itself and one for its merge branch.
+     */
+    @Test
+    public void shortBranchTest() {
+        final Metadata metadata = Metadata.newBuilder()
+                .setBranchName("feature-1500")
+                .setBranchType(Metadata.BranchType.SHORT)
+                .setMergeBranchName("release-1500")
+                .build();
+        final Branch branch = this.assertQueries(metadata, 2, 2, this.coldCache());
+        Assert.assertEquals(Optional.of("long-1500"), branch.getMergeBranchUuid());
+    }
+
+    /**
+     * Pull request is resolved with a single query for its merge branch.
+     */
+    @Test
+    public void pullRequestTest() {
+        final Metadata metadata = Metadata.newBuilder()
+                .setBranchName("feature-pr")
+                .setBranchType(Metadata.BranchType.PULL_REQUEST)
+                .setPullRequestKey("1500")
+                .setMergeBranchName("release-1500")
+                .build();
+        final Branch branch = this.assertQueries(metadata, 1, 1, this.coldCache());
+        Assert.assertEquals("1500", branch.getPullRequestId());
+    }
+
+    /**
+     * Once warmed up, long branches and merge branches don't query the database any more.
+     */
+    @Test
+    public void warmCacheTest() {
+        final MapSettings settings = new MapSettings();
+        settings.setProperty(BranchPropertyDefinition.WARMUP_ENABLED, "true");
+        final BranchMetadataCache cache = new BranchMetadataCache(this.database.dbClient(), settings.asConfig(), System2.INSTANCE,
+                new BranchListStamps(settings.asConfig()));
+        cache.start();
+
+        final Metadata shortBranch = Metadata.newBuilder()
+                .setBranchName("feature-1500")
+                .setBranchType(Metadata.BranchType.SHORT)
+                .setMergeBranchName("release-1500")
+                .build();
+        this.assertQueries(shortBranch, 1, 1, cache);
+        this.assertQueries(Metadata.newBuilder().build(), 0, 0, cache);
+    }
+
+    /**
+     * Loaded on demand, long branches of a project are read once and shared by the following resolutions.
+     */
+    @Test
+    public void onDemandCacheTest() {
+        final MapSettings settings = new MapSettings();
+        settings.setProperty(BranchPropertyDefinition.WARMUP_ON_DEMAND, "true");
+        final BranchMetadataCache cache = new BranchMetadataCache(this.database.dbClient(), settings.asConfig(), System2.INSTANCE,
+                new BranchListStamps(settings.asConfig()));
+
+        final Metadata longBranch = Metadata.newBuilder()
+                .setBranchName("release-1500")
+                .setBranchType(Metadata.BranchType.LONG)
+                .build();
+        this.assertQueries(longBranch, 1, 0, cache);
+        this.assertQueries(Metadata.newBuilder().build(), 0, 0, cache);
+    }
+
+    /**
+     * On-demand loading stops when the cache already holds the configured number of projects.
+     */
+    @Test
+    public void onDemandCacheFullTest() {
+        final MapSettings settings = new MapSettings();
+        settings.setProperty(BranchPropertyDefinition.WARMUP_ON_DEMAND, "true");
+        settings.setProperty(BranchPropertyDefinition.WARMUP_PROJECTS, "0");
+        final BranchMetadataCache cache = new BranchMetadataCache(this.database.dbClient(), settings.asConfig(), System2.INSTANCE,
+                new BranchListStamps(settings.asConfig()));
+
+        this.assertQueries(Metadata.newBuilder().build(), 1, 1, cache);
+    }
+
+    private BranchMetadataCache coldCache() {
+        final MapSettings settings = new MapSettings();
+        return new BranchMetadataCache(this.database.dbClient(), settings.asConfig(), System2.INSTANCE, new BranchListStamps(settings.asConfig()));
+    }
+
+    /**
+     * Resolve a branch, then resolve it again several times, asserting the number of queries of each resolution
+     * and the average latency of the following ones, once the first one warmed up the database and the code.
+     *
+     * @param metadata      Metadata of the analysis report.
+     * @param firstQueries  Expected number of queries of the first resolution.
+     * @param nextQueries   Expected number of queries of each following resolution.
+     * @param cache         Cache of branch metadata.
+     * @return The resolved branch.
+     */
+    private Branch assertQueries(final Metadata metadata, final int firstQueries, final int nextQueries, final BranchMetadataCache cache) {
+        final BranchLoaderDelegateImpl delegate = new BranchLoaderDelegateImpl(this.database.dbClient(), this.metadataHolder, cache,
+                new ResolvedBranchHolder(), new BranchArchive(new MapSettings().asConfig(), System2.INSTANCE, Mockito.mock(IssueIndexer.class)));
+
+        this.database.reset();
+        delegate.load(metadata);
+        Assert.assertEquals("Database queries of the first resolution", firstQueries, this.database.statements());
+
+        this.database.reset();
+        final long start = System.nanoTime();
+        for (int i = 0; i < RESOLUTIONS; i++) {
+            delegate.load(metadata);
+        }
+        final long average = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / RESOLUTIONS;
+        Assert.assertEquals("Database queries of the following resolutions", (long) nextQueries * RESOLUTIONS, this.database.statements());
+        Assert.assertTrue(String.format("Resolutions took %d ms on average", average), average < LATENCY_BUDGET_MS);
+
+        final ArgumentCaptor<Branch> branch = ArgumentCaptor.forClass(Branch.class);
+        Mockito.verify(this.metadataHolder, Mockito.atLeastOnce()).setBranch(branch.capture());
+        return branch.getValue();
+    }
+}
@@ -0,0 +1,110 @@
+package io.facthunder.sonar.branch;
+
+import io.facthunder.sonar.branch.listcache.BranchListStamps;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+
+public class BranchMetadataCacheTest {
+
+    private static final String PROJECT = "project";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Connection connection;
+    private DbClient dbClient;
+    private BranchListStamps stamps;
+    private BranchMetadataCache cache;
+
+    /**
+     * Seed an in-memory database with a long living branch, and load branches on demand.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:h2:mem:metadata;DB_CLOSE_DELAY=-1");
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table project_branches (uuid varchar(50) primary key, project_uuid varchar(50),"
+                    + " kee varchar(255), merge_branch_uuid varchar(50), branch_type varchar(12))");
+            statement.execute("insert into project_branches values ('release-1-a', 'project', 'release-1', null, 'LONG')");
+        }
+
+        final DbSession dbSession = Mockito.mock(DbSession.class);
+        Mockito.when(dbSession.getConnection()).thenReturn(this.connection);
+        this.dbClient = Mockito.mock(DbClient.class);
+        Mockito.when(this.dbClient.openSession(false)).thenReturn(dbSession);
+        final MapSettings settings = new MapSettings();
+        settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+        settings.setProperty(BranchPropertyDefinition.WARMUP_ON_DEMAND, true);
+        this.stamps = new BranchListStamps(settings.asConfig());
+        this.cache = new BranchMetadataCache(this.dbClient, settings.asConfig(), System2.INSTANCE, this.stamps);
+    }
+
+    @After
+    public void cleanUp() throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop all objects");
+        }
+        this.connection.close();
+    }
+
+    /**
+     * Assert that branches of a project are loaded once, then served from the cache.
+     */
+    @Test
+    public void loadOnceTest() {
+        Assert.assertEquals("release-1-a", this.cache.getByKey(PROJECT, "release-1").map(BranchDto::getUuid).orElse(null));
+        Assert.assertEquals("release-1-a", this.cache.getByKey(PROJECT, "release-1").map(BranchDto::getUuid).orElse(null));
+        Assert.assertFalse(this.cache.getByKey(PROJECT, "release-2").isPresent());
+        Mockito.verify(this.dbClient, Mockito.times(1)).openSession(false);
+    }
+
+    /**
+     * Assert that a branch deleted and created again is resolved to its new UUID
+     * as soon as the change of the branches of its project is recorded.
+     */
+    @Test
+    public void recreatedBranchTest() throws SQLException {
+        Assert.assertEquals("release-1-a", this.cache.getByKey(PROJECT, "release-1").map(BranchDto::getUuid).orElse(null));
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("delete from project_branches where uuid = 'release-1-a'");
+            statement.execute("insert into project_branches values ('release-1-b', 'project', 'release-1', null, 'LONG')");
+        }
+
+        this.stamps.touch(PROJECT);
+        final Optional<BranchDto> branch = this.cache.getByKey(PROJECT, "release-1");
+        Assert.assertEquals("release-1-b", branch.map(BranchDto::getUuid).orElse(null));
+        Mockito.verify(this.dbClient, Mockito.times(2)).openSession(false);
+    }
+
+    /**
+     * Assert that a failed load is not cached, so following tasks read the database.
+     */
+    @Test
+    public void failedLoadTest() throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("alter table project_branches rename to renamed_branches");
+        }
+        Assert.assertFalse(this.cache.getByKey(PROJECT, "release-1").isPresent());
+
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("alter table renamed_branches rename to project_branches");
+        }
+        Assert.assertTrue(this.cache.getByKey(PROJECT, "release-1").isPresent());
+    }
+}
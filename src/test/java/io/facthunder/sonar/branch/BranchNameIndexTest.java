@@ -0,0 +1,43 @@
+package io.facthunder.sonar.branch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BranchNameIndexTest {
+
+    /**
+     * Assert that aliases resolve to known branches in both directions, preferring the normalized name.
+     */
+    @Test
+    public void resolveTest() {
+        final List<String> names = Arrays.asList("master", "feature/x", "origin/feature/x", "refs/heads/fix/y");
+        final BranchNameIndex index = new BranchNameIndex(names, BranchNameIndex.parsePrefixes(null));
+
+        final BranchNameIndex.Match match = index.resolve("refs/heads/feature/x").orElseThrow(AssertionError::new);
+        Assert.assertEquals("feature/x", match.getName());
+        Assert.assertEquals("refs/heads/feature/x", match.getAlias());
+        Assert.assertEquals("feature/x", match.getNormalizedName());
+        Assert.assertEquals("refs/heads/fix/y", index.resolve("origin/fix/y").map(BranchNameIndex.Match::getName).orElse(null));
+        Assert.assertEquals("feature/x", index.resolve("refs/remotes/origin/feature/x").map(BranchNameIndex.Match::getName).orElse(null));
+        Assert.assertFalse(index.resolve("feature/z").isPresent());
+    }
+
+    /**
+     * Assert that the policy defines removed prefixes, and that an empty policy only matches exact names.
+     */
+    @Test
+    public void policyTest() {
+        final List<String> names = Arrays.asList("feature/x", "heads/fix/y");
+        Assert.assertEquals("heads/fix/y", new BranchNameIndex(names, BranchNameIndex.parsePrefixes("refs/, origin/"))
+                .resolve("refs/heads/fix/y").map(BranchNameIndex.Match::getName).orElse(null));
+
+        final BranchNameIndex exact = new BranchNameIndex(names, BranchNameIndex.parsePrefixes(""));
+        Assert.assertEquals(Collections.emptyList(), exact.getPrefixes());
+        Assert.assertFalse(exact.resolve("origin/feature/x").isPresent());
+        Assert.assertTrue(exact.resolve("feature/x").isPresent());
+    }
+}
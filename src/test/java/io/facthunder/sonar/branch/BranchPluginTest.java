@@ -33,7 +33,7 @@ public class BranchPluginTest {
         final SonarRuntime runtime = SonarRuntimeImpl.forSonarQube(Version.create(7,1), SonarQubeSide.SERVER);
         final Plugin.Context context = new Plugin.Context(runtime);
         branchPlugin.define(context);
-        Assert.assertEquals(3, context.getExtensions().size());
+        Assert.assertEquals(42, context.getExtensions().size());
     }
 
 }
\ No newline at end of file
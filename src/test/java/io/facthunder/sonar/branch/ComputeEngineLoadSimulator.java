@@ -0,0 +1,476 @@
+package io.facthunder.sonar.branch;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import io.facthunder.sonar.branch.archive.BranchArchive;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.component.BranchComponentUpdater;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import io.facthunder.sonar.branch.events.BranchEventPublisher;
+import io.facthunder.sonar.branch.events.ResolvedBranchHolder;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyUpdater;
+import io.facthunder.sonar.branch.listcache.BranchListInvalidator;
+import io.facthunder.sonar.branch.listcache.BranchListStamps;
+import io.facthunder.sonar.branch.summary.BranchSummaryReconciler;
+import io.facthunder.sonar.branch.summary.BranchSummaryStore;
+import io.facthunder.sonar.branch.summary.BranchSummaryUpdater;
+import org.mockito.Mockito;
+import org.sonar.api.ce.posttask.CeTask;
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchType;
+import org.sonar.scanner.protocol.output.ScannerReport.Metadata;
+import org.sonar.server.computation.task.projectanalysis.analysis.Branch;
+import org.sonar.server.computation.task.projectanalysis.analysis.MutableAnalysisMetadataHolder;
+import org.sonar.server.computation.task.projectanalysis.component.Component;
+import org.sonar.server.computation.task.projectanalysis.component.FileAttributes;
+import org.sonar.server.computation.task.projectanalysis.component.TreeRootHolder;
+import org.sonar.server.computation.task.projectanalysis.measure.MeasureRepository;
+import org.sonar.server.issue.index.IssueIndexer;
+import org.sonar.server.project.Project;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reproduce a burst of branch and pull request reports on the compute engine, such as a release day brings.
+ * Synthetic reports are processed by concurrent workers, each one resolving the branch with {@link BranchLoaderDelegateImpl},
+ * persisting the analysis in an embedded database, then running the report analysis components of this plugin,
+ * as the compute engine does for each task. Throughput, task latency, database queries and lock waits are reported.
+ * The database has the schema of SonarQube and is read through its own DAOs, see {@link TestDatabase}, but the other
+ * steps of the compute engine are not run: numbers measure the work of this plugin only, not a whole compute engine task.
+ * Options are given as key=value arguments, see {@link #OPTIONS}; other arguments starting with "sonar." are plugin settings,
+ * so that configurations can be compared, for instance sonar.branch.warmup.onDemand=true.
+ * Run with: java -cp target/classes:target/test-classes:$(cat classpath.txt) io.facthunder.sonar.branch.ComputeEngineLoadSimulator
+ * after building the test classpath with: mvn test-compile dependency:build-classpath -Dmdep.outputFile=classpath.txt
+ */
+public final class ComputeEngineLoadSimulator {
+
+    /**
+     * Options of the simulation, with their default value.
+     */
+    private static final Map<String, String> OPTIONS = new HashMap<>();
+
+    static {
+        // number of concurrent compute engine workers
+        OPTIONS.put("workers", "8");
+        // number of simulated reports
+        OPTIONS.put("tasks", "2000");
+        // number of projects the reports are spread over
+        OPTIONS.put("projects", "10");
+        // number of long living branches of each project, besides the main one
+        OPTIONS.put("longBranches", "20");
+        // type of the analyzed branches: PULL_REQUEST, SHORT, LONG or MIXED
+        OPTIONS.put("type", "PULL_REQUEST");
+        // merge branch of short living branches and pull requests: main, random long living branch, or a branch name
+        OPTIONS.put("target", "random");
+        // number of files of each report
+        OPTIONS.put("files", "200");
+        // seed of the random generator
+        OPTIONS.put("seed", "42");
+    }
+
+    private static final int FILES_PER_DIRECTORY = 50;
+    private static final String MERGE_BRANCH = "merge into project_branches (uuid, project_uuid, kee, key_type, branch_type,"
+            + " merge_branch_uuid, created_at, updated_at) key (uuid) values (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_LAST_ANALYSIS = "update snapshots set islast = ? where component_uuid = ? and islast = ?";
+    private static final String INSERT_ANALYSIS = "insert into snapshots (uuid, component_uuid, status, islast, created_at)"
+            + " values (?, ?, ?, ?, ?)";
+
+    private final Map<String, String> options;
+    private final Configuration configuration;
+    private final TestDatabase database;
+    private final LongAdder blockedCount = new LongAdder();
+    private final LongAdder blockedMillis = new LongAdder();
+    private final LongAdder waitedCount = new LongAdder();
+    private final LongAdder waitedMillis = new LongAdder();
+    private final DbClient dbClient;
+    private final Map<String, Project> projects = new HashMap<>();
+    private final FileAttributes fileAttributes = new FileAttributes(false, "java", 100);
+    private BranchMetadataCache branchMetadataCache;
+    private BranchArchive branchArchive;
+    private BranchSummaryStore branchSummaryStore;
+    private BranchListStamps branchListStamps;
+    private BranchEventLog branchEventLog;
+    private BranchHierarchyStore branchHierarchyStore;
+    private BranchComponentStore branchComponentStore;
+    private BranchSummaryReconciler branchSummaryReconciler;
+
+    /**
+     * Constructor.
+     *
+     * @param options       Options of the simulation.
+     * @param configuration Settings of the plugin.
+     * @param url           JDBC URL of the embedded database.
+     */
+    private ComputeEngineLoadSimulator(final Map<String, String> options, final Configuration configuration, final String url)
+            throws SQLException {
+        this.options = options;
+        this.configuration = configuration;
+        this.database = new TestDatabase(url);
+        this.dbClient = this.database.dbClient();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>(OPTIONS);
+        final MapSettings settings = new MapSettings();
+        settings.setProperty("sonar.path.data", Files.createTempDirectory("ce-load").toString());
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            final String key = separator < 0 ? arg : arg.substring(0, separator);
+            final String value = separator < 0 ? "" : arg.substring(separator + 1);
+            if (key.startsWith("sonar.")) {
+                settings.setProperty(key, value);
+            } else if (OPTIONS.containsKey(key)) {
+                options.put(key, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option '" + key + "', expected one of " + OPTIONS.keySet());
+            }
+        }
+        new ComputeEngineLoadSimulator(options, settings.asConfig(), "jdbc:h2:mem:ce-load;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000").run();
+    }
+
+    /**
+     * Seed the database, process all reports and print the results.
+     */
+    private void run() throws Exception {
+        final int workers = this.intOption("workers");
+        final int tasks = this.intOption("tasks");
+        this.seed();
+        this.startComponents();
+        this.database.reset();
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isThreadContentionMonitoringSupported()) {
+            threads.setThreadContentionMonitoringEnabled(true);
+        }
+        final long[] latencies = new long[tasks];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(workers);
+        for (int w = 0; w < workers; w++) {
+            final Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    final ThreadInfo before = threads.getThreadInfo(Thread.currentThread().getId());
+                    for (int task = next.getAndIncrement(); task < tasks; task = next.getAndIncrement()) {
+                        final Report report = this.generate(task);
+                        final long begin = System.nanoTime();
+                        try {
+                            this.process(report);
+                        } catch (final Exception | AssertionError e) {
+                            failures.incrementAndGet();
+                            firstFailure.compareAndSet(null, e);
+                        }
+                        latencies[task] = System.nanoTime() - begin;
+                    }
+                    this.recordLockWaits(before, threads.getThreadInfo(Thread.currentThread().getId()));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "ce-worker-" + w);
+            worker.start();
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long elapsed = System.nanoTime() - begin;
+        this.database.close();
+
+        Arrays.sort(latencies);
+        System.out.printf("Simulated %d %s reports of %s files on %d workers in %.1f s: %.1f tasks/s%n", tasks, this.options.get("type"),
+                this.options.get("files"), workers, elapsed / 1e9, tasks / (elapsed / 1e9));
+        System.out.printf("Task latency: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6, latencies[latencies.length - 1] / 1e6);
+        System.out.printf("Database: %d queries (%.1f per task), %d commits%n", this.database.statements(),
+                (double) this.database.statements() / tasks, this.database.commits());
+        System.out.printf("Lock waits: blocked %d times for %d ms, waited %d times for %d ms%n", this.blockedCount.sum(),
+                this.blockedMillis.sum(), this.waitedCount.sum(), this.waitedMillis.sum());
+        System.out.printf("Failures: %d%n", failures.get());
+        if (firstFailure.get() != null) {
+            firstFailure.get().printStackTrace();
+        }
+    }
+
+    /**
+     * Insert the main and long living branches of each project, with an analysis of each one.
+     */
+    private void seed() throws SQLException {
+        try (Connection connection = this.database.connect()) {
+            connection.setAutoCommit(false);
+            final int longBranches = this.intOption("longBranches");
+            for (int p = 0; p < this.intOption("projects"); p++) {
+                final String projectUuid = "project-" + p;
+                final Project project = Mockito.mock(Project.class, Mockito.withSettings().stubOnly());
+                Mockito.when(project.getUuid()).thenReturn(projectUuid);
+                Mockito.when(project.getKey()).thenReturn("org.example:" + projectUuid);
+                this.projects.put(projectUuid, project);
+                this.persist(connection, projectUuid, projectUuid, "master", BranchType.LONG, null);
+                for (int b = 0; b < longBranches; b++) {
+                    this.persist(connection, projectUuid + "-release-" + b, projectUuid, "release-" + b, BranchType.LONG, projectUuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the components shared by all tasks, as the compute engine container does.
+     */
+    private void startComponents() {
+        this.branchListStamps = new BranchListStamps(this.configuration);
+        this.branchMetadataCache = new BranchMetadataCache(this.dbClient, this.configuration, System2.INSTANCE, this.branchListStamps);
+        this.branchMetadataCache.start();
+        this.branchArchive = new BranchArchive(this.configuration, System2.INSTANCE, Mockito.mock(IssueIndexer.class));
+        this.branchSummaryStore = new BranchSummaryStore(this.configuration);
+        this.branchEventLog = new BranchEventLog(this.configuration);
+        this.branchHierarchyStore = new BranchHierarchyStore(this.configuration, this.dbClient);
+        this.branchComponentStore = new BranchComponentStore(this.configuration, this.dbClient);
+        this.branchSummaryReconciler = new BranchSummaryReconciler(this.dbClient, this.branchSummaryStore, this.branchHierarchyStore,
+                this.branchComponentStore, this.branchEventLog, System2.INSTANCE);
+    }
+
+    /**
+     * Generate the synthetic report of a task.
+     *
+     * @param task Number of the task.
+     * @return The report.
+     */
+    private Report generate(final int task) {
+        final Random random = new Random(Long.parseLong(this.options.get("seed")) + task);
+        final String projectUuid = "project-" + random.nextInt(this.intOption("projects"));
+        final BranchType type = this.type(random);
+        final String target = this.target(random);
+        final Metadata.Builder metadata = Metadata.newBuilder();
+        final String branchUuid;
+        final String suffix;
+        if (type == BranchType.PULL_REQUEST) {
+            metadata.setBranchName("feature/pr-" + task)
+                    .setBranchType(Metadata.BranchType.PULL_REQUEST)
+                    .setPullRequestKey(String.valueOf(task));
+            branchUuid = projectUuid + "-pr-" + task;
+            suffix = BranchComponentKey.suffix(type, String.valueOf(task));
+        } else if (type == BranchType.SHORT) {
+            metadata.setBranchName("feature/" + task)
+                    .setBranchType(Metadata.BranchType.SHORT);
+            branchUuid = projectUuid + "-short-" + task;
+            suffix = BranchComponentKey.suffix(type, "feature/" + task);
+        } else {
+            final int longBranches = this.intOption("longBranches");
+            final String name = longBranches == 0 ? "master" : "release-" + random.nextInt(longBranches);
+            metadata.setBranchName(name)
+                    .setBranchType(Metadata.BranchType.LONG);
+            branchUuid = longBranches == 0 ? projectUuid : projectUuid + '-' + name;
+            suffix = longBranches == 0 ? "" : BranchComponentKey.suffix(type, name);
+        }
+        if (target != null && type != BranchType.LONG) {
+            metadata.setMergeBranchName(target);
+        }
+        final Project project = this.projects.get(projectUuid);
+        return new Report(project, branchUuid, metadata.build(), this.tree(project.getKey(), branchUuid, suffix));
+    }
+
+    /**
+     * Process a report as a compute engine task: resolve its branch, persist the analysis, then run post analysis components.
+     *
+     * @param report Report to process.
+     */
+    private void process(final Report report) throws SQLException {
+        final AtomicReference<Branch> branch = new AtomicReference<>();
+        final long analysisDate = System.currentTimeMillis();
+        final MutableAnalysisMetadataHolder metadataHolder = Mockito.mock(MutableAnalysisMetadataHolder.class, Mockito.withSettings().stubOnly());
+        Mockito.when(metadataHolder.getProject()).thenReturn(report.project);
+        Mockito.when(metadataHolder.getBranch()).thenAnswer(invocation -> branch.get());
+        Mockito.when(metadataHolder.getAnalysisDate()).thenReturn(analysisDate);
+        Mockito.doAnswer(invocation -> {
+            branch.set(invocation.getArgument(0));
+            return null;
+        }).when(metadataHolder).setBranch(Mockito.any());
+        final ResolvedBranchHolder resolvedBranchHolder = new ResolvedBranchHolder();
+
+        new BranchLoaderDelegateImpl(this.dbClient, metadataHolder, this.branchMetadataCache, resolvedBranchHolder, this.branchArchive)
+                .load(report.metadata);
+
+        final Branch resolved = branch.get();
+        try (DbSession dbSession = this.dbClient.openSession(false)) {
+            this.persist(dbSession.getConnection(), report.branchUuid, report.project.getUuid(),
+                    resolved.getType() == BranchType.PULL_REQUEST ? resolved.getPullRequestId() : resolved.getName(), resolved.getType(),
+                    resolved.isMain() ? null : resolved.getMergeBranchUuid().orElse(null));
+        }
+
+        final TreeRootHolder treeRootHolder = Mockito.mock(TreeRootHolder.class, Mockito.withSettings().stubOnly());
+        Mockito.when(treeRootHolder.getRoot()).thenReturn(report.root);
+        final MeasureRepository measureRepository = Mockito.mock(MeasureRepository.class, Mockito.withSettings().stubOnly());
+        Mockito.when(measureRepository.getRawMeasures(Mockito.any())).thenReturn(ImmutableSetMultimap.of());
+        final List<PostProjectAnalysisTask> postAnalysisTasks = Arrays.asList(
+                new BranchSummaryUpdater(this.branchSummaryStore, metadataHolder, treeRootHolder, measureRepository, this.dbClient,
+                        this.branchSummaryReconciler),
+                new BranchListInvalidator(this.branchListStamps),
+                new BranchEventPublisher(this.branchEventLog, resolvedBranchHolder, metadataHolder, treeRootHolder, this.dbClient),
+                new BranchHierarchyUpdater(this.branchHierarchyStore, metadataHolder, treeRootHolder),
+                new BranchComponentUpdater(this.branchComponentStore, treeRootHolder));
+        final PostProjectAnalysisTask.ProjectAnalysis analysis = this.analysis(report.project);
+        for (final PostProjectAnalysisTask postAnalysisTask : postAnalysisTasks) {
+            postAnalysisTask.finished(analysis);
+        }
+    }
+
+    /**
+     * Persist a branch and a new last analysis of it in a single transaction.
+     */
+    private void persist(final Connection connection, final String branchUuid, final String projectUuid, final String key,
+                         final BranchType branchType, final String mergeBranchUuid) throws SQLException {
+        try {
+            try (PreparedStatement statement = connection.prepareStatement(MERGE_BRANCH)) {
+                statement.setString(1, branchUuid);
+                statement.setString(2, projectUuid);
+                statement.setString(3, key);
+                statement.setString(4, branchType == BranchType.PULL_REQUEST ? "PULL_REQUEST" : "BRANCH");
+                statement.setString(5, branchType.name());
+                statement.setString(6, mergeBranchUuid);
+                statement.setLong(7, System.currentTimeMillis());
+                statement.setLong(8, System.currentTimeMillis());
+                statement.execute();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_LAST_ANALYSIS)) {
+                statement.setBoolean(1, false);
+                statement.setString(2, branchUuid);
+                statement.setBoolean(3, true);
+                statement.execute();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_ANALYSIS)) {
+                statement.setString(1, branchUuid + '-' + System.nanoTime());
+                statement.setString(2, branchUuid);
+                statement.setString(3, "P");
+                statement.setBoolean(4, true);
+                statement.setLong(5, System.currentTimeMillis());
+                statement.execute();
+            }
+            connection.commit();
+        } catch (final SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Build the component tree of a report: the project, its directories and their files.
+     */
+    private Component tree(final String projectKey, final String branchUuid, final String suffix) {
+        final int files = this.intOption("files");
+        final List<Component> directories = new ArrayList<>();
+        for (int d = 0; d * FILES_PER_DIRECTORY < files; d++) {
+            final List<Component> children = new ArrayList<>();
+            for (int f = d * FILES_PER_DIRECTORY; f < Math.min(files, (d + 1) * FILES_PER_DIRECTORY); f++) {
+                children.add(this.component(Component.Type.FILE, branchUuid + "-file-" + f,
+                        projectKey + ":src/dir" + d + "/File" + f + ".java" + suffix, Collections.emptyList()));
+            }
+            directories.add(this.component(Component.Type.DIRECTORY, branchUuid + "-dir-" + d, projectKey + ":src/dir" + d + suffix, children));
+        }
+        return this.component(Component.Type.PROJECT, branchUuid, projectKey + suffix, directories);
+    }
+
+    private Component component(final Component.Type type, final String uuid, final String key, final List<Component> children) {
+        final Component component = Mockito.mock(Component.class, Mockito.withSettings().stubOnly());
+        Mockito.when(component.getType()).thenReturn(type);
+        Mockito.when(component.getUuid()).thenReturn(uuid);
+        Mockito.when(component.getKey()).thenReturn(key);
+        Mockito.when(component.getChildren()).thenReturn(children);
+        Mockito.when(component.getFileAttributes()).thenReturn(this.fileAttributes);
+        return component;
+    }
+
+    private PostProjectAnalysisTask.ProjectAnalysis analysis(final Project project) {
+        final CeTask ceTask = Mockito.mock(CeTask.class, Mockito.withSettings().stubOnly());
+        Mockito.when(ceTask.getStatus()).thenReturn(CeTask.Status.SUCCESS);
+        final org.sonar.api.ce.posttask.Project analyzedProject = Mockito.mock(org.sonar.api.ce.posttask.Project.class,
+                Mockito.withSettings().stubOnly());
+        final String uuid = project.getUuid();
+        final String key = project.getKey();
+        Mockito.when(analyzedProject.getUuid()).thenReturn(uuid);
+        Mockito.when(analyzedProject.getKey()).thenReturn(key);
+        final PostProjectAnalysisTask.ProjectAnalysis analysis = Mockito.mock(PostProjectAnalysisTask.ProjectAnalysis.class,
+                Mockito.withSettings().stubOnly());
+        Mockito.when(analysis.getCeTask()).thenReturn(ceTask);
+        Mockito.when(analysis.getProject()).thenReturn(analyzedProject);
+        Mockito.when(analysis.getBranch()).thenReturn(Optional.empty());
+        return analysis;
+    }
+
+    private BranchType type(final Random random) {
+        final String type = this.options.get("type");
+        if (!"MIXED".equals(type)) {
+            return BranchType.valueOf(type);
+        }
+        final int draw = random.nextInt(100);
+        return draw < 80 ? BranchType.PULL_REQUEST : draw < 95 ? BranchType.SHORT : BranchType.LONG;
+    }
+
+    private String target(final Random random) {
+        final String target = this.options.get("target");
+        final int longBranches = this.intOption("longBranches");
+        if ("main".equals(target) || "random".equals(target) && longBranches == 0) {
+            return null;
+        }
+        return "random".equals(target) ? "release-" + random.nextInt(longBranches) : target;
+    }
+
+    private int intOption(final String name) {
+        return Integer.parseInt(this.options.get(name));
+    }
+
+    /**
+     * Add the monitor contention and waits of a worker during the simulation.
+     */
+    private void recordLockWaits(final ThreadInfo before, final ThreadInfo after) {
+        this.blockedCount.add(after.getBlockedCount() - before.getBlockedCount());
+        this.blockedMillis.add(Math.max(0, after.getBlockedTime() - before.getBlockedTime()));
+        this.waitedCount.add(after.getWaitedCount() - before.getWaitedCount());
+        this.waitedMillis.add(Math.max(0, after.getWaitedTime() - before.getWaitedTime()));
+    }
+
+    private static long percentile(final long[] sorted, final int percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1)];
+    }
+
+    /**
+     * Synthetic report of a task.
+     */
+    private static final class Report {
+        private final Project project;
+        private final String branchUuid;
+        private final Metadata metadata;
+        private final Component root;
+
+        private Report(final Project project, final String branchUuid, final Metadata metadata, final Component root) {
+            this.project = project;
+            this.branchUuid = branchUuid;
+            this.metadata = metadata;
+            this.root = root;
+        }
+    }
+}
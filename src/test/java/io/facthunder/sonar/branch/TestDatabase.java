@@ -0,0 +1,197 @@
+package io.facthunder.sonar.branch;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DBSessionsImpl;
+import org.sonar.db.Dao;
+import org.sonar.db.Database;
+import org.sonar.db.DbClient;
+import org.sonar.db.DdlUtils;
+import org.sonar.db.MyBatis;
+import org.sonar.db.component.BranchDao;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.dialect.Dialect;
+import org.sonar.db.dialect.H2;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded database created with the schema of SonarQube and read through its own MyBatis mappers and DAOs,
+ * counting the statements and commits of the plugin and of the DAOs, so that tests measure the real queries.
+ */
+public final class TestDatabase implements Database {
+
+    private static final String INSERT_BRANCH = "insert into project_branches (uuid, project_uuid, kee, key_type, branch_type,"
+            + " merge_branch_uuid, created_at, updated_at) values (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcDataSource dataSource = new JdbcDataSource();
+    private final DataSource countingDataSource;
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final MyBatis myBatis;
+    private final DbClient dbClient;
+
+    /**
+     * Constructor, creating the schema of SonarQube.
+     *
+     * @param url  JDBC URL of the embedded database.
+     * @param daos DAOs of the client other than the branch DAO.
+     */
+    public TestDatabase(final String url, final Dao... daos) throws SQLException {
+        this.dataSource.setURL(url);
+        this.countingDataSource = proxy(DataSource.class, this.dataSource, (method, result) ->
+                result instanceof Connection ? proxy(Connection.class, (Connection) result, this::count) : result);
+        try (Connection connection = this.connect()) {
+            DdlUtils.createSchema(connection, H2.ID, false);
+            connection.commit();
+        }
+        this.myBatis = new MyBatis(this);
+        this.myBatis.start();
+        final Dao[] allDaos = Arrays.copyOf(daos, daos.length + 1);
+        allDaos[daos.length] = new BranchDao(System2.INSTANCE);
+        this.dbClient = new DbClient(this, this.myBatis, new DBSessionsImpl(this.myBatis), allDaos);
+    }
+
+    /**
+     * Client of the database, whose sessions are counted.
+     *
+     * @return The client.
+     */
+    public DbClient dbClient() {
+        return this.dbClient;
+    }
+
+    /**
+     * Open a connection which is not counted, to seed or check the database.
+     *
+     * @return The connection, in auto-commit mode.
+     */
+    public Connection connect() throws SQLException {
+        final Connection connection = this.dataSource.getConnection();
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    /**
+     * Number of statements run through the client since the last reset.
+     *
+     * @return The number of statements.
+     */
+    public long statements() {
+        return this.statements.sum();
+    }
+
+    /**
+     * Number of commits through the client since the last reset.
+     *
+     * @return The number of commits.
+     */
+    public long commits() {
+        return this.commits.sum();
+    }
+
+    /**
+     * Reset the numbers of statements and commits.
+     */
+    public void reset() {
+        this.statements.reset();
+        this.commits.reset();
+    }
+
+    /**
+     * Insert a branch, as SonarQube does when a branch is first analyzed.
+     *
+     * @param connection      Connection to the database.
+     * @param uuid            Uuid of the branch.
+     * @param projectUuid     Uuid of the project.
+     * @param key             Name of the branch, or key of the pull request.
+     * @param branchType      Type of the branch.
+     * @param mergeBranchUuid Uuid of the merge branch, null for the main branch.
+     */
+    public static void insertBranch(final Connection connection, final String uuid, final String projectUuid, final String key,
+                                    final BranchType branchType, final String mergeBranchUuid) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_BRANCH)) {
+            statement.setString(1, uuid);
+            statement.setString(2, projectUuid);
+            statement.setString(3, key);
+            statement.setString(4, branchType == BranchType.PULL_REQUEST ? "PULL_REQUEST" : "BRANCH");
+            statement.setString(5, branchType.name());
+            statement.setString(6, mergeBranchUuid);
+            statement.setLong(7, 0L);
+            statement.setLong(8, 0L);
+            statement.execute();
+        }
+    }
+
+    /**
+     * Drop all tables and stop MyBatis.
+     */
+    public void close() throws SQLException {
+        try (Connection connection = this.connect(); Statement statement = connection.createStatement()) {
+            statement.execute("drop all objects");
+        }
+        this.myBatis.stop();
+    }
+
+    @Override
+    public DataSource getDataSource() {
+        return this.countingDataSource;
+    }
+
+    @Override
+    public Dialect getDialect() {
+        return new H2();
+    }
+
+    @Override
+    public void enableSqlLogging(final boolean enable) {
+        // statements are counted, not logged
+    }
+
+    @Override
+    public void start() {
+        // schema is created by the constructor
+    }
+
+    @Override
+    public void stop() {
+        // database is dropped by close
+    }
+
+    private Object count(final Method method, final Object result) {
+        if (result instanceof Statement) {
+            this.statements.increment();
+        } else if ("commit".equals(method.getName())) {
+            this.commits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Wrap an object, passing the result of each call to a function.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<T> type, final T target, final ResultHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            try {
+                return handler.handle(method, method.invoke(target, args));
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface ResultHandler {
+        Object handle(Method method, Object result);
+    }
+}
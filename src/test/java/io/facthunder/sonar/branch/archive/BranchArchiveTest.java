@@ -0,0 +1,253 @@
+package io.facthunder.sonar.branch.archive;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DbSession;
+import org.sonar.server.issue.index.IssueIndexer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class BranchArchiveTest {
+
+    private static final String PROJECT = "project";
+    private static final List<String> TABLES = Arrays.asList("projects", "issues", "issue_changes", "duplications_index",
+            "live_measures", "project_measures", "file_sources");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Connection connection;
+    private DbSession dbSession;
+    private IssueIndexer issueIndexer;
+    private BranchArchive archive;
+
+    /**
+     * Seed an in-memory database with two branches of a project.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:h2:mem:archive;DB_CLOSE_DELAY=-1");
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table projects (uuid varchar(50) primary key, project_uuid varchar(50), kee varchar(400))");
+            statement.execute("create table issues (kee varchar(50) primary key, project_uuid varchar(50), message varchar(4000),"
+                    + " line int, gap double, locations blob)");
+            statement.execute("create table issue_changes (id bigint auto_increment primary key, issue_key varchar(50), change_data clob)");
+            statement.execute("create table duplications_index (component_uuid varchar(50), hash varchar(50))");
+            statement.execute("create table live_measures (project_uuid varchar(50), component_uuid varchar(50), value double)");
+            statement.execute("create table project_measures (id bigint auto_increment primary key, component_uuid varchar(50),"
+                    + " value double, created_at bigint)");
+            statement.execute("create table file_sources (project_uuid varchar(50), file_uuid varchar(50), binary_data blob)");
+        }
+        for (final String branch : Arrays.asList("release-1", "release-2")) {
+            this.insert("projects", branch, branch, PROJECT + ":BRANCH:" + branch);
+            this.insert("projects", branch + "-file", branch, PROJECT + ":BRANCH:" + branch + ":src/Foo.java");
+            this.insert("issues", branch + "-issue", branch, "Remove this \"unused\" field", 12, 1.5, new byte[]{1, 2, 3});
+            this.insert("issues", branch + "-issue-2", branch, null, null, null, null);
+            this.insert("issue_changes", branch + "-issue", "status=OPEN|CONFIRMED");
+            this.insert("duplications_index", branch + "-file", "ab12");
+            this.insert("live_measures", branch, branch, 10.0);
+            this.insert("live_measures", branch, branch + "-file", 4.0);
+            this.insert("project_measures", branch, 10.0, 1L);
+            this.insert("project_measures", branch + "-file", 4.0, 1L);
+            this.insert("file_sources", branch, branch + "-file", new byte[]{4, 5, 6});
+        }
+
+        this.dbSession = Mockito.mock(DbSession.class);
+        Mockito.when(this.dbSession.getConnection()).thenReturn(this.connection);
+        final MapSettings settings = new MapSettings();
+        settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+        this.issueIndexer = Mockito.mock(IssueIndexer.class);
+        this.archive = new BranchArchive(settings.asConfig(), System2.INSTANCE, this.issueIndexer);
+    }
+
+    @After
+    public void cleanUp() throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop all objects");
+        }
+        this.connection.close();
+    }
+
+    /**
+     * Assert that archiving moves data of the branch out of the database, except its root component,
+     * and that restoring brings back the exact same rows.
+     */
+    @Test
+    public void archiveRestoreTest() throws SQLException {
+        final List<String> before = this.dump();
+
+        final BranchArchive.Report archived = this.archive.archive(this.dbSession, PROJECT, "release-1");
+        Assert.assertEquals(8, archived.getRows());
+        Assert.assertTrue(archived.getBytes() > 0);
+        Assert.assertTrue(this.archive.isArchived(PROJECT, "release-1"));
+        Assert.assertFalse(this.archive.isArchived(PROJECT, "release-2"));
+        Assert.assertEquals(3, this.count("projects"));
+        Assert.assertEquals(2, this.count("issues"));
+        Assert.assertEquals(3, this.count("live_measures"));
+        Assert.assertEquals(3, this.count("project_measures"));
+        Assert.assertEquals(1, this.count("file_sources"));
+
+        final Optional<BranchArchive.Report> restored = this.archive.restore(this.dbSession, PROJECT, "release-1");
+        Assert.assertTrue(restored.isPresent());
+        Assert.assertEquals(8, restored.get().getRows());
+        Assert.assertFalse(this.archive.isArchived(PROJECT, "release-1"));
+        Assert.assertEquals(before, this.dump());
+        Mockito.verify(this.dbSession, Mockito.times(2)).commit();
+    }
+
+    /**
+     * Assert that archived issues are removed from the issue index, and indexed again once restored.
+     */
+    @Test
+    public void issueIndexTest() {
+        this.archive.archive(this.dbSession, PROJECT, "release-1");
+        Mockito.verify(this.issueIndexer).deleteByKeys(PROJECT, Arrays.asList("release-1-issue", "release-1-issue-2"));
+        Mockito.verify(this.issueIndexer, Mockito.never()).indexOnAnalysis(Mockito.anyString());
+
+        this.archive.restore(this.dbSession, PROJECT, "release-1");
+        Mockito.verify(this.issueIndexer).indexOnAnalysis("release-1");
+    }
+
+    /**
+     * Assert that rows left in the database by an interrupted archiving are not duplicated by restoration.
+     */
+    @Test
+    public void interruptedArchiveTest() throws SQLException {
+        final List<String> before = this.dump();
+        this.archive.archive(this.dbSession, PROJECT, "release-1");
+        this.insert("issues", "release-1-issue-2", "release-1", null, null, null, null);
+
+        this.archive.restore(this.dbSession, PROJECT, "release-1");
+
+        Assert.assertEquals(before, this.dump());
+    }
+
+    /**
+     * Assert that a branch is not archived twice, and that restoring a branch which is not archived does nothing.
+     */
+    @Test
+    public void notArchivedTest() throws SQLException {
+        final List<String> before = this.dump();
+        Assert.assertFalse(this.archive.restore(this.dbSession, PROJECT, "release-1").isPresent());
+        Assert.assertEquals(before, this.dump());
+
+        this.archive.archive(this.dbSession, PROJECT, "release-1");
+        try {
+            this.archive.archive(this.dbSession, PROJECT, "release-1");
+            Assert.fail("Branch archived twice");
+        } catch (final IllegalStateException e) {
+            Assert.assertTrue(this.archive.isArchived(PROJECT, "release-1"));
+        }
+    }
+
+    /**
+     * Assert that surrogate keys are not archived, but generated again by the database on restoration.
+     */
+    @Test
+    public void generatedKeysTest() throws SQLException {
+        final List<Long> before = this.ids("release-1-file");
+        this.archive.archive(this.dbSession, PROJECT, "release-1");
+        this.insert("project_measures", "release-2-file", 2.0, 2L);
+        final long maxId = this.ids("release-2-file").stream().mapToLong(Long::longValue).max().orElse(0);
+
+        this.archive.restore(this.dbSession, PROJECT, "release-1");
+
+        final List<Long> after = this.ids("release-1-file");
+        Assert.assertEquals(before.size(), after.size());
+        Assert.assertTrue(after.stream().allMatch(id -> id > maxId));
+    }
+
+    /**
+     * Assert that archives of deleted branches are discarded.
+     */
+    @Test
+    public void discardTest() {
+        this.archive.archive(this.dbSession, PROJECT, "release-1");
+
+        this.archive.discard(PROJECT, Arrays.asList("release-1", "unknown"));
+
+        Assert.assertFalse(this.archive.isArchived(PROJECT, "release-1"));
+    }
+
+    /**
+     * Insert a row, leaving its surrogate key to the database.
+     */
+    private void insert(final String table, final Object... values) throws SQLException {
+        final List<String> columns = new ArrayList<>();
+        try (Statement statement = this.connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select * from " + table + " where 1 = 0")) {
+            for (int column = 1; column <= resultSet.getMetaData().getColumnCount(); column++) {
+                if (!"ID".equals(resultSet.getMetaData().getColumnName(column))) {
+                    columns.add(resultSet.getMetaData().getColumnName(column));
+                }
+            }
+        }
+        final String placeholders = String.join(",", Collections.nCopies(values.length, "?"));
+        try (PreparedStatement statement = this.connection.prepareStatement("insert into " + table
+                + " (" + String.join(",", columns) + ") values (" + placeholders + ")")) {
+            for (int i = 0; i < values.length; i++) {
+                statement.setObject(i + 1, values[i]);
+            }
+            statement.execute();
+        }
+    }
+
+    private List<Long> ids(final String componentUuid) throws SQLException {
+        final List<Long> ids = new ArrayList<>();
+        try (PreparedStatement statement = this.connection.prepareStatement("select id from project_measures where component_uuid = ?")) {
+            statement.setString(1, componentUuid);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private int count(final String table) throws SQLException {
+        try (Statement statement = this.connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select count(*) from " + table)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private List<String> dump() throws SQLException {
+        final List<String> rows = new ArrayList<>();
+        for (final String table : TABLES) {
+            try (Statement statement = this.connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("select * from " + table + "")) {
+                final int columns = resultSet.getMetaData().getColumnCount();
+                while (resultSet.next()) {
+                    final StringBuilder row = new StringBuilder(table);
+                    for (int column = 1; column <= columns; column++) {
+                        if (!"ID".equals(resultSet.getMetaData().getColumnName(column))) {
+                            row.append('|').append(resultSet.getString(column));
+                        }
+                    }
+                    rows.add(row.toString());
+                }
+            }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+}
@@ -0,0 +1,63 @@
+package io.facthunder.sonar.branch.archive;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.BranchDto;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BranchRestorerTest {
+
+    private BranchArchive branchArchive;
+    private DbSession dbSession;
+    private BranchRestorer restorer;
+
+    @Before
+    public void setUp() {
+        this.branchArchive = Mockito.mock(BranchArchive.class);
+        this.dbSession = Mockito.mock(DbSession.class);
+        final DbClient dbClient = Mockito.mock(DbClient.class);
+        Mockito.when(dbClient.openSession(false)).thenReturn(this.dbSession);
+        this.restorer = new BranchRestorer(dbClient, this.branchArchive);
+        this.restorer.start();
+    }
+
+    @After
+    public void stop() {
+        this.restorer.stop();
+    }
+
+    /**
+     * Assert that an archived branch is restored once in the background, however many times it is opened,
+     * and that branches which are not archived are ignored.
+     */
+    @Test
+    public void submitTest() throws InterruptedException {
+        final BranchDto branch = new BranchDto().setUuid("release-1").setProjectUuid("project").setKey("release-1");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(this.branchArchive.isArchived("project", "release-1")).thenReturn(true);
+        Mockito.when(this.branchArchive.restore(this.dbSession, "project", "release-1")).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.empty();
+        });
+
+        Assert.assertTrue(this.restorer.submit(branch));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(this.restorer.submit(branch));
+        Assert.assertTrue(this.restorer.submit(branch));
+        release.countDown();
+        Mockito.verify(this.dbSession, Mockito.timeout(5000)).close();
+        Mockito.verify(this.branchArchive).restore(this.dbSession, "project", "release-1");
+
+        Assert.assertFalse(this.restorer.submit(new BranchDto().setUuid("release-2").setProjectUuid("project").setKey("release-2")));
+    }
+}
@@ -0,0 +1,137 @@
+package io.facthunder.sonar.branch.batch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonar.scanner.bootstrap.GlobalAnalysisMode;
+import org.sonar.scanner.bootstrap.GlobalConfiguration;
+import org.sonar.scanner.bootstrap.ScannerWsClient;
+import org.sonar.scanner.scan.branch.BranchInfo;
+import org.sonar.scanner.scan.branch.BranchType;
+import org.sonar.scanner.scan.branch.PullRequestInfo;
+import org.sonarqube.ws.client.HttpConnector;
+import org.sonarqube.ws.client.WsClientFactories;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchBranchMetadataTest {
+
+    private static final String RESPONSE = "{\"projects\":["
+            + "{\"key\":\"a\",\"branches\":[{\"name\":\"master\",\"type\":\"LONG\",\"isMain\":true},"
+            + "{\"name\":\"feature\",\"type\":\"SHORT\",\"isMain\":false,\"mergeBranch\":\"master\"}],"
+            + "\"pullRequests\":[{\"key\":\"12\",\"branch\":\"fix\",\"base\":\"master\",\"analysisDate\":\"2018-05-01T00:00:00+0000\"}]},"
+            + "{\"key\":\"b\",\"branches\":[{\"name\":\"master\",\"type\":\"LONG\",\"isMain\":true}],\"pullRequests\":[]}]}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> methods = new CopyOnWriteArrayList<>();
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private ScannerWsClient wsClient;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/api/branch_plugin/project_branches_batch", this::reply);
+        this.server.start();
+        this.wsClient = new ScannerWsClient(WsClientFactories.getDefault().newClient(HttpConnector.newBuilder()
+                .url("http://localhost:" + this.server.getAddress().getPort())
+                .build()), false, Mockito.mock(GlobalAnalysisMode.class));
+    }
+
+    @After
+    public void stop() {
+        this.server.stop(0);
+    }
+
+    /**
+     * Assert that branches and pull requests of all projects are loaded with a single call.
+     */
+    @Test
+    public void singleCallTest() {
+        final BatchBranchMetadata metadata = new BatchBranchMetadata(this.wsClient, this.configuration(null));
+
+        final List<BranchInfo> branches = metadata.branches("a").orElse(null);
+        final List<PullRequestInfo> pullRequests = metadata.pullRequests("a").orElse(null);
+
+        Assert.assertNotNull(branches);
+        Assert.assertEquals(2, branches.size());
+        Assert.assertEquals(BranchType.SHORT, branches.get(1).type());
+        Assert.assertEquals("master", branches.get(1).branchTargetName());
+        Assert.assertNotNull(pullRequests);
+        Assert.assertEquals("fix", pullRequests.get(0).getBranch());
+        Assert.assertTrue(metadata.branches("b").isPresent());
+        Assert.assertFalse(metadata.branches("c").isPresent());
+        Assert.assertEquals(1, this.requests.get());
+    }
+
+    /**
+     * Assert that project keys are sent in the body of a POST request, not in the URL.
+     */
+    @Test
+    public void postTest() {
+        new BatchBranchMetadata(this.wsClient, this.configuration(null)).branches("a");
+
+        Assert.assertEquals(Collections.singletonList("POST"), this.methods);
+        Assert.assertNull(this.queries.get(0));
+        Assert.assertTrue(this.bodies.get(0).contains("projects=a%2Cb%2Cc"));
+    }
+
+    /**
+     * Assert that analyses of the same pipeline execution share the loaded branches.
+     */
+    @Test
+    public void executionTest() {
+        final Optional<List<BranchInfo>> first = new BatchBranchMetadata(this.wsClient, this.configuration("build-1")).branches("a");
+        final Optional<List<BranchInfo>> second = new BatchBranchMetadata(this.wsClient, this.configuration("build-1")).branches("b");
+        new BatchBranchMetadata(this.wsClient, this.configuration("build-2")).branches("b");
+
+        Assert.assertTrue(first.isPresent());
+        Assert.assertTrue(second.isPresent());
+        Assert.assertEquals(2, this.requests.get());
+    }
+
+    private GlobalConfiguration configuration(final String execution) {
+        final GlobalConfiguration configuration = Mockito.mock(GlobalConfiguration.class);
+        Mockito.when(configuration.getStringArray(BatchBranchMetadata.PROJECTS)).thenReturn(new String[]{"a", "b", "c"});
+        Mockito.when(configuration.get(Mockito.anyString())).thenReturn(Optional.empty());
+        Mockito.when(configuration.get(BatchBranchMetadata.EXECUTION)).thenReturn(Optional.ofNullable(execution));
+        Mockito.when(configuration.get(BatchBranchMetadata.CACHE_DIRECTORY))
+                .thenReturn(Optional.of(this.temporaryFolder.getRoot().getAbsolutePath()));
+        return configuration;
+    }
+
+    private void reply(final HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+        this.methods.add(exchange.getRequestMethod());
+        this.queries.add(exchange.getRequestURI().getRawQuery());
+        try (InputStream input = exchange.getRequestBody()) {
+            this.bodies.add(IOUtils.toString(input, StandardCharsets.UTF_8));
+        }
+        final byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+}
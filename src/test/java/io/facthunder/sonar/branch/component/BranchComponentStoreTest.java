@@ -0,0 +1,129 @@
+package io.facthunder.sonar.branch.component;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class BranchComponentStoreTest {
+
+    private static final String PROJECT = "project";
+    private static final String BRANCH = "branch";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Connection connection;
+    private DbClient dbClient;
+    private MapSettings settings;
+
+    /**
+     * Seed an in-memory database with the components of the main branch and of another branch.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:h2:mem:components;DB_CLOSE_DELAY=-1");
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table projects (uuid varchar(50) primary key, project_uuid varchar(50),"
+                    + " kee varchar(400), qualifier varchar(10), enabled boolean)");
+        }
+        this.insertComponent(PROJECT, PROJECT, "app", "TRK", true);
+        this.insertComponent("main-file", PROJECT, "app:src/Main.java", "FIL", true);
+        this.insertComponent(BRANCH, BRANCH, "app:BRANCH:feature", "TRK", true);
+        this.insertComponent("branch-dir", BRANCH, "app:src:BRANCH:feature", "DIR", true);
+        this.insertComponent("branch-file", BRANCH, "app:src/Main.java:BRANCH:feature", "FIL", true);
+        this.insertComponent("branch-test", BRANCH, "app:src/MainTest.java:BRANCH:feature", "UTS", true);
+        this.insertComponent("branch-removed", BRANCH, "app:src/Old.java:BRANCH:feature", "FIL", false);
+
+        final DbSession dbSession = Mockito.mock(DbSession.class);
+        Mockito.when(dbSession.getConnection()).thenReturn(this.connection);
+        this.dbClient = Mockito.mock(DbClient.class);
+        Mockito.when(this.dbClient.openSession(false)).thenReturn(dbSession);
+        this.settings = new MapSettings();
+        this.settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+    }
+
+    @After
+    public void cleanUp() throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop all objects");
+        }
+        this.connection.close();
+    }
+
+    /**
+     * Assert that the index built from the database only holds enabled components of the branch, without branch suffix.
+     */
+    @Test
+    public void rebuildTest() {
+        final BranchComponents components = new BranchComponentStore(this.settings.asConfig(), this.dbClient).get(PROJECT, BRANCH);
+
+        Assert.assertEquals(Arrays.asList("app", "app:src", "app:src/Main.java", "app:src/MainTest.java"), keys(components.getComponents()));
+        Assert.assertEquals("branch-file", components.find("app:src/Main.java").map(BranchComponent::getUuid).orElse(null));
+        Assert.assertEquals("UTS", components.find("app:src/MainTest.java").map(BranchComponent::getQualifier).orElse(null));
+        Assert.assertFalse(components.find("app:src/Old.java").isPresent());
+        Assert.assertEquals(Arrays.asList("app:src/Main.java", "app:src/MainTest.java"), keys(components.startingWith("app:src/")));
+        Assert.assertTrue(components.startingWith("other").isEmpty());
+    }
+
+    /**
+     * Assert that a saved index is read back by another store, such as the one of the web server, without the database.
+     */
+    @Test
+    public void saveTest() throws SQLException {
+        new BranchComponentStore(this.settings.asConfig(), this.dbClient).save(PROJECT, BRANCH, BranchComponents.of(Arrays.asList(
+                new BranchComponent("app:src/New.java", "new-file", "FIL"),
+                new BranchComponent("app", BRANCH, "TRK"))));
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("delete from projects");
+        }
+
+        final BranchComponents components = new BranchComponentStore(this.settings.asConfig(), this.dbClient).get(PROJECT, BRANCH);
+        Assert.assertEquals(Arrays.asList("app", "app:src/New.java"), keys(components.getComponents()));
+    }
+
+    /**
+     * Assert that the index of a removed branch is rebuilt from the database when read again.
+     */
+    @Test
+    public void removeTest() {
+        final BranchComponentStore store = new BranchComponentStore(this.settings.asConfig(), this.dbClient);
+        store.save(PROJECT, BRANCH, BranchComponents.empty());
+        Assert.assertEquals(0, store.get(PROJECT, BRANCH).size());
+
+        store.remove(PROJECT, Collections.singletonList(BRANCH));
+        Assert.assertEquals(4, store.get(PROJECT, BRANCH).size());
+    }
+
+    private void insertComponent(final String uuid, final String projectUuid, final String key, final String qualifier,
+                                 final boolean enabled) throws SQLException {
+        try (PreparedStatement statement = this.connection.prepareStatement("insert into projects values (?, ?, ?, ?, ?)")) {
+            statement.setString(1, uuid);
+            statement.setString(2, projectUuid);
+            statement.setString(3, key);
+            statement.setString(4, qualifier);
+            statement.setBoolean(5, enabled);
+            statement.execute();
+        }
+    }
+
+    private static List<String> keys(final List<BranchComponent> components) {
+        return components.stream().map(BranchComponent::getKey).collect(Collectors.toList());
+    }
+}
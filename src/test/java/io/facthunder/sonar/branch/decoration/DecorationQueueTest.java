@@ -0,0 +1,181 @@
+package io.facthunder.sonar.branch.decoration;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DecorationQueueTest {
+
+    private HttpServer server;
+    private final BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile Responder responder = (exchange, call) -> reply(exchange, 200);
+    private DecorationQueue queue;
+
+    /**
+     * Start a stub code host recording decorations.
+     */
+    @Before
+    public void prepare() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/decorations", exchange -> {
+            final int call = this.calls.incrementAndGet();
+            try (InputStream input = exchange.getRequestBody()) {
+                final JsonObject body = new JsonParser().parse(new InputStreamReader(input, StandardCharsets.UTF_8)).getAsJsonObject();
+                this.received.add(new Received(body, exchange.getRequestHeaders().getFirst("Authorization"), System.currentTimeMillis()));
+            }
+            this.responder.respond(exchange, call);
+        });
+        this.server.start();
+        final MapSettings settings = new MapSettings();
+        settings.setProperty("sonar.branch.decoration.url", "http://localhost:" + this.server.getAddress().getPort() + "/decorations");
+        settings.setProperty("sonar.branch.decoration.token.secured", "secret");
+        this.queue = new DecorationQueue(settings.asConfig(), System2.INSTANCE, 10);
+    }
+
+    @After
+    public void stop() {
+        this.queue.stop();
+        this.server.stop(0);
+    }
+
+    /**
+     * Assert that decorations of the same pull request are coalesced and posted in a single call each.
+     */
+    @Test
+    public void coalesceTest() throws InterruptedException {
+        Assert.assertTrue(this.queue.offer(decoration("1", "ERROR", 2)));
+        Assert.assertTrue(this.queue.offer(decoration("2", "OK", 0)));
+        Assert.assertTrue(this.queue.offer(decoration("1", "OK", 1)));
+        Assert.assertEquals(2, this.queue.size());
+        this.queue.start();
+
+        final Received first = this.take();
+        Assert.assertEquals("1", first.body.get("pullRequest").getAsString());
+        Assert.assertEquals("OK", first.body.get("qualityGateStatus").getAsString());
+        Assert.assertEquals(1, first.body.getAsJsonArray("comments").size());
+        Assert.assertEquals("Bearer secret", first.authorization);
+        Assert.assertEquals("2", this.take().body.get("pullRequest").getAsString());
+        Assert.assertNull(this.received.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Assert that offering a decoration does not wait for a slow code host.
+     */
+    @Test
+    public void nonBlockingTest() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        this.responder = (exchange, call) -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reply(exchange, 200);
+        };
+        this.queue.start();
+        this.queue.offer(decoration("1", "OK", 0));
+        this.take();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            this.queue.offer(decoration(String.valueOf(i % 10), "OK", 10));
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue(String.format("Offering decorations took %d ms", elapsed), elapsed < 500);
+        Assert.assertEquals(10, this.queue.size());
+        release.countDown();
+    }
+
+    /**
+     * Assert that the rate limit of the host pauses decorations, and that server errors are retried.
+     */
+    @Test
+    public void rateLimitTest() throws InterruptedException {
+        this.responder = (exchange, call) -> {
+            if (call == 1) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                reply(exchange, 429);
+            } else if (call == 2) {
+                reply(exchange, 502);
+            } else {
+                reply(exchange, 200);
+            }
+        };
+        this.queue.offer(decoration("1", "OK", 0));
+        this.queue.start();
+
+        final Received limited = this.take();
+        final Received failed = this.take();
+        final Received succeeded = this.take();
+        Assert.assertTrue(failed.time - limited.time >= 900);
+        Assert.assertEquals("1", succeeded.body.get("pullRequest").getAsString());
+        Assert.assertNull(this.received.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, this.queue.size());
+    }
+
+    /**
+     * Assert that nothing is queued without a configured code host.
+     */
+    @Test
+    public void disabledTest() {
+        final DecorationQueue disabled = new DecorationQueue(new MapSettings().asConfig(), System2.INSTANCE);
+        Assert.assertFalse(disabled.isEnabled());
+        Assert.assertFalse(disabled.offer(decoration("1", "OK", 0)));
+        Assert.assertEquals(0, disabled.size());
+    }
+
+    private Received take() throws InterruptedException {
+        final Received next = this.received.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull("Decoration not received", next);
+        return next;
+    }
+
+    private static PullRequestDecoration decoration(final String pullRequest, final String status, final int comments) {
+        return new PullRequestDecoration("project", pullRequest, "feature/" + pullRequest, "master", 0, status,
+                Collections.nCopies(comments, new PullRequestDecoration.Comment("src/A.java", 1, "java:S1", "MAJOR", "Fix it")));
+    }
+
+    private static void reply(final HttpExchange exchange, final int code) throws IOException {
+        exchange.sendResponseHeaders(code, 2);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write("{}".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private interface Responder {
+        void respond(HttpExchange exchange, int call) throws IOException;
+    }
+
+    private static final class Received {
+        private final JsonObject body;
+        private final String authorization;
+        private final long time;
+
+        private Received(final JsonObject body, final String authorization, final long time) {
+            this.body = body;
+            this.authorization = authorization;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.facthunder.sonar.branch.events;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BranchEventLogTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MapSettings settings;
+
+    @Before
+    public void setUp() {
+        this.settings = new MapSettings();
+        this.settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * Assert that events published by several processes are numbered in increasing order.
+     */
+    @Test
+    public void sequenceTest() {
+        final BranchEventLog computeEngine = new BranchEventLog(this.settings.asConfig());
+        final BranchEventLog server = new BranchEventLog(this.settings.asConfig());
+
+        computeEngine.publish(Arrays.asList(event(BranchEvent.Type.CREATED, "p1", "feature"), event(BranchEvent.Type.ANALYZED, "p1", "feature")));
+        server.publish(Collections.singletonList(event(BranchEvent.Type.DELETED, "p1", "feature")));
+
+        final BranchEventLog.Page page = server.read(0, 10, null);
+        Assert.assertEquals(3, page.getEvents().size());
+        Assert.assertEquals(1, page.getEvents().get(0).getSequence());
+        Assert.assertEquals(BranchEvent.Type.DELETED, page.getEvents().get(2).getType());
+        Assert.assertEquals(3, page.getLast());
+        Assert.assertFalse(page.isReset());
+    }
+
+    /**
+     * Assert that readers resume after the last read event, only get events of their project, and read appended events.
+     */
+    @Test
+    public void resumeTest() {
+        final BranchEventLog log = new BranchEventLog(this.settings.asConfig());
+        final BranchEventLog reader = new BranchEventLog(this.settings.asConfig());
+        log.publish(Arrays.asList(event(BranchEvent.Type.ANALYZED, "p1", "a"), event(BranchEvent.Type.ANALYZED, "p2", "b")));
+        Assert.assertEquals(2, reader.lastSequence());
+
+        log.publish(Arrays.asList(event(BranchEvent.Type.ANALYZED, "p1", "c"), event(BranchEvent.Type.ANALYZED, "p2", "d")));
+        final BranchEventLog.Page page = reader.read(2, 10, "p1");
+
+        Assert.assertEquals(1, page.getEvents().size());
+        Assert.assertEquals("c", page.getEvents().get(0).getBranch());
+        Assert.assertEquals(4, page.getLast());
+        Assert.assertTrue(reader.read(4, 10, null).getEvents().isEmpty());
+    }
+
+    /**
+     * Assert that readers are asked to reset when events they did not read are no longer kept.
+     */
+    @Test
+    public void resetTest() {
+        final BranchEventLog log = new BranchEventLog(this.settings.asConfig());
+        final List<BranchEvent> events = new ArrayList<>();
+        for (int i = 0; i <= BranchEventLog.RETAINED_EVENTS; i++) {
+            events.add(event(BranchEvent.Type.ANALYZED, "p1", "b" + i));
+        }
+        log.publish(events);
+
+        Assert.assertTrue(log.read(0, 10, null).isReset());
+        Assert.assertFalse(log.read(1, 10, null).isReset());
+    }
+
+    private static BranchEvent event(final BranchEvent.Type type, final String projectUuid, final String branch) {
+        return new BranchEvent(0, type, projectUuid, projectUuid + "-key", branch, "SHORT", 1L);
+    }
+}
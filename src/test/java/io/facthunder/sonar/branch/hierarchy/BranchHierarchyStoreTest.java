@@ -0,0 +1,141 @@
+package io.facthunder.sonar.branch.hierarchy;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class BranchHierarchyStoreTest {
+
+    private static final String PROJECT = "project";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Connection connection;
+    private DbClient dbClient;
+    private MapSettings settings;
+
+    /**
+     * Seed an in-memory database with the branches of a project.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:h2:mem:hierarchy;DB_CLOSE_DELAY=-1");
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table project_branches (uuid varchar(50) primary key, project_uuid varchar(50),"
+                    + " kee varchar(255), branch_type varchar(12), merge_branch_uuid varchar(50))");
+        }
+        this.insertBranch(PROJECT, "master", "LONG", null);
+        this.insertBranch("release", "release-1", "LONG", null);
+        this.insertBranch("feature", "feature/a", "SHORT", "release");
+        this.insertBranch("pr", "12", "PULL_REQUEST", "feature");
+        this.insertBranch("fix", "fix/b", "SHORT", PROJECT);
+
+        final DbSession dbSession = Mockito.mock(DbSession.class);
+        Mockito.when(dbSession.getConnection()).thenReturn(this.connection);
+        this.dbClient = Mockito.mock(DbClient.class);
+        Mockito.when(this.dbClient.openSession(false)).thenReturn(dbSession);
+        this.settings = new MapSettings();
+        this.settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+    }
+
+    @After
+    public void cleanUp() throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop all objects");
+        }
+        this.connection.close();
+    }
+
+    /**
+     * Assert that the hierarchy built from the database answers ancestry and descendants.
+     */
+    @Test
+    public void getTest() {
+        final BranchHierarchy hierarchy = new BranchHierarchyStore(this.settings.asConfig(), this.dbClient).get(PROJECT);
+
+        final BranchNode pullRequest = hierarchy.getPullRequest("12").orElseThrow(AssertionError::new);
+        Assert.assertEquals("release-1", hierarchy.getNearestLongLivedAncestor(pullRequest).map(BranchNode::getKey).orElse(null));
+        Assert.assertEquals(Arrays.asList("master", "release-1", "feature/a"), keys(hierarchy.getAncestors(pullRequest)));
+        Assert.assertFalse(hierarchy.getBranch("12").isPresent());
+
+        final BranchNode main = hierarchy.getBranch("master").orElseThrow(AssertionError::new);
+        Assert.assertFalse(hierarchy.getNearestLongLivedAncestor(main).isPresent());
+        Assert.assertEquals(4, hierarchy.getDescendants(main).size());
+        final BranchNode release = hierarchy.getBranch("release-1").orElseThrow(AssertionError::new);
+        Assert.assertEquals(Arrays.asList("feature/a", "12"), keys(hierarchy.getDescendants(release)));
+    }
+
+    /**
+     * Assert that an analyzed branch is added without reading the database, and is read by other processes.
+     */
+    @Test
+    public void updateTest() throws SQLException {
+        final BranchHierarchyStore computeEngine = new BranchHierarchyStore(this.settings.asConfig(), this.dbClient);
+        final BranchHierarchyStore server = new BranchHierarchyStore(this.settings.asConfig(), this.dbClient);
+        Assert.assertEquals(5, server.get(PROJECT).getNodes().size());
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("delete from project_branches");
+        }
+
+        computeEngine.update(PROJECT, new BranchNode("pr-2", "13", "PULL_REQUEST", "fix"));
+
+        final BranchHierarchy hierarchy = server.get(PROJECT);
+        Assert.assertEquals(6, hierarchy.getNodes().size());
+        final BranchNode pullRequest = hierarchy.getPullRequest("13").orElseThrow(AssertionError::new);
+        Assert.assertEquals(Arrays.asList("master", "fix/b"), keys(hierarchy.getAncestors(pullRequest)));
+        Assert.assertEquals(PROJECT, pullRequest.getLongLivedAncestorUuid());
+    }
+
+    /**
+     * Assert that a branch whose parent is unknown makes the hierarchy rebuilt from the database,
+     * as does an invalidation.
+     */
+    @Test
+    public void rebuildTest() throws SQLException {
+        final BranchHierarchyStore store = new BranchHierarchyStore(this.settings.asConfig(), this.dbClient);
+        Assert.assertEquals(5, store.get(PROJECT).getNodes().size());
+        this.insertBranch("release-2", "release-2", "LONG", null);
+        this.insertBranch("hotfix", "hotfix/c", "SHORT", "release-2");
+
+        store.update(PROJECT, new BranchNode("hotfix", "hotfix/c", "SHORT", "release-2"));
+        Assert.assertEquals(7, store.get(PROJECT).getNodes().size());
+
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("delete from project_branches where uuid = 'hotfix'");
+        }
+        store.invalidate(PROJECT);
+        Assert.assertEquals(6, store.get(PROJECT).getNodes().size());
+    }
+
+    private static List<String> keys(final List<BranchNode> nodes) {
+        return nodes.stream().map(BranchNode::getKey).collect(Collectors.toList());
+    }
+
+    private void insertBranch(final String uuid, final String key, final String type, final String mergeBranchUuid) throws SQLException {
+        try (PreparedStatement statement = this.connection.prepareStatement("insert into project_branches values (?, ?, ?, ?, ?)")) {
+            statement.setString(1, uuid);
+            statement.setString(2, PROJECT);
+            statement.setString(3, key);
+            statement.setString(4, type);
+            statement.setString(5, mergeBranchUuid);
+            statement.execute();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.facthunder.sonar.branch.listcache;
+
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.summary.BranchSummaryStore;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.user.UserSession;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BranchListCacheFilterTest {
+
+    private static final String LIST = "/api/project_branches/list";
+    private static final String BODY = "{\"branches\":[]}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private BranchListStamps stamps;
+    private BranchListCacheFilter filter;
+    private final AtomicInteger loads = new AtomicInteger();
+    private CountDownLatch release = new CountDownLatch(0);
+
+    @Before
+    public void setUp() {
+        final MapSettings settings = new MapSettings();
+        settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+        settings.setProperty(BranchPropertyDefinition.LIST_CACHE_ENABLED, true);
+        this.stamps = new BranchListStamps(settings.asConfig());
+
+        final DbClient dbClient = Mockito.mock(DbClient.class);
+        Mockito.when(dbClient.openSession(false)).thenReturn(Mockito.mock(DbSession.class));
+        final ComponentDto project = Mockito.mock(ComponentDto.class);
+        Mockito.when(project.uuid()).thenReturn("AWxyz");
+        final ComponentFinder componentFinder = Mockito.mock(ComponentFinder.class);
+        Mockito.when(componentFinder.getByKey(Mockito.any(), Mockito.eq("project"))).thenReturn(project);
+        final UserSession userSession = Mockito.mock(UserSession.class);
+        Mockito.when(userSession.hasComponentPermission(Mockito.anyString(), Mockito.eq(project))).thenReturn(true);
+        this.filter = new BranchListCacheFilter(settings.asConfig(), dbClient, userSession, componentFinder, this.stamps,
+                new BranchEventLog(settings.asConfig()), new BranchHierarchyStore(settings.asConfig(), dbClient),
+                new BranchComponentStore(settings.asConfig(), dbClient), new BranchSummaryStore(settings.asConfig()), System2.INSTANCE);
+    }
+
+    /**
+     * Assert that a list is loaded once, then served from memory until the branches of the project change.
+     */
+    @Test
+    public void cacheTest() throws Exception {
+        Assert.assertEquals(BODY, this.get());
+        Assert.assertEquals(BODY, this.get());
+        Assert.assertEquals(1, this.loads.get());
+
+        this.stamps.touch("AWxyz");
+
+        Assert.assertEquals(BODY, this.get());
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    /**
+     * Assert that concurrent requests of a list which is not cached load it once.
+     */
+    @Test
+    public void concurrentMissesTest() throws Exception {
+        this.release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?>[] requests = new Future<?>[4];
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = executor.submit(this::get);
+            }
+            Thread.sleep(200);
+            this.release.countDown();
+            for (final Future<?> request : requests) {
+                Assert.assertEquals(BODY, request.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, this.loads.get());
+    }
+
+    private String get() throws Exception {
+        final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getRequestURI()).thenReturn(LIST);
+        Mockito.when(request.getContextPath()).thenReturn("");
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(request.getParameter("project")).thenReturn("project");
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener writeListener) {
+                // synchronous
+            }
+        });
+        final FilterChain chain = (chainRequest, chainResponse) -> {
+            this.loads.incrementAndGet();
+            try {
+                this.release.await();
+            } catch (final InterruptedException e) {
+                throw new IOException(e);
+            }
+            chainResponse.getOutputStream().write(BODY.getBytes(StandardCharsets.UTF_8));
+        };
+        this.filter.doFilter(request, response, chain);
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,79 @@
+package io.facthunder.sonar.branch.listcache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BranchListStampsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MapSettings settings;
+
+    @Before
+    public void setUp() {
+        this.settings = new MapSettings();
+        this.settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * Assert that each touch changes the version of the lists.
+     */
+    @Test
+    public void touchTest() throws Exception {
+        final BranchListStamps stamps = new BranchListStamps(this.settings.asConfig());
+        final String never = stamps.current("AWxyz");
+
+        stamps.touch("AWxyz");
+        final String first = stamps.current("AWxyz");
+        Thread.sleep(10);
+        stamps.touch("AWxyz");
+
+        Assert.assertNotEquals(never, first);
+        Assert.assertNotEquals(first, stamps.current("AWxyz"));
+    }
+
+    /**
+     * Assert that concurrent touches of the web server and the compute engine, which share the directory
+     * and may run threads with the same id, never write the same temporary file nor leave one behind.
+     */
+    @Test
+    public void concurrentTouchTest() throws Exception {
+        final BranchListStamps webServer = new BranchListStamps(this.settings.asConfig());
+        final BranchListStamps computeEngine = new BranchListStamps(this.settings.asConfig());
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> touches = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                touches.add(executor.submit(() -> webServer.touch("AWxyz")));
+                touches.add(executor.submit(() -> computeEngine.touch("AWxyz")));
+            }
+            for (final Future<?> touch : touches) {
+                touch.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<String> files;
+        try (Stream<Path> paths = Files.walk(this.temporaryFolder.getRoot().toPath())) {
+            files = paths.filter(Files::isRegularFile).map(path -> path.getFileName().toString()).collect(Collectors.toList());
+        }
+        Assert.assertEquals(1, files.size());
+        Assert.assertTrue(files.get(0).endsWith(".stamp"));
+    }
+}
@@ -0,0 +1,74 @@
+package io.facthunder.sonar.branch.profile;
+
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.api.batch.bootstrap.ProjectBuilder;
+import org.sonar.api.batch.bootstrap.ProjectDefinition;
+import org.sonar.api.batch.bootstrap.ProjectReactor;
+import org.sonar.scanner.bootstrap.GlobalConfiguration;
+import org.sonar.scanner.repository.ProjectRepositories;
+import org.sonar.scanner.scan.branch.BranchConfiguration;
+import org.sonar.scanner.scan.branch.BranchType;
+
+import java.util.Collections;
+
+public class BranchAnalysisProfileBuilderTest {
+
+    private BranchConfiguration branchConfiguration;
+    private ProjectRepositories projectRepositories;
+    private BranchAnalysisProfileBuilder builder;
+    private ProjectDefinition root;
+
+    @Before
+    public void setUp() {
+        this.branchConfiguration = Mockito.mock(BranchConfiguration.class);
+        this.projectRepositories = Mockito.mock(ProjectRepositories.class);
+        Mockito.when(this.projectRepositories.settings("project")).thenReturn(Collections.singletonMap(
+                BranchPropertyDefinition.PROFILE_PULL_REQUEST_PROPERTIES, "sonar.scm.disabled=true\nsonar.cpd.exclusions=**/*"));
+        final GlobalConfiguration globalConfiguration = Mockito.mock(GlobalConfiguration.class);
+        Mockito.when(globalConfiguration.getProperties()).thenReturn(Collections.emptyMap());
+        this.builder = new BranchAnalysisProfileBuilder(this.branchConfiguration, this.projectRepositories, globalConfiguration);
+        this.root = ProjectDefinition.create().setKey("project").setProperty("sonar.cpd.exclusions", "**/*.xml");
+    }
+
+    /**
+     * Assert that the profile of the branch type already known by the scanner is applied,
+     * from the settings it already loaded, without overriding properties given to the scanner.
+     */
+    @Test
+    public void pullRequestTest() {
+        Mockito.when(this.branchConfiguration.isShortOrPullRequest()).thenReturn(true);
+        Mockito.when(this.branchConfiguration.branchType()).thenReturn(BranchType.PULL_REQUEST);
+
+        this.build();
+
+        Assert.assertEquals("true", this.root.properties().get("sonar.scm.disabled"));
+        Assert.assertEquals("**/*.xml", this.root.properties().get("sonar.cpd.exclusions"));
+    }
+
+    /**
+     * Assert that settings are not even read for long living branches.
+     */
+    @Test
+    public void longLivingBranchTest() {
+        Mockito.when(this.branchConfiguration.branchType()).thenReturn(BranchType.LONG);
+
+        this.build();
+
+        Assert.assertFalse(this.root.properties().containsKey("sonar.scm.disabled"));
+        Mockito.verifyZeroInteractions(this.projectRepositories);
+    }
+
+    private void build() {
+        final ProjectReactor reactor = new ProjectReactor(this.root);
+        this.builder.build(new ProjectBuilder.Context() {
+            @Override
+            public ProjectReactor projectReactor() {
+                return reactor;
+            }
+        });
+    }
+}
@@ -0,0 +1,48 @@
+package io.facthunder.sonar.branch.profile;
+
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import org.junit.Assert;
+import org.junit.Test;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.scanner.scan.branch.BranchType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+public class BranchAnalysisProfileTest {
+
+    /**
+     * Assert that overridden properties are parsed line by line, ignoring comments and invalid lines.
+     */
+    @Test
+    public void parsePropertiesTest() {
+        final Map<String, String> properties = BranchAnalysisProfile.parseProperties(
+                "sonar.cpd.exclusions = **/*\n# comment\n\nnot a property\r\nsonar.scm.disabled=true");
+
+        Assert.assertEquals(2, properties.size());
+        Assert.assertEquals("**/*", properties.get("sonar.cpd.exclusions"));
+        Assert.assertEquals("true", properties.get("sonar.scm.disabled"));
+    }
+
+    /**
+     * Assert that each branch type gets its own profile, and long living branches none.
+     */
+    @Test
+    public void profileByTypeTest() {
+        final Map<String, String> settings = new HashMap<>();
+        settings.put(BranchPropertyDefinition.PROFILE_PULL_REQUEST_PROPERTIES, "sonar.scm.disabled=true");
+        settings.put(BranchPropertyDefinition.PROFILE_PULL_REQUEST_DISABLED_RULES, "squid:S1*, common-java:*");
+
+        final Optional<BranchAnalysisProfile> pullRequest = BranchAnalysisProfile.of(BranchType.PULL_REQUEST,
+                key -> Optional.ofNullable(settings.get(key)));
+        Assert.assertTrue(pullRequest.isPresent());
+        Assert.assertEquals("pullRequest", pullRequest.get().getName());
+        Assert.assertTrue(pullRequest.get().isDisabled(RuleKey.of("squid", "S1234")));
+        Assert.assertTrue(pullRequest.get().isDisabled(RuleKey.of("common-java", "DuplicatedBlocks")));
+        Assert.assertFalse(pullRequest.get().isDisabled(RuleKey.of("squid", "S2234")));
+
+        Assert.assertFalse(BranchAnalysisProfile.of(BranchType.SHORT, key -> Optional.ofNullable(settings.get(key))).isPresent());
+        Assert.assertFalse(BranchAnalysisProfile.of(BranchType.LONG, key -> Optional.ofNullable(settings.get(key))).isPresent());
+    }
+}
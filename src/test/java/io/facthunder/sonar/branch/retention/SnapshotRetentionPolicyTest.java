@@ -0,0 +1,73 @@
+package io.facthunder.sonar.branch.retention;
+
+import io.facthunder.sonar.branch.BranchPropertyDefinition;
+import org.junit.Assert;
+import org.junit.Test;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.db.component.BranchType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SnapshotRetentionPolicyTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    /**
+     * Start of a day and of a week, as periods are computed from the epoch.
+     **/
+    private static final long NOW = 1000 * 7 * DAY;
+
+    /**
+     * Assert that recent analyses are kept, then one a day, then one a week.
+     */
+    @Test
+    public void selectPurgedTest() {
+        final SnapshotRetentionPolicy policy = new SnapshotRetentionPolicy("long", 2, 14);
+        final List<SnapshotRetentionPolicy.Analysis> analyses = Arrays.asList(
+                analysis("recent-1", NOW - HOUR),
+                analysis("recent-2", NOW - 2 * HOUR),
+                analysis("daily-1", NOW - 3 * DAY + 2 * HOUR),
+                analysis("daily-2", NOW - 3 * DAY + HOUR),
+                analysis("daily-3", NOW - 4 * DAY + HOUR),
+                analysis("weekly-1", NOW - 15 * DAY + HOUR),
+                analysis("weekly-2", NOW - 17 * DAY),
+                analysis("weekly-3", NOW - 22 * DAY));
+
+        Assert.assertEquals(Arrays.asList("daily-2", "weekly-2"), policy.selectPurged(analyses, NOW));
+    }
+
+    /**
+     * Assert that the last analysis and analyses with events are kept.
+     */
+    @Test
+    public void protectedTest() {
+        final SnapshotRetentionPolicy policy = new SnapshotRetentionPolicy("short", 1, 0);
+        final List<SnapshotRetentionPolicy.Analysis> analyses = Arrays.asList(
+                new SnapshotRetentionPolicy.Analysis("version", NOW - 3 * DAY + HOUR, true),
+                analysis("other", NOW - 3 * DAY + 2 * HOUR),
+                new SnapshotRetentionPolicy.Analysis("last", NOW - 3 * DAY + 3 * HOUR, true));
+
+        Assert.assertEquals(Collections.singletonList("other"), policy.selectPurged(analyses, NOW));
+    }
+
+    /**
+     * Assert that branch types have their own policy, disabled by default.
+     */
+    @Test
+    public void ofTest() {
+        final MapSettings settings = new MapSettings();
+        Assert.assertFalse(SnapshotRetentionPolicy.of(BranchType.LONG, settings.asConfig()).isPresent());
+
+        settings.setProperty(BranchPropertyDefinition.RETENTION_LONG_WEEKLY, "30");
+        Assert.assertTrue(SnapshotRetentionPolicy.of(BranchType.LONG, settings.asConfig()).isPresent());
+        Assert.assertFalse(SnapshotRetentionPolicy.of(BranchType.SHORT, settings.asConfig()).isPresent());
+        Assert.assertFalse(SnapshotRetentionPolicy.of(BranchType.PULL_REQUEST, settings.asConfig()).isPresent());
+    }
+
+    private static SnapshotRetentionPolicy.Analysis analysis(final String uuid, final long date) {
+        return new SnapshotRetentionPolicy.Analysis(uuid, date, false);
+    }
+}
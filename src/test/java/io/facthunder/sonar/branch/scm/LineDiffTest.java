@@ -0,0 +1,63 @@
+package io.facthunder.sonar.branch.scm;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class LineDiffTest {
+
+    /**
+     * Assert that whitespaces don't change the hash of a line and that blank lines have an empty hash.
+     */
+    @Test
+    public void lineHashesTest() {
+        final List<String> hashes = LineDiff.lineHashes("int a = 1;\n\n  int  a=1;\r\n");
+
+        Assert.assertEquals(4, hashes.size());
+        Assert.assertEquals(hashes.get(0), hashes.get(2));
+        Assert.assertEquals("", hashes.get(1));
+        Assert.assertEquals("", hashes.get(3));
+    }
+
+    /**
+     * Assert that the source hash ignores line separators only, and is the MD5 of lines joined by line feeds.
+     */
+    @Test
+    public void sourceHashTest() {
+        final String hash = LineDiff.sourceHash("int a = 1;\n\nint b = 2;\n");
+
+        Assert.assertEquals(DigestUtils.md5Hex("int a = 1;\n\nint b = 2;\n"), hash);
+        Assert.assertEquals(hash, LineDiff.sourceHash("int a = 1;\r\n\r\nint b = 2;\r\n"));
+        Assert.assertNotEquals(hash, LineDiff.sourceHash("int a = 1;\n\nint  b = 2;\n"));
+        Assert.assertNotEquals(hash, LineDiff.sourceHash("int a = 1;\n\nint b = 2;"));
+    }
+
+    /**
+     * Assert that only inserted and modified lines are reported as changed.
+     */
+    @Test
+    public void changedLinesTest() {
+        final List<String> reference = Arrays.asList("a", "b", "c", "d", "e");
+        final List<String> current = Arrays.asList("a", "x", "c", "d", "y", "e", "");
+
+        final BitSet changed = LineDiff.changedLines(current, reference.iterator());
+
+        Assert.assertEquals(2, changed.cardinality());
+        Assert.assertTrue(changed.get(2));
+        Assert.assertTrue(changed.get(5));
+    }
+
+    /**
+     * Assert that a file identical to its reference has no changed line.
+     */
+    @Test
+    public void identicalTest() {
+        final List<String> lines = Arrays.asList("a", "b", "a");
+
+        Assert.assertTrue(LineDiff.changedLines(lines, lines.iterator()).isEmpty());
+    }
+}
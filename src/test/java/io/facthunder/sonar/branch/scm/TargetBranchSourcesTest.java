@@ -0,0 +1,193 @@
+package io.facthunder.sonar.branch.scm;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputModule;
+import org.sonar.api.batch.fs.internal.InputModuleHierarchy;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.scm.BlameLine;
+import org.sonar.scanner.bootstrap.GlobalAnalysisMode;
+import org.sonar.scanner.bootstrap.ScannerWsClient;
+import org.sonar.scanner.scan.branch.BranchConfiguration;
+import org.sonar.scanner.scan.branch.BranchInfo;
+import org.sonar.scanner.scan.branch.BranchType;
+import org.sonar.scanner.scan.branch.ProjectBranches;
+import org.sonarqube.ws.client.HttpConnector;
+import org.sonarqube.ws.client.WsClientFactories;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TargetBranchSourcesTest {
+
+    private static final String SOURCE = "class A {\n    int a;\n}\n";
+    private static final String SCM = "[{\"author\":\"john\",\"date\":\"2018-05-01T00:00:00+0000\",\"revision\":\"r1\"},"
+            + "{\"author\":\"john\",\"date\":\"2018-05-01T00:00:00+0000\",\"revision\":\"r1\"},"
+            + "{\"author\":\"jane\",\"date\":\"2018-05-02T00:00:00+0000\",\"revision\":\"r2\"},"
+            + "{\"date\":\"2018-05-02T00:00:00+0000\",\"revision\":\"r2\"}]";
+
+    private HttpServer server;
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final Map<String, String> targetSources = new HashMap<>();
+    private TargetBranchSources targetBranchSources;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/api/branch_plugin/target_blame", this::reply);
+        this.server.start();
+        final ScannerWsClient wsClient = new ScannerWsClient(WsClientFactories.getDefault().newClient(HttpConnector.newBuilder()
+                .url("http://localhost:" + this.server.getAddress().getPort())
+                .build()), false, Mockito.mock(GlobalAnalysisMode.class));
+
+        final BranchConfiguration branchConfiguration = Mockito.mock(BranchConfiguration.class);
+        Mockito.when(branchConfiguration.branchType()).thenReturn(BranchType.PULL_REQUEST);
+        Mockito.when(branchConfiguration.branchTarget()).thenReturn("release");
+        final ProjectBranches projectBranches = new ProjectBranches(Arrays.asList(
+                new BranchInfo("master", BranchType.LONG, true, null),
+                new BranchInfo("release", BranchType.LONG, false, "master")));
+        final DefaultInputModule root = Mockito.mock(DefaultInputModule.class);
+        Mockito.when(root.key()).thenReturn("project");
+        final InputModuleHierarchy moduleHierarchy = Mockito.mock(InputModuleHierarchy.class);
+        Mockito.when(moduleHierarchy.root()).thenReturn(root);
+        this.targetBranchSources = new TargetBranchSources(wsClient, branchConfiguration, projectBranches, moduleHierarchy);
+    }
+
+    @After
+    public void stop() {
+        this.server.stop(0);
+    }
+
+    /**
+     * Assert that blame is reused for identical files only, including whitespaces, with a single call.
+     */
+    @Test
+    public void unchangedFilesTest() {
+        final InputFile identical = file("Identical.java", SOURCE);
+        final InputFile lineSeparators = file("LineSeparators.java", SOURCE.replace("\n", "\r\n"));
+        final InputFile whitespaces = file("Whitespaces.java", SOURCE.replace("int a", "int  a"));
+        final InputFile added = file("Added.java", SOURCE);
+        this.targetSources.put("project:Identical.java:BRANCH:release", SOURCE);
+        this.targetSources.put("project:LineSeparators.java:BRANCH:release", SOURCE);
+        this.targetSources.put("project:Whitespaces.java:BRANCH:release", SOURCE);
+
+        final Map<InputFile, List<BlameLine>> blames = this.targetBranchSources.unchangedFilesBlame(
+                Arrays.asList(identical, lineSeparators, whitespaces, added));
+
+        Assert.assertEquals(2, blames.size());
+        Assert.assertEquals("r2", blames.get(identical).get(2).revision());
+        Assert.assertEquals("jane", blames.get(identical).get(2).author());
+        Assert.assertNull(blames.get(identical).get(3).author());
+        Assert.assertTrue(blames.containsKey(lineSeparators));
+        Assert.assertEquals(1, this.bodies.size());
+        Assert.assertTrue(this.bodies.get(0).contains("project=project"));
+        Assert.assertTrue(this.bodies.get(0).contains("branch=release"));
+    }
+
+    /**
+     * Assert that files are sent by pages of the size accepted by the server.
+     */
+    @Test
+    public void pagingTest() {
+        final List<InputFile> files = new ArrayList<>();
+        for (int i = 0; i < 501; i++) {
+            files.add(file("File" + i + ".java", SOURCE));
+            this.targetSources.put("project:File" + i + ".java:BRANCH:release", SOURCE);
+        }
+
+        final Map<InputFile, List<BlameLine>> blames = this.targetBranchSources.unchangedFilesBlame(files);
+
+        Assert.assertEquals(501, blames.size());
+        Assert.assertEquals(2, this.bodies.size());
+    }
+
+    /**
+     * Assert that all files are blamed again when the server can't give the blame of the target branch.
+     */
+    @Test
+    public void serverErrorTest() {
+        this.server.removeContext("/api/branch_plugin/target_blame");
+
+        final Map<InputFile, List<BlameLine>> blames = this.targetBranchSources.unchangedFilesBlame(
+                Arrays.asList(file("Identical.java", SOURCE)));
+
+        Assert.assertTrue(blames.isEmpty());
+    }
+
+    /**
+     * Assert that blame is reused for files without changed lines, whitespaces ignored, with a single call.
+     */
+    @Test
+    public void unchangedLinesTest() {
+        final InputFile identical = file("Identical.java", SOURCE);
+        final InputFile whitespaces = file("Whitespaces.java", SOURCE.replace("int a", "int  a"));
+        final InputFile changed = file("Changed.java", SOURCE.replace("int a", "int b"));
+        final InputFile added = file("Added.java", SOURCE);
+        this.targetSources.put("project:Identical.java:BRANCH:release", SOURCE);
+        this.targetSources.put("project:Whitespaces.java:BRANCH:release", SOURCE);
+        this.targetSources.put("project:Changed.java:BRANCH:release", SOURCE);
+
+        final Map<InputFile, List<BlameLine>> blames = this.targetBranchSources.unchangedLinesBlame(
+                Arrays.asList(identical, whitespaces, changed, added));
+
+        Assert.assertEquals(2, blames.size());
+        Assert.assertEquals("jane", blames.get(whitespaces).get(2).author());
+        Assert.assertTrue(blames.containsKey(identical));
+        Assert.assertEquals(1, this.bodies.size());
+        Assert.assertTrue(this.bodies.get(0).contains("lineHashes=true"));
+    }
+
+    private static InputFile file(final String path, final String contents) {
+        return new TestInputFileBuilder("project", path)
+                .setContents(contents)
+                .initMetadata(contents)
+                .build();
+    }
+
+    private void reply(final HttpExchange exchange) throws IOException {
+        final String body;
+        try (InputStream input = exchange.getRequestBody()) {
+            body = IOUtils.toString(input, StandardCharsets.UTF_8);
+        }
+        this.bodies.add(body);
+        final StringBuilder json = new StringBuilder("{\"files\":[");
+        for (final String parameter : body.split("&")) {
+            final String key = URLDecoder.decode(parameter.substring(parameter.indexOf('=') + 1), "UTF-8");
+            final String source = this.targetSources.get(key);
+            if (parameter.startsWith("files=") && source != null) {
+                json.append(json.charAt(json.length() - 1) == '[' ? "" : ",")
+                        .append("{\"key\":\"").append(key)
+                        .append("\",\"hash\":\"").append(LineDiff.sourceHash(source))
+                        .append("\",\"scm\":").append(SCM);
+                if (body.contains("lineHashes=true")) {
+                    json.append(",\"lineHashes\":").append(new Gson().toJson(LineDiff.lineHashes(source)));
+                }
+                json.append('}');
+            }
+        }
+        final byte[] response = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(response);
+        }
+    }
+}
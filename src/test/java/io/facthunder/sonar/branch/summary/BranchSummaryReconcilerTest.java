@@ -0,0 +1,157 @@
+package io.facthunder.sonar.branch.summary;
+
+import io.facthunder.sonar.branch.component.BranchComponent;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.component.BranchComponents;
+import io.facthunder.sonar.branch.events.BranchEvent;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+import org.sonar.db.DbClient;
+import org.sonar.db.DbSession;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class BranchSummaryReconcilerTest {
+
+    private static final String PROJECT = "project";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Connection connection;
+    private BranchSummaryStore summaryStore;
+    private BranchHierarchyStore hierarchyStore;
+    private BranchComponentStore componentStore;
+    private BranchEventLog eventLog;
+    private BranchSummaryReconciler reconciler;
+
+    /**
+     * Seed an in-memory database with a main branch and a branch analyzed before the plugin was installed.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:h2:mem:reconciler;DB_CLOSE_DELAY=-1");
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table project_branches (uuid varchar(50) primary key, project_uuid varchar(50),"
+                    + " kee varchar(255), branch_type varchar(12), merge_branch_uuid varchar(50))");
+            statement.execute("create table projects (uuid varchar(50), project_uuid varchar(50), kee varchar(400),"
+                    + " qualifier varchar(10), enabled boolean)");
+            statement.execute("create table snapshots (component_uuid varchar(50), islast boolean, created_at bigint)");
+            statement.execute("create table metrics (id int primary key, name varchar(64))");
+            statement.execute("create table live_measures (component_uuid varchar(50), metric_id int, value double,"
+                    + " text_value varchar(4000))");
+            statement.execute("insert into project_branches values ('project', 'project', 'master', 'LONG', null)");
+            statement.execute("insert into project_branches values ('old', 'project', 'feature/old', 'SHORT', 'project')");
+            statement.execute("insert into snapshots values ('old', true, 1000)");
+            statement.execute("insert into metrics values (1, 'alert_status'), (2, 'major_violations'), (3, 'ncloc')");
+            statement.execute("insert into live_measures values ('old', 1, null, 'ERROR'), ('old', 2, 3.0, null),"
+                    + " ('old', 3, 120.0, null)");
+        }
+
+        final DbSession dbSession = Mockito.mock(DbSession.class);
+        Mockito.when(dbSession.getConnection()).thenReturn(this.connection);
+        final DbClient dbClient = Mockito.mock(DbClient.class);
+        Mockito.when(dbClient.openSession(false)).thenReturn(dbSession);
+        final MapSettings settings = new MapSettings();
+        settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+        this.summaryStore = new BranchSummaryStore(settings.asConfig());
+        this.hierarchyStore = new BranchHierarchyStore(settings.asConfig(), dbClient);
+        this.componentStore = new BranchComponentStore(settings.asConfig(), dbClient);
+        this.eventLog = new BranchEventLog(settings.asConfig());
+        this.reconciler = new BranchSummaryReconciler(dbClient, this.summaryStore, this.hierarchyStore, this.componentStore,
+                this.eventLog, System2.INSTANCE);
+    }
+
+    @After
+    public void cleanUp() throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop all objects");
+        }
+        this.connection.close();
+    }
+
+    /**
+     * Assert that branches analyzed before the plugin was installed get a summary from their last analysis,
+     * and that branches never analyzed get none.
+     */
+    @Test
+    public void missingTest() {
+        this.reconciler.reconcile(PROJECT, "project-key");
+
+        final List<BranchSummary> summaries = this.summaryStore.list(PROJECT);
+        Assert.assertEquals(1, summaries.size());
+        final BranchSummary summary = summaries.get(0);
+        Assert.assertEquals("feature/old", summary.getKey());
+        Assert.assertEquals("SHORT", summary.getType());
+        Assert.assertEquals("master", summary.getMergeBranch());
+        Assert.assertEquals(1000L, summary.getAnalysisDate());
+        Assert.assertEquals("ERROR", summary.getQualityGateStatus());
+        Assert.assertEquals(Integer.valueOf(3), summary.getIssues().get("MAJOR"));
+        Assert.assertEquals(Integer.valueOf(0), summary.getIssues().get("BLOCKER"));
+    }
+
+    /**
+     * Assert that data of branches deleted without the plugin being told are removed,
+     * and their deletion published, while renamed branches get their new name.
+     */
+    @Test
+    public void deletedTest() throws SQLException {
+        this.summaryStore.update(PROJECT, new BranchSummary("project", "main", "LONG", null, 2000L, "OK",
+                Collections.singletonMap("MAJOR", 1)));
+        this.summaryStore.update(PROJECT, new BranchSummary("gone", "feature/gone", "SHORT", "master", 2000L, "OK",
+                Collections.singletonMap("MAJOR", 1)));
+        this.componentStore.save(PROJECT, "gone", BranchComponents.of(Collections.singletonList(
+                new BranchComponent("project:src/A.java", "gone-file", "FIL"))));
+        this.componentStore.save(PROJECT, "old", BranchComponents.of(Collections.singletonList(
+                new BranchComponent("project:src/A.java", "old-file", "FIL"))));
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("insert into project_branches values ('gone', 'project', 'feature/gone', 'SHORT', 'project')");
+        }
+        Assert.assertTrue(this.hierarchyStore.get(PROJECT).get("gone").isPresent());
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("delete from project_branches where uuid = 'gone'");
+        }
+
+        this.reconciler.reconcile(PROJECT, "project-key");
+
+        final List<String> keys = this.summaryStore.list(PROJECT).stream().map(BranchSummary::getKey).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("master", "feature/old"), keys);
+        final List<BranchEvent> events = this.eventLog.read(0, 10, PROJECT).getEvents();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(BranchEvent.Type.DELETED, events.get(0).getType());
+        Assert.assertEquals("feature/gone", events.get(0).getBranch());
+        Assert.assertFalse(this.hierarchyStore.get(PROJECT).get("gone").isPresent());
+        Assert.assertEquals(1, this.componentStore.get(PROJECT, "old").size());
+        Assert.assertEquals(0, this.componentStore.get(PROJECT, "gone").size());
+    }
+
+    /**
+     * Assert that reconciling again changes nothing.
+     */
+    @Test
+    public void idempotentTest() {
+        this.reconciler.reconcile(PROJECT, "project-key");
+        final List<BranchSummary> summaries = this.summaryStore.list(PROJECT);
+
+        this.reconciler.reconcile(PROJECT, "project-key");
+
+        Assert.assertSame(summaries, this.summaryStore.list(PROJECT));
+        Assert.assertTrue(this.eventLog.read(0, 10, PROJECT).getEvents().isEmpty());
+    }
+}
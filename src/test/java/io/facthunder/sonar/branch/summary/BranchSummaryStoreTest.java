@@ -0,0 +1,82 @@
+package io.facthunder.sonar.branch.summary;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.internal.MapSettings;
+
+import java.util.Collections;
+import java.util.List;
+
+public class BranchSummaryStoreTest {
+
+    private static final String PROJECT = "AWxyz";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MapSettings settings;
+
+    @Before
+    public void setUp() {
+        this.settings = new MapSettings();
+        this.settings.setProperty("sonar.path.data", this.temporaryFolder.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * Assert that the summary of a branch is replaced by its next analysis.
+     */
+    @Test
+    public void updateTest() {
+        final BranchSummaryStore store = new BranchSummaryStore(this.settings.asConfig());
+
+        store.update(PROJECT, summary("uuid-1", "feature/a", 1L, "ERROR"));
+        store.update(PROJECT, summary("uuid-2", "feature/b", 2L, "OK"));
+        store.update(PROJECT, summary("uuid-1", "feature/a", 3L, "OK"));
+
+        final List<BranchSummary> summaries = store.list(PROJECT);
+        Assert.assertEquals(2, summaries.size());
+        Assert.assertEquals("feature/a", summaries.get(0).getKey());
+        Assert.assertEquals(3L, summaries.get(0).getAnalysisDate());
+        Assert.assertEquals("OK", summaries.get(0).getQualityGateStatus());
+        Assert.assertEquals(Integer.valueOf(4), summaries.get(0).getIssues().get("MAJOR"));
+        Assert.assertTrue(store.list("other").isEmpty());
+    }
+
+    /**
+     * Assert that summaries written by another process are read.
+     */
+    @Test
+    public void sharedTest() {
+        final BranchSummaryStore computeEngine = new BranchSummaryStore(this.settings.asConfig());
+        final BranchSummaryStore server = new BranchSummaryStore(this.settings.asConfig());
+
+        computeEngine.update(PROJECT, summary("uuid-1", "feature/a", 1L, "OK"));
+        Assert.assertEquals(1, server.list(PROJECT).size());
+        computeEngine.update(PROJECT, summary("uuid-2", "feature/b", 2L, "OK"));
+
+        Assert.assertEquals(2, server.list(PROJECT).size());
+    }
+
+    /**
+     * Assert that summaries of deleted branches are removed.
+     */
+    @Test
+    public void removeTest() {
+        final BranchSummaryStore store = new BranchSummaryStore(this.settings.asConfig());
+        store.update(PROJECT, summary("uuid-1", "feature/a", 1L, "OK"));
+        store.update(PROJECT, summary("uuid-2", "feature/b", 2L, "OK"));
+
+        store.remove(PROJECT, Collections.singletonList("uuid-1"));
+
+        final List<BranchSummary> summaries = store.list(PROJECT);
+        Assert.assertEquals(1, summaries.size());
+        Assert.assertEquals("uuid-2", summaries.get(0).getUuid());
+    }
+
+    private static BranchSummary summary(final String uuid, final String key, final long analysisDate, final String status) {
+        return new BranchSummary(uuid, key, "SHORT", "master", analysisDate, status, Collections.singletonMap("MAJOR", 4));
+    }
+}
@@ -0,0 +1,221 @@
+package io.facthunder.sonar.branch.ws;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.facthunder.sonar.branch.TestDatabase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.utils.DateUtils;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.ForbiddenException;
+import org.sonar.server.user.UserSession;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class AnalysisHistoryActionTest {
+
+    private static final long START = 1_500_000_000_000L;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final List<String> ALL_TYPES = Arrays.asList("LONG", "SHORT", "PULL_REQUEST");
+
+    private TestDatabase database;
+    private UserSession userSession;
+    private AnalysisHistoryAction action;
+
+    /**
+     * Seed two projects with branches and pull requests, analyzed in an order different from the order of insertion.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        this.database = new TestDatabase("jdbc:h2:mem:analysis-history;DB_CLOSE_DELAY=-1");
+        try (Connection connection = this.database.connect(); Statement statement = connection.createStatement()) {
+            insertProject(connection, "project-uuid", "app");
+            insertProject(connection, "other-uuid", "other");
+            TestDatabase.insertBranch(connection, "project-uuid", "project-uuid", "master", BranchType.LONG, null);
+            TestDatabase.insertBranch(connection, "feature-uuid", "project-uuid", "feature", BranchType.SHORT, "project-uuid");
+            TestDatabase.insertBranch(connection, "pr-uuid", "project-uuid", "12", BranchType.PULL_REQUEST, "feature-uuid");
+            TestDatabase.insertBranch(connection, "other-uuid", "other-uuid", "master", BranchType.LONG, null);
+            statement.execute("insert into metrics (id, name) values (1, 'ncloc')");
+            insertAnalysis(connection, "master-1", "project-uuid", 3, "P", 1200L, 100d);
+            insertAnalysis(connection, "feature-1", "feature-uuid", 1, "P", 300L, 90d);
+            insertAnalysis(connection, "pr-1", "pr-uuid", 2, "P", null, null);
+            insertAnalysis(connection, "other-1", "other-uuid", 0, "P", null, null);
+            insertAnalysis(connection, "master-unprocessed", "project-uuid", 4, "U", null, null);
+            insertAnalysis(connection, "feature-2", "feature-uuid", 5, "P", null, null);
+        }
+
+        final ComponentFinder componentFinder = Mockito.mock(ComponentFinder.class);
+        Mockito.when(componentFinder.getByKey(Mockito.any(), Mockito.eq("app")))
+                .thenReturn(new ComponentDto().setUuid("project-uuid").setDbKey("app"));
+        this.userSession = Mockito.mock(UserSession.class);
+        this.action = new AnalysisHistoryAction(this.database.dbClient(), this.userSession, componentFinder);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.database.close();
+    }
+
+    /**
+     * Assert that processed analyses of all projects are exported by date, whatever their branch.
+     */
+    @Test
+    public void orderTest() throws Exception {
+        final List<JsonObject> rows = this.json(null, ALL_TYPES, null, null);
+
+        Assert.assertEquals(Arrays.asList("other-1", "feature-1", "pr-1", "master-1", "feature-2"), analyses(rows));
+        final JsonObject feature = rows.get(1);
+        Assert.assertEquals("app", feature.get("project").getAsString());
+        Assert.assertEquals("feature", feature.get("branch").getAsString());
+        Assert.assertEquals("SHORT", feature.get("type").getAsString());
+        Assert.assertEquals("master", feature.get("mergeBranch").getAsString());
+        Assert.assertEquals(DateUtils.formatDateTime(START + HOUR), feature.get("date").getAsString());
+        Assert.assertEquals(300L, feature.get("durationMs").getAsLong());
+        Assert.assertEquals(90L, feature.get("ncloc").getAsLong());
+        Assert.assertFalse(rows.get(2).has("durationMs"));
+        Assert.assertEquals("feature", rows.get(2).get("mergeBranch").getAsString());
+        Mockito.verify(this.userSession).checkIsSystemAdministrator();
+    }
+
+    /**
+     * Assert that the history is paged by date with an inclusive start and an exclusive end,
+     * so that consecutive pages export each analysis exactly once.
+     */
+    @Test
+    public void pagingTest() throws Exception {
+        Assert.assertEquals(Arrays.asList("feature-1", "pr-1"), analyses(this.json(null, ALL_TYPES, START + HOUR, START + 3 * HOUR)));
+
+        final List<String> pages = new ArrayList<>();
+        pages.addAll(analyses(this.json(null, ALL_TYPES, null, START + 2 * HOUR)));
+        pages.addAll(analyses(this.json(null, ALL_TYPES, START + 2 * HOUR, START + 4 * HOUR)));
+        pages.addAll(analyses(this.json(null, ALL_TYPES, START + 4 * HOUR, null)));
+        Assert.assertEquals(analyses(this.json(null, ALL_TYPES, null, null)), pages);
+    }
+
+    /**
+     * Assert that analyses are filtered by project and by type of branch.
+     */
+    @Test
+    public void filterTest() throws Exception {
+        Assert.assertEquals(Arrays.asList("feature-1", "pr-1", "master-1", "feature-2"), analyses(this.json("app", ALL_TYPES, null, null)));
+        Assert.assertEquals(Collections.singletonList("master-1"), analyses(this.json("app", Collections.singletonList("LONG"), null, null)));
+    }
+
+    /**
+     * Assert that the CSV export has a header, then one line per analysis with empty unknown values.
+     */
+    @Test
+    public void csvTest() throws Exception {
+        final List<String> lines = this.call("app", Arrays.asList("SHORT", "PULL_REQUEST"), START, START + 3 * HOUR, "csv");
+
+        Assert.assertEquals(Arrays.asList(
+                "project,branch,type,mergeBranch,analysis,date,durationMs,ncloc",
+                "app,feature,SHORT,master,feature-1," + DateUtils.formatDateTime(START + HOUR) + ",300,90",
+                "app,12,PULL_REQUEST,feature,pr-1," + DateUtils.formatDateTime(START + 2 * HOUR) + ",,"), lines);
+    }
+
+    /**
+     * Assert that only system administrators can export the history of all projects.
+     */
+    @Test(expected = ForbiddenException.class)
+    public void forbiddenTest() throws Exception {
+        Mockito.doThrow(new ForbiddenException("Insufficient privileges")).when(this.userSession).checkIsSystemAdministrator();
+
+        this.json(null, ALL_TYPES, null, null);
+    }
+
+    private List<JsonObject> json(final String project, final List<String> types, final Long from, final Long to) throws Exception {
+        return this.call(project, types, from, to, "ndjson").stream()
+                .map(line -> new JsonParser().parse(line).getAsJsonObject())
+                .collect(Collectors.toList());
+    }
+
+    private List<String> call(final String project, final List<String> types, final Long from, final Long to,
+                              final String format) throws Exception {
+        final Request request = Mockito.mock(Request.class);
+        Mockito.when(request.param("project")).thenReturn(project);
+        Mockito.when(request.mandatoryParamAsStrings("types")).thenReturn(types);
+        Mockito.when(request.paramAsDateTime("from")).thenReturn(from == null ? null : new Date(from));
+        Mockito.when(request.paramAsDateTime("to")).thenReturn(to == null ? null : new Date(to));
+        Mockito.when(request.mandatoryParam("format")).thenReturn(format);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Response.Stream stream = Mockito.mock(Response.Stream.class);
+        Mockito.when(stream.output()).thenReturn(output);
+        final Response response = Mockito.mock(Response.class);
+        Mockito.when(response.stream()).thenReturn(stream);
+
+        this.action.handle(request, response);
+
+        final String content = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        return content.isEmpty() ? Collections.emptyList() : Arrays.asList(content.split("\n"));
+    }
+
+    private static List<String> analyses(final List<JsonObject> rows) {
+        return rows.stream().map(row -> row.get("analysis").getAsString()).collect(Collectors.toList());
+    }
+
+    private static void insertProject(final Connection connection, final String uuid, final String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("insert into projects (organization_uuid, kee, uuid, uuid_path,"
+                + " root_uuid, project_uuid, private, scope, qualifier) values ('organization', ?, ?, '.', ?, ?, false, 'PRJ', 'TRK')")) {
+            statement.setString(1, key);
+            statement.setString(2, uuid);
+            statement.setString(3, uuid);
+            statement.setString(4, uuid);
+            statement.execute();
+        }
+    }
+
+    /**
+     * Insert an analysis, with its compute engine task and its number of lines of code when known.
+     */
+    private static void insertAnalysis(final Connection connection, final String uuid, final String branchUuid, final int hours,
+                                       final String status, final Long duration, final Double ncloc) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "insert into snapshots (uuid, component_uuid, created_at, status) values (?, ?, ?, ?)")) {
+            statement.setString(1, uuid);
+            statement.setString(2, branchUuid);
+            statement.setLong(3, START + hours * HOUR);
+            statement.setString(4, status);
+            statement.execute();
+        }
+        if (duration != null) {
+            try (PreparedStatement statement = connection.prepareStatement("insert into ce_activity (uuid, task_type, status, is_last,"
+                    + " is_last_key, execution_count, submitted_at, created_at, updated_at, analysis_uuid, execution_time_ms)"
+                    + " values (?, 'REPORT', 'SUCCESS', true, ?, 1, 0, 0, 0, ?, ?)")) {
+                statement.setString(1, uuid + "-task");
+                statement.setString(2, uuid);
+                statement.setString(3, uuid);
+                statement.setLong(4, duration);
+                statement.execute();
+            }
+        }
+        if (ncloc != null) {
+            try (PreparedStatement statement = connection.prepareStatement("insert into project_measures (analysis_uuid, component_uuid,"
+                    + " metric_id, value) values (?, ?, 1, ?)")) {
+                statement.setString(1, uuid);
+                statement.setString(2, branchUuid);
+                statement.setDouble(3, ncloc);
+                statement.execute();
+            }
+        }
+    }
+}
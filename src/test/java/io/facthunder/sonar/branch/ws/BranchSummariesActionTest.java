@@ -0,0 +1,82 @@
+package io.facthunder.sonar.branch.ws;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.facthunder.sonar.branch.TestDatabase;
+import io.facthunder.sonar.branch.summary.BranchSummary;
+import io.facthunder.sonar.branch.summary.BranchSummaryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.user.UserSession;
+
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class BranchSummariesActionTest {
+
+    private static final String PROJECT_UUID = "project-uuid";
+
+    private TestDatabase database;
+    private BranchSummaryStore branchSummaryStore;
+    private BranchSummariesAction action;
+
+    @Before
+    public void setUp() throws SQLException {
+        this.database = new TestDatabase("jdbc:h2:mem:branch-summaries;DB_CLOSE_DELAY=-1");
+        final ComponentFinder componentFinder = Mockito.mock(ComponentFinder.class);
+        Mockito.when(componentFinder.getByKey(Mockito.any(), Mockito.eq("project")))
+                .thenReturn(new ComponentDto().setUuid(PROJECT_UUID).setDbKey("project"));
+        this.branchSummaryStore = Mockito.mock(BranchSummaryStore.class);
+        this.action = new BranchSummariesAction(this.database.dbClient(), Mockito.mock(UserSession.class), componentFinder,
+                this.branchSummaryStore);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.database.close();
+    }
+
+    /**
+     * Assert that branches are listed from their summaries only, without querying the database or updating summaries.
+     */
+    @Test
+    public void listTest() {
+        final Map<String, Integer> issues = new LinkedHashMap<>();
+        issues.put("BLOCKER", 1);
+        issues.put("MAJOR", 3);
+        Mockito.when(this.branchSummaryStore.list(PROJECT_UUID)).thenReturn(Arrays.asList(
+                new BranchSummary(PROJECT_UUID, "master", "LONG", null, 0L, "OK", issues),
+                new BranchSummary("feature-uuid", "feature", "SHORT", "master", 0L, "ERROR", issues)));
+        this.database.reset();
+
+        final Request request = Mockito.mock(Request.class);
+        Mockito.when(request.mandatoryParam("project")).thenReturn("project");
+        final StringWriter output = new StringWriter();
+        final Response response = Mockito.mock(Response.class);
+        Mockito.when(response.newJsonWriter()).thenReturn(JsonWriter.of(output));
+        this.action.handle(request, response);
+
+        final JsonArray branches = new JsonParser().parse(output.toString()).getAsJsonObject().getAsJsonArray("branches");
+        Assert.assertEquals(2, branches.size());
+        final JsonObject feature = branches.get(1).getAsJsonObject();
+        Assert.assertEquals("feature", feature.get("key").getAsString());
+        Assert.assertEquals("master", feature.get("mergeBranch").getAsString());
+        Assert.assertEquals("ERROR", feature.get("qualityGateStatus").getAsString());
+        Assert.assertEquals(3, feature.getAsJsonObject("issues").get("MAJOR").getAsInt());
+        Assert.assertEquals(0, this.database.statements());
+        Mockito.verify(this.branchSummaryStore).list(PROJECT_UUID);
+        Mockito.verifyNoMoreInteractions(this.branchSummaryStore);
+    }
+}
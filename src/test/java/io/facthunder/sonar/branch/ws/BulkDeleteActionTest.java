@@ -0,0 +1,246 @@
+package io.facthunder.sonar.branch.ws;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.facthunder.sonar.branch.TestDatabase;
+import io.facthunder.sonar.branch.archive.BranchArchive;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.events.BranchEventLog;
+import io.facthunder.sonar.branch.hierarchy.BranchHierarchyStore;
+import io.facthunder.sonar.branch.listcache.BranchListStamps;
+import io.facthunder.sonar.branch.summary.BranchSummaryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.System2;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.component.ComponentDao;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.purge.PurgeDao;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.es.ProjectIndexers;
+import org.sonar.server.exceptions.ForbiddenException;
+import org.sonar.server.user.UserSession;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BulkDeleteActionTest {
+
+    private static final long NOW = 1_500_000_000_000L;
+    private static final String PROJECT_UUID = "project-uuid";
+
+    private TestDatabase database;
+    private ComponentDto project;
+    private UserSession userSession;
+    private BranchSummaryStore branchSummaryStore;
+    private BranchListStamps branchListStamps;
+    private BulkDeleteAction action;
+
+    /**
+     * Seed branches of all types and ages on the project, and one branch on another project.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        final ComponentDao componentDao = new ComponentDao();
+        this.database = new TestDatabase("jdbc:h2:mem:bulk-delete;DB_CLOSE_DELAY=-1",
+                componentDao, new PurgeDao(componentDao, System2.INSTANCE));
+        try (Connection connection = this.database.connect()) {
+            insertBranch(connection, PROJECT_UUID, PROJECT_UUID, "master", BranchType.LONG, null);
+            insertBranch(connection, "feature-old", PROJECT_UUID, "feature-old", BranchType.SHORT, PROJECT_UUID);
+            insertAnalysis(connection, "feature-old", 40);
+            insertBranch(connection, "feature-recent", PROJECT_UUID, "feature-recent", BranchType.SHORT, PROJECT_UUID);
+            insertAnalysis(connection, "feature-recent", 1);
+            insertBranch(connection, "bugfix-old", PROJECT_UUID, "bugfix-old", BranchType.SHORT, PROJECT_UUID);
+            insertAnalysis(connection, "bugfix-old", 40);
+            insertBranch(connection, "feature-pr", PROJECT_UUID, "feature-12", BranchType.PULL_REQUEST, "feature-old");
+            insertBranch(connection, "feature-release", PROJECT_UUID, "feature-release", BranchType.LONG, PROJECT_UUID);
+            insertAnalysis(connection, "feature-release", 40);
+            insertBranch(connection, "other-uuid", "other-uuid", "master", BranchType.LONG, null);
+            insertBranch(connection, "other-feature", "other-uuid", "feature-other", BranchType.SHORT, "other-uuid");
+        }
+
+        this.project = new ComponentDto().setUuid(PROJECT_UUID).setDbKey("project");
+        final ComponentFinder componentFinder = Mockito.mock(ComponentFinder.class);
+        Mockito.when(componentFinder.getByKey(Mockito.any(), Mockito.eq("project"))).thenReturn(this.project);
+        this.userSession = Mockito.mock(UserSession.class);
+        final System2 system2 = Mockito.mock(System2.class);
+        Mockito.when(system2.now()).thenReturn(NOW);
+        final ProjectIndexers projectIndexers = (dbSession, projectUuids, cause) -> dbSession.commit();
+        this.branchSummaryStore = Mockito.mock(BranchSummaryStore.class);
+        this.branchListStamps = Mockito.mock(BranchListStamps.class);
+        this.action = new BulkDeleteAction(this.database.dbClient(), this.userSession, componentFinder, projectIndexers, system2,
+                this.branchSummaryStore, this.branchListStamps, Mockito.mock(BranchEventLog.class), Mockito.mock(BranchArchive.class),
+                Mockito.mock(BranchHierarchyStore.class), Mockito.mock(BranchComponentStore.class));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.database.close();
+    }
+
+    /**
+     * Assert that branches are only reported when the dry run is not explicitly disabled.
+     */
+    @Test
+    public void dryRunByDefaultTest() {
+        final WebService.Context context = new WebService.Context();
+        final WebService.NewController controller = context.createController("api/branch_plugin");
+        this.action.define(controller);
+        controller.done();
+
+        Assert.assertEquals("true", context.controller("api/branch_plugin").action("bulk_delete").param("dryRun").defaultValue());
+    }
+
+    /**
+     * Assert that a dry run reports matching branches without deleting them.
+     */
+    @Test
+    public void dryRunTest() throws Exception {
+        final List<JsonObject> progress = this.call("SHORT,PULL_REQUEST", "feature-.*", 30, 100, true);
+
+        final JsonObject last = progress.get(progress.size() - 1);
+        Assert.assertTrue(last.get("done").getAsBoolean());
+        Assert.assertEquals(2, last.get("matched").getAsInt());
+        Assert.assertEquals(0, last.get("deleted").getAsInt());
+        Assert.assertEquals(8, this.branches().size());
+        Mockito.verifyZeroInteractions(this.branchSummaryStore, this.branchListStamps);
+    }
+
+    /**
+     * Assert that only branches of the project matching the types, the name pattern and the age are deleted.
+     */
+    @Test
+    public void selectionTest() throws Exception {
+        final List<JsonObject> progress = this.call("SHORT,PULL_REQUEST", "feature-.*", 30, 100, false);
+
+        final JsonObject last = progress.get(progress.size() - 1);
+        Assert.assertEquals(2, last.get("deleted").getAsInt());
+        Assert.assertEquals(Arrays.asList("bugfix-old", "feature-recent", "feature-release", "other-feature", "other-uuid",
+                PROJECT_UUID), this.branches());
+        Mockito.verify(this.branchSummaryStore).remove(PROJECT_UUID, Arrays.asList("feature-old", "feature-pr"));
+        Mockito.verify(this.branchListStamps).touch(PROJECT_UUID);
+    }
+
+    /**
+     * Assert that the main branch is never deleted, even when it matches.
+     */
+    @Test
+    public void mainBranchTest() throws Exception {
+        this.call("LONG", ".*", 0, 100, false);
+
+        Assert.assertTrue(this.branches().contains(PROJECT_UUID));
+        Assert.assertFalse(this.branches().contains("feature-release"));
+    }
+
+    /**
+     * Assert that branches are deleted page by page, reporting a cursor after each page.
+     */
+    @Test
+    public void pagesTest() throws Exception {
+        final List<JsonObject> progress = this.call("SHORT,PULL_REQUEST", ".*", 30, 1, false);
+
+        Assert.assertEquals("One line per page, one for the empty last page", 4, progress.size());
+        Assert.assertEquals("bugfix-old", progress.get(0).get("next").getAsString());
+        Assert.assertEquals(3, progress.get(3).get("deleted").getAsInt());
+        Assert.assertEquals(Arrays.asList("feature-recent", "feature-release", "other-feature", "other-uuid", PROJECT_UUID),
+                this.branches());
+    }
+
+    /**
+     * Assert that users without 'Administer' rights on the project can't delete its branches.
+     */
+    @Test
+    public void forbiddenTest() throws Exception {
+        Mockito.when(this.userSession.checkComponentPermission(UserRole.ADMIN, this.project))
+                .thenThrow(new ForbiddenException("Insufficient privileges"));
+
+        try {
+            this.call("SHORT,PULL_REQUEST", ".*", 0, 100, false);
+            Assert.fail("Deletion must be forbidden");
+        } catch (final ForbiddenException e) {
+            Assert.assertEquals(8, this.branches().size());
+        }
+    }
+
+    private List<JsonObject> call(final String types, final String pattern, final int olderThan, final int batchSize,
+                                  final boolean dryRun) throws Exception {
+        final Request request = Mockito.mock(Request.class);
+        Mockito.when(request.mandatoryParam("project")).thenReturn("project");
+        Mockito.when(request.mandatoryParamAsStrings("types")).thenReturn(Arrays.asList(types.split(",")));
+        Mockito.when(request.mandatoryParam("pattern")).thenReturn(pattern);
+        Mockito.when(request.mandatoryParamAsInt("olderThan")).thenReturn(olderThan);
+        Mockito.when(request.mandatoryParamAsInt("batchSize")).thenReturn(batchSize);
+        Mockito.when(request.mandatoryParamAsBoolean("dryRun")).thenReturn(dryRun);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Response.Stream stream = Mockito.mock(Response.Stream.class);
+        Mockito.when(stream.output()).thenReturn(output);
+        final Response response = Mockito.mock(Response.class);
+        Mockito.when(response.stream()).thenReturn(stream);
+
+        this.action.handle(request, response);
+
+        final List<JsonObject> progress = new ArrayList<>();
+        for (final String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\\R")) {
+            progress.add(new JsonParser().parse(line).getAsJsonObject());
+        }
+        return progress;
+    }
+
+    /**
+     * @return UUIDs of the remaining branches, sorted.
+     */
+    private List<String> branches() throws SQLException {
+        final List<String> uuids = new ArrayList<>();
+        try (Connection connection = this.database.connect();
+             PreparedStatement statement = connection.prepareStatement("select uuid from project_branches order by uuid");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                uuids.add(resultSet.getString(1));
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * Insert a branch with its root component, as the purge needs it.
+     */
+    private static void insertBranch(final Connection connection, final String uuid, final String projectUuid, final String key,
+                                     final BranchType branchType, final String mergeBranchUuid) throws SQLException {
+        TestDatabase.insertBranch(connection, uuid, projectUuid, key, branchType, mergeBranchUuid);
+        try (PreparedStatement statement = connection.prepareStatement("insert into projects (organization_uuid, kee, uuid, uuid_path,"
+                + " root_uuid, project_uuid, main_branch_project_uuid, private, scope, qualifier)"
+                + " values ('organization', ?, ?, '.', ?, ?, ?, false, 'PRJ', 'TRK')")) {
+            statement.setString(1, projectUuid + ':' + key);
+            statement.setString(2, uuid);
+            statement.setString(3, uuid);
+            statement.setString(4, uuid);
+            statement.setString(5, uuid.equals(projectUuid) ? null : projectUuid);
+            statement.execute();
+        }
+    }
+
+    private static void insertAnalysis(final Connection connection, final String branchUuid, final int age) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "insert into snapshots (uuid, component_uuid, islast, created_at) values (?, ?, true, ?)")) {
+            statement.setString(1, branchUuid + "-analysis");
+            statement.setString(2, branchUuid);
+            statement.setLong(3, NOW - TimeUnit.DAYS.toMillis(age));
+            statement.execute();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package io.facthunder.sonar.branch.ws;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.facthunder.sonar.branch.TestDatabase;
+import io.facthunder.sonar.branch.component.BranchComponent;
+import io.facthunder.sonar.branch.component.BranchComponentStore;
+import io.facthunder.sonar.branch.component.BranchComponents;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.BadRequestException;
+import org.sonar.server.user.UserSession;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CompareBranchesActionTest {
+
+    private static final String PROJECT_UUID = "project-uuid";
+    private static final String BRANCH_UUID = "feature-uuid";
+
+    private TestDatabase database;
+    private BranchComponentStore branchComponentStore;
+    private CompareBranchesAction action;
+
+    /**
+     * Seed the main branch and a feature branch, each with its last analysis.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        this.database = new TestDatabase("jdbc:h2:mem:compare;DB_CLOSE_DELAY=-1");
+        try (Connection connection = this.database.connect(); Statement statement = connection.createStatement()) {
+            TestDatabase.insertBranch(connection, PROJECT_UUID, PROJECT_UUID, "master", BranchType.LONG, null);
+            TestDatabase.insertBranch(connection, BRANCH_UUID, PROJECT_UUID, "feature", BranchType.SHORT, PROJECT_UUID);
+            statement.execute("insert into snapshots (uuid, component_uuid, islast) values ('main-analysis', 'project-uuid', true)");
+            statement.execute("insert into snapshots (uuid, component_uuid, islast) values ('feature-analysis', 'feature-uuid', true)");
+            statement.execute("insert into metrics (id, name) values (1, 'ncloc')");
+            statement.execute("insert into metrics (id, name) values (2, 'coverage')");
+            statement.execute("insert into rules (id, plugin_name, plugin_rule_key, scope) values (1, 'java', 'S1', 'MAIN')");
+        }
+
+        final ComponentDto project = new ComponentDto().setUuid(PROJECT_UUID).setDbKey("app");
+        final ComponentFinder componentFinder = Mockito.mock(ComponentFinder.class);
+        Mockito.when(componentFinder.getByKey(Mockito.any(), Mockito.eq("app"))).thenReturn(project);
+        this.branchComponentStore = Mockito.mock(BranchComponentStore.class);
+        this.action = new CompareBranchesAction(this.database.dbClient(), Mockito.mock(UserSession.class), componentFinder,
+                this.branchComponentStore);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.database.close();
+    }
+
+    /**
+     * Assert that only added, removed and changed measures and issues are streamed, without branch suffix.
+     */
+    @Test
+    public void compareTest() throws Exception {
+        this.index(PROJECT_UUID, "app", PROJECT_UUID, "app:A.java", "main-a", "app:B.java", "main-b");
+        this.index(BRANCH_UUID, "app", BRANCH_UUID, "app:A.java", "feature-a", "app:C.java", "feature-c");
+        try (Connection connection = this.database.connect()) {
+            insertMeasure(connection, "main-analysis", "main-a", 1, 10d);
+            insertMeasure(connection, "feature-analysis", "feature-a", 1, 12d);
+            insertMeasure(connection, "main-analysis", "main-a", 2, 50d);
+            insertMeasure(connection, "feature-analysis", "feature-a", 2, 50d);
+            insertMeasure(connection, "main-analysis", "main-b", 1, 5d);
+            insertMeasure(connection, "feature-analysis", "feature-c", 1, 3d);
+            insertIssue(connection, "main-a", 3, "OPEN");
+            insertIssue(connection, "feature-a", 4, "OPEN");
+            insertIssue(connection, "main-b", 1, "CLOSED");
+            insertIssue(connection, "feature-c", 1, "OPEN");
+        }
+
+        final List<JsonObject> diffs = this.call();
+
+        Assert.assertEquals(5, diffs.size());
+        assertDiff(diffs.get(0), "measure", "changed", "app:A.java");
+        Assert.assertEquals("ncloc", diffs.get(0).get("metric").getAsString());
+        Assert.assertEquals(10d, diffs.get(0).get("baseValue").getAsDouble(), 0d);
+        Assert.assertEquals(12d, diffs.get(0).get("value").getAsDouble(), 0d);
+        assertDiff(diffs.get(1), "measure", "removed", "app:B.java");
+        Assert.assertFalse(diffs.get(1).has("value"));
+        assertDiff(diffs.get(2), "measure", "added", "app:C.java");
+        assertDiff(diffs.get(3), "issue", "changed", "app:A.java");
+        Assert.assertEquals("java:S1", diffs.get(3).get("rule").getAsString());
+        Assert.assertEquals(4, diffs.get(3).get("line").getAsInt());
+        assertDiff(diffs.get(4), "issue", "added", "app:C.java");
+    }
+
+    /**
+     * Assert that components are compared by chunks, each read by one query per side for measures and for issues.
+     */
+    @Test
+    public void chunksTest() throws Exception {
+        final int size = 2 * CompareBranchesAction.COMPONENTS_PER_QUERY + 1;
+        final List<String> base = new ArrayList<>();
+        final List<String> compared = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            final String key = String.format("app:File%04d.java", i);
+            base.addAll(Arrays.asList(key, "main-" + i));
+            compared.addAll(Arrays.asList(key, "feature-" + i));
+        }
+        this.index(PROJECT_UUID, base.toArray(new String[0]));
+        this.index(BRANCH_UUID, compared.toArray(new String[0]));
+        try (Connection connection = this.database.connect()) {
+            insertMeasure(connection, "feature-analysis", "feature-" + (size - 1), 1, 1d);
+        }
+        this.database.reset();
+
+        final List<JsonObject> diffs = this.call();
+
+        Assert.assertEquals(1, diffs.size());
+        assertDiff(diffs.get(0), "measure", "added", String.format("app:File%04d.java", size - 1));
+        Assert.assertEquals("Two queries per side for the branches, four per chunk", 4 + 3 * 4, this.database.statements());
+    }
+
+    /**
+     * Assert that a branch and a pull request can't be both requested.
+     */
+    @Test(expected = BadRequestException.class)
+    public void branchAndPullRequestTest() throws Exception {
+        final Request request = Mockito.mock(Request.class);
+        Mockito.when(request.mandatoryParam("project")).thenReturn("app");
+        Mockito.when(request.param("branch")).thenReturn("feature");
+        Mockito.when(request.param("pullRequest")).thenReturn("1");
+
+        this.action.handle(request, Mockito.mock(Response.class));
+    }
+
+    private List<JsonObject> call() throws Exception {
+        final Request request = Mockito.mock(Request.class);
+        Mockito.when(request.mandatoryParam("project")).thenReturn("app");
+        Mockito.when(request.param("branch")).thenReturn("feature");
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Response.Stream stream = Mockito.mock(Response.Stream.class);
+        Mockito.when(stream.output()).thenReturn(output);
+        final Response response = Mockito.mock(Response.class);
+        Mockito.when(response.stream()).thenReturn(stream);
+
+        this.action.handle(request, response);
+
+        final List<JsonObject> diffs = new ArrayList<>();
+        for (final String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                diffs.add(new JsonParser().parse(line).getAsJsonObject());
+            }
+        }
+        return diffs;
+    }
+
+    /**
+     * Give the component index of a branch.
+     *
+     * @param branchUuid    UUID of the branch.
+     * @param keysAndUuids  Keys of the components, each followed by its UUID.
+     */
+    private void index(final String branchUuid, final String... keysAndUuids) {
+        final Map<String, String> uuidsByKey = new HashMap<>();
+        for (int i = 0; i < keysAndUuids.length; i += 2) {
+            uuidsByKey.put(keysAndUuids[i], keysAndUuids[i + 1]);
+        }
+        final List<BranchComponent> components = new ArrayList<>();
+        uuidsByKey.forEach((key, uuid) -> components.add(new BranchComponent(key, uuid, "FIL")));
+        Mockito.when(this.branchComponentStore.get(PROJECT_UUID, branchUuid)).thenReturn(BranchComponents.of(components));
+    }
+
+    private static void assertDiff(final JsonObject diff, final String type, final String change, final String component) {
+        Assert.assertEquals(type, diff.get("type").getAsString());
+        Assert.assertEquals(change, diff.get("change").getAsString());
+        Assert.assertEquals(component, diff.get("component").getAsString());
+    }
+
+    private static void insertMeasure(final Connection connection, final String analysisUuid, final String componentUuid,
+                                      final int metricId, final double value) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "insert into project_measures (analysis_uuid, component_uuid, metric_id, value) values (?, ?, ?, ?)")) {
+            statement.setString(1, analysisUuid);
+            statement.setString(2, componentUuid);
+            statement.setInt(3, metricId);
+            statement.setDouble(4, value);
+            statement.execute();
+        }
+    }
+
+    private static void insertIssue(final Connection connection, final String componentUuid, final int line,
+                                    final String status) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("insert into issues (kee, component_uuid, rule_id,"
+                + " severity, manual_severity, message, line, status, checksum) values (?, ?, 1, 'MAJOR', false, 'Fix it', ?, ?, 'hash')")) {
+            statement.setString(1, componentUuid + "-issue");
+            statement.setString(2, componentUuid);
+            statement.setInt(3, line);
+            statement.setString(4, status);
+            statement.execute();
+        }
+    }
+}
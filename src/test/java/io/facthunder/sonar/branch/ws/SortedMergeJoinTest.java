@@ -0,0 +1,62 @@
+package io.facthunder.sonar.branch.ws;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class SortedMergeJoinTest {
+
+    /**
+     * Assert that elements are reported as removed, added or matched, in order.
+     */
+    @Test
+    public void joinTest() throws Exception {
+        final List<String> events = new ArrayList<>();
+        SortedMergeJoin.join(Arrays.asList("a", "b", "b", "d").iterator(), Arrays.asList("b", "c", "d", "e").iterator(),
+                Comparator.naturalOrder(), new RecordingVisitor(events));
+
+        Assert.assertEquals(Arrays.asList("-a", "=b", "-b", "+c", "=d", "+e"), events);
+    }
+
+    /**
+     * Assert that an empty side reports all elements of the other side.
+     */
+    @Test
+    public void emptySideTest() throws Exception {
+        final List<String> events = new ArrayList<>();
+        SortedMergeJoin.join(Collections.<String>emptyIterator(), Arrays.asList("a", "b").iterator(),
+                Comparator.naturalOrder(), new RecordingVisitor(events));
+        SortedMergeJoin.join(Collections.singletonList("c").iterator(), Collections.<String>emptyIterator(),
+                Comparator.naturalOrder(), new RecordingVisitor(events));
+
+        Assert.assertEquals(Arrays.asList("+a", "+b", "-c"), events);
+    }
+
+    private static final class RecordingVisitor implements SortedMergeJoin.Visitor<String> {
+        private final List<String> events;
+
+        private RecordingVisitor(final List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void removed(final String base) {
+            this.events.add("-" + base);
+        }
+
+        @Override
+        public void added(final String compared) {
+            this.events.add("+" + compared);
+        }
+
+        @Override
+        public void matched(final String base, final String compared) {
+            this.events.add("=" + base);
+        }
+    }
+}
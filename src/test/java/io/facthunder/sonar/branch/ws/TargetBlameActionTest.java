@@ -0,0 +1,180 @@
+package io.facthunder.sonar.branch.ws;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.facthunder.sonar.branch.TestDatabase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.web.UserRole;
+import org.sonar.db.component.BranchType;
+import org.sonar.db.component.ComponentDto;
+import org.sonar.db.protobuf.DbFileSources;
+import org.sonar.db.source.FileSourceDto;
+import org.sonar.server.component.ComponentFinder;
+import org.sonar.server.exceptions.BadRequestException;
+import org.sonar.server.exceptions.ForbiddenException;
+import org.sonar.server.user.UserSession;
+
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TargetBlameActionTest {
+
+    private static final String PROJECT_UUID = "project-uuid";
+    private static final String BRANCH_UUID = "release-uuid";
+
+    private TestDatabase database;
+    private UserSession userSession;
+    private TargetBlameAction action;
+    private boolean lineHashes;
+
+    @Before
+    public void setUp() throws SQLException {
+        this.database = new TestDatabase("jdbc:h2:mem:target-blame;DB_CLOSE_DELAY=-1");
+        try (Connection connection = this.database.connect()) {
+            TestDatabase.insertBranch(connection, PROJECT_UUID, PROJECT_UUID, "master", BranchType.LONG, null);
+            TestDatabase.insertBranch(connection, BRANCH_UUID, PROJECT_UUID, "release", BranchType.LONG, PROJECT_UUID);
+            insertSource(connection, PROJECT_UUID, "project:A.java", "main-hash", "rev-main", "rev-main");
+            insertSource(connection, BRANCH_UUID, "project:A.java:BRANCH:release", "hash-a", "rev-1", "rev-2");
+            insertSource(connection, BRANCH_UUID, "project:B.java:BRANCH:release", "hash-b", "rev-1", null);
+        }
+
+        final ComponentDto project = new ComponentDto().setUuid(PROJECT_UUID).setDbKey("project").setOrganizationUuid("organization");
+        final ComponentFinder componentFinder = Mockito.mock(ComponentFinder.class);
+        Mockito.when(componentFinder.getByKey(Mockito.any(), Mockito.eq("project"))).thenReturn(project);
+        this.userSession = Mockito.mock(UserSession.class);
+        Mockito.when(this.userSession.hasComponentPermission(UserRole.CODEVIEWER, project)).thenReturn(true);
+        this.action = new TargetBlameAction(this.database.dbClient(), this.userSession, componentFinder);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.database.close();
+    }
+
+    /**
+     * Assert that files of the branch are given with their hash, with a blame only when all lines have one.
+     */
+    @Test
+    public void blameTest() throws SQLException {
+        this.database.reset();
+        final JsonArray files = this.call("release", "project:A.java:BRANCH:release", "project:B.java:BRANCH:release",
+                "project:C.java:BRANCH:release", "project:A.java");
+
+        Assert.assertEquals(2, files.size());
+        final JsonObject first = files.get(0).getAsJsonObject();
+        Assert.assertEquals("project:A.java:BRANCH:release", first.get("key").getAsString());
+        Assert.assertEquals("hash-a", first.get("hash").getAsString());
+        Assert.assertEquals(2, first.getAsJsonArray("scm").size());
+        Assert.assertEquals("rev-2", first.getAsJsonArray("scm").get(1).getAsJsonObject().get("revision").getAsString());
+        Assert.assertEquals("author", first.getAsJsonArray("scm").get(0).getAsJsonObject().get("author").getAsString());
+        final JsonObject second = files.get(1).getAsJsonObject();
+        Assert.assertEquals("hash-b", second.get("hash").getAsString());
+        Assert.assertFalse(second.has("scm"));
+        Assert.assertEquals("One query for the branch and one for all files", 2, this.database.statements());
+    }
+
+    /**
+     * Assert that line hashes are only given when requested.
+     */
+    @Test
+    public void lineHashesTest() throws SQLException {
+        Assert.assertFalse(this.call("release", "project:A.java:BRANCH:release").get(0).getAsJsonObject().has("lineHashes"));
+
+        this.lineHashes = true;
+        final JsonArray files = this.call("release", "project:A.java:BRANCH:release");
+
+        final JsonArray lineHashes = files.get(0).getAsJsonObject().getAsJsonArray("lineHashes");
+        Assert.assertEquals(2, lineHashes.size());
+        Assert.assertEquals("hash-1", lineHashes.get(0).getAsString());
+        Assert.assertEquals("", lineHashes.get(1).getAsString());
+    }
+
+    /**
+     * Assert that files of the main branch are given when no branch is requested.
+     */
+    @Test
+    public void mainBranchTest() throws SQLException {
+        final JsonArray files = this.call(null, "project:A.java", "project:A.java:BRANCH:release");
+
+        Assert.assertEquals(1, files.size());
+        Assert.assertEquals("main-hash", files.get(0).getAsJsonObject().get("hash").getAsString());
+    }
+
+    /**
+     * Assert that users who can't browse sources of the project are rejected.
+     */
+    @Test(expected = ForbiddenException.class)
+    public void forbiddenTest() throws SQLException {
+        Mockito.reset(this.userSession);
+        this.call(null, "project:A.java");
+    }
+
+    /**
+     * Assert that the number of files of a call is limited.
+     */
+    @Test(expected = BadRequestException.class)
+    public void tooManyFilesTest() throws SQLException {
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i <= TargetBlameAction.MAX_FILES; i++) {
+            keys.add("project:File" + i + ".java");
+        }
+        this.call(null, keys.toArray(new String[0]));
+    }
+
+    private JsonArray call(final String branch, final String... files) throws SQLException {
+        final Request request = Mockito.mock(Request.class);
+        Mockito.when(request.mandatoryParam("project")).thenReturn("project");
+        Mockito.when(request.param("branch")).thenReturn(branch);
+        Mockito.when(request.mandatoryMultiParam("files")).thenReturn(Arrays.asList(files));
+        Mockito.when(request.mandatoryParamAsBoolean("lineHashes")).thenReturn(this.lineHashes);
+        final StringWriter output = new StringWriter();
+        final Response response = Mockito.mock(Response.class);
+        Mockito.when(response.newJsonWriter()).thenReturn(JsonWriter.of(output));
+
+        this.action.handle(request, response);
+
+        return new JsonParser().parse(output.toString()).getAsJsonObject().getAsJsonArray("files");
+    }
+
+    private static void insertSource(final Connection connection, final String branchUuid, final String key, final String hash,
+                                     final String... revisions) throws SQLException {
+        final String fileUuid = key + "-uuid";
+        try (PreparedStatement statement = connection.prepareStatement("insert into projects (organization_uuid, kee, uuid, uuid_path,"
+                + " root_uuid, project_uuid, private, scope, qualifier) values ('organization', ?, ?, '.', ?, ?, false, 'FIL', 'FIL')")) {
+            statement.setString(1, key);
+            statement.setString(2, fileUuid);
+            statement.setString(3, branchUuid);
+            statement.setString(4, branchUuid);
+            statement.execute();
+        }
+        final DbFileSources.Data.Builder data = DbFileSources.Data.newBuilder();
+        for (int line = 0; line < revisions.length; line++) {
+            final DbFileSources.Line.Builder builder = data.addLinesBuilder().setLine(line + 1).setSource("line " + line)
+                    .setScmAuthor("author").setScmDate(1_500_000_000_000L);
+            if (revisions[line] != null) {
+                builder.setScmRevision(revisions[line]);
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement("insert into file_sources (project_uuid, file_uuid, binary_data,"
+                + " line_hashes, data_type, src_hash, created_at, updated_at) values (?, ?, ?, 'hash-1\n', 'SOURCE', ?, 0, 0)")) {
+            statement.setString(1, branchUuid);
+            statement.setString(2, fileUuid);
+            statement.setBytes(3, FileSourceDto.encodeSourceData(data.build()));
+            statement.setString(4, hash);
+            statement.execute();
+        }
+    }
+}